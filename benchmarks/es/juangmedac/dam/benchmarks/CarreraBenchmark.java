@@ -0,0 +1,80 @@
+package es.juangmedac.dam.benchmarks;
+
+import es.juangmedac.dam.server.Carrera;
+import es.juangmedac.dam.server.RegistroEventos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contención sobre el cerrojo de {@link Carrera}: unos hilos tiran, otro pasa el turno y otros
+ * leen los avances (copia bajo el cerrojo) o la instantánea codificada, todos a la vez.
+ * Cuando una carrera termina se sustituye por otra nueva, así que se mide siempre el camino normal.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CarreraBenchmark {
+
+    @Param({"4", "16"})
+    int numJinetes;
+
+    // Tiradas de 1: cada carrera dura exactamente 100 tiradas por camello
+    private int tiradasPorCarrera;
+    private final AtomicInteger tiradas = new AtomicInteger();
+    private volatile Carrera carrera;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        RegistroEventos.configurar(RegistroEventos.Nivel.NADA, null);
+        tiradasPorCarrera = 100 * numJinetes;
+        carrera = new Carrera(1, numJinetes);
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(2)
+    public void realizarAvance() {
+        int t = tiradas.getAndIncrement();
+        Carrera c = carrera;
+        c.realizarAvance(t % numJinetes, 1);
+        if ((t + 1) % tiradasPorCarrera == 0) {
+            carrera = new Carrera(1, numJinetes);
+        }
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(1)
+    public void siguienteTurno() {
+        carrera.siguienteTurno();
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(2)
+    public int[] getAvances() {
+        return carrera.getAvances();
+    }
+
+    @Benchmark
+    @Group("contencion")
+    @GroupThreads(1)
+    public Object getInstantanea() {
+        return carrera.getInstantanea();
+    }
+
+    /**
+     * La misma lectura sin nadie más usando el cerrojo, como referencia.
+     */
+    @Benchmark
+    @Group("lecturaSinContencion")
+    @GroupThreads(1)
+    public int[] getAvancesSolo() {
+        return carrera.getAvances();
+    }
+}
@@ -0,0 +1,80 @@
+package es.juangmedac.dam.benchmarks;
+
+import es.juangmedac.dam.cliente.Cliente;
+import es.juangmedac.dam.cliente.VistaAutomatica;
+import es.juangmedac.dam.server.ConfiguracionCarrera;
+import es.juangmedac.dam.server.RegistroEventos;
+import es.juangmedac.dam.server.ServidorNio;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carrera completa de extremo a extremo por la interfaz de loopback: un {@link ServidorNio}
+ * sin esperas y los jugadores automáticos del generador de carga, cada uno en su hilo virtual.
+ * Mide lo que tarda una carrera desde que se conectan los jinetes hasta que reciben el podio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CarreraLoopbackBenchmark {
+
+    @Param({"4", "64"})
+    int numJinetes;
+
+    private ServidorNio servidor;
+    private int puerto;
+
+    @Setup(Level.Trial)
+    public void arrancarServidor() throws Exception {
+        RegistroEventos.configurar(RegistroEventos.Nivel.NADA, null);
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        servidor = new ServidorNio(puerto, 2, ConfiguracionCarrera.sinEsperas().conNumJinetes(numJinetes));
+        Thread.ofPlatform().daemon().name("servidor-benchmark").start(servidor::ejecutarServidor);
+        esperarPuerto();
+    }
+
+    @TearDown(Level.Trial)
+    public void pararServidor() {
+        servidor.detener();
+    }
+
+    @Benchmark
+    public void carreraCompleta() throws InterruptedException {
+        Thread[] jugadores = new Thread[numJinetes];
+        for (int i = 0; i < numJinetes; i++) {
+            Cliente cliente = new Cliente("Bot " + i, "localhost", puerto, new VistaAutomatica(0));
+            cliente.setTrazas(false);
+            jugadores[i] = Thread.ofVirtual().start(() -> {
+                try {
+                    cliente.jugar();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        for (Thread jugador : jugadores) {
+            jugador.join();
+        }
+    }
+
+    private void esperarPuerto() throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try (Socket prueba = new Socket("localhost", puerto)) {
+                // La conexión de prueba se cierra sin saludar y el servidor la descarta
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
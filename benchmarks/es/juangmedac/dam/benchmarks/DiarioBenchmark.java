@@ -0,0 +1,72 @@
+package es.juangmedac.dam.benchmarks;
+
+import es.juangmedac.dam.server.Carrera;
+import es.juangmedac.dam.server.DiarioCarreras;
+import es.juangmedac.dam.server.RegistroEventos;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Coste de anotar cada tirada en el {@link DiarioCarreras}: la misma tirada y paso de turno,
+ * con y sin diario abierto. La diferencia es lo que el diario añade a cada turno.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiarioBenchmark {
+
+    @Param({"false", "true"})
+    boolean conDiario;
+
+    private static final int NUM_JINETES = 4;
+
+    private Path directorio;
+    private Carrera carrera;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        RegistroEventos.configurar(RegistroEventos.Nivel.NADA, null);
+        if (conDiario) {
+            directorio = Files.createTempDirectory("diario-benchmark");
+            DiarioCarreras.abrir(directorio, DiarioCarreras.TAMANO_SEGMENTO_POR_DEFECTO,
+                    DiarioCarreras.INTERVALO_FSYNC_POR_DEFECTO, false);
+        }
+        nuevaCarrera();
+    }
+
+    @TearDown(Level.Trial)
+    public void limpiar() throws IOException {
+        if (directorio != null) {
+            try (Stream<Path> ficheros = Files.walk(directorio)) {
+                ficheros.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    private void nuevaCarrera() {
+        carrera = new Carrera(1, NUM_JINETES);
+        for (int i = 0; i < NUM_JINETES; i++) {
+            carrera.agregarJinete("Jinete " + i);
+        }
+        carrera.comenzar();
+    }
+
+    @Benchmark
+    public void tiradaYTurno() {
+        carrera.realizarAvance(carrera.getTurnoActual(), 1);
+        if (carrera.isFinCarrera()) {
+            nuevaCarrera();
+        } else {
+            carrera.siguienteTurno();
+        }
+    }
+}
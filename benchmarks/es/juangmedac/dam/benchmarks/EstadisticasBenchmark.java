@@ -0,0 +1,67 @@
+package es.juangmedac.dam.benchmarks;
+
+import es.juangmedac.dam.server.ClasificacionJugadores;
+import es.juangmedac.dam.server.EstadisticasJugadores;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consultas de las {@link EstadisticasJugadores} mientras otro hilo anota carreras sin parar.
+ * Los jugadores se eligen entre más nombres de los que caben, así que también se mide la expulsión.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EstadisticasBenchmark {
+
+    private static final int NUM_NOMBRES = 200_000;
+    private static final int CAPACIDAD = 100_000;
+
+    private EstadisticasJugadores estadisticas;
+    private String[] nombres;
+
+    @State(Scope.Thread)
+    public static class Carrera {
+        final String[] jinetes = new String[4];
+        final int[] posiciones = {1, 2, 3, 4};
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        estadisticas = new EstadisticasJugadores(CAPACIDAD, 10, null);
+        nombres = new String[NUM_NOMBRES];
+        for (int i = 0; i < NUM_NOMBRES; i++) {
+            nombres[i] = "Jugador " + i;
+        }
+    }
+
+    @Benchmark
+    @Group("clasificacion")
+    @GroupThreads(1)
+    public void anotar(Carrera carrera) {
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        for (int i = 0; i < 4; i++) {
+            carrera.jinetes[i] = nombres[aleatorio.nextInt(NUM_NOMBRES)];
+        }
+        estadisticas.anotar(carrera.jinetes, carrera.posiciones, 4);
+    }
+
+    @Benchmark
+    @Group("clasificacion")
+    @GroupThreads(2)
+    public ClasificacionJugadores.Fila[] topVictorias() {
+        return estadisticas.getClasificacion().getPorVictorias();
+    }
+
+    @Benchmark
+    @Group("clasificacion")
+    @GroupThreads(1)
+    public Object jugador() {
+        return estadisticas.getJugador(nombres[ThreadLocalRandom.current().nextInt(NUM_NOMBRES)]);
+    }
+}
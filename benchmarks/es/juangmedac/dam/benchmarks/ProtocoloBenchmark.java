@@ -0,0 +1,85 @@
+package es.juangmedac.dam.benchmarks;
+
+import es.juangmedac.dam.protocolo.Protocolo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificación y lectura de las tramas que más se envían: TURNO (una por turno) y
+ * ESTADO (una por turno y asiento). Se prueba con buffers del heap, como los del cliente,
+ * y directos, como los del pool del servidor NIO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocoloBenchmark {
+
+    @Param({"4", "16"})
+    int numJinetes;
+
+    @Param({"false", "true"})
+    boolean directo;
+
+    private ByteBuffer buffer;
+    private ByteBuffer turnoCodificado;
+    private ByteBuffer estadoCodificado;
+    private int[] avances;
+    private int[] destino;
+    private int turno;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        buffer = directo ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+        avances = new int[numJinetes];
+        destino = new int[numJinetes];
+        for (int i = 0; i < numJinetes; i++) {
+            avances[i] = (i * 37) % 101;
+        }
+
+        turnoCodificado = directo ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+        Protocolo.escribirTurno(turnoCodificado, 1234);
+        turnoCodificado.flip();
+        estadoCodificado = directo ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+        Protocolo.escribirEstado(estadoCodificado, avances);
+        estadoCodificado.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer codificarTurno() {
+        buffer.clear();
+        Protocolo.escribirTurno(buffer, turno++ & 0xFFFF);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer codificarEstado() {
+        buffer.clear();
+        Protocolo.escribirEstado(buffer, avances);
+        return buffer;
+    }
+
+    @Benchmark
+    public void leerTurno(Blackhole bh) {
+        ByteBuffer b = turnoCodificado;
+        b.rewind();
+        bh.consume(Protocolo.tramaCompleta(b));
+        bh.consume(Protocolo.leerCabecera(b));
+        bh.consume(Protocolo.leerU16(b));
+    }
+
+    @Benchmark
+    public int[] leerEstado(Blackhole bh) {
+        ByteBuffer b = estadoCodificado;
+        b.rewind();
+        bh.consume(Protocolo.tramaCompleta(b));
+        bh.consume(Protocolo.leerCabecera(b));
+        Protocolo.leerEstado(b, destino);
+        return destino;
+    }
+}
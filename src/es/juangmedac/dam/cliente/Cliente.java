@@ -1,130 +1,233 @@
 package es.juangmedac.dam.cliente;
 
 import es.juangmedac.dam.gui.ClienteVentanaCarrera;
-import es.juangmedac.dam.gui.ClienteVentanaPodio;
+import es.juangmedac.dam.protocolo.CanalTramas;
+import es.juangmedac.dam.protocolo.Protocolo;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.net.InetAddress;
+import java.io.EOFException;
+import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.function.BooleanSupplier;
 
 /**
  * Cliente que participa en la carrera.
  * Ahora, espera un mensaje del servidor para saber cuándo es su turno para lanzar el dado.
+ * Es una tarea que se lanza en un hilo de plataforma o virtual (ver {@code ModoHilos}).
+ * Lo que se muestra y cómo se tira lo decide su {@link VistaCarrera}: la ventana Swing
+ * o una vista automática sin interfaz. Con {@link #setMirar(int)} el cliente solo mira una carrera.
+ * Con {@link #setOtraCarrera(BooleanSupplier)} juega varias carreras seguidas por la misma conexión:
+ * tras cada FIN pide OTRA y vuelve a la cola sin reconectar ni saludar.
  */
-public class Cliente extends Thread {
+public class Cliente implements Runnable {
+
+    /** Servidor al que se conecta si no se indica otro. */
+    public static final String HOST_POR_DEFECTO = "10.192.117.164";
+    public static final int PUERTO_POR_DEFECTO = 5555;
 
     private String nombre;
-    private boolean fin;
-    // Ventana gráfica de la carrera
-    private ClienteVentanaCarrera ventana;
+    private String host;
+    private int puerto;
+    private boolean trazas;
+    private int carreraAMirar; // Carrera que se mira como espectador (-1 = se juega)
+    private BooleanSupplier otraCarrera; // Decide tras cada carrera si se pide otra (null = una sola)
+    private int carrerasJugadas;
+    // Vista de la carrera (ventana gráfica o automática)
+    private VistaCarrera vista;
     private String[] nombresJinetes; // Para almacenar los nombres de los jinetes
     private Socket socket;
-    private DataInputStream in;
-    private DataOutputStream out;
+    private CanalTramas canal;
 
     /**
-     * Constructor.
+     * Constructor. Juega con la ventana gráfica contra el servidor por defecto.
      * @param nombre Nombre del cliente/jinete.
      */
     public Cliente(String nombre) {
-        this.nombre = nombre;
-        this.fin = false;
+        this(nombre, HOST_POR_DEFECTO, PUERTO_POR_DEFECTO, ClienteVentanaCarrera.crear(nombre));
+    }
+
+    /**
+     * Constructor.
+     * @param nombre Nombre del cliente/jinete.
+     * @param host Dirección del servidor.
+     * @param puerto Puerto del servidor.
+     * @param vista Vista que muestra la carrera y decide las tiradas.
+     */
+    public Cliente(String nombre, String host, int puerto, VistaCarrera vista) {
+        // El servidor lo recortaría igual; así el saludo nunca pasa del máximo
+        this.nombre = Protocolo.normalizarNombre(nombre);
+        this.host = host;
+        this.puerto = puerto;
+        this.vista = vista;
+        this.trazas = true;
+        this.carreraAMirar = -1;
+    }
+
+    /**
+     * Activa o desactiva los mensajes por consola (los clientes de carga no escriben nada).
+     */
+    public void setTrazas(boolean trazas) {
+        this.trazas = trazas;
+    }
+
+    /**
+     * Convierte al cliente en espectador de una carrera en curso: no juega, solo la ve.
+     * @param idCarrera Carrera a mirar, o 0 para la última que se ha lanzado.
+     */
+    public void setMirar(int idCarrera) {
+        this.carreraAMirar = idCarrera;
+    }
+
+    /**
+     * Juega varias carreras por la misma conexión. Tras cada carrera se pregunta si se quiere otra.
+     * @param otraCarrera Devuelve true para pedir otra carrera (null = una sola carrera por conexión).
+     */
+    public void setOtraCarrera(BooleanSupplier otraCarrera) {
+        this.otraCarrera = otraCarrera;
+    }
+
+    /**
+     * Devuelve las carreras terminadas en la última conexión.
+     */
+    public int getCarrerasJugadas() {
+        return carrerasJugadas;
     }
 
     @Override
     public void run() {
         try {
-            // Conexión al servidor (en el localhost y puerto 5555)
-            socket = new Socket("10.192.117.164", 5555);
-            System.out.println("[" + nombre + "] Conectado al servidor en puerto local: " + socket.getLocalPort());
-
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            jugar();
+        } catch (Exception e) {
+            System.out.println("Error en cliente " + nombre + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-            // 1) Enviar el nombre del jugador al servidor
-            out.writeUTF(nombre);
-            out.flush();
+    /**
+     * Se conecta, juega una carrera (o varias, ver {@link #setOtraCarrera(BooleanSupplier)}) y cierra la conexión.
+     * A diferencia de {@link #run()}, propaga los errores para que quien llama pueda contarlos.
+     */
+    public void jugar() throws Exception {
+        // Conexión al servidor
+        socket = new Socket(host, puerto);
+        socket.setTcpNoDelay(true);
+        traza("Conectado al servidor en puerto local: " + socket.getLocalPort());
+
+        canal = new CanalTramas(socket);
+        carrerasJugadas = 0;
+        try {
+            // 1) Enviar el saludo con el nombre del jugador al servidor (o la carrera que se quiere mirar)
+            if (carreraAMirar >= 0) {
+                Protocolo.escribirMirar(canal.paraEnviar(Protocolo.tamanoMirar()), carreraAMirar);
+            } else {
+                Protocolo.escribirHola(canal.paraEnviar(Protocolo.tamanoHola(nombre)), nombre);
+            }
+            canal.enviar();
 
-            // 2) Recibir confirmación de aceptación
-            String respuesta = in.readUTF();
-            if ("aceptado".equals(respuesta)) {
-                System.out.println("[" + nombre + "] El servidor me ha aceptado en la carrera.");
+            // 2) Recibir confirmación de aceptación, con el intervalo de latidos mientras se espera mesa
+            int latidoMs = 0;
+            if (canal.recibir() == Protocolo.ACEPTADO) {
+                traza("El servidor me ha aceptado en la carrera (protocolo v" + Protocolo.leerU8(canal.datos()) + ").");
+                latidoMs = Protocolo.leerU16(canal.datos());
             }
 
-            // 3) Recibir la lista de jinetes
-            String listaJinetes = in.readUTF();
-            System.out.println("[" + nombre + "] Lista de jinetes: " + listaJinetes);
-
-            // Guardar los nombres de los jinetes
-            this.nombresJinetes = listaJinetes.split(",");
-
-            // Se muestra la ventana gráfica de la carrera
-            ventana = new ClienteVentanaCarrera(nombre);
-            ventana.setNombresJinetes(listaJinetes);
-            ventana.setVisible(true);
-
-            // 4) Bucle principal de comunicación con el servidor
-            while (!fin) {
-                try {
-                    // Se lee el primer entero enviado por el servidor
-                    int codigo = in.readInt();
-
-                    if (codigo == -2) {
-                        // Código -2: El servidor indica "¡Es tu turno, lanza el dado!"
-                        System.out.println("[" + nombre + "] Es mi turno. Lanza el dado.");
-                        // Se espera la tirada en la ventana (método bloqueante)
-                        int dado = ventana.esperarTirada();
-                        // Se envía el valor del dado al servidor
-                        out.writeInt(dado);
-                        out.flush();
-                    } else if (codigo == 0 || codigo > 0) {
-                        // En este caso se reciben los avances de los camellos.
-                        // El servidor envía 4 enteros que representan los avances,
-                        // y luego un código de control (0 = carrera en curso).
-                        int[] avances = new int[4];
-                        avances[0] = codigo; // El primer valor ya leído
-                        avances[1] = in.readInt();
-                        avances[2] = in.readInt();
-                        avances[3] = in.readInt();
-                        int control = in.readInt(); // control = 0
-                        // Se actualiza la interfaz gráfica con los avances
-                        ventana.avance(avances);
-                    } else if (codigo == -1) {
-                        // Código -1: Fin de la carrera.
-                        // Se reciben las posiciones finales de los camellos.
-                        int[] posiciones = new int[4];
-                        posiciones[0] = in.readInt();
-                        posiciones[1] = in.readInt();
-                        posiciones[2] = in.readInt();
-                        posiciones[3] = in.readInt();
-
-                        // Actualizar las posiciones finales en la ventana
-                        ventana.setPosicionesFinales(posiciones);
-
-                        // Mostrar el podio automáticamente
-                        ventana.mostrarPodio(posiciones, nombresJinetes);
-
-                        fin = true;
-                        break; // Salir del bucle
-                    }
-                } catch (java.io.EOFException e) {
-                    System.out.println("[" + nombre + "] Conexión cerrada por el servidor.");
-                    fin = true;
+            boolean otra;
+            do {
+                if (!jugarCarrera(latidoMs)) {
                     break;
                 }
-            }
-
+                carrerasJugadas++;
+                // Los espectadores no piden otra: el palco cierra al terminar
+                otra = carreraAMirar < 0 && otraCarrera != null && otraCarrera.getAsBoolean();
+                if (otra) {
+                    Protocolo.escribirVacia(canal.paraEnviar(Protocolo.TAMANO_VACIA), Protocolo.OTRA);
+                    canal.enviar();
+                    traza("Pido otra carrera.");
+                }
+            } while (otra);
+        } finally {
             // Cerrar recursos
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            canal.close();
+        }
 
-            System.out.println("[" + nombre + "] Cliente finalizado correctamente.");
+        traza("Cliente finalizado correctamente.");
+    }
 
-        } catch (Exception e) {
-            System.out.println("Error en cliente " + nombre + ": " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Espera la mesa y juega una carrera completa.
+     * @param latidoMs Intervalo de latidos del servidor mientras se espera mesa (0 = no envía).
+     * @return false si el servidor cierra la conexión tras pedir otra carrera, o a mitad de carrera.
+     */
+    private boolean jugarCarrera(int latidoMs) throws IOException {
+        // 3) Recibir la lista de jinetes (su índice es el id de cada camello). Si el servidor envía
+        // latidos y pasan tres sin recibir nada, se da la conexión por perdida
+        int plazoMs = latidoMs > 0 ? 3 * latidoMs : 0;
+        try {
+            int tipo;
+            while ((tipo = canal.recibir(plazoMs)) != Protocolo.JINETES) {
+                if (tipo == CanalTramas.SIN_TRAMA) {
+                    throw new IOException("el servidor no da señales de vida");
+                }
+                // Latidos mientras el servidor completa la mesa
+            }
+        } catch (EOFException e) {
+            if (carrerasJugadas == 0) {
+                throw e;
+            }
+            // Tras pedir otra: el servidor no la admite o ha cerrado la sesión
+            traza("Conexión cerrada por el servidor antes de empezar.");
+            return false;
+        }
+        ByteBuffer datos = canal.datos();
+        int idPropio = Protocolo.leerU16(datos);
+        nombresJinetes = new String[Protocolo.leerU16(datos)];
+        for (int i = 0; i < nombresJinetes.length; i++) {
+            nombresJinetes[i] = Protocolo.leerTexto(datos);
+        }
+        traza("Lista de jinetes: " + String.join(",", nombresJinetes) + " (soy el camello " + idPropio + ")");
+
+        // Se muestra la carrera
+        vista.iniciar(nombresJinetes, idPropio);
+
+        // Arrays reutilizados en cada trama
+        int[] avances = new int[nombresJinetes.length];
+        int[] posiciones = new int[nombresJinetes.length];
+
+        // 4) Bucle principal de comunicación con el servidor
+        while (true) {
+            int tipo;
+            try {
+                tipo = canal.recibir();
+            } catch (EOFException e) {
+                traza("Conexión cerrada por el servidor.");
+                return false;
+            }
+
+            if (tipo == Protocolo.TURNO) {
+                // El servidor indica "¡Es tu turno, lanza el dado!"
+                int turno = Protocolo.leerU16(canal.datos());
+                traza("Es mi turno. Lanza el dado.");
+                // Se espera la tirada de la vista (método bloqueante)
+                int dado = vista.esperarTirada();
+                // Se envía el valor del dado al servidor junto con el turno al que responde
+                Protocolo.escribirTirada(canal.paraEnviar(Protocolo.tamanoTirada()), turno, dado);
+                canal.enviar();
+            } else if (tipo == Protocolo.ESTADO) {
+                // Se reciben los avances de todos los camellos y se actualiza la vista
+                Protocolo.leerEstado(canal.datos(), avances);
+                vista.avance(avances);
+            } else if (tipo == Protocolo.FIN) {
+                // Fin de la carrera: se reciben las posiciones finales y se muestra el podio
+                Protocolo.leerFin(canal.datos(), posiciones);
+                vista.fin(posiciones, nombresJinetes);
+                return true;
+            }
+        }
+    }
+
+    private void traza(String mensaje) {
+        if (trazas) {
+            System.out.println("[" + nombre + "] " + mensaje);
         }
     }
 }
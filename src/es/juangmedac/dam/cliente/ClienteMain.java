@@ -1,28 +1,50 @@
 package es.juangmedac.dam.cliente;
 
+import es.juangmedac.dam.comun.ModoHilos;
+import es.juangmedac.dam.gui.ClienteVentanaCarrera;
+
 /**
  * Clase principal para arrancar los clientes.
- * Se lanzan 4 instancias de Cliente, con un breve retardo entre cada uno.
+ * Se lanzan 4 instancias de Cliente (o las que indique {@code jugadores=N}), con un breve retardo entre cada uno.
+ * Con el argumento {@code virtuales} cada cliente corre en un hilo virtual.
+ * El servidor se puede indicar con {@code host=} y {@code puerto=}.
+ * Con {@code mirar=N} las ventanas no juegan: miran la carrera N (0 = la última lanzada).
+ * Con {@code carreras=N} cada ventana juega N carreras seguidas por la misma conexión.
  */
 public class ClienteMain {
     public static void main(String[] args) {
-        // Se crean y se inician los 4 clientes
-        Cliente c1 = new Cliente("Cliente 1");
-        c1.start();
-
-        try { Thread.sleep(1000); } catch (InterruptedException e) {}
-
-        Cliente c2 = new Cliente("Cliente 2");
-        c2.start();
-
-        try { Thread.sleep(1000); } catch (InterruptedException e) {}
-
-        Cliente c3 = new Cliente("Cliente 3");
-        c3.start();
+        ModoHilos modo = ModoHilos.elegir(args);
+        String host = Cliente.HOST_POR_DEFECTO;
+        int puerto = Cliente.PUERTO_POR_DEFECTO;
+        int jugadores = 4;
+        int mirar = -1;
+        int carreras = 1;
+        for (String arg : args) {
+            if (arg.startsWith("host=")) {
+                host = arg.substring(5);
+            } else if (arg.startsWith("puerto=")) {
+                puerto = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("jugadores=")) {
+                jugadores = Integer.parseInt(arg.substring(10));
+            } else if (arg.startsWith("mirar=")) {
+                mirar = Integer.parseInt(arg.substring(6));
+            } else if (arg.startsWith("carreras=")) {
+                carreras = Integer.parseInt(arg.substring(9));
+            }
+        }
 
-        try { Thread.sleep(1000); } catch (InterruptedException e) {}
+        // Se crean y se inician los clientes
+        for (int i = 1; i <= jugadores; i++) {
+            String nombre = "Cliente " + i;
+            Cliente cliente = new Cliente(nombre, host, puerto, ClienteVentanaCarrera.crear(nombre));
+            cliente.setMirar(mirar);
+            int totalCarreras = carreras;
+            cliente.setOtraCarrera(() -> cliente.getCarrerasJugadas() < totalCarreras);
+            modo.iniciar(nombre, cliente);
 
-        Cliente c4 = new Cliente("Cliente 4");
-        c4.start();
+            if (i < jugadores) {
+                try { Thread.sleep(1000); } catch (InterruptedException e) {}
+            }
+        }
     }
 }
@@ -0,0 +1,146 @@
+package es.juangmedac.dam.cliente;
+
+import es.juangmedac.dam.comun.HistogramaLatencias;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generador de carga sin interfaz gráfica.
+ * Lanza N jugadores automáticos en hilos virtuales que se conectan y juegan carreras seguidas por la
+ * misma conexión (pidiendo OTRA) hasta que se acaba el tiempo; con {@code persistente=no} se reconectan
+ * para cada carrera. Cada segundo escribe las carreras terminadas por segundo, las conexiones abiertas,
+ * los percentiles de la ida y vuelta de un turno y los fallos de conexión.
+ * <p>
+ * Argumentos (todos opcionales): {@code host=}, {@code puerto=}, {@code conexiones=N},
+ * {@code duracion=segundos}, {@code pensar=ms} y {@code persistente=si|no}. Con {@code espectadores=N} se conectan además N
+ * espectadores que miran la última carrera lanzada una y otra vez; se cuentan las carreras vistas por segundo.
+ */
+public class GeneradorCarga {
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = "localhost";
+        int puerto = Cliente.PUERTO_POR_DEFECTO;
+        int conexiones = 100;
+        int duracion = 30;
+        long pensarMs = 0;
+        int numEspectadores = 0;
+        boolean persistente = true;
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                continue;
+            }
+            String valor = arg.substring(igual + 1);
+            switch (arg.substring(0, igual)) {
+                case "host" -> host = valor;
+                case "puerto" -> puerto = Integer.parseInt(valor);
+                case "conexiones" -> conexiones = Integer.parseInt(valor);
+                case "duracion" -> duracion = Integer.parseInt(valor);
+                case "pensar" -> pensarMs = Long.parseLong(valor);
+                case "espectadores" -> numEspectadores = Integer.parseInt(valor);
+                case "persistente" -> persistente = !valor.equalsIgnoreCase("no");
+                default -> System.out.println("Argumento desconocido: " + arg);
+            }
+        }
+
+        System.out.println("Generando carga contra " + host + ":" + puerto + " con " + conexiones
+                + " conexiones y " + numEspectadores + " espectadores durante " + duracion + " s (pensar=" + pensarMs
+                + " ms, " + (persistente ? "conexiones persistentes" : "una conexión por carrera") + ")");
+
+        HistogramaLatencias latencias = new HistogramaLatencias();
+        LongAdder carreras = new LongAdder();
+        LongAdder fallos = new LongAdder();
+        LongAdder vistas = new LongAdder();
+        LongAdder conexionesAbiertas = new LongAdder();
+        long limite = System.nanoTime() + duracion * 1_000_000_000L;
+
+        Thread[] jugadores = new Thread[conexiones];
+        for (int i = 0; i < conexiones; i++) {
+            String nombre = "Bot " + (i + 1);
+            String h = host;
+            int p = puerto;
+            long pensar = pensarMs;
+            boolean otra = persistente;
+            jugadores[i] = Thread.ofVirtual().name(nombre).start(() -> {
+                VistaAutomatica vista = new VistaAutomatica(pensar, latencias, carreras);
+                while (System.nanoTime() < limite) {
+                    Cliente cliente = new Cliente(nombre, h, p, vista);
+                    cliente.setTrazas(false);
+                    if (otra) {
+                        cliente.setOtraCarrera(() -> System.nanoTime() < limite);
+                    }
+                    conexionesAbiertas.increment();
+                    try {
+                        cliente.jugar();
+                    } catch (Exception e) {
+                        fallos.increment();
+                        try {
+                            Thread.sleep(100); // Se espera un poco antes de reintentar
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+
+        Thread[] espectadores = new Thread[numEspectadores];
+        for (int i = 0; i < numEspectadores; i++) {
+            String nombre = "Espectador " + (i + 1);
+            String h = host;
+            int p = puerto;
+            espectadores[i] = Thread.ofVirtual().name(nombre).start(() -> {
+                VistaAutomatica vista = new VistaAutomatica(0, null, vistas);
+                while (System.nanoTime() < limite) {
+                    Cliente cliente = new Cliente(nombre, h, p, vista);
+                    cliente.setTrazas(false);
+                    cliente.setMirar(0);
+                    try {
+                        cliente.jugar();
+                    } catch (Exception e) {
+                        // Aún no hay carrera en curso: se vuelve a probar
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+
+        // Informe por segundo
+        long vistasAnteriores = 0;
+        long carrerasAnteriores = 0;
+        long fallosAnteriores = 0;
+        long conexionesAnteriores = 0;
+        int segundo = 0;
+        while (System.nanoTime() < limite) {
+            Thread.sleep(1000);
+            segundo++;
+            long c = carreras.sum();
+            long f = fallos.sum();
+            long v = vistas.sum();
+            long a = conexionesAbiertas.sum();
+            System.out.println("[" + segundo + " s] carreras/s=" + (c - carrerasAnteriores)
+                    + " conexiones/s=" + (a - conexionesAnteriores)
+                    + " fallos=" + (f - fallosAnteriores)
+                    + (numEspectadores > 0 ? " vistas/s=" + (v - vistasAnteriores) : "")
+                    + " turno " + HistogramaLatencias.resumen(latencias.extraerYReiniciar()));
+            carrerasAnteriores = c;
+            fallosAnteriores = f;
+            vistasAnteriores = v;
+            conexionesAnteriores = a;
+        }
+
+        // Se espera a que terminen las carreras en curso
+        for (Thread jugador : jugadores) {
+            jugador.join();
+        }
+        for (Thread espectador : espectadores) {
+            espectador.join();
+        }
+        System.out.println("Total: " + carreras.sum() + " carreras, " + conexionesAbiertas.sum() + " conexiones, "
+                + fallos.sum() + " fallos de conexión.");
+    }
+}
@@ -0,0 +1,78 @@
+package es.juangmedac.dam.cliente;
+
+import es.juangmedac.dam.comun.HistogramaLatencias;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vista sin interfaz que tira el dado sola. La usan los bots y el generador de carga.
+ * Si se le pasan contadores, mide el tiempo desde que envía una tirada hasta que recibe el
+ * siguiente estado (ida y vuelta de un turno) y cuenta las carreras terminadas.
+ */
+public class VistaAutomatica implements VistaCarrera {
+
+    private final long pensarMs;
+    private final HistogramaLatencias latencias;
+    private final LongAdder carrerasTerminadas;
+    private int idPropio;
+    private long inicioTirada;
+
+    /**
+     * Constructor para un bot sin mediciones.
+     * @param pensarMs Tiempo que "piensa" antes de tirar (0 = tira al momento).
+     */
+    public VistaAutomatica(long pensarMs) {
+        this(pensarMs, null, null);
+    }
+
+    /**
+     * Constructor.
+     * @param pensarMs Tiempo que "piensa" antes de tirar (0 = tira al momento).
+     * @param latencias Histograma donde anotar la ida y vuelta de cada turno (puede ser null).
+     * @param carrerasTerminadas Contador de carreras terminadas (puede ser null).
+     */
+    public VistaAutomatica(long pensarMs, HistogramaLatencias latencias, LongAdder carrerasTerminadas) {
+        this.pensarMs = pensarMs;
+        this.latencias = latencias;
+        this.carrerasTerminadas = carrerasTerminadas;
+    }
+
+    @Override
+    public void iniciar(String[] nombres, int idPropio) {
+        this.idPropio = idPropio;
+        this.inicioTirada = 0;
+    }
+
+    @Override
+    public void avance(int[] avances) {
+        if (inicioTirada != 0) {
+            if (latencias != null) {
+                latencias.registrar(System.nanoTime() - inicioTirada);
+            }
+            inicioTirada = 0;
+        }
+    }
+
+    @Override
+    public int esperarTirada() {
+        if (pensarMs > 0) {
+            try {
+                Thread.sleep(pensarMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        inicioTirada = System.nanoTime();
+        return ThreadLocalRandom.current().nextInt(1, 7);
+    }
+
+    @Override
+    public void fin(int[] posiciones, String[] nombres) {
+        // Cada carrera se cuenta una sola vez: la cuenta el camello 0 (o cada espectador, que va solo)
+        if (carrerasTerminadas != null && (idPropio == 0 || idPropio == Protocolo.SIN_CAMELLO)) {
+            carrerasTerminadas.increment();
+        }
+    }
+}
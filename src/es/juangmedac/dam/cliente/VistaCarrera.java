@@ -0,0 +1,34 @@
+package es.juangmedac.dam.cliente;
+
+/**
+ * Lo que el {@link Cliente} necesita de quien juega: mostrar la carrera y decidir cada tirada.
+ * La ventana Swing es una implementación; {@link VistaAutomatica} juega sola y sin interfaz.
+ */
+public interface VistaCarrera {
+
+    /**
+     * La carrera empieza.
+     * @param nombres Nombres de los jinetes (índice = id del camello).
+     * @param idPropio Id del camello de este cliente.
+     */
+    void iniciar(String[] nombres, int idPropio);
+
+    /**
+     * Nuevo estado de la carrera. El array se reutiliza entre llamadas: no debe guardarse.
+     * @param avances Avances de todos los camellos.
+     */
+    void avance(int[] avances);
+
+    /**
+     * Es el turno de este cliente. Bloquea hasta que haya tirada.
+     * @return El valor del dado (de 1 a 6).
+     */
+    int esperarTirada();
+
+    /**
+     * La carrera ha terminado.
+     * @param posiciones Posiciones finales (índice = id del camello).
+     * @param nombres Nombres de los jinetes.
+     */
+    void fin(int[] posiciones, String[] nombres);
+}
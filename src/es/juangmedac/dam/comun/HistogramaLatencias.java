@@ -0,0 +1,108 @@
+package es.juangmedac.dam.comun;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en nanosegundos con cubos log-lineales (16 por cada potencia de dos,
+ * error relativo menor del 7 %). Registrar un valor es un incremento atómico: no reserva memoria
+ * ni bloquea, así que puede usarse desde muchos hilos en caminos calientes.
+ */
+public class HistogramaLatencias {
+
+    private static final int BITS_SUBCUBO = 4;
+    private static final int SUBCUBOS = 1 << BITS_SUBCUBO;
+    private static final int NUM_CUBOS = SUBCUBOS + (63 - BITS_SUBCUBO) * SUBCUBOS;
+
+    private final AtomicLongArray cubos = new AtomicLongArray(NUM_CUBOS);
+
+    /**
+     * Registra un valor.
+     * @param nanos Latencia en nanosegundos (los negativos cuentan como 0).
+     */
+    public void registrar(long nanos) {
+        cubos.incrementAndGet(indice(Math.max(0, nanos)));
+    }
+
+    /**
+     * Copia los contadores actuales y pone el histograma a cero.
+     * Sirve para sacar un informe por intervalo.
+     */
+    public long[] extraerYReiniciar() {
+        long[] copia = new long[NUM_CUBOS];
+        for (int i = 0; i < NUM_CUBOS; i++) {
+            copia[i] = cubos.getAndSet(i, 0);
+        }
+        return copia;
+    }
+
+    /**
+     * Copia los contadores actuales sin reiniciarlos.
+     */
+    public long[] copiar() {
+        long[] copia = new long[NUM_CUBOS];
+        for (int i = 0; i < NUM_CUBOS; i++) {
+            copia[i] = cubos.get(i);
+        }
+        return copia;
+    }
+
+    /**
+     * Número de valores de una copia.
+     */
+    public static long total(long[] copia) {
+        long total = 0;
+        for (long n : copia) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Percentil de una copia (límite superior del cubo donde cae).
+     * @param copia Contadores obtenidos con {@link #copiar()} o {@link #extraerYReiniciar()}.
+     * @param percentil Entre 0 y 100.
+     * @return Latencia en nanosegundos, o 0 si no hay valores.
+     */
+    public static long percentil(long[] copia, double percentil) {
+        long total = total(copia);
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < copia.length; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return limiteSuperior(i);
+            }
+        }
+        return limiteSuperior(copia.length - 1);
+    }
+
+    /**
+     * Texto con los percentiles habituales en milisegundos.
+     */
+    public static String resumen(long[] copia) {
+        return String.format("n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", total(copia),
+                percentil(copia, 50) / 1e6, percentil(copia, 90) / 1e6,
+                percentil(copia, 99) / 1e6, percentil(copia, 100) / 1e6);
+    }
+
+    private static int indice(long valor) {
+        if (valor < SUBCUBOS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int subcubo = (int) (valor >>> (exponente - BITS_SUBCUBO)) - SUBCUBOS;
+        return SUBCUBOS + (exponente - BITS_SUBCUBO) * SUBCUBOS + subcubo;
+    }
+
+    private static long limiteSuperior(int indice) {
+        if (indice < SUBCUBOS) {
+            return indice;
+        }
+        int exponente = (indice - SUBCUBOS) / SUBCUBOS + BITS_SUBCUBO;
+        int subcubo = (indice - SUBCUBOS) % SUBCUBOS;
+        return ((long) (SUBCUBOS + subcubo + 1) << (exponente - BITS_SUBCUBO)) - 1;
+    }
+}
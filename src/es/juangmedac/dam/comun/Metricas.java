@@ -0,0 +1,350 @@
+package es.juangmedac.dam.comun;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del servidor: latencias del turno, envíos, conexiones, carreras activas,
+ * carreras pedidas por una conexión que ya había jugado (reenganches) y colas de salida.
+ * Es global, como el registro de eventos: el código de juego llama a los métodos estáticos
+ * y estos solo hacen un incremento atómico (sin reservar memoria ni bloquear).
+ * Con {@link #configurar(String[])} se publican por JMX como {@value #NOMBRE_JMX} y, con
+ * {@code metricas=segundos}, se escribe además un resumen por consola cada ese tiempo.
+ */
+public final class Metricas implements MetricasMXBean {
+
+    /** Nombre del MBean. */
+    public static final String NOMBRE_JMX = "es.juangmedac.dam:type=Metricas";
+
+    private static final HistogramaLatencias ESPERA_TIRADA = new HistogramaLatencias();
+    private static final HistogramaLatencias ESPERA_CERROJO = new HistogramaLatencias();
+    private static final HistogramaLatencias CERROJO_RETENIDO = new HistogramaLatencias();
+    private static final HistogramaLatencias CAMBIO_TURNO = new HistogramaLatencias();
+    private static final LongAdder BYTES_ENVIADOS = new LongAdder();
+    private static final LongAdder MENSAJES_ENVIADOS = new LongAdder();
+    private static final AtomicInteger CONEXIONES_ACTIVAS = new AtomicInteger();
+    private static final AtomicInteger CARRERAS_ACTIVAS = new AtomicInteger();
+    private static final LongAdder CARRERAS_TERMINADAS = new LongAdder();
+    private static final LongAdder REENGANCHES = new LongAdder();
+    private static final LongAdder BYTES_EN_COLAS = new LongAdder();
+    private static final LongAccumulator COLA_MAXIMA = new LongAccumulator(Math::max, 0);
+    private static final LongAdder ESTADOS_COMBINADOS = new LongAdder();
+    private static final LongAdder ASIENTOS_ABANDONADOS = new LongAdder();
+    private static final LongAdder ESPECTADORES_DESCONECTADOS = new LongAdder();
+
+    private static final Metricas INSTANCIA = new Metricas();
+
+    /**
+     * Cola de jugadores que esperan carrera, para publicar su profundidad y sus esperas.
+     * La implementa el vestíbulo del servidor clásico.
+     */
+    public interface ColaJugadores {
+        int getEnCola();
+
+        int getMesasConBots();
+
+        /** Histograma de lo que esperan los jugadores desde que entran en la cola hasta que empieza su carrera. */
+        HistogramaLatencias getEsperas();
+
+        /** Resumen de una línea. */
+        String resumen();
+    }
+
+    private static volatile ColaJugadores vestibulo;
+
+    private Metricas() {
+    }
+
+    // *************** Registro (camino del turno) ***************
+
+    /**
+     * Anota lo que un jinete ha tardado en tirar desde que se le dio el turno.
+     */
+    public static void esperaTirada(long nanos) {
+        ESPERA_TIRADA.registrar(nanos);
+    }
+
+    /**
+     * Anota una toma del cerrojo de la carrera.
+     * @param esperaNanos Tiempo hasta conseguirlo.
+     * @param retenidoNanos Tiempo que se ha tenido.
+     */
+    public static void cerrojo(long esperaNanos, long retenidoNanos) {
+        ESPERA_CERROJO.registrar(esperaNanos);
+        CERROJO_RETENIDO.registrar(retenidoNanos);
+    }
+
+    /**
+     * Anota lo que ha tardado en despertar el hilo que recibe un turno.
+     */
+    public static void cambioTurno(long nanos) {
+        CAMBIO_TURNO.registrar(nanos);
+    }
+
+    /**
+     * Anota un mensaje enviado por la red.
+     */
+    public static void enviado(int bytes) {
+        BYTES_ENVIADOS.add(bytes);
+        MENSAJES_ENVIADOS.increment();
+    }
+
+    public static void conexionAbierta() {
+        CONEXIONES_ACTIVAS.incrementAndGet();
+    }
+
+    public static void conexionCerrada() {
+        CONEXIONES_ACTIVAS.decrementAndGet();
+    }
+
+    public static void carreraIniciada() {
+        CARRERAS_ACTIVAS.incrementAndGet();
+    }
+
+    public static void carreraTerminada() {
+        CARRERAS_ACTIVAS.decrementAndGet();
+        CARRERAS_TERMINADAS.increment();
+    }
+
+    /**
+     * Anota que un jugador vuelve a la cola por la misma conexión, sin reconectar ni saludar.
+     */
+    public static void reenganche() {
+        REENGANCHES.increment();
+    }
+
+    /**
+     * Anota una trama que espera en la cola de salida de una conexión.
+     * @param bytes Bytes de la trama.
+     * @param profundidad Bytes pendientes de esa conexión, contando la trama.
+     */
+    public static void encolado(int bytes, long profundidad) {
+        BYTES_EN_COLAS.add(bytes);
+        COLA_MAXIMA.accumulate(profundidad);
+    }
+
+    /**
+     * Anota bytes que salen de una cola de salida (escritos o descartados al cerrarse).
+     */
+    public static void desencolado(int bytes) {
+        BYTES_EN_COLAS.add(-bytes);
+    }
+
+    /**
+     * Anota estados sustituidos por otro más nuevo antes de llegar a escribirse.
+     */
+    public static void estadosCombinados(long cuantos) {
+        ESTADOS_COMBINADOS.add(cuantos);
+    }
+
+    /**
+     * Anota una conexión cerrada porque no lee y se ha llenado su cola de salida.
+     * @param asiento true si era un jugador (pierde el asiento), false si era un espectador.
+     */
+    public static void desborde(boolean asiento) {
+        (asiento ? ASIENTOS_ABANDONADOS : ESPECTADORES_DESCONECTADOS).increment();
+    }
+
+    // *************** Publicación ***************
+
+    /**
+     * Publica la cola de espera del servidor. Sin ella, sus métricas salen a cero.
+     */
+    public static void publicarVestibulo(ColaJugadores cola) {
+        vestibulo = cola;
+    }
+
+    /**
+     * Publica las métricas por JMX y, con {@code metricas=segundos}, arranca el volcado por consola.
+     */
+    public static void configurar(String[] args) {
+        long intervaloS = 0;
+        for (String arg : args) {
+            if (arg.toLowerCase().startsWith("metricas=")) {
+                intervaloS = Long.parseLong(arg.substring(9));
+            }
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCIA, new ObjectName(NOMBRE_JMX));
+        } catch (JMException e) {
+            System.out.println("No se han podido publicar las métricas por JMX: " + e.getMessage());
+        }
+        if (intervaloS > 0) {
+            long intervaloMs = intervaloS * 1000;
+            Thread.ofPlatform().name("metricas").daemon().start(() -> volcar(intervaloMs));
+        }
+    }
+
+    /**
+     * Escribe cada intervalo las latencias y los contadores de ese intervalo y, aparte, los valores del momento.
+     * Resta la copia anterior en vez de reiniciar, para no tocar lo que se ve por JMX.
+     */
+    private static void volcar(long intervaloMs) {
+        HistogramaLatencias[] histogramas = {ESPERA_TIRADA, ESPERA_CERROJO, CERROJO_RETENIDO, CAMBIO_TURNO};
+        String[] nombres = {"tirada", "cerrojo espera", "cerrojo retenido", "cambio turno"};
+        long[][] anteriores = new long[histogramas.length][];
+        for (int i = 0; i < histogramas.length; i++) {
+            anteriores[i] = histogramas[i].copiar();
+        }
+        LongAdder[] contadores = {MENSAJES_ENVIADOS, BYTES_ENVIADOS, CARRERAS_TERMINADAS, REENGANCHES,
+                ESTADOS_COMBINADOS, ASIENTOS_ABANDONADOS, ESPECTADORES_DESCONECTADOS};
+        String[] rotulos = {"mensajes enviados", "bytes enviados", "carreras terminadas", "reenganches",
+                "estados combinados", "asientos abandonados", "espectadores desconectados"};
+        long[] previos = new long[contadores.length];
+        for (int i = 0; i < contadores.length; i++) {
+            previos[i] = contadores[i].sum();
+        }
+        while (true) {
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            StringBuilder texto = new StringBuilder("[metricas] en el intervalo:");
+            for (int i = 0; i < histogramas.length; i++) {
+                long[] actual = histogramas[i].copiar();
+                long[] intervalo = new long[actual.length];
+                for (int j = 0; j < actual.length; j++) {
+                    intervalo[j] = Math.max(0, actual[j] - anteriores[i][j]); // 0 si se ha reiniciado por JMX
+                }
+                anteriores[i] = actual;
+                texto.append("\n  ").append(nombres[i]).append(": ").append(ResumenLatencias.de(intervalo));
+            }
+            texto.append("\n ");
+            for (int i = 0; i < contadores.length; i++) {
+                long actual = contadores[i].sum();
+                // Si se ha reiniciado por JMX, lo que lleva desde entonces
+                texto.append(' ').append(rotulos[i]).append('=').append(actual >= previos[i] ? actual - previos[i] : actual);
+                previos[i] = actual;
+            }
+            texto.append("\n  ahora: conexiones=").append(CONEXIONES_ACTIVAS.get())
+                    .append(" carreras=").append(CARRERAS_ACTIVAS.get())
+                    .append(" colas de salida=").append(BYTES_EN_COLAS.sum())
+                    .append(" bytes (máx. por conexión desde el arranque o el último reinicio ").append(COLA_MAXIMA.get()).append(')');
+            System.out.println(texto);
+        }
+    }
+
+    @Override
+    public ResumenLatencias getEsperaTirada() {
+        return ResumenLatencias.de(ESPERA_TIRADA.copiar());
+    }
+
+    @Override
+    public ResumenLatencias getEsperaCerrojo() {
+        return ResumenLatencias.de(ESPERA_CERROJO.copiar());
+    }
+
+    @Override
+    public ResumenLatencias getCerrojoRetenido() {
+        return ResumenLatencias.de(CERROJO_RETENIDO.copiar());
+    }
+
+    @Override
+    public ResumenLatencias getCambioTurno() {
+        return ResumenLatencias.de(CAMBIO_TURNO.copiar());
+    }
+
+    @Override
+    public long getBytesEnviados() {
+        return BYTES_ENVIADOS.sum();
+    }
+
+    @Override
+    public long getMensajesEnviados() {
+        return MENSAJES_ENVIADOS.sum();
+    }
+
+    @Override
+    public int getConexionesActivas() {
+        return CONEXIONES_ACTIVAS.get();
+    }
+
+    @Override
+    public int getCarrerasActivas() {
+        return CARRERAS_ACTIVAS.get();
+    }
+
+    @Override
+    public long getCarrerasTerminadas() {
+        return CARRERAS_TERMINADAS.sum();
+    }
+
+    @Override
+    public long getReenganches() {
+        return REENGANCHES.sum();
+    }
+
+    @Override
+    public long getBytesEnColas() {
+        return BYTES_EN_COLAS.sum();
+    }
+
+    @Override
+    public long getColaMaxima() {
+        return COLA_MAXIMA.get();
+    }
+
+    @Override
+    public long getEstadosCombinados() {
+        return ESTADOS_COMBINADOS.sum();
+    }
+
+    @Override
+    public long getAsientosAbandonados() {
+        return ASIENTOS_ABANDONADOS.sum();
+    }
+
+    @Override
+    public long getEspectadoresDesconectados() {
+        return ESPECTADORES_DESCONECTADOS.sum();
+    }
+
+    @Override
+    public int getEnVestibulo() {
+        ColaJugadores cola = vestibulo;
+        return cola != null ? cola.getEnCola() : 0;
+    }
+
+    @Override
+    public ResumenLatencias getEsperaVestibulo() {
+        ColaJugadores cola = vestibulo;
+        return ResumenLatencias.de(cola != null ? cola.getEsperas().copiar() : new long[0]);
+    }
+
+    @Override
+    public int getMesasConBots() {
+        ColaJugadores cola = vestibulo;
+        return cola != null ? cola.getMesasConBots() : 0;
+    }
+
+    @Override
+    public String getResumenVestibulo() {
+        ColaJugadores cola = vestibulo;
+        return cola != null ? cola.resumen() : "";
+    }
+
+    @Override
+    public void reiniciar() {
+        ESPERA_TIRADA.extraerYReiniciar();
+        ESPERA_CERROJO.extraerYReiniciar();
+        CERROJO_RETENIDO.extraerYReiniciar();
+        CAMBIO_TURNO.extraerYReiniciar();
+        ColaJugadores cola = vestibulo;
+        if (cola != null) {
+            cola.getEsperas().extraerYReiniciar();
+        }
+        BYTES_ENVIADOS.reset();
+        MENSAJES_ENVIADOS.reset();
+        REENGANCHES.reset();
+        CARRERAS_TERMINADAS.reset();
+        COLA_MAXIMA.reset();
+        ESTADOS_COMBINADOS.reset();
+        ASIENTOS_ABANDONADOS.reset();
+        ESPECTADORES_DESCONECTADOS.reset();
+    }
+}
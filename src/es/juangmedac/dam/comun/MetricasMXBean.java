@@ -0,0 +1,67 @@
+package es.juangmedac.dam.comun;
+
+/**
+ * Métricas del servidor publicadas por JMX (se ven con JConsole o VisualVM).
+ * Las latencias son acumuladas desde el arranque o desde el último {@link #reiniciar()}.
+ */
+public interface MetricasMXBean {
+
+    /** Espera desde que se avisa a un jinete de su turno hasta que llega su tirada. */
+    ResumenLatencias getEsperaTirada();
+
+    /** Tiempo esperando el cerrojo de la carrera en {@code realizarAvance}. */
+    ResumenLatencias getEsperaCerrojo();
+
+    /** Tiempo con el cerrojo de la carrera tomado en {@code realizarAvance}. */
+    ResumenLatencias getCerrojoRetenido();
+
+    /**
+     * Desde que se llama a {@code siguienteTurno} hasta que el nuevo turno se entrega: hasta que despierta
+     * el hilo del asiento en el servidor clásico, o hasta encolar el aviso en el NIO.
+     */
+    ResumenLatencias getCambioTurno();
+
+    long getBytesEnviados();
+
+    long getMensajesEnviados();
+
+    int getConexionesActivas();
+
+    int getCarrerasActivas();
+
+    /** Carreras terminadas o abortadas, también las de bots. */
+    long getCarrerasTerminadas();
+
+    /** Carreras pedidas con OTRA por una conexión que ya había jugado. */
+    long getReenganches();
+
+    /** Bytes que esperan ahora mismo en las colas de salida de todas las conexiones. */
+    long getBytesEnColas();
+
+    /** Mayor número de bytes pendientes que ha llegado a tener una sola conexión. */
+    long getColaMaxima();
+
+    /** Estados sustituidos por otro más nuevo antes de escribirse a un cliente lento. */
+    long getEstadosCombinados();
+
+    /** Jugadores que han perdido el asiento por no leer hasta llenar su cola de salida. */
+    long getAsientosAbandonados();
+
+    /** Espectadores desconectados por no leer hasta llenar su cola de salida. */
+    long getEspectadoresDesconectados();
+
+    /** Jugadores esperando ahora mismo en el vestíbulo (0 si el servidor no tiene vestíbulo). */
+    int getEnVestibulo();
+
+    /** Espera de los jugadores desde que entran en el vestíbulo hasta que empieza su carrera. */
+    ResumenLatencias getEsperaVestibulo();
+
+    /** Mesas lanzadas incompletas, con bots, desde el vestíbulo. */
+    int getMesasConBots();
+
+    /** El resumen del vestíbulo que escribe el servidor al lanzar cada carrera. */
+    String getResumenVestibulo();
+
+    /** Pone a cero los histogramas, los contadores de envío, los reenganches, los máximos de las colas y las desconexiones de lentos. */
+    void reiniciar();
+}
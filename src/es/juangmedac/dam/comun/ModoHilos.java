@@ -0,0 +1,40 @@
+package es.juangmedac.dam.comun;
+
+/**
+ * Tipo de hilo con el que se ejecuta cada sesión de cliente (en el servidor y en los clientes).
+ * Con hilos virtuales un mismo proceso puede tener decenas de miles de sesiones bloqueadas
+ * en lecturas de socket sin cambiar el código bloqueante.
+ */
+public enum ModoHilos {
+
+    /** Un hilo del sistema operativo por sesión (comportamiento original). */
+    PLATAFORMA,
+    /** Un hilo virtual por sesión. */
+    VIRTUALES;
+
+    /**
+     * Elige el modo a partir de los argumentos de arranque: si aparece "virtuales" se usan hilos virtuales.
+     * @param args Argumentos del programa.
+     */
+    public static ModoHilos elegir(String[] args) {
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("virtuales")) {
+                return VIRTUALES;
+            }
+        }
+        return PLATAFORMA;
+    }
+
+    /**
+     * Crea y arranca un hilo de este modo.
+     * @param nombre Nombre del hilo.
+     * @param tarea Tarea a ejecutar.
+     * @return El hilo ya arrancado.
+     */
+    public Thread iniciar(String nombre, Runnable tarea) {
+        if (this == VIRTUALES) {
+            return Thread.ofVirtual().name(nombre).start(tarea);
+        }
+        return Thread.ofPlatform().name(nombre).start(tarea);
+    }
+}
@@ -0,0 +1,178 @@
+package es.juangmedac.dam.comun;
+
+/**
+ * Reglas de la carrera sin red, sin cerrojos y sin reservar memoria: avances, meta, orden de llegada
+ * y paso de turno saltándose a los camellos que ya han terminado.
+ * La usan tanto la {@code Carrera} del servidor (que añade el cerrojo, el diario y la publicación del estado)
+ * como el simulador, que juega millones de carreras reutilizando una instancia con {@link #reiniciar()}.
+ * No es segura entre hilos.
+ */
+public final class ReglasCarrera {
+
+    /** Avance con el que un camello termina la carrera. */
+    public static final int META = 100;
+
+    private final int numCamellos;
+    private final int[] avances;           // Avance de cada camello (de 0 a META)
+    private final int[] posicionesFinales; // Posición de llegada de cada camello (0 si no ha llegado)
+    private int contadorPosicionFinal;     // Posición que se dará al próximo que llegue
+    private int numAcabados;
+
+    private int turnoActual;
+    private int numeroTurno;
+    // Anillo doblemente enlazado con los camellos que aún no han terminado, para pasar
+    // el turno y quitar a un camello que acaba en O(1)
+    private final int[] siguienteActivo;
+    private final int[] anteriorActivo;
+
+    /**
+     * Constructor.
+     * @param numCamellos Número de camellos de la carrera.
+     */
+    public ReglasCarrera(int numCamellos) {
+        this.numCamellos = numCamellos;
+        avances = new int[numCamellos];
+        posicionesFinales = new int[numCamellos];
+        siguienteActivo = new int[numCamellos];
+        anteriorActivo = new int[numCamellos];
+        reiniciar();
+    }
+
+    /**
+     * Vuelve a poner todos los camellos en la salida, con el turno para el camello 0.
+     */
+    public void reiniciar() {
+        for (int i = 0; i < numCamellos; i++) {
+            avances[i] = 0;
+            posicionesFinales[i] = 0;
+            siguienteActivo[i] = (i + 1) % numCamellos;
+            anteriorActivo[i] = (i + numCamellos - 1) % numCamellos;
+        }
+        contadorPosicionFinal = 1;
+        numAcabados = 0;
+        turnoActual = 0;
+        numeroTurno = 0;
+    }
+
+    /**
+     * Suma una tirada al avance de un camello. Si llega a la meta se le da su posición
+     * y sale del anillo de activos. Un camello que ya ha terminado no se mueve.
+     * @param idCamello Identificador del camello.
+     * @param dado Valor de la tirada.
+     * @return true si el camello ha llegado a la meta con esta tirada.
+     */
+    public boolean avanzar(int idCamello, int dado) {
+        if (avances[idCamello] >= META) {
+            return false;
+        }
+        avances[idCamello] = Math.min(avances[idCamello] + dado, META);
+        if (avances[idCamello] < META) {
+            return false;
+        }
+        posicionesFinales[idCamello] = contadorPosicionFinal++;
+        numAcabados++;
+        // Sus propios enlaces no se tocan para poder pasar el turno desde él
+        int anterior = anteriorActivo[idCamello];
+        int siguiente = siguienteActivo[idCamello];
+        siguienteActivo[anterior] = siguiente;
+        anteriorActivo[siguiente] = anterior;
+        return true;
+    }
+
+    /**
+     * Pasa el turno al siguiente camello que no ha terminado. Si el que tenía el turno acaba de
+     * terminar, su enlace sigue apuntando al siguiente activo; si en una ronda han llegado varios
+     * seguidos, se sigue la cadena hasta dar con uno activo. No hace nada si la carrera ha terminado.
+     */
+    public void siguienteTurno() {
+        if (isTerminada()) {
+            return;
+        }
+        turnoActual = siguienteActivo[turnoActual];
+        while (avances[turnoActual] >= META) {
+            turnoActual = siguienteActivo[turnoActual];
+        }
+        numeroTurno++;
+    }
+
+    /**
+     * Ordena las tiradas de una ronda en la que todos tiran a la vez: primero, por id, las de los camellos
+     * que no llegan; después las de los que llegan, delante el que más se pasa de la meta y, a igualdad,
+     * el de id menor. Aplicarlas con {@link #avanzar(int, int)} en este orden da las posiciones de la ronda.
+     * @param dados Tirada de cada camello (0 si no tira).
+     * @param orden Array donde se dejan los ids en orden (al menos tan largo como el número de camellos).
+     * @return Número de tiradas ordenadas.
+     */
+    public int ordenarRonda(int[] dados, int[] orden) {
+        int n = 0;
+        for (int i = 0; i < numCamellos; i++) {
+            if (dados[i] != 0 && avances[i] < META && avances[i] + dados[i] < META) {
+                orden[n++] = i;
+            }
+        }
+        int primeraLlegada = n;
+        for (int i = 0; i < numCamellos; i++) {
+            if (dados[i] == 0 || avances[i] >= META || avances[i] + dados[i] < META) {
+                continue;
+            }
+            // Inserción ordenada por distancia recorrida (descendente); los ids ya llegan en orden
+            int recorrido = avances[i] + dados[i];
+            int j = n++;
+            while (j > primeraLlegada && avances[orden[j - 1]] + dados[orden[j - 1]] < recorrido) {
+                orden[j] = orden[j - 1];
+                j--;
+            }
+            orden[j] = i;
+        }
+        return n;
+    }
+
+    public int getNumCamellos() {
+        return numCamellos;
+    }
+
+    public int getAvance(int idCamello) {
+        return avances[idCamello];
+    }
+
+    /**
+     * Devuelve la posición final de un camello (0 si aún no ha llegado).
+     */
+    public int getPosicionFinal(int idCamello) {
+        return posicionesFinales[idCamello];
+    }
+
+    /**
+     * Devuelve el array de avances. Es el interno: solo para leer.
+     */
+    public int[] avances() {
+        return avances;
+    }
+
+    /**
+     * Devuelve el array de posiciones finales. Es el interno: solo para leer o copiar.
+     */
+    public int[] posicionesFinales() {
+        return posicionesFinales;
+    }
+
+    public int getNumAcabados() {
+        return numAcabados;
+    }
+
+    public int getNumActivos() {
+        return numCamellos - numAcabados;
+    }
+
+    public boolean isTerminada() {
+        return numAcabados == numCamellos;
+    }
+
+    public int getTurnoActual() {
+        return turnoActual;
+    }
+
+    public int getNumeroTurno() {
+        return numeroTurno;
+    }
+}
@@ -0,0 +1,58 @@
+package es.juangmedac.dam.comun;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Resumen de un histograma de latencias en microsegundos, tal como se publica por JMX.
+ */
+public final class ResumenLatencias {
+
+    private final long total;
+    private final long p50Us;
+    private final long p90Us;
+    private final long p99Us;
+    private final long maxUs;
+
+    @ConstructorProperties({"total", "p50Us", "p90Us", "p99Us", "maxUs"})
+    public ResumenLatencias(long total, long p50Us, long p90Us, long p99Us, long maxUs) {
+        this.total = total;
+        this.p50Us = p50Us;
+        this.p90Us = p90Us;
+        this.p99Us = p99Us;
+        this.maxUs = maxUs;
+    }
+
+    /**
+     * Resume una copia de un {@link HistogramaLatencias}.
+     */
+    public static ResumenLatencias de(long[] copia) {
+        return new ResumenLatencias(HistogramaLatencias.total(copia),
+                HistogramaLatencias.percentil(copia, 50) / 1000, HistogramaLatencias.percentil(copia, 90) / 1000,
+                HistogramaLatencias.percentil(copia, 99) / 1000, HistogramaLatencias.percentil(copia, 100) / 1000);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getP50Us() {
+        return p50Us;
+    }
+
+    public long getP90Us() {
+        return p90Us;
+    }
+
+    public long getP99Us() {
+        return p99Us;
+    }
+
+    public long getMaxUs() {
+        return maxUs;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + total + " p50=" + p50Us + "us p90=" + p90Us + "us p99=" + p99Us + "us max=" + maxUs + "us";
+    }
+}
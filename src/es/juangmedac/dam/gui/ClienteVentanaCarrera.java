@@ -1,20 +1,32 @@
 package es.juangmedac.dam.gui;
 
+import es.juangmedac.dam.cliente.VistaCarrera;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Ventana principal del cliente para visualizar la carrera.
- * Muestra barras de progreso para cada camello y permite lanzar el dado en turno.
+ * Muestra la pista con todos los camellos y permite lanzar el dado en turno.
+ * El hilo de red no toca Swing: deja el último estado en una ranura y, como mucho, programa un
+ * arranque del temporizador de fotogramas. En cada fotograma el hilo de eventos recoge la ranura
+ * (si han llegado varios estados, solo el último) y repinta la pista una sola vez.
  */
-public class ClienteVentanaCarrera extends JFrame {
+public class ClienteVentanaCarrera extends JFrame implements VistaCarrera {
 
     private String[] nombresJinetes; // Array con los nombres de los camellos
     private int[] posicionesFinales;  // Posiciones finales de los camellos
 
-    private JProgressBar[] barras;    // Barras de progreso para cada camello
-    private JLabel[] etiquetasNombres; // Etiquetas con los nombres de los camellos
+    // Milisegundos entre fotogramas (unos 60 por segundo)
+    private static final int MS_FOTOGRAMA = 16;
+
+    private PistaCarrera pista;        // Pista dibujada con una calle por camello
     private JLabel etiquetaJugador;    // Muestra el nombre del jugador
     private JButton botonPodio;        // Botón para ver el podio
     private JButton botonTirar;        // Botón para lanzar el dado
@@ -22,6 +34,16 @@ public class ClienteVentanaCarrera extends JFrame {
     // Variables para gestionar la tirada del dado
     private int resultadoDado;
     private boolean dadoLanzado;
+    // Cerrojo para esperar la tirada sin fijar el hilo (el cliente puede ser un hilo virtual)
+    private final ReentrantLock cerrojoTirada = new ReentrantLock();
+    private final Condition tiradaRealizada = cerrojoTirada.newCondition();
+
+    // Último estado recibido y aún no pintado. El hilo de red lo sobrescribe sin esperar;
+    // el array que el hilo de eventos ya ha pintado vuelve a "libre" para reutilizarse.
+    private final AtomicReference<int[]> ultimoEstado = new AtomicReference<>();
+    private final AtomicReference<int[]> libre = new AtomicReference<>();
+    private final AtomicBoolean animando = new AtomicBoolean();
+    private Timer temporizador;
 
     /**
      * Constructor.
@@ -35,6 +57,26 @@ public class ClienteVentanaCarrera extends JFrame {
         initComponents(nombreJugador);
     }
 
+    /**
+     * Crea la ventana en el hilo de eventos y espera a que esté construida.
+     * @param nombreJugador Nombre del jugador.
+     */
+    public static ClienteVentanaCarrera crear(String nombreJugador) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            return new ClienteVentanaCarrera(nombreJugador);
+        }
+        AtomicReference<ClienteVentanaCarrera> ventana = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(() -> ventana.set(new ClienteVentanaCarrera(nombreJugador)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrumpido creando la ventana", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Error creando la ventana", e.getCause());
+        }
+        return ventana.get();
+    }
+
     /**
      * Inicializa los componentes de la ventana.
      */
@@ -46,18 +88,11 @@ public class ClienteVentanaCarrera extends JFrame {
         etiquetaJugador.setFont(new Font("Arial", Font.BOLD, 16));
         add(etiquetaJugador, BorderLayout.NORTH);
 
-        // Panel central: barras de progreso y nombres de los camellos
-        JPanel panelBarras = new JPanel(new GridLayout(4, 2, 5, 5));
-        barras = new JProgressBar[4];
-        etiquetasNombres = new JLabel[4];
-        for (int i = 0; i < 4; i++) {
-            etiquetasNombres[i] = new JLabel("Camello " + (i + 1), SwingConstants.CENTER);
-            barras[i] = new JProgressBar(0, 100);
-            barras[i].setStringPainted(true);
-            panelBarras.add(etiquetasNombres[i]);
-            panelBarras.add(barras[i]);
-        }
-        add(panelBarras, BorderLayout.CENTER);
+        // Panel central: la pista. Las calles se crean al conocer los jinetes;
+        // con muchos camellos la pista se desplaza.
+        pista = new PistaCarrera();
+        add(new JScrollPane(pista), BorderLayout.CENTER);
+        temporizador = new Timer(MS_FOTOGRAMA, e -> fotograma());
 
         // Panel inferior: botones para lanzar el dado y ver el podio
         JPanel panelInferior = new JPanel(new FlowLayout());
@@ -70,9 +105,12 @@ public class ClienteVentanaCarrera extends JFrame {
             resultadoDado = 1 + (int)(Math.random() * 6);
             JOptionPane.showMessageDialog(this, "Has obtenido: " + resultadoDado);
             // Se marca que la tirada se ha realizado y se notifica al hilo bloqueado
-            synchronized(this) {
+            cerrojoTirada.lock();
+            try {
                 dadoLanzado = true;
-                notifyAll();
+                tiradaRealizada.signalAll();
+            } finally {
+                cerrojoTirada.unlock();
             }
             // Se deshabilita el botón hasta la próxima activación
             botonTirar.setEnabled(false);
@@ -101,24 +139,91 @@ public class ClienteVentanaCarrera extends JFrame {
     }
 
     /**
-     * Establece los nombres de los jinetes en las etiquetas.
+     * Establece los nombres de los jinetes en la pista. Desde el hilo de eventos.
      * @param nombres Cadena de nombres separados por comas.
      */
     public void setNombresJinetes(String nombres) {
-        this.nombresJinetes = nombres.split(",");
-        for (int i = 0; i < nombresJinetes.length && i < etiquetasNombres.length; i++) {
-            etiquetasNombres[i].setText(nombresJinetes[i]);
-        }
+        setNombresJinetes(nombres.split(","));
     }
 
     /**
-     * Actualiza los avances de los camellos en las barras de progreso.
+     * Establece los nombres de los jinetes en la pista. Desde el hilo de eventos.
+     * @param nombres Nombres de los jinetes (índice = id del camello).
+     */
+    public void setNombresJinetes(String[] nombres) {
+        setNombresJinetes(nombres, -1);
+    }
+
+    private void setNombresJinetes(String[] nombres, int idPropio) {
+        this.nombresJinetes = nombres;
+        pista.setJinetes(nombres, idPropio);
+    }
+
+    /**
+     * Muestra la ventana con los nombres de los jinetes de la carrera.
+     * @param nombres Nombres de los jinetes.
+     * @param idPropio Id del camello de este jugador.
+     */
+    @Override
+    public void iniciar(String[] nombres, int idPropio) {
+        String[] copia = nombres.clone();
+        SwingUtilities.invokeLater(() -> {
+            setNombresJinetes(copia, idPropio);
+            setVisible(true);
+        });
+    }
+
+    /**
+     * Guarda las posiciones finales y muestra el podio.
+     * @param posiciones Posiciones finales.
+     * @param nombres Nombres de los jinetes.
+     */
+    @Override
+    public void fin(int[] posiciones, String[] nombres) {
+        int[] copia = posiciones.clone();
+        SwingUtilities.invokeLater(() -> setPosicionesFinales(copia));
+        mostrarPodio(copia, nombres);
+    }
+
+    /**
+     * Deja los avances en la ranura del último estado. No toca Swing ni espera al hilo de eventos:
+     * si aún no se ha pintado el estado anterior, este lo sustituye.
      * @param avances Array de avances.
      */
+    @Override
     public void avance(int[] avances) {
-        for (int i = 0; i < 4; i++) {
-            int val = Math.min(avances[i], 100);
-            barras[i].setValue(val);
+        int[] copia = libre.getAndSet(null);
+        if (copia == null || copia.length != avances.length) {
+            copia = new int[avances.length];
+        }
+        System.arraycopy(avances, 0, copia, 0, avances.length);
+        int[] sinPintar = ultimoEstado.getAndSet(copia);
+        if (sinPintar != null) {
+            libre.set(sinPintar);
+        }
+        if (animando.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(temporizador::start);
+        }
+    }
+
+    /**
+     * Un fotograma, en el hilo de eventos: recoge el último estado, mueve las marcas y repinta
+     * una vez. Sin estados nuevos y con las marcas quietas, el temporizador se para.
+     */
+    private void fotograma() {
+        int[] avances = ultimoEstado.getAndSet(null);
+        if (avances != null) {
+            pista.setAvances(avances);
+            libre.set(avances);
+        }
+        if (pista.animar() || avances != null) {
+            return;
+        }
+        temporizador.stop();
+        animando.set(false);
+        // Un estado llegado justo antes de bajar la bandera no ha programado arranque
+        if (ultimoEstado.get() != null && animando.compareAndSet(false, true)) {
+            temporizador.start();
         }
     }
 
@@ -146,13 +251,15 @@ public class ClienteVentanaCarrera extends JFrame {
      * Método bloqueante que espera a que el jugador lance el dado.
      * @return El resultado obtenido en la tirada (entre 1 y 6).
      */
+    @Override
     public int esperarTirada() {
         // Activar la tirada en la interfaz
         activarTirada();
-        synchronized(this) {
+        cerrojoTirada.lock();
+        try {
             while (!dadoLanzado) {
                 try {
-                    wait();
+                    tiradaRealizada.await();
                 } catch (InterruptedException ex) {
                     ex.printStackTrace();
                 }
@@ -160,8 +267,10 @@ public class ClienteVentanaCarrera extends JFrame {
             // Reiniciar la bandera para la siguiente tirada
             dadoLanzado = false;
             // Restaurar el color original del jugador
-            etiquetaJugador.setForeground(Color.BLACK);
+            SwingUtilities.invokeLater(() -> etiquetaJugador.setForeground(Color.BLACK));
             return resultadoDado;
+        } finally {
+            cerrojoTirada.unlock();
         }
     }
 
@@ -2,8 +2,6 @@ package es.juangmedac.dam.gui;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
 
 public class ClienteVentanaPodio extends JFrame {
 
@@ -16,22 +14,30 @@ public class ClienteVentanaPodio extends JFrame {
         super("Podio - Carrera de Camellos");
         setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE); // Permite que el evento windowClosed se active
         setResizable(true);
-        setLayout(new GridLayout(4, 1, 5, 5));
+
+        int numCamellos = posiciones.length;
+        JPanel panelPodio = new JPanel(new GridLayout(numCamellos, 1, 5, 5));
 
         // Se crea un array de strings para mostrar el podio de forma ordenada
-        String[] podioStrings = new String[4];
-        for (int i = 0; i < 4; i++) {
-            // Convertir la posición (1..4) a índice (0..3)
+        String[] podioStrings = new String[numCamellos];
+        int sinPosicion = numCamellos; // Los camellos sin posición (carrera abortada) van al final
+        for (int i = 0; i < numCamellos; i++) {
+            // Convertir la posición (1..n) a índice (0..n-1)
             int lugar = posiciones[i] - 1;
-            podioStrings[lugar] = (lugar + 1) + "º: " + nombres[i];
+            if (lugar >= 0 && lugar < numCamellos && podioStrings[lugar] == null) {
+                podioStrings[lugar] = (lugar + 1) + "º: " + nombres[i];
+            } else {
+                podioStrings[--sinPosicion] = "-: " + nombres[i];
+            }
         }
 
         // Se añaden las etiquetas con cada posición al panel
-        for (int i = 0; i < 4; i++) {
+        for (int i = 0; i < numCamellos; i++) {
             JLabel label = new JLabel(podioStrings[i], SwingConstants.CENTER);
             label.setFont(new Font("Arial", Font.BOLD, 14));
-            add(label);
+            panelPodio.add(label);
         }
+        add(new JScrollPane(panelPodio));
 
         setSize(400, 300);
         setLocationRelativeTo(null);
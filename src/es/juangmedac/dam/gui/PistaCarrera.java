@@ -0,0 +1,163 @@
+package es.juangmedac.dam.gui;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Pista de la carrera dibujada a mano: una calle por camello con su nombre, su marca y su avance.
+ * Sustituye a una barra de progreso por camello, así que un cambio de estado es un único repintado
+ * aunque haya cientos de camellos, y solo se pintan las calles visibles.
+ * Las marcas no saltan al nuevo avance: se acercan un poco en cada fotograma ({@link #animar()}).
+ * Todos los métodos se llaman desde el hilo de eventos de Swing.
+ */
+public class PistaCarrera extends JComponent {
+
+    private static final int ALTO_CALLE = 24;
+    private static final int ANCHO_NOMBRE = 130;
+    private static final int ANCHO_PORCENTAJE = 50;
+    private static final int META = 100;
+
+    private static final Color FONDO_PROPIO = new Color(220, 230, 255);
+
+    private String[] nombres = new String[0];
+    private String[] nombresCortos;             // Nombres recortados al ancho, se calculan al pintar
+    private Color[] colores = new Color[0];
+    private int[] objetivos = new int[0];      // Último avance recibido de cada camello
+    private double[] mostrados = new double[0]; // Avance que se está dibujando
+    private int idPropio = -1;
+
+    public PistaCarrera() {
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setFont(new Font("Arial", Font.PLAIN, 12));
+    }
+
+    /**
+     * Prepara una calle por jinete y pone todas las marcas en la salida.
+     * @param nombres Nombres de los jinetes (índice = id del camello).
+     * @param idPropio Camello del jugador, que se resalta (cualquier otro valor si no juega).
+     */
+    public void setJinetes(String[] nombres, int idPropio) {
+        this.nombres = nombres.clone();
+        this.nombresCortos = null;
+        this.colores = new Color[nombres.length];
+        for (int i = 0; i < colores.length; i++) {
+            colores[i] = Color.getHSBColor((float) i / colores.length, 0.7f, 0.85f);
+        }
+        this.objetivos = new int[nombres.length];
+        this.mostrados = new double[nombres.length];
+        this.idPropio = idPropio;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Fija los avances hacia los que se mueven las marcas. No repinta: lo hace {@link #animar()}.
+     */
+    public void setAvances(int[] avances) {
+        for (int i = 0; i < objetivos.length && i < avances.length; i++) {
+            objetivos[i] = Math.min(avances[i], META);
+        }
+    }
+
+    /**
+     * Acerca cada marca a su avance y, si alguna se ha movido, pide un único repintado.
+     * @return true si alguna marca sigue en movimiento.
+     */
+    public boolean animar() {
+        boolean cambio = false;
+        boolean moviendo = false;
+        for (int i = 0; i < mostrados.length; i++) {
+            double falta = objetivos[i] - mostrados[i];
+            if (falta == 0) {
+                continue;
+            }
+            cambio = true;
+            if (Math.abs(falta) <= 0.5) {
+                mostrados[i] = objetivos[i];
+            } else {
+                mostrados[i] += Math.signum(falta) * Math.max(0.5, Math.abs(falta) * 0.25);
+                moviendo = true;
+            }
+        }
+        // Un solo repintado por fotograma, lo hayan movido uno o cien camellos
+        if (cambio) {
+            repaint();
+        }
+        return moviendo;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(ANCHO_NOMBRE + 300 + ANCHO_PORCENTAJE, Math.max(1, nombres.length) * ALTO_CALLE);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            Rectangle visible = g2.getClipBounds();
+            if (visible == null) {
+                visible = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g2.setColor(getBackground());
+            g2.fillRect(visible.x, visible.y, visible.width, visible.height);
+
+            int inicioPista = ANCHO_NOMBRE;
+            int largoPista = Math.max(10, getWidth() - ANCHO_NOMBRE - ANCHO_PORCENTAJE);
+            FontMetrics fm = g2.getFontMetrics();
+            if (nombresCortos == null) {
+                nombresCortos = new String[nombres.length];
+                for (int i = 0; i < nombres.length; i++) {
+                    nombresCortos[i] = recortar(nombres[i], fm, ANCHO_NOMBRE - 8);
+                }
+            }
+
+            // Solo las calles que caen dentro de la zona a repintar
+            int primera = Math.max(0, visible.y / ALTO_CALLE);
+            int ultima = Math.min(nombres.length - 1, (visible.y + visible.height) / ALTO_CALLE);
+            for (int i = primera; i <= ultima; i++) {
+                int y = i * ALTO_CALLE;
+                if (i == idPropio) {
+                    g2.setColor(FONDO_PROPIO);
+                    g2.fillRect(0, y, getWidth(), ALTO_CALLE);
+                }
+
+                // Nombre
+                g2.setColor(Color.BLACK);
+                int base = y + (ALTO_CALLE + fm.getAscent() - fm.getDescent()) / 2;
+                g2.drawString(nombresCortos[i], 4, base);
+
+                // Calle y meta
+                g2.setColor(Color.LIGHT_GRAY);
+                g2.drawLine(inicioPista, y + ALTO_CALLE - 1, inicioPista + largoPista, y + ALTO_CALLE - 1);
+                g2.setColor(Color.RED);
+                g2.drawLine(inicioPista + largoPista, y + 2, inicioPista + largoPista, y + ALTO_CALLE - 2);
+
+                // Marca del camello
+                int diametro = ALTO_CALLE - 8;
+                int x = inicioPista + (int) (mostrados[i] * (largoPista - diametro) / META);
+                g2.setColor(colores[i]);
+                g2.fillOval(x, y + 4, diametro, diametro);
+
+                // Porcentaje
+                g2.setColor(Color.DARK_GRAY);
+                g2.drawString(objetivos[i] + "%", inicioPista + largoPista + 6, base);
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private static String recortar(String texto, FontMetrics fm, int ancho) {
+        if (fm.stringWidth(texto) <= ancho) {
+            return texto;
+        }
+        String corto = texto;
+        while (!corto.isEmpty() && fm.stringWidth(corto + "…") > ancho) {
+            corto = corto.substring(0, corto.length() - 1);
+        }
+        return corto + "…";
+    }
+}
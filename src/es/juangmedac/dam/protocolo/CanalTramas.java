@@ -0,0 +1,227 @@
+package es.juangmedac.dam.protocolo;
+
+import es.juangmedac.dam.comun.Metricas;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Envío y recepción de tramas sobre un socket bloqueante.
+ * Cada canal reutiliza siempre el mismo buffer de envío y el mismo de recepción,
+ * así que en el camino de cada turno no se reserva memoria.
+ * El buffer de envío es del hilo de la sesión; otros hilos pueden enviar tramas ya codificadas
+ * con {@link #enviar(byte[])}, y un cerrojo evita que dos tramas se mezclen en el socket.
+ * En el servidor, con {@link #usarColaSalida(ColaSalida.Desborde)} los envíos no escriben en el
+ * socket sino en una {@link ColaSalida} acotada, y no bloquean nunca.
+ * Los envíos y los canales abiertos se cuentan en {@link Metricas}.
+ */
+public class CanalTramas implements Closeable {
+
+    /** Valor que devuelve {@link #recibir(int)} si se agota el plazo sin recibir nada. */
+    public static final int SIN_TRAMA = -1;
+
+    private static final int TAMANO_INICIAL = 512;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private ByteBuffer envio;
+    private ByteBuffer recepcion;
+    private final ReentrantLock cerrojoEnvio;
+    private final AtomicBoolean cerrado;
+    private ColaSalida cola;
+
+    /**
+     * Constructor.
+     * @param socket Socket ya conectado.
+     */
+    public CanalTramas(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+        this.envio = ByteBuffer.allocate(TAMANO_INICIAL);
+        this.recepcion = ByteBuffer.allocate(TAMANO_INICIAL);
+        this.cerrojoEnvio = new ReentrantLock();
+        this.cerrado = new AtomicBoolean();
+        Metricas.conexionAbierta();
+    }
+
+    /**
+     * A partir de aquí los envíos pasan por una cola de salida acotada, con el presupuesto de
+     * {@link ColaSalida#getPresupuesto()}. Se llama una vez, antes del primer envío.
+     * @param desborde Qué hacer si el cliente no lee y la cola se llena.
+     */
+    public void usarColaSalida(ColaSalida.Desborde desborde) {
+        cola = new ColaSalida(this, out, desborde);
+    }
+
+    /**
+     * Devuelve el buffer de envío vacío, con sitio para al menos los bytes indicados.
+     * Se escriben en él una o varias tramas y después se llama a {@link #enviar()}.
+     */
+    public ByteBuffer paraEnviar(int minimo) {
+        if (envio.capacity() < minimo) {
+            envio = ByteBuffer.allocate(minimo);
+        }
+        envio.clear();
+        return envio;
+    }
+
+    /**
+     * Escribe en el socket todo lo que se haya puesto en el buffer de envío.
+     */
+    public void enviar() throws IOException {
+        if (cola != null) {
+            cola.encolar(envio.array(), 0, envio.position());
+            return;
+        }
+        cerrojoEnvio.lock();
+        try {
+            out.write(envio.array(), 0, envio.position());
+            out.flush();
+            Metricas.enviado(envio.position());
+        } finally {
+            cerrojoEnvio.unlock();
+        }
+    }
+
+    /**
+     * Envía una trama ya codificada (por ejemplo, compartida entre varios clientes).
+     * Puede llamarse desde cualquier hilo.
+     */
+    public void enviar(byte[] trama) throws IOException {
+        if (cola != null) {
+            cola.encolar(trama, 0, trama.length);
+            return;
+        }
+        cerrojoEnvio.lock();
+        try {
+            out.write(trama);
+            out.flush();
+            Metricas.enviado(trama.length);
+        } finally {
+            cerrojoEnvio.unlock();
+        }
+    }
+
+    /**
+     * Envía una trama de estado. Con cola de salida sustituye al estado anterior si aún no había
+     * salido; sin ella se escribe ya. Puede llamarse desde cualquier hilo.
+     * @param version Versión del estado; las anteriores a la última enviada se ignoran.
+     */
+    public void enviarEstado(byte[] trama, long version) throws IOException {
+        if (cola != null) {
+            cola.publicarEstado(trama, version);
+        } else {
+            enviar(trama);
+        }
+    }
+
+    /**
+     * Aviso de que empieza otra carrera por este canal y sus versiones de estado vuelven a empezar.
+     */
+    public void reiniciarEstado() {
+        if (cola != null) {
+            cola.reiniciarEstado();
+        }
+    }
+
+    /**
+     * Bloquea hasta recibir una trama completa.
+     * @return El tipo de la trama. Sus datos se leen con {@link #datos()}.
+     */
+    public int recibir() throws IOException {
+        return leerTrama(in.readUnsignedShort());
+    }
+
+    /**
+     * Espera una trama como mucho el plazo indicado.
+     * @param plazoMs Milisegundos de espera (0 = sin límite).
+     * @return El tipo de la trama, o {@link #SIN_TRAMA} si el plazo se agota antes de que llegue nada.
+     */
+    public int recibir(int plazoMs) throws IOException {
+        if (plazoMs <= 0) {
+            return recibir();
+        }
+        int primero;
+        socket.setSoTimeout(plazoMs);
+        try {
+            // Solo se espera con plazo el primer byte; una trama empezada se lee entera
+            primero = in.read();
+        } catch (SocketTimeoutException e) {
+            return SIN_TRAMA;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        int segundo = in.read();
+        if (primero < 0 || segundo < 0) {
+            throw new EOFException();
+        }
+        return leerTrama((primero << 8) | segundo);
+    }
+
+    private int leerTrama(int longitud) throws IOException {
+        if (recepcion.capacity() < longitud) {
+            recepcion = ByteBuffer.allocate(longitud);
+        }
+        in.readFully(recepcion.array(), 0, longitud);
+        recepcion.clear();
+        recepcion.limit(longitud);
+        return Byte.toUnsignedInt(recepcion.get());
+    }
+
+    /**
+     * Devuelve los datos de la última trama recibida, situados después del tipo.
+     */
+    public ByteBuffer datos() {
+        return recepcion;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Indica si el canal sigue abierto (no se ha llamado a {@link #close()}).
+     */
+    public boolean isAbierto() {
+        return !cerrado.get();
+    }
+
+    /**
+     * Cierra el canal. Con cola de salida, si aún queda algo por escribir el socket se cierra al
+     * terminar de escribirlo (o pasado un plazo, si el cliente no lee).
+     */
+    @Override
+    public void close() throws IOException {
+        if (cerrado.compareAndSet(false, true)) {
+            Metricas.conexionCerrada();
+        }
+        if (cola != null && cola.cerrarAlVaciar()) {
+            return;
+        }
+        socket.close();
+    }
+
+    /**
+     * Cierra el socket ya, sin esperar a la cola de salida.
+     */
+    void cerrarSocket() {
+        if (cerrado.compareAndSet(false, true)) {
+            Metricas.conexionCerrada();
+        }
+        try {
+            socket.close();
+        } catch (IOException ignorada) {
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package es.juangmedac.dam.protocolo;
+
+import es.juangmedac.dam.comun.Metricas;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de un {@link CanalTramas} del servidor. Quien envía nunca toca el socket:
+ * copia la trama en un anillo de bytes de tamaño fijo (el presupuesto de la conexión) y sigue;
+ * la escribe un hilo virtual que solo existe mientras hay algo pendiente. Un cliente con la
+ * ventana TCP llena bloquea ese hilo, no el turno de la carrera ni el planificador.
+ * Las tramas de estado no entran en el anillo: se guarda solo la última, junto con lo que se había
+ * encolado hasta ese momento, y se escribe en cuanto ha salido eso. Así un cliente lento recibe
+ * directamente el estado más reciente, pero nunca antes que las tramas encoladas delante de él
+ * (los JINETES de un espectador, un TURNO), y las posiciones finales llegan después del último estado.
+ * Si una trama no cabe en el presupuesto, el canal se cierra según el {@link Desborde} de la conexión.
+ */
+public class ColaSalida implements Runnable {
+
+    /**
+     * Qué significa cerrar una conexión que desborda su cola.
+     */
+    public enum Desborde {
+        /** Jugador: pierde el asiento y su camello sigue como bot, sin esperar el plazo de tirada. */
+        ABANDONAR_ASIENTO,
+        /** Espectador: se le deja de repartir y ya está. */
+        DESCONECTAR
+    }
+
+    /** Presupuesto por conexión si no se indica {@code salida=KiB}. */
+    public static final int PRESUPUESTO_POR_DEFECTO = 16 * 1024;
+
+    // Lo que se espera a un cliente que no lee antes de cerrarle el socket con tramas pendientes
+    private static final long PLAZO_CIERRE_MS = 5000;
+    private static final ExecutorService ESCRITURAS = Executors.newVirtualThreadPerTaskExecutor();
+    // Plazos de cierre de todas las colas; su único hilo no se crea hasta el primer cierre
+    private static final ScheduledThreadPoolExecutor CIERRES = crearPlanificadorCierres();
+    private static volatile int presupuesto = PRESUPUESTO_POR_DEFECTO;
+
+    private final CanalTramas canal;
+    private final OutputStream out;
+    private final Desborde desborde;
+    private final byte[] anillo;
+    private final ReentrantLock cerrojo;
+    private int inicio;       // Primer byte pendiente del anillo
+    private int pendientes;   // Bytes pendientes, a partir de inicio
+    private long encolados;   // Bytes encolados en el anillo desde el principio
+    private long escritos;    // Bytes del anillo ya escritos desde el principio
+    private byte[] estado;    // Último estado sin escribir, o null
+    private long marcaEstado; // Bytes encolados cuando se dejó el estado: sale cuando se han escrito
+    private long versionEstado;
+    private boolean escribiendo;
+    private boolean cerrarAlVaciar;
+    private ScheduledFuture<?> plazoCierre;
+    private boolean rota;
+
+    ColaSalida(CanalTramas canal, OutputStream out, Desborde desborde) {
+        this.canal = canal;
+        this.out = out;
+        this.desborde = desborde;
+        this.anillo = new byte[presupuesto];
+        this.cerrojo = new ReentrantLock();
+        this.versionEstado = -1;
+    }
+
+    private static ScheduledThreadPoolExecutor crearPlanificadorCierres() {
+        ScheduledThreadPoolExecutor planificador = new ScheduledThreadPoolExecutor(1, tarea -> {
+            Thread hilo = new Thread(tarea, "cierres-salida");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        planificador.setRemoveOnCancelPolicy(true);
+        return planificador;
+    }
+
+    /**
+     * Lee el presupuesto de bytes por conexión de {@code salida=KiB}.
+     */
+    public static void configurar(String[] args) {
+        for (String arg : args) {
+            if (arg.toLowerCase().startsWith("salida=")) {
+                presupuesto = Math.max(1, Integer.parseInt(arg.substring(7))) * 1024;
+            }
+        }
+    }
+
+    /**
+     * Devuelve el presupuesto de bytes pendientes de cada conexión.
+     */
+    public static int getPresupuesto() {
+        return presupuesto;
+    }
+
+    /**
+     * Copia una trama (o varias seguidas) al final de la cola.
+     * @throws IOException Si el canal ya no escribe o la trama no cabe (y entonces se cierra).
+     */
+    void encolar(byte[] datos, int desde, int longitud) throws IOException {
+        cerrojo.lock();
+        try {
+            if (rota) {
+                throw new IOException("canal cerrado");
+            }
+            if (pendientes + longitud > anillo.length) {
+                rota = true;
+            } else {
+                int fin = (inicio + pendientes) % anillo.length;
+                int primero = Math.min(longitud, anillo.length - fin);
+                System.arraycopy(datos, desde, anillo, fin, primero);
+                System.arraycopy(datos, desde + primero, anillo, 0, longitud - primero);
+                pendientes += longitud;
+                encolados += longitud;
+                Metricas.encolado(longitud, pendientes);
+                programar();
+                return;
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        desbordar();
+        throw new IOException("cola de salida llena (" + anillo.length + " bytes)");
+    }
+
+    /**
+     * Deja un estado para escribir, en lugar del anterior si aún no había salido.
+     * Sale detrás de todo lo que ya está encolado. Los estados más viejos que el último dejado se ignoran.
+     * @throws IOException Si el canal ya no escribe.
+     */
+    void publicarEstado(byte[] trama, long version) throws IOException {
+        cerrojo.lock();
+        try {
+            if (rota) {
+                throw new IOException("canal cerrado");
+            }
+            if (version <= versionEstado) {
+                return;
+            }
+            if (estado != null) {
+                Metricas.estadosCombinados(1);
+            }
+            estado = trama;
+            marcaEstado = encolados;
+            versionEstado = version;
+            programar();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Las versiones de estado de la carrera siguiente vuelven a empezar.
+     */
+    void reiniciarEstado() {
+        cerrojo.lock();
+        try {
+            versionEstado = -1;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Pide cerrar el socket cuando se haya escrito lo pendiente.
+     * @return false si no hay nada pendiente y se puede cerrar ya.
+     */
+    boolean cerrarAlVaciar() {
+        cerrojo.lock();
+        try {
+            if (rota || !escribiendo) {
+                rota = true;
+                return false;
+            }
+            if (!cerrarAlVaciar) {
+                cerrarAlVaciar = true;
+                // Si el cliente no lee, no se le espera siempre; al vaciarse la cola se cancela
+                plazoCierre = CIERRES.schedule(canal::cerrarSocket, PLAZO_CIERRE_MS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        return true;
+    }
+
+    // Con el cerrojo tomado
+    private void programar() {
+        if (!escribiendo) {
+            escribiendo = true;
+            ESCRITURAS.execute(this);
+        }
+    }
+
+    private void desbordar() {
+        if (desborde == Desborde.ABANDONAR_ASIENTO) {
+            System.out.println("Asiento abandonado: el cliente no lee y su cola de salida está llena");
+        }
+        Metricas.desborde(desborde == Desborde.ABANDONAR_ASIENTO);
+        canal.cerrarSocket();
+    }
+
+    /**
+     * Escribe lo pendiente hasta vaciar la cola. Si hay un estado, primero el anillo hasta su marca
+     * y después el estado; luego el resto del anillo.
+     * El trozo del anillo que se escribe no lo toca nadie más, porque solo se encola detrás.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            byte[] trama;
+            int desde;
+            int total;
+            cerrojo.lock();
+            try {
+                trama = estado;
+                estado = null;
+                desde = inicio;
+                total = trama != null ? (int) (marcaEstado - escritos) : pendientes;
+                if (rota || (trama == null && total == 0)) {
+                    escribiendo = false;
+                    // Lo que queda en una cola rota ya no sale
+                    Metricas.desencolado(pendientes);
+                    pendientes = 0;
+                    if (cerrarAlVaciar) {
+                        rota = true;
+                        plazoCierre.cancel(false);
+                        canal.cerrarSocket();
+                    }
+                    return;
+                }
+            } finally {
+                cerrojo.unlock();
+            }
+            try {
+                if (total > 0) {
+                    int primero = Math.min(total, anillo.length - desde);
+                    out.write(anillo, desde, primero);
+                    if (total > primero) {
+                        out.write(anillo, 0, total - primero);
+                    }
+                    anotarEnviadas(desde, total);
+                }
+                if (trama != null) {
+                    out.write(trama);
+                    Metricas.enviado(trama.length);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // El cliente se ha ido: quien lee de él ya lo notará
+                cerrojo.lock();
+                try {
+                    rota = true;
+                } finally {
+                    cerrojo.unlock();
+                }
+                continue;
+            }
+            cerrojo.lock();
+            try {
+                inicio = (desde + total) % anillo.length;
+                pendientes -= total;
+                escritos += total;
+                Metricas.desencolado(total);
+            } finally {
+                cerrojo.unlock();
+            }
+        }
+    }
+
+    /**
+     * Anota en las métricas cada trama de un trozo del anillo ya escrito, como el estado, al salir.
+     * El trozo siempre empieza y acaba en un límite de trama, porque solo se encolan tramas enteras.
+     */
+    private void anotarEnviadas(int desde, int total) {
+        int posicion = desde;
+        while (total > 0) {
+            int longitud = 2 + (((anillo[posicion] & 0xFF) << 8) | (anillo[(posicion + 1) % anillo.length] & 0xFF));
+            Metricas.enviado(longitud);
+            posicion = (posicion + longitud) % anillo.length;
+            total -= longitud;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package es.juangmedac.dam.protocolo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de ByteBuffers de tamaño fijo para no crear un buffer nuevo por cada trama enviada.
+ * Los mensajes que no caben en un buffer del pool reciben un buffer propio, que al devolverse
+ * simplemente se descarta.
+ */
+public class PoolBuffers {
+
+    private final int tamano;
+    private final int maxLibres;
+    private final boolean directos;
+    private final ConcurrentLinkedQueue<ByteBuffer> libres;
+    private final AtomicInteger numLibres;
+
+    /**
+     * Constructor.
+     * @param tamano Capacidad de cada buffer.
+     * @param maxLibres Número máximo de buffers que se guardan para reutilizar.
+     * @param directos Si los buffers se reservan fuera del heap.
+     */
+    public PoolBuffers(int tamano, int maxLibres, boolean directos) {
+        this.tamano = tamano;
+        this.maxLibres = maxLibres;
+        this.directos = directos;
+        this.libres = new ConcurrentLinkedQueue<>();
+        this.numLibres = new AtomicInteger();
+    }
+
+    /**
+     * Toma un buffer vacío con al menos la capacidad indicada.
+     * @param minimo Bytes que se van a escribir.
+     */
+    public ByteBuffer tomar(int minimo) {
+        if (minimo > tamano) {
+            return reservar(minimo);
+        }
+        ByteBuffer buffer = libres.poll();
+        if (buffer == null) {
+            return reservar(tamano);
+        }
+        numLibres.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Devuelve un buffer al pool. Los que no son del tamaño del pool se descartan.
+     */
+    public void devolver(ByteBuffer buffer) {
+        if (buffer.capacity() != tamano || buffer.isDirect() != directos) {
+            return;
+        }
+        if (numLibres.incrementAndGet() > maxLibres) {
+            numLibres.decrementAndGet();
+            return;
+        }
+        libres.add(buffer);
+    }
+
+    public int getTamano() {
+        return tamano;
+    }
+
+    private ByteBuffer reservar(int capacidad) {
+        return directos ? ByteBuffer.allocateDirect(capacidad) : ByteBuffer.allocate(capacidad);
+    }
+}
@@ -0,0 +1,294 @@
+package es.juangmedac.dam.protocolo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo binario entre clientes y servidor.
+ * Cada trama lleva una cabecera de 3 bytes: longitud (u16, bytes que siguen) y tipo (u8).
+ * La versión se negocia una sola vez en el saludo y los camellos se identifican por su índice,
+ * de modo que los nombres viajan solo en la trama JINETES al empezar la carrera.
+ *
+ * <pre>
+ * HOLA     c-&gt;s  version:u8 nombre:texto
+ * ACEPTADO s-&gt;c  version:u8 latido:u16      (ms entre latidos en la cola; 0 = sin latidos)
+ * JINETES  s-&gt;c  idPropio:u16 n:u16 n x nombre:texto
+ * TURNO    s-&gt;c  turno:u16
+ * TIRADA   c-&gt;s  turno:u16 dado:u8           (de 1 a 6)
+ * ESTADO   s-&gt;c  n:u16 n x avance:u8
+ * FIN      s-&gt;c  n:u16 n x posicion:u16
+ * MIRAR    c-&gt;s  version:u8 idCarrera:i32   (en lugar de HOLA; 0 = la última carrera lanzada)
+ * OTRA     c-&gt;s  (sin datos)                 (tras FIN: vuelve a la cola por la misma conexión)
+ * LATIDO   s-&gt;c  (sin datos)                 (mientras espera mesa, para saber que la conexión sigue viva)
+ * MESA     p-&gt;s  idCarrera:i32 plazas:u16    (de una pasarela, antes del HOLA: carrera y jugadores de la mesa)
+ * </pre>
+ * Un texto es una longitud u16 seguida de los bytes en UTF-8. Un nombre de más de {@link #MAX_NOMBRE}
+ * caracteres se recorta, pero un saludo de más de {@link #MAX_SALUDO} bytes se rechaza.
+ * La tirada repite el número de turno recibido, así el servidor descarta las tiradas que
+ * llegan tarde a un turno que ya resolvió él solo por agotarse el plazo. Una tirada con un dado
+ * fuera de 1..6 también se descarta (ver {@link #dadoValido(int)}).
+ * Una conexión puede jugar muchas carreras seguidas: tras recibir FIN el jugador envía OTRA y
+ * vuelve a la cola sin repetir la conexión ni el saludo. Si no la envía a tiempo, el servidor cierra.
+ * Mientras espera mesa el servidor le envía un LATIDO cada {@code latido} milisegundos; si deja de
+ * recibirlos, el cliente puede dar la conexión por perdida.
+ * Un espectador saluda con MIRAR y recibe lo mismo que un jugador salvo los turnos, con
+ * {@link #SIN_CAMELLO} como camello propio.
+ * Detrás de una pasarela es ella quien forma las mesas: a cada jugador le pone delante de su HOLA
+ * una trama MESA con el número de carrera que ha elegido y cuántos jugadores la forman.
+ */
+public final class Protocolo {
+
+    /** Versión actual del protocolo. */
+    public static final int VERSION = 3;
+    /** Bytes de cabecera de cada trama (longitud + tipo). */
+    public static final int CABECERA = 3;
+    /** Longitud máxima del contenido de una trama (tipo incluido). */
+    public static final int MAX_TRAMA = 0xFFFF;
+    /** Longitud máxima de un nombre de jinete, en caracteres. */
+    public static final int MAX_NOMBRE = 32;
+    /** Bytes máximos de un saludo HOLA: un nombre más largo se recorta, pero el saludo no puede pasar de aquí. */
+    public static final int MAX_SALUDO = 512;
+    /** Máximo de camellos por carrera: con nombres de {@link #MAX_NOMBRE} caracteres la trama JINETES cabe en una trama. */
+    public static final int MAX_JINETES = 500;
+    /** Caras del dado: una tirada vale de 1 a este número. */
+    public static final int CARAS_DADO = 6;
+    /** Id propio de JINETES para quien solo mira la carrera (espectador o repetición). */
+    public static final int SIN_CAMELLO = 0xFFFF;
+
+    // Tipos de trama
+    public static final int HOLA = 1;
+    public static final int ACEPTADO = 2;
+    public static final int JINETES = 3;
+    public static final int TURNO = 4;
+    public static final int TIRADA = 5;
+    public static final int ESTADO = 6;
+    public static final int FIN = 7;
+    public static final int MIRAR = 8;
+    public static final int OTRA = 9;
+    public static final int LATIDO = 10;
+    public static final int MESA = 11;
+
+    /** Tamaño de las tramas sin datos (OTRA y LATIDO). */
+    public static final int TAMANO_VACIA = CABECERA;
+
+    private Protocolo() {
+    }
+
+    // *************** Escritura ***************
+
+    public static void escribirHola(ByteBuffer b, String nombre) {
+        int inicio = abrirTrama(b, HOLA);
+        b.put((byte) VERSION);
+        escribirTexto(b, nombre);
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirAceptado(ByteBuffer b, int latidoMs) {
+        int inicio = abrirTrama(b, ACEPTADO);
+        b.put((byte) VERSION);
+        b.putShort((short) latidoMs);
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirJinetes(ByteBuffer b, int idPropio, String[] nombres) {
+        int inicio = abrirTrama(b, JINETES);
+        b.putShort((short) idPropio);
+        b.putShort((short) nombres.length);
+        for (String nombre : nombres) {
+            escribirTexto(b, nombre);
+        }
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirMirar(ByteBuffer b, int idCarrera) {
+        int inicio = abrirTrama(b, MIRAR);
+        b.put((byte) VERSION);
+        b.putInt(idCarrera);
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirMesa(ByteBuffer b, int idCarrera, int plazas) {
+        int inicio = abrirTrama(b, MESA);
+        b.putInt(idCarrera);
+        b.putShort((short) plazas);
+        cerrarTrama(b, inicio);
+    }
+
+    /**
+     * Escribe una trama sin datos (OTRA o LATIDO).
+     */
+    public static void escribirVacia(ByteBuffer b, int tipo) {
+        cerrarTrama(b, abrirTrama(b, tipo));
+    }
+
+    public static void escribirTurno(ByteBuffer b, int turno) {
+        int inicio = abrirTrama(b, TURNO);
+        b.putShort((short) turno);
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirTirada(ByteBuffer b, int turno, int dado) {
+        int inicio = abrirTrama(b, TIRADA);
+        b.putShort((short) turno);
+        b.put((byte) dado);
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirEstado(ByteBuffer b, int[] avances) {
+        int inicio = abrirTrama(b, ESTADO);
+        b.putShort((short) avances.length);
+        for (int avance : avances) {
+            b.put((byte) avance);
+        }
+        cerrarTrama(b, inicio);
+    }
+
+    public static void escribirFin(ByteBuffer b, int[] posiciones) {
+        int inicio = abrirTrama(b, FIN);
+        b.putShort((short) posiciones.length);
+        for (int posicion : posiciones) {
+            b.putShort((short) posicion);
+        }
+        cerrarTrama(b, inicio);
+    }
+
+    // *************** Tamaños (para reservar buffers) ***************
+
+    public static int tamanoHola(String nombre) {
+        return CABECERA + 3 + nombre.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public static int tamanoAceptado() {
+        return CABECERA + 3;
+    }
+
+    public static int tamanoMirar() {
+        return CABECERA + 5;
+    }
+
+    public static int tamanoMesa() {
+        return CABECERA + 6;
+    }
+
+    public static int tamanoTurno() {
+        return CABECERA + 2;
+    }
+
+    public static int tamanoTirada() {
+        return CABECERA + 3;
+    }
+
+    public static int tamanoEstado(int numCamellos) {
+        return CABECERA + 2 + numCamellos;
+    }
+
+    public static int tamanoFin(int numCamellos) {
+        return CABECERA + 2 + 2 * numCamellos;
+    }
+
+    public static int tamanoJinetes(String[] nombres) {
+        int tamano = CABECERA + 4;
+        for (String nombre : nombres) {
+            tamano += 2 + 3 * nombre.length(); // Caso peor de UTF-8 para caracteres del BMP
+        }
+        return tamano;
+    }
+
+    // *************** Lectura ***************
+
+    /**
+     * Comprueba si en el buffer (en modo lectura) hay una trama completa.
+     * @return Número de bytes de la trama con su cabecera, o -1 si aún faltan datos.
+     */
+    public static int tramaCompleta(ByteBuffer b) {
+        if (b.remaining() < 2) {
+            return -1;
+        }
+        int total = 2 + Short.toUnsignedInt(b.getShort(b.position()));
+        return b.remaining() >= total ? total : -1;
+    }
+
+    /**
+     * Lee la cabecera de una trama completa y deja el buffer al principio de sus datos.
+     * @return El tipo de la trama.
+     */
+    public static int leerCabecera(ByteBuffer b) {
+        b.getShort();
+        return Byte.toUnsignedInt(b.get());
+    }
+
+    public static int leerU8(ByteBuffer b) {
+        return Byte.toUnsignedInt(b.get());
+    }
+
+    public static int leerU16(ByteBuffer b) {
+        return Short.toUnsignedInt(b.getShort());
+    }
+
+    public static String leerTexto(ByteBuffer b) {
+        int longitud = leerU16(b);
+        if (!b.hasArray()) {
+            byte[] bytes = new byte[longitud];
+            b.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String texto = new String(b.array(), b.arrayOffset() + b.position(), longitud, StandardCharsets.UTF_8);
+        b.position(b.position() + longitud);
+        return texto;
+    }
+
+    /**
+     * Lee una lista de enteros u8 (ESTADO) en un array ya reservado.
+     * @return Número de valores leídos.
+     */
+    public static int leerEstado(ByteBuffer b, int[] destino) {
+        int n = leerU16(b);
+        for (int i = 0; i < n; i++) {
+            destino[i] = leerU8(b);
+        }
+        return n;
+    }
+
+    /**
+     * Lee las posiciones finales (FIN) en un array ya reservado.
+     * @return Número de valores leídos.
+     */
+    public static int leerFin(ByteBuffer b, int[] destino) {
+        int n = leerU16(b);
+        for (int i = 0; i < n; i++) {
+            destino[i] = leerU16(b);
+        }
+        return n;
+    }
+
+    /**
+     * Comprueba que el dado de una tirada recibida está entre 1 y {@link #CARAS_DADO}.
+     */
+    public static boolean dadoValido(int dado) {
+        return dado >= 1 && dado <= CARAS_DADO;
+    }
+
+    /**
+     * Recorta un nombre a la longitud máxima permitida.
+     */
+    public static String normalizarNombre(String nombre) {
+        return nombre.length() > MAX_NOMBRE ? nombre.substring(0, MAX_NOMBRE) : nombre;
+    }
+
+    private static void escribirTexto(ByteBuffer b, String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        b.putShort((short) bytes.length);
+        b.put(bytes);
+    }
+
+    private static int abrirTrama(ByteBuffer b, int tipo) {
+        int inicio = b.position();
+        b.putShort((short) 0); // Se rellena al cerrar la trama
+        b.put((byte) tipo);
+        return inicio;
+    }
+
+    private static void cerrarTrama(ByteBuffer b, int inicio) {
+        b.putShort(inicio, (short) (b.position() - inicio - 2));
+    }
+}
@@ -0,0 +1,132 @@
+package es.juangmedac.dam.server;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Anillo de hash consistente con los backends de la {@link Pasarela}. Cada backend ocupa
+ * {@link #NODOS_VIRTUALES} puntos del anillo y una clave va al primer punto que la sigue,
+ * así que al añadir o quitar un backend solo cambian de sitio las claves de sus tramos.
+ * Es inmutable: añadir o quitar un backend crea un anillo nuevo, y la pasarela lo publica
+ * en un campo volatile para que los bucles lo lean sin cerrojo.
+ * Cada punto guarda en sus 12 bits bajos el índice de su backend, de modo que el anillo
+ * entero es un solo {@code long[]} ordenado.
+ */
+final class AnilloBackends {
+
+    static final int NODOS_VIRTUALES = 128;
+    static final int MAX_BACKENDS = 1 << 12;
+    private static final long MASCARA_INDICE = MAX_BACKENDS - 1;
+
+    private final InetSocketAddress[] backends;
+    private final long[] puntos;
+
+    private AnilloBackends(InetSocketAddress[] backends) {
+        this.backends = backends;
+        this.puntos = new long[backends.length * NODOS_VIRTUALES];
+        int k = 0;
+        for (int i = 0; i < backends.length; i++) {
+            long semilla = nombre(backends[i]).hashCode();
+            for (int v = 0; v < NODOS_VIRTUALES; v++) {
+                puntos[k++] = (mezclar(semilla * 0x9E3779B97F4A7C15L + v) & ~MASCARA_INDICE) | i;
+            }
+        }
+        Arrays.sort(puntos);
+    }
+
+    static AnilloBackends vacio() {
+        return new AnilloBackends(new InetSocketAddress[0]);
+    }
+
+    /**
+     * Devuelve un anillo con el backend añadido (o este mismo si ya estaba).
+     */
+    AnilloBackends con(InetSocketAddress backend) {
+        if (indice(backend) >= 0) {
+            return this;
+        }
+        if (backends.length == MAX_BACKENDS) {
+            throw new IllegalStateException("No caben más de " + MAX_BACKENDS + " backends");
+        }
+        InetSocketAddress[] nuevos = Arrays.copyOf(backends, backends.length + 1);
+        nuevos[backends.length] = backend;
+        return new AnilloBackends(nuevos);
+    }
+
+    /**
+     * Devuelve un anillo sin el backend (o este mismo si no estaba).
+     */
+    AnilloBackends sin(InetSocketAddress backend) {
+        int i = indice(backend);
+        if (i < 0) {
+            return this;
+        }
+        InetSocketAddress[] nuevos = new InetSocketAddress[backends.length - 1];
+        System.arraycopy(backends, 0, nuevos, 0, i);
+        System.arraycopy(backends, i + 1, nuevos, i, backends.length - i - 1);
+        return new AnilloBackends(nuevos);
+    }
+
+    /**
+     * Elige el backend de una clave.
+     * @param clave Número de carrera.
+     * @param intento 0 para el backend de la clave; 1, 2... para los siguientes distintos
+     *                en el sentido del anillo, si los anteriores no responden.
+     * @return El backend, o null si no quedan más.
+     */
+    InetSocketAddress elegir(long clave, int intento) {
+        if (intento >= backends.length) {
+            return null;
+        }
+        int p = Arrays.binarySearch(puntos, mezclar(clave));
+        if (p < 0) {
+            p = -p - 1;
+        }
+        if (intento == 0) {
+            return backends[(int) (puntos[p % puntos.length] & MASCARA_INDICE)];
+        }
+        // Solo al fallar una conexión: se recorre el anillo saltando los backends ya vistos
+        boolean[] vistos = new boolean[backends.length];
+        int distintos = 0;
+        for (int k = 0; ; k++) {
+            int i = (int) (puntos[(p + k) % puntos.length] & MASCARA_INDICE);
+            if (!vistos[i]) {
+                vistos[i] = true;
+                if (distintos++ == intento) {
+                    return backends[i];
+                }
+            }
+        }
+    }
+
+    InetSocketAddress[] getBackends() {
+        return backends.clone();
+    }
+
+    int getNumBackends() {
+        return backends.length;
+    }
+
+    static String nombre(InetSocketAddress backend) {
+        return backend.getHostString() + ":" + backend.getPort();
+    }
+
+    private int indice(InetSocketAddress backend) {
+        for (int i = 0; i < backends.length; i++) {
+            if (backends[i].equals(backend)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Finalizador de 64 bits de MurmurHash3: reparte bien claves consecutivas por el anillo
+    private static long mezclar(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB93F25F07BB7L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
@@ -0,0 +1,44 @@
+package es.juangmedac.dam.server;
+
+/**
+ * Quien juega un camello de una carrera: un jugador conectado ({@link GestionClientes} en el
+ * servidor clásico, {@link ConexionNio} en el NIO) o un {@link JineteBot} del propio servidor.
+ * La carrera le da el turno y le publica cada estado; el asiento le devuelve su tirada
+ * por {@link Tiradas#recibirTirada}.
+ */
+public interface Asiento {
+
+    /**
+     * Devuelve el id del camello del asiento.
+     */
+    int getIdCamello();
+
+    /**
+     * Devuelve el nombre del jinete.
+     */
+    String getNombre();
+
+    /**
+     * Le toca tirar en el turno (o ronda) indicado. No debe bloquear.
+     */
+    void darTurno(int turno);
+
+    /**
+     * Nuevo estado de la carrera. No debe bloquear.
+     */
+    void publicarEstado(InstantaneaEstado instantanea);
+
+    /**
+     * Carrera que recoge las tiradas de sus asientos.
+     */
+    interface Tiradas {
+
+        /**
+         * Entrega la tirada de un asiento. Se ignora si no es su turno o llega tarde.
+         * @param asiento Asiento que tira.
+         * @param turno Número de turno (o ronda) al que responde la tirada.
+         * @param dado Valor del dado.
+         */
+        void recibirTirada(Asiento asiento, int turno, int dado);
+    }
+}
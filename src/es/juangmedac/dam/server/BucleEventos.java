@@ -0,0 +1,143 @@
+package es.juangmedac.dam.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hilo con su propio Selector que atiende la lectura y escritura de muchas conexiones.
+ * Las operaciones que llegan desde otros hilos se encolan como tareas y se ejecutan
+ * dentro del propio bucle, de modo que las claves del Selector solo se tocan desde aquí.
+ */
+public class BucleEventos implements Runnable {
+
+    private final ServidorNio servidor;
+    private final Selector selector;
+    private final Queue<Runnable> tareas;
+    private Thread hilo;
+    private volatile boolean activo;
+
+    /**
+     * Constructor.
+     * @param servidor Servidor al que pertenece el bucle.
+     */
+    public BucleEventos(ServidorNio servidor) throws IOException {
+        this.servidor = servidor;
+        this.selector = Selector.open();
+        this.tareas = new ConcurrentLinkedQueue<>();
+        this.activo = true;
+    }
+
+    /**
+     * Arranca el hilo del bucle.
+     * @param nombre Nombre del hilo.
+     */
+    public void iniciar(String nombre) {
+        hilo = new Thread(this, nombre);
+        hilo.start();
+    }
+
+    /**
+     * Registra un canal recién aceptado en este bucle.
+     * @param canal Canal del cliente (se pone en modo no bloqueante).
+     */
+    public void registrar(SocketChannel canal) {
+        ejecutar(() -> {
+            try {
+                canal.configureBlocking(false);
+                ConexionNio conexion = new ConexionNio(servidor, this, canal);
+                SelectionKey clave = canal.register(selector, SelectionKey.OP_READ, conexion);
+                conexion.setClave(clave);
+                conexion.programarPlazoSaludo(servidor.getMarcapasos(), servidor.getConfig().getPlazoSaludoMs());
+            } catch (IOException e) {
+                System.out.println("Error registrando cliente: " + e.getMessage());
+                try {
+                    canal.close();
+                } catch (IOException ignorada) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Ejecuta una tarea dentro del hilo del bucle.
+     * @param tarea Tarea a ejecutar.
+     */
+    public void ejecutar(Runnable tarea) {
+        if (Thread.currentThread() == hilo) {
+            tarea.run();
+        } else {
+            tareas.add(tarea);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Indica si el hilo actual es el de este bucle.
+     */
+    public boolean enBucle() {
+        return Thread.currentThread() == hilo;
+    }
+
+    /**
+     * Detiene el bucle y cierra el Selector.
+     */
+    public void detener() {
+        activo = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (activo) {
+            try {
+                selector.select();
+
+                // Primero las tareas encoladas desde otros hilos
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null) {
+                    tarea.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    ConexionNio conexion = (ConexionNio) clave.attachment();
+                    try {
+                        if (clave.isValid() && clave.isReadable()) {
+                            conexion.alLeer();
+                        }
+                        if (clave.isValid() && clave.isWritable()) {
+                            conexion.alEscribir();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Un cliente con problemas no debe tumbar el bucle
+                        System.out.println("Error en conexión " + conexion + ": " + e.getMessage());
+                        conexion.cerrar();
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.out.println("Error en bucle de eventos: " + e.getMessage());
+            }
+        }
+
+        // Al salir se cierran todas las conexiones del bucle
+        for (SelectionKey clave : selector.keys()) {
+            if (clave.attachment() instanceof ConexionNio conexion) {
+                conexion.cerrar();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignorada) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package es.juangmedac.dam.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hilo con su propio Selector que mueve los bytes de muchos {@link TunelPasarela}.
+ * Como en {@link BucleEventos}, lo que llega de otros hilos se encola como tarea
+ * y las claves del Selector solo se tocan desde aquí.
+ */
+class BuclePasarela implements Runnable {
+
+    private final Pasarela pasarela;
+    private final Selector selector;
+    private final Queue<Runnable> tareas;
+    private Thread hilo;
+    private volatile boolean activo;
+
+    BuclePasarela(Pasarela pasarela) throws IOException {
+        this.pasarela = pasarela;
+        this.selector = Selector.open();
+        this.tareas = new ConcurrentLinkedQueue<>();
+        this.activo = true;
+    }
+
+    void iniciar(String nombre) {
+        hilo = new Thread(this, nombre);
+        hilo.start();
+    }
+
+    /**
+     * Registra un cliente recién aceptado en este bucle.
+     */
+    void registrar(SocketChannel canal, long plazoSaludoMs) {
+        ejecutar(() -> {
+            try {
+                canal.configureBlocking(false);
+                new TunelPasarela(pasarela, this, selector, canal).programarPlazoSaludo(plazoSaludoMs);
+            } catch (IOException e) {
+                System.out.println("Pasarela: error registrando cliente: " + e.getMessage());
+                pasarela.clienteCerrado();
+                try {
+                    canal.close();
+                } catch (IOException ignorada) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Ejecuta una tarea dentro del hilo del bucle.
+     */
+    void ejecutar(Runnable tarea) {
+        if (Thread.currentThread() == hilo) {
+            tarea.run();
+        } else {
+            tareas.add(tarea);
+            selector.wakeup();
+        }
+    }
+
+    void detener() {
+        activo = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (activo) {
+            try {
+                selector.select();
+
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null) {
+                    tarea.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    TunelPasarela tunel = (TunelPasarela) clave.attachment();
+                    try {
+                        if (clave.isValid()) {
+                            tunel.alListo(clave);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Un túnel con problemas no debe tumbar el bucle
+                        System.out.println("Pasarela: error en " + tunel + ": " + e.getMessage());
+                        tunel.cerrar();
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.out.println("Pasarela: error en bucle: " + e.getMessage());
+            }
+        }
+
+        for (SelectionKey clave : selector.keys()) {
+            if (clave.attachment() instanceof TunelPasarela tunel) {
+                tunel.cerrar();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignorada) {
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.comun.ReglasCarrera;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estado de una carrera concreta. Las reglas (avances, meta, llegadas y turno) son las de
+ * {@link ReglasCarrera}; aquí se añaden el cerrojo, los nombres, el diario y la publicación del estado.
+ * Se separa del servidor para que un mismo proceso pueda llevar varias carreras a la vez.
+ * Usa un ReentrantLock en lugar de synchronized/wait para que los hilos virtuales que
+ * esperan su turno no queden fijados a su hilo portador.
+ * Solo quien cambia la carrera toma el cerrojo: tras cada cambio se publica una
+ * {@link InstantaneaEstado} inmutable y los getters de estado la leen sin bloquear.
+ * En el modo por rondas todos los camellos activos tiran a la vez: cada "turno" es una ronda,
+ * las tiradas se entregan con {@link #entregarTirada(int, int, int)} y se aplican juntas al
+ * entregar la última.
+ */
+public class Carrera {
+
+    // Identificador de la carrera (para el registro) y número de jinetes/camellos
+    private final int idCarrera;
+    private final int numJinetes;
+
+    // Datos de la carrera
+    private final ReglasCarrera reglas;    // Avances, posiciones finales, turno y anillo de activos
+    private final int[] avances;           // Avances de las reglas (solo lectura, para codificar el estado)
+    private boolean finCarrera;            // Indica si la carrera ha terminado
+    private long version;                  // Crece con cada tirada que cambia el estado
+    private final String[] nombres;        // Nombres de los jinetes (índice = id del camello)
+    private int numNombres;                // Jinetes apuntados hasta ahora
+    private boolean reproduciendo;         // Se están repitiendo tiradas del diario: no se anotan
+    private long inicioMs;                 // Hora de comienzo (para anotar el momento de cada tirada)
+
+    // Momento (System.nanoTime) en que se pidió el último cambio de turno, 0 si ya se midió
+    private long instanteCambioTurno;
+
+    // Modo por rondas: tirada entregada por cada camello en la ronda en curso (0 = aún no ha tirado),
+    // tiradas que faltan para cerrarla y orden en que se aplican sus tiradas
+    private final boolean rondas;
+    private final int[] dadosRonda;
+    private int pendientesRonda;
+    private final int[] ordenRonda;
+
+    // Cerrojo de la carrera. Cada asiento tiene su propia condición para que al pasar
+    // el turno solo se despierte al hilo del camello que lo recibe.
+    private final ReentrantLock cerrojo;
+    private final Condition[] turnoDe;
+    private final Condition finalizada;
+
+    // Último estado publicado para los lectores, y sus posiciones finales (se reutilizan si no cambian)
+    private volatile InstantaneaEstado estado;
+    private int[] posicionesPublicadas;
+
+    /**
+     * Constructor.
+     * @param idCarrera Identificador de la carrera.
+     * @param numJinetes Número de camellos que participan en la carrera.
+     */
+    public Carrera(int idCarrera, int numJinetes) {
+        this(idCarrera, numJinetes, false);
+    }
+
+    /**
+     * Constructor.
+     * @param idCarrera Identificador de la carrera.
+     * @param numJinetes Número de camellos que participan en la carrera.
+     * @param rondas true si todos los camellos tiran a la vez en cada ronda en lugar de por turnos.
+     */
+    public Carrera(int idCarrera, int numJinetes, boolean rondas) {
+        this.idCarrera = idCarrera;
+        this.numJinetes = numJinetes;
+        reglas = new ReglasCarrera(numJinetes); // El primer turno es del camello 0
+        avances = reglas.avances();
+        finCarrera = false;
+        nombres = new String[numJinetes];
+        numNombres = 0;
+        cerrojo = new ReentrantLock();
+        turnoDe = new Condition[numJinetes];
+        for (int i = 0; i < numJinetes; i++) {
+            turnoDe[i] = cerrojo.newCondition();
+        }
+        finalizada = cerrojo.newCondition();
+        this.rondas = rondas;
+        dadosRonda = rondas ? new int[numJinetes] : null;
+        ordenRonda = rondas ? new int[numJinetes] : null;
+        pendientesRonda = numJinetes;
+        posicionesPublicadas = new int[numJinetes];
+        estado = new InstantaneaEstado(0, new int[numJinetes], posicionesPublicadas, false, 0, 0);
+    }
+
+    /**
+     * Añade un jinete a la lista de nombres. Su id de camello es el orden de llegada.
+     * @param nombreJinete Nombre del jinete.
+     */
+    public void agregarJinete(String nombreJinete) {
+        cerrojo.lock();
+        try {
+            nombres[numNombres++] = nombreJinete;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Marca el comienzo de la carrera, una vez apuntados todos los jinetes: se anota en el
+     * diario (con los nombres, para poder reconstruirla) y en el registro.
+     */
+    public void comenzar() {
+        cerrojo.lock();
+        try {
+            inicioMs = System.currentTimeMillis();
+            DiarioCarreras.anotarInicio(idCarrera, inicioMs, Arrays.copyOf(nombres, numNombres));
+            RegistroEventos.publicar(RegistroEventos.INICIO_CARRERA, idCarrera, -1, numJinetes, 0);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Anota en el diario que la carrera se ha abandonado sin terminar, para no recuperarla.
+     */
+    public void abandonar() {
+        cerrojo.lock();
+        try {
+            if (!finCarrera) {
+                DiarioCarreras.anotarFinal(idCarrera, DiarioCarreras.ABANDONO);
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Repite tiradas leídas del diario para reconstruir el estado. Cada tirada va seguida de
+     * su paso de turno, como en el juego. No se anota nada en el diario ni en el registro.
+     * @param inicioMs Hora de comienzo original de la carrera.
+     * @param camellos Camello de cada tirada.
+     * @param dados Valor de cada tirada.
+     * @param numTiradas Número de tiradas.
+     */
+    void reproducir(long inicioMs, int[] camellos, int[] dados, int numTiradas) {
+        cerrojo.lock();
+        try {
+            this.inicioMs = inicioMs;
+            reproduciendo = true;
+            for (int i = 0; i < numTiradas && !finCarrera; i++) {
+                realizarAvance(camellos[i], dados[i]);
+                siguienteTurno();
+            }
+        } finally {
+            reproduciendo = false;
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Actualiza el avance de un camello usando el valor obtenido de la tirada del dado.
+     * @param idCamello Identificador del camello.
+     * @param avance Valor obtenido en la tirada del dado (normalmente de 1 a 6).
+     */
+    public void realizarAvance(int idCamello, int avance) {
+        long antesDelCerrojo = System.nanoTime();
+        cerrojo.lock();
+        long conCerrojo = System.nanoTime();
+        try {
+            // Si el camello ya ha finalizado, no se hace nada.
+            if (avances[idCamello] >= ReglasCarrera.META) {
+                return;
+            }
+            version++;
+            boolean llegada = avanzar(idCamello, avance);
+            publicarEstado(llegada);
+        } finally {
+            if (!reproduciendo) {
+                Metricas.cerrojo(conCerrojo - antesDelCerrojo, System.nanoTime() - conCerrojo);
+            }
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Entrega la tirada de un camello en la ronda en curso (solo en el modo por rondas).
+     * Cuando han tirado todos los camellos activos, la ronda se aplica de una vez.
+     * @param idCamello Identificador del camello.
+     * @param ronda Número de la ronda a la que responde la tirada.
+     * @param dado Valor del dado (de 1 a 6).
+     * @return true si esta tirada ha cerrado la ronda; el llamante publica el estado y programa la siguiente.
+     */
+    public boolean entregarTirada(int idCamello, int ronda, int dado) {
+        long antesDelCerrojo = System.nanoTime();
+        cerrojo.lock();
+        long conCerrojo = System.nanoTime();
+        try {
+            // Tiradas tardías, repetidas o de camellos que ya han llegado se descartan
+            if (finCarrera || ronda != reglas.getNumeroTurno() || pendientesRonda == 0
+                    || avances[idCamello] >= ReglasCarrera.META || dadosRonda[idCamello] != 0) {
+                return false;
+            }
+            dadosRonda[idCamello] = dado;
+            if (--pendientesRonda > 0) {
+                return false;
+            }
+            aplicarRonda();
+            return true;
+        } finally {
+            Metricas.cerrojo(conCerrojo - antesDelCerrojo, System.nanoTime() - conCerrojo);
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Tira al azar por los camellos que no han tirado en la ronda indicada (se agotó su plazo) y la cierra.
+     * @return true si ha cerrado la ronda, false si ya estaba cerrada o es una ronda anterior.
+     */
+    public boolean completarRonda(int ronda) {
+        cerrojo.lock();
+        try {
+            if (finCarrera || ronda != reglas.getNumeroTurno() || pendientesRonda == 0) {
+                return false;
+            }
+            for (int i = 0; i < numJinetes; i++) {
+                if (avances[i] < ReglasCarrera.META && dadosRonda[i] == 0) {
+                    RegistroEventos.publicar(RegistroEventos.TIRADA_AUTOMATICA, idCarrera, i, 0, 0);
+                    dadosRonda[i] = ThreadLocalRandom.current().nextInt(1, 7);
+                }
+            }
+            pendientesRonda = 0;
+            aplicarRonda();
+            return true;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Aplica todas las tiradas de la ronda en un solo paso: una versión y una instantánea nuevas.
+     * Se aplican en el orden de {@link ReglasCarrera#ordenarRonda(int[], int[])} y así se anotan, de modo
+     * que repetirlas una a una desde el diario da las mismas posiciones.
+     */
+    private void aplicarRonda() {
+        version++;
+        int numTiradas = reglas.ordenarRonda(dadosRonda, ordenRonda);
+        boolean llegada = false;
+        for (int k = 0; k < numTiradas; k++) {
+            llegada |= avanzar(ordenRonda[k], dadosRonda[ordenRonda[k]]);
+        }
+        publicarEstado(llegada);
+    }
+
+    /**
+     * Aplica una tirada con las reglas y la anota. Se llama con el cerrojo tomado.
+     * @return true si el camello ha llegado a la meta con esta tirada.
+     */
+    private boolean avanzar(int idCamello, int avance) {
+        boolean llegada = reglas.avanzar(idCamello, avance);
+        // La tirada se copia al diario (unos bytes en memoria proyectada) y los eventos se
+        // publican en el registro asíncrono: aquí no se escribe en consola ni en disco
+        if (!reproduciendo) {
+            DiarioCarreras.anotarTirada(idCarrera, idCamello, avance, inicioMs);
+            RegistroEventos.publicar(RegistroEventos.TIRADA, idCarrera, idCamello, avance, avances[idCamello]);
+            if (llegada) {
+                RegistroEventos.publicar(RegistroEventos.LLEGADA, idCarrera, idCamello, reglas.getPosicionFinal(idCamello), 0);
+            }
+        }
+        return llegada;
+    }
+
+    /**
+     * Comprueba si han llegado todos y publica el nuevo estado. Se llama con el cerrojo tomado.
+     * @param llegada true si algún camello ha llegado desde la última publicación.
+     */
+    private void publicarEstado(boolean llegada) {
+        // Si todos han finalizado, se marca el fin de la carrera
+        if (reglas.isTerminada() && !finCarrera) {
+            finCarrera = true;
+            if (!reproduciendo) {
+                DiarioCarreras.anotarFinal(idCarrera, DiarioCarreras.FIN);
+                RegistroEventos.publicar(RegistroEventos.FIN_CARRERA, idCarrera, -1, numJinetes, 0);
+                for (int i = 0; i < numJinetes; i++) {
+                    RegistroEventos.publicar(RegistroEventos.POSICION_FINAL, idCarrera, i, reglas.getPosicionFinal(i), 0);
+                }
+            }
+            despertarATodos();
+        }
+
+        // Se publica el nuevo estado; las posiciones solo se copian si alguien ha llegado
+        if (llegada) {
+            posicionesPublicadas = reglas.posicionesFinales().clone();
+        }
+        estado = new InstantaneaEstado(version, avances, posicionesPublicadas, finCarrera,
+                reglas.getTurnoActual(), reglas.getNumeroTurno());
+    }
+
+    /**
+     * Devuelve el identificador de la carrera.
+     */
+    public int getIdCarrera() {
+        return idCarrera;
+    }
+
+    /**
+     * Devuelve el número de camellos de la carrera.
+     */
+    public int getNumJinetes() {
+        return numJinetes;
+    }
+
+    /**
+     * Indica si la carrera se juega por rondas (todos tiran a la vez) en lugar de por turnos.
+     */
+    public boolean isRondas() {
+        return rondas;
+    }
+
+    /**
+     * Devuelve el array de avances actuales.
+     */
+    public int[] getAvances() {
+        return estado.getAvances(); // Copia: la instantánea no se toca
+    }
+
+    /**
+     * Devuelve el último estado publicado, ya codificado y con su versión. No bloquea.
+     */
+    public InstantaneaEstado getInstantanea() {
+        return estado;
+    }
+
+    /**
+     * Devuelve el array de posiciones finales.
+     */
+    public int[] getPosicionesFinales() {
+        return estado.getPosicionesFinales();
+    }
+
+    /**
+     * Indica si la carrera ha finalizado.
+     */
+    public boolean isFinCarrera() {
+        return estado.isFinCarrera();
+    }
+
+    /**
+     * Devuelve la lista de nombres de jinetes separados por comas (para mostrar en consola).
+     */
+    public String getNombresJinetes() {
+        return String.join(",", getNombres());
+    }
+
+    /**
+     * Devuelve los nombres de los jinetes apuntados (índice = id del camello).
+     */
+    public String[] getNombres() {
+        cerrojo.lock();
+        try {
+            return Arrays.copyOf(nombres, numNombres);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Bloquea hasta que la carrera haya terminado.
+     */
+    public void esperarFin() throws InterruptedException {
+        cerrojo.lock();
+        try {
+            while (!finCarrera) {
+                finalizada.await();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    // *************** Métodos para gestionar el turno ***************
+
+    /**
+     * Devuelve el id del camello que tiene el turno actual.
+     */
+    public int getTurnoActual() {
+        return estado.getTurnoActual();
+    }
+
+    /**
+     * Devuelve el número del turno en curso.
+     */
+    public int getNumeroTurno() {
+        return estado.getNumeroTurno();
+    }
+
+    /**
+     * Bloquea hasta que el camello indicado tenga un turno nuevo o termine la carrera.
+     * Como el paso de turno puede programarse con retraso, no basta con que el turno sea suyo:
+     * tiene que ser distinto del último que jugó. En el modo por rondas el turno es de todos
+     * los camellos que no han llegado y el número de turno es el de la ronda.
+     * @param idCamello Identificador del camello.
+     * @param ultimoTurnoJugado Número del último turno que jugó este camello (-1 si ninguno).
+     * @return true si es su turno, false si la carrera ha terminado.
+     */
+    public boolean esperarTurno(int idCamello, int ultimoTurnoJugado) throws InterruptedException {
+        cerrojo.lock();
+        try {
+            while (!esSuTurno(idCamello, ultimoTurnoJugado) && !finCarrera) {
+                turnoDe[idCamello].await();
+            }
+            if (instanteCambioTurno != 0 && !finCarrera) {
+                Metricas.cambioTurno(System.nanoTime() - instanteCambioTurno);
+                instanteCambioTurno = 0;
+            }
+            return !finCarrera;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private boolean esSuTurno(int idCamello, int ultimoTurnoJugado) {
+        if (reglas.getNumeroTurno() == ultimoTurnoJugado) {
+            return false;
+        }
+        return rondas ? avances[idCamello] < ReglasCarrera.META && pendientesRonda > 0
+                : reglas.getTurnoActual() == idCamello;
+    }
+
+    /**
+     * Cambia el turno al siguiente camello que aún no haya finalizado (ver {@link ReglasCarrera#siguienteTurno()}).
+     * En el modo por rondas abre la ronda siguiente para todos los camellos que no han llegado.
+     */
+    public void siguienteTurno() {
+        long llamada = System.nanoTime();
+        cerrojo.lock();
+        try {
+            int turnoAnterior = reglas.getTurnoActual();
+
+            if (finCarrera) {
+                return; // No cambiar turno si la carrera ya terminó
+            }
+            if (!reproduciendo) {
+                instanteCambioTurno = llamada;
+            }
+
+            reglas.siguienteTurno();
+            int turnoActual = reglas.getTurnoActual();
+            estado = estado.conTurno(turnoActual, reglas.getNumeroTurno());
+
+            if (!reproduciendo) {
+                RegistroEventos.publicar(RegistroEventos.CAMBIO_TURNO, idCarrera, turnoAnterior, turnoActual, 0);
+            }
+
+            if (rondas) {
+                // Se abre la ronda para todos los que no han llegado
+                Arrays.fill(dadosRonda, 0);
+                pendientesRonda = reglas.getNumActivos();
+                for (int i = 0; i < numJinetes; i++) {
+                    if (avances[i] < ReglasCarrera.META) {
+                        turnoDe[i].signal();
+                    }
+                }
+                return;
+            }
+
+            // Solo se despierta al hilo del camello que recibe el turno.
+            turnoDe[turnoActual].signal();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Al terminar la carrera se despierta a todos los asientos y a quien espera el final.
+     */
+    private void despertarATodos() {
+        for (Condition condicion : turnoDe) {
+            condicion.signalAll();
+        }
+        finalizada.signalAll();
+    }
+}
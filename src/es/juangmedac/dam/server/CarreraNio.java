@@ -0,0 +1,363 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.Metricas;
+
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Carrera del servidor NIO: une una {@link Carrera} con los asientos de sus jinetes.
+ * Los jugadores ocupan los primeros asientos con su conexión y el resto, si la mesa no se llenó,
+ * lo ocupan {@link JineteBot} que tiran desde el {@link Marcapasos}; sin jugadores es una carrera
+ * de bots, que va tan rápido como deje el ritmo configurado.
+ * No tiene hilo propio; avanza cada vez que llega una tirada desde algún bucle de eventos
+ * o cuando el {@link Marcapasos} ejecuta el paso de turno, el plazo de tirada o la tirada de un bot.
+ * Por rondas, el TURNO de la ronda se da a todos los activos a la vez y el plazo es uno solo
+ * para toda la ronda: al agotarse, el servidor tira por quien falte.
+ * Si un jugador se desconecta (o no lee hasta llenar su cola de salida) su camello lo sigue un bot;
+ * cuando ya no queda ningún jugador la carrera se aborta.
+ * Los espectadores no tienen asiento: reciben los jinetes, cada estado publicado y las posiciones finales.
+ */
+public class CarreraNio implements Asiento.Tiradas {
+
+    private final ServidorNio servidor;
+    private final int idCarrera;
+    private final Carrera carrera;
+    private final Asiento[] asientos;
+    private final int numJugadores;
+    private final ConfiguracionCarrera config;
+    private final Marcapasos marcapasos;
+    private final Runnable pasarTurno;
+    private boolean comenzada;
+    private boolean terminada;
+    private final ArrayList<ConexionNio> espectadores;
+
+    // Turno (o ronda) cuya tirada se está esperando (-1 si ninguno) y su plazo programado
+    private int turnoPendiente;
+    private long inicioTurno;
+    private ScheduledFuture<?> plazoTirada;
+
+    /**
+     * Constructor.
+     * @param servidor Servidor propietario.
+     * @param idCarrera Identificador de la carrera dentro del servidor.
+     * @param jugadores Conexiones de los jugadores (índice = id del camello); pueden ser menos que
+     *                  los camellos de la carrera, o ninguna, y los asientos que faltan son bots.
+     * @param config Número de camellos y ritmo de la carrera.
+     * @param marcapasos Planificador de las esperas y de las tiradas de los bots.
+     */
+    public CarreraNio(ServidorNio servidor, int idCarrera, ConexionNio[] jugadores,
+                      ConfiguracionCarrera config, Marcapasos marcapasos) {
+        this.servidor = servidor;
+        this.idCarrera = idCarrera;
+        this.config = config;
+        this.marcapasos = marcapasos;
+        this.carrera = new Carrera(idCarrera, config.getNumJinetes(), config.isRondas());
+        this.pasarTurno = this::pasarTurno;
+        this.numJugadores = jugadores.length;
+        this.asientos = new Asiento[config.getNumJinetes()];
+        for (int i = 0; i < asientos.length; i++) {
+            asientos[i] = i < jugadores.length ? jugadores[i] : new JineteBot(i, "Bot " + (i + 1), this, marcapasos);
+        }
+        this.turnoPendiente = -1;
+        this.espectadores = new ArrayList<>();
+    }
+
+    /**
+     * Envía la lista de jinetes a los jugadores y da el primer turno. Quien se haya ido mientras
+     * se formaba la mesa ya sale con un bot en su asiento; si se han ido todos, no hay carrera.
+     */
+    public synchronized void iniciar() {
+        for (Asiento asiento : asientos) {
+            carrera.agregarJinete(asiento.getNombre());
+        }
+        ConexionNio ultimaIda = null;
+        int presentes = 0;
+        for (int i = 0; i < numJugadores; i++) {
+            ConexionNio conexion = (ConexionNio) asientos[i];
+            if (conexion.asignarCarrera(this, i)) {
+                presentes++;
+            } else {
+                // Un jinete se ha ido mientras se formaba la mesa: su camello lo lleva un bot
+                asientos[i] = new JineteBot(i, conexion.getNombre(), this, marcapasos);
+                ultimaIda = conexion;
+            }
+        }
+        if (numJugadores > 0 && presentes == 0) {
+            abortar(ultimaIda);
+            return;
+        }
+        carrera.comenzar();
+        comenzada = true;
+
+        String[] nombres = carrera.getNombres();
+        for (Asiento asiento : asientos) {
+            if (asiento instanceof ConexionNio conexion) {
+                conexion.enviarJinetes(nombres);
+            }
+        }
+        for (ConexionNio espectador : espectadores) {
+            espectador.enviarJinetes(nombres);
+        }
+        darTurno();
+    }
+
+    /**
+     * Procesa la tirada de un asiento. Se ignora si no es su turno, si llega tarde a un turno ya
+     * resuelto o si el asiento ya no es suyo. Por rondas se entrega a la ronda, que solo se aplica
+     * cuando han tirado todos.
+     * @param asiento Conexión o bot que tira.
+     * @param turno Número de turno al que responde la tirada (basta con sus 16 bits bajos, como en la trama).
+     * @param dado Valor del dado.
+     */
+    @Override
+    public synchronized void recibirTirada(Asiento asiento, int turno, int dado) {
+        int idCamello = asiento.getIdCamello();
+        if (terminada || turnoPendiente < 0 || asientos[idCamello] != asiento
+                || (turno & 0xFFFF) != (turnoPendiente & 0xFFFF)) {
+            return;
+        }
+        if (carrera.isRondas()) {
+            Metricas.esperaTirada(System.nanoTime() - inicioTurno);
+            if (carrera.entregarTirada(idCamello, turnoPendiente, dado)) {
+                rondaCerrada();
+            }
+            return;
+        }
+        if (idCamello != carrera.getTurnoActual()) {
+            return;
+        }
+        if (plazoTirada != null) {
+            plazoTirada.cancel(false);
+            plazoTirada = null;
+        }
+        aplicarTirada(idCamello, dado);
+    }
+
+    /**
+     * Se agotó el plazo de tirada: el servidor tira por el jinete.
+     */
+    private synchronized void tiradaAutomatica(int turno) {
+        if (terminada || turnoPendiente != turno) {
+            return;
+        }
+        plazoTirada = null;
+        int idCamello = carrera.getTurnoActual();
+        RegistroEventos.publicar(RegistroEventos.TIRADA_AUTOMATICA, idCarrera, idCamello, 0, 0);
+        aplicarTirada(idCamello, ThreadLocalRandom.current().nextInt(1, 7));
+    }
+
+    /**
+     * Se agotó el plazo de la ronda: el servidor tira por los jinetes que faltan.
+     */
+    private synchronized void rondaAgotada(int ronda) {
+        if (terminada || turnoPendiente != ronda) {
+            return;
+        }
+        plazoTirada = null;
+        if (carrera.completarRonda(ronda)) {
+            rondaCerrada();
+        }
+    }
+
+    private void rondaCerrada() {
+        if (plazoTirada != null) {
+            plazoTirada.cancel(false);
+            plazoTirada = null;
+        }
+        turnoPendiente = -1;
+        publicarYSeguir();
+    }
+
+    private void aplicarTirada(int idCamello, int dado) {
+        turnoPendiente = -1;
+        Metricas.esperaTirada(System.nanoTime() - inicioTurno);
+        carrera.realizarAvance(idCamello, dado);
+        publicarYSeguir();
+    }
+
+    private void publicarYSeguir() {
+        // El nuevo estado se codifica una vez y se publica a todos los asientos
+        InstantaneaEstado instantanea = carrera.getInstantanea();
+        for (Asiento asiento : asientos) {
+            asiento.publicarEstado(instantanea);
+        }
+        for (ConexionNio espectador : espectadores) {
+            espectador.publicarEstado(instantanea);
+        }
+
+        if (carrera.isFinCarrera()) {
+            terminar();
+        } else {
+            marcapasos.programar(config.getRetardoTurnoMs(), pasarTurno);
+        }
+    }
+
+    private synchronized void pasarTurno() {
+        if (terminada) {
+            return;
+        }
+        long llamada = System.nanoTime();
+        carrera.siguienteTurno();
+        darTurno();
+        Metricas.cambioTurno(System.nanoTime() - llamada);
+    }
+
+    /**
+     * Da el turno al asiento que le toca (por rondas, a todos los que no han llegado) y,
+     * si hay plazo de tirada, lo programa.
+     */
+    private void darTurno() {
+        int turno = carrera.getNumeroTurno();
+        turnoPendiente = turno;
+        inicioTurno = System.nanoTime();
+        if (carrera.isRondas()) {
+            InstantaneaEstado estado = carrera.getInstantanea();
+            for (int i = 0; i < asientos.length; i++) {
+                if (estado.getPosicionFinal(i) == 0) {
+                    asientos[i].darTurno(turno);
+                }
+            }
+            if (config.getTiempoMaximoTiradaMs() > 0) {
+                plazoTirada = marcapasos.programar(config.getTiempoMaximoTiradaMs(), () -> rondaAgotada(turno));
+            }
+            return;
+        }
+        asientos[carrera.getTurnoActual()].darTurno(turno);
+        if (config.getTiempoMaximoTiradaMs() > 0) {
+            plazoTirada = marcapasos.programar(config.getTiempoMaximoTiradaMs(), () -> tiradaAutomatica(turno));
+        }
+    }
+
+    /**
+     * Envía las posiciones finales a los jugadores. Cada conexión queda esperando OTRA; si el servidor
+     * no admite sesiones, se cierran todas pasada la espera final.
+     */
+    private void terminar() {
+        terminada = true;
+        int[] posiciones = carrera.getPosicionesFinales();
+        // Los jugadores van delante; un bot que sustituye a uno que se fue cuenta como el jugador.
+        // Las carreras solo de bots no se anotan
+        if (numJugadores > 0) {
+            EstadisticasJugadores.anotarCarrera(carrera.getNombres(), posiciones, numJugadores);
+        }
+        long plazoOtraMs = config.getPlazoOtraMs();
+        for (Asiento asiento : asientos) {
+            if (asiento instanceof ConexionNio conexion) {
+                conexion.terminarCarrera(posiciones, plazoOtraMs);
+            }
+        }
+        // Se vacía la lista antes de despedirlos: uno que se cierra al desbordar se quitaría de ella
+        for (ConexionNio espectador : despedirEspectadores()) {
+            espectador.enviarFin(posiciones);
+            espectador.cerrarAlTerminar();
+        }
+        if (plazoOtraMs <= 0) {
+            marcapasos.programar(config.getEsperaFinalMs(), () -> {
+                for (Asiento asiento : asientos) {
+                    if (asiento instanceof ConexionNio conexion) {
+                        conexion.cerrarAlTerminar();
+                    }
+                }
+            });
+        }
+        servidor.carreraTerminada(this);
+    }
+
+    /**
+     * Aviso de que una conexión de la carrera se ha cerrado: su camello lo sigue un bot.
+     */
+    public synchronized void conexionCerrada(ConexionNio conexion) {
+        abandonarAsiento(conexion);
+    }
+
+    /**
+     * El jinete pierde el asiento y desde ahora tira por él un bot, sin esperar al plazo si ya le tocaba.
+     * Si ya no queda ningún jugador en la carrera, se aborta.
+     */
+    synchronized void abandonarAsiento(ConexionNio conexion) {
+        int idCamello = conexion.getIdCamello();
+        if (terminada || asientos[idCamello] != conexion) {
+            return;
+        }
+        JineteBot bot = new JineteBot(idCamello, conexion.getNombre(), this, marcapasos);
+        asientos[idCamello] = bot;
+        boolean quedanJugadores = false;
+        for (Asiento asiento : asientos) {
+            quedanJugadores |= asiento instanceof ConexionNio;
+        }
+        if (!quedanJugadores) {
+            abortar(conexion);
+            return;
+        }
+        if (turnoPendiente >= 0 && (carrera.isRondas()
+                ? carrera.getInstantanea().getPosicionFinal(idCamello) == 0
+                : carrera.getTurnoActual() == idCamello)) {
+            bot.darTurno(turnoPendiente);
+        }
+    }
+
+    /**
+     * Se cierra al resto de jugadores y la carrera se da por terminada sin resultado.
+     */
+    private void abortar(ConexionNio causante) {
+        terminada = true;
+        carrera.abandonar();
+        if (plazoTirada != null) {
+            plazoTirada.cancel(false);
+        }
+        System.out.println("Carrera " + idCarrera + " abortada: " + causante + " se ha desconectado.");
+        for (Asiento asiento : asientos) {
+            if (asiento instanceof ConexionNio conexion && conexion != causante) {
+                conexion.cerrar();
+            }
+        }
+        for (ConexionNio espectador : despedirEspectadores()) {
+            espectador.cerrar();
+        }
+        servidor.carreraTerminada(this);
+    }
+
+    /**
+     * Añade un espectador que ya ha saludado: recibe el acuse, los jinetes y el estado actual y,
+     * a partir de ahí, cada estado nuevo. Si la carrera aún no ha empezado, los jinetes le llegan al empezar.
+     * @return false si la carrera ya ha terminado.
+     */
+    synchronized boolean suscribir(ConexionNio espectador) {
+        if (terminada) {
+            return false;
+        }
+        espectador.enviarAceptado(0);
+        espectadores.add(espectador);
+        if (comenzada) {
+            espectador.enviarJinetes(carrera.getNombres());
+            espectador.publicarEstado(carrera.getInstantanea());
+        }
+        return true;
+    }
+
+    /**
+     * Quita a un espectador que se ha ido.
+     */
+    synchronized void quitarEspectador(ConexionNio espectador) {
+        espectadores.remove(espectador);
+    }
+
+    private ConexionNio[] despedirEspectadores() {
+        ConexionNio[] despedidos = espectadores.toArray(new ConexionNio[0]);
+        espectadores.clear();
+        return despedidos;
+    }
+
+    /**
+     * Devuelve true si la carrera se formó sin jugadores.
+     */
+    public boolean isSoloBots() {
+        return numJugadores == 0;
+    }
+
+    public int getIdCarrera() {
+        return idCarrera;
+    }
+}
@@ -0,0 +1,87 @@
+package es.juangmedac.dam.server;
+
+/**
+ * Clasificaciones publicadas por {@link EstadisticasJugadores} tras cada carrera que las cambia.
+ * Es inmutable: las consultas la leen sin cerrojo, como la {@link InstantaneaEstado} de una carrera.
+ * Entre empatados el orden no es fijo (puede cambiar tras cargar una instantánea).
+ */
+public final class ClasificacionJugadores {
+
+    /** Una fila de una clasificación (o las estadísticas de un jugador). */
+    public static final class Fila {
+        private final String nombre;
+        private final int carreras;
+        private final int victorias;
+        private final int podios;
+        private final double posicionMedia;
+
+        Fila(String nombre, int carreras, int victorias, int podios, double posicionMedia) {
+            this.nombre = nombre;
+            this.carreras = carreras;
+            this.victorias = victorias;
+            this.podios = podios;
+            this.posicionMedia = posicionMedia;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        public int getCarreras() {
+            return carreras;
+        }
+
+        public int getVictorias() {
+            return victorias;
+        }
+
+        public int getPodios() {
+            return podios;
+        }
+
+        public double getPosicionMedia() {
+            return posicionMedia;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d victorias, %d podios, %d carreras, posición media %.2f",
+                    nombre, victorias, podios, carreras, posicionMedia);
+        }
+    }
+
+    private final Fila[] porVictorias;
+    private final Fila[] porPodios;
+    private final long carrerasAnotadas;
+
+    ClasificacionJugadores(Fila[] porVictorias, Fila[] porPodios, long carrerasAnotadas) {
+        this.porVictorias = porVictorias;
+        this.porPodios = porPodios;
+        this.carrerasAnotadas = carrerasAnotadas;
+    }
+
+    /**
+     * Devuelve los jugadores con más victorias, de más a menos (como mucho K).
+     */
+    public Fila[] getPorVictorias() {
+        return porVictorias.clone();
+    }
+
+    /**
+     * Devuelve los jugadores con más podios (tres primeros puestos), de más a menos (como mucho K).
+     */
+    public Fila[] getPorPodios() {
+        return porPodios.clone();
+    }
+
+    /**
+     * Devuelve la fila en la posición indicada de la clasificación por victorias (0 = líder), o null.
+     */
+    public Fila getLider(int posicion) {
+        return posicion < porVictorias.length ? porVictorias[posicion] : null;
+    }
+
+    public long getCarrerasAnotadas() {
+        return carrerasAnotadas;
+    }
+}
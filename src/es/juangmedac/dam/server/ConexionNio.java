@@ -0,0 +1,545 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.protocolo.ColaSalida;
+import es.juangmedac.dam.protocolo.PoolBuffers;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conexión no bloqueante de un jinete dentro de {@link ServidorNio}: el {@link Asiento} de un jugador del servidor NIO.
+ * Habla el mismo protocolo de tramas que {@link GestionClientes}. Las tramas de salida
+ * se codifican en buffers del pool del servidor, que se devuelven al terminar de escribirse.
+ * El estado de la carrera no pasa por la cola: se guarda solo la última instantánea publicada,
+ * así que a un cliente lento le llega directamente el estado más reciente, aunque nunca antes
+ * que las tramas que ya estaban encoladas cuando se publicó.
+ * El resto de tramas tiene un presupuesto de bytes pendientes ({@link ColaSalida#getPresupuesto()}):
+ * si el cliente no lee y lo supera, pierde el asiento y su camello lo sigue un {@link JineteBot}.
+ * Tras las posiciones finales la conexión no se cierra enseguida: si el cliente pide OTRA dentro
+ * del plazo vuelve a la mesa tal cual, sin nuevo socket ni nuevo saludo.
+ * Si llega de una {@link Pasarela}, antes del saludo viene la trama MESA con la carrera que le ha
+ * tocado, y se sienta en esa mesa en lugar de en la del servidor.
+ * Quien saluda con MIRAR es un espectador: no ocupa asiento y recibe los jinetes, los estados y las
+ * posiciones finales de la carrera que mira; si no lee hasta llenar su cola, se le desconecta.
+ */
+public class ConexionNio implements Asiento {
+
+    /**
+     * Fases por las que pasa la conexión.
+     */
+    enum Fase { ESPERANDO_NOMBRE, EN_MESA, EN_CARRERA, ESPERANDO_OTRA, ESPECTADOR, CERRADA }
+
+    private final ServidorNio servidor;
+    private final BucleEventos bucle;
+    private final SocketChannel canal;
+    private final PoolBuffers pool;
+    private SelectionKey clave;
+
+    private final ByteBuffer entrada;       // Bytes recibidos pendientes de procesar
+    private final Queue<ByteBuffer> salida; // Mensajes pendientes de escribir
+    private final AtomicInteger bytesEnCola;
+    private volatile boolean cerrarTrasEnviar;
+    private final AtomicBoolean escrituraSolicitada;
+    private final Runnable tareaActivarEscritura;
+
+    // Tramas encoladas y escritas desde el principio: el estado sale cuando se han escrito
+    // las que había encoladas al publicarlo (su marca)
+    private final AtomicLong tramasEncoladas;
+    private long tramasEscritas;
+    private volatile long marcaEstado;
+
+    // Último estado publicado, versión enviada y trama de estado escrita a medias
+    private volatile InstantaneaEstado ultimoEstado;
+    private long versionEnviada;
+    private ByteBuffer estadoEnCurso;
+
+    private volatile Fase fase;
+    private ScheduledFuture<?> plazoSaludo;
+    private ScheduledFuture<?> plazoOtra;
+    private int esperasOtra; // Cuenta las esperas de OTRA, para que un plazo viejo no cierre una espera nueva
+    private String nombre;
+    private long enMesaDesde; // Cuándo se sentó en la mesa, para la espera de los bots
+    private int mesaAsignada; // Carrera elegida por la pasarela (0 = la forma el servidor)
+    private int plazasMesa;
+    private CarreraNio carrera;
+    private int idCamello;
+
+    /**
+     * Constructor.
+     * @param servidor Servidor propietario.
+     * @param bucle Bucle de eventos que atiende la conexión.
+     * @param canal Canal no bloqueante del cliente.
+     */
+    public ConexionNio(ServidorNio servidor, BucleEventos bucle, SocketChannel canal) {
+        this.servidor = servidor;
+        this.bucle = bucle;
+        this.canal = canal;
+        this.pool = servidor.getPool();
+        // Las tramas más largas de un cliente son los saludos
+        this.entrada = ByteBuffer.allocate(Protocolo.MAX_SALUDO);
+        this.salida = new ConcurrentLinkedQueue<>();
+        this.bytesEnCola = new AtomicInteger();
+        this.tramasEncoladas = new AtomicLong();
+        this.escrituraSolicitada = new AtomicBoolean();
+        this.tareaActivarEscritura = this::activarEscritura;
+        this.versionEnviada = -1;
+        this.fase = Fase.ESPERANDO_NOMBRE;
+        this.idCamello = -1;
+        Metricas.conexionAbierta();
+    }
+
+    void setClave(SelectionKey clave) {
+        this.clave = clave;
+    }
+
+    /**
+     * Cierra la conexión si no ha saludado pasado el plazo. Se llama desde el bucle al registrarla.
+     * @param plazoMs Plazo en milisegundos (0 = sin límite).
+     */
+    void programarPlazoSaludo(Marcapasos marcapasos, long plazoMs) {
+        if (plazoMs > 0) {
+            // La comprobación se hace en el bucle, en orden con el procesado del saludo
+            plazoSaludo = marcapasos.programar(plazoMs, () -> bucle.ejecutar(this::comprobarSaludo));
+        }
+    }
+
+    private void comprobarSaludo() {
+        if (fase == Fase.ESPERANDO_NOMBRE) {
+            System.out.println("Cliente cerrado: no ha saludado a tiempo");
+            cerrar();
+        }
+    }
+
+    /**
+     * Asigna la conexión a una carrera ya formada.
+     * @return false si la conexión se cerró antes de poder sentarla en la carrera.
+     */
+    synchronized boolean asignarCarrera(CarreraNio carrera, int idCamello) {
+        if (fase == Fase.CERRADA) {
+            return false;
+        }
+        this.carrera = carrera;
+        this.idCamello = idCamello;
+        this.fase = Fase.EN_CARRERA;
+        return true;
+    }
+
+    /**
+     * Envía las posiciones finales y, si el servidor admite sesiones, espera a que el cliente
+     * pida otra carrera. Se llama desde la carrera al terminar.
+     * @param plazoOtraMs Plazo para pedir otra carrera (0 = se cierra como siempre, lo decide la carrera).
+     */
+    void terminarCarrera(int[] posiciones, long plazoOtraMs) {
+        if (plazoOtraMs > 0) {
+            synchronized (this) {
+                if (fase != Fase.EN_CARRERA) {
+                    return;
+                }
+                // Antes de enviar FIN, para que un OTRA rápido ya encuentre la fase
+                fase = Fase.ESPERANDO_OTRA;
+            }
+            bucle.ejecutar(() -> programarPlazoOtra(plazoOtraMs));
+        }
+        enviarFin(posiciones);
+    }
+
+    private void programarPlazoOtra(long plazoOtraMs) {
+        if (fase != Fase.ESPERANDO_OTRA) {
+            return;
+        }
+        int espera = ++esperasOtra;
+        plazoOtra = servidor.getMarcapasos().programar(plazoOtraMs, () -> bucle.ejecutar(() -> {
+            if (fase == Fase.ESPERANDO_OTRA && esperasOtra == espera) {
+                cerrarAlTerminar();
+            }
+        }));
+    }
+
+    /**
+     * Vuelve a la mesa tras pedir OTRA. En el bucle.
+     */
+    private void volverAMesa() {
+        synchronized (this) {
+            if (fase != Fase.ESPERANDO_OTRA) {
+                return;
+            }
+            fase = Fase.EN_MESA;
+        }
+        esperasOtra++;
+        // Las versiones de la carrera nueva vuelven a empezar
+        ultimoEstado = null;
+        versionEnviada = -1;
+        if (plazoOtra != null) {
+            plazoOtra.cancel(false);
+            plazoOtra = null;
+        }
+        Metricas.reenganche();
+        servidor.sentarEnMesa(this);
+    }
+
+    private synchronized Fase marcarCerrada() {
+        Fase anterior = fase;
+        fase = Fase.CERRADA;
+        return anterior;
+    }
+
+    @Override
+    public String getNombre() {
+        return nombre;
+    }
+
+    @Override
+    public int getIdCamello() {
+        return idCamello;
+    }
+
+    void setEnMesaDesde(long instante) {
+        enMesaDesde = instante;
+    }
+
+    long getEnMesaDesde() {
+        return enMesaDesde;
+    }
+
+    int getMesaAsignada() {
+        return mesaAsignada;
+    }
+
+    /**
+     * Lee del canal y procesa todos los mensajes completos recibidos.
+     */
+    void alLeer() throws IOException {
+        int leidos = canal.read(entrada);
+        if (leidos < 0) {
+            cerrar();
+            return;
+        }
+        entrada.flip();
+        procesarEntrada();
+        entrada.compact();
+        if (!entrada.hasRemaining()) {
+            // Ninguna trama de un cliente válido ocupa el buffer entero
+            if (fase == Fase.ESPERANDO_NOMBRE && Byte.toUnsignedInt(entrada.get(2)) == Protocolo.HOLA) {
+                System.out.println("Cliente rechazado: saludo de " + (2 + Protocolo.leerU16(entrada.flip()))
+                        + " bytes");
+                cerrar();
+                return;
+            }
+            throw new IOException("trama demasiado larga");
+        }
+    }
+
+    private void procesarEntrada() {
+        int total;
+        while (fase != Fase.CERRADA && (total = Protocolo.tramaCompleta(entrada)) >= 0) {
+            int siguiente = entrada.position() + total;
+            int tipo = Protocolo.leerCabecera(entrada);
+            if (tipo == Protocolo.MESA && fase == Fase.ESPERANDO_NOMBRE && mesaAsignada == 0) {
+                int idCarrera = entrada.getInt();
+                int plazas = Protocolo.leerU16(entrada);
+                if (idCarrera <= 0 || plazas < 1 || plazas > servidor.getConfig().getNumJinetes()) {
+                    System.out.println("Cliente rechazado: mesa de pasarela no válida (carrera " + idCarrera
+                            + ", " + plazas + " jugadores)");
+                    cerrar();
+                    return;
+                }
+                mesaAsignada = idCarrera;
+                plazasMesa = plazas;
+            } else if (tipo == Protocolo.HOLA && fase == Fase.ESPERANDO_NOMBRE) {
+                int version = Protocolo.leerU8(entrada);
+                if (version != Protocolo.VERSION) {
+                    System.out.println("Cliente rechazado: versión de protocolo " + version);
+                    cerrar();
+                    return;
+                }
+                nombre = Protocolo.normalizarNombre(Protocolo.leerTexto(entrada));
+                fase = Fase.EN_MESA;
+                if (plazoSaludo != null) {
+                    plazoSaludo.cancel(false);
+                }
+
+                // Se envía el acuse de recibo y se sienta al jinete en la mesa
+                enviarAceptado((int) servidor.getConfig().getLatidoMs());
+                if (mesaAsignada > 0) {
+                    servidor.sentarEnMesaAsignada(this, mesaAsignada, plazasMesa);
+                } else {
+                    servidor.sentarEnMesa(this);
+                }
+            } else if (tipo == Protocolo.MIRAR && fase == Fase.ESPERANDO_NOMBRE && mesaAsignada == 0) {
+                mirar(Protocolo.leerU8(entrada), entrada.getInt());
+            } else if (tipo == Protocolo.TIRADA && fase == Fase.EN_CARRERA) {
+                int turno = Protocolo.leerU16(entrada);
+                int dado = Protocolo.leerU8(entrada);
+                if (Protocolo.dadoValido(dado)) {
+                    carrera.recibirTirada(this, turno, dado);
+                } else {
+                    System.out.println("Tirada descartada de " + this + ": dado " + dado);
+                }
+            } else if (tipo == Protocolo.OTRA && fase == Fase.ESPERANDO_OTRA) {
+                volverAMesa();
+            }
+            // Cualquier otra trama (por ejemplo una tirada mientras espera en la mesa) se descarta
+            entrada.position(siguiente);
+        }
+    }
+
+    /**
+     * Se suscribe como espectador a la carrera pedida, o a la última lanzada si pide la 0.
+     */
+    private void mirar(int version, int idCarrera) {
+        if (plazoSaludo != null) {
+            plazoSaludo.cancel(false);
+        }
+        CarreraNio mirada = version == Protocolo.VERSION ? servidor.buscarCarrera(idCarrera) : null;
+        fase = Fase.ESPECTADOR;
+        carrera = mirada;
+        if (mirada == null || !mirada.suscribir(this)) {
+            System.out.println("Espectador rechazado: no hay carrera " + (idCarrera > 0 ? idCarrera : "en curso"));
+            cerrar();
+        }
+    }
+
+    /**
+     * Envía el acuse de recibo del saludo.
+     * @param latidoMs Intervalo de latidos mientras espera mesa (0 para un espectador).
+     */
+    void enviarAceptado(int latidoMs) {
+        ByteBuffer b = pool.tomar(Protocolo.tamanoAceptado());
+        Protocolo.escribirAceptado(b, latidoMs);
+        enviar(b);
+    }
+
+    /**
+     * Avisa al jinete de que le toca tirar.
+     * @param turno Número de turno, que el cliente repite en su tirada.
+     */
+    @Override
+    public void darTurno(int turno) {
+        ByteBuffer b = pool.tomar(Protocolo.tamanoTurno());
+        Protocolo.escribirTurno(b, turno);
+        enviar(b);
+    }
+
+    /**
+     * Publica el estado de la carrera para este cliente. Si aún no se había enviado el anterior,
+     * se sustituye por este. Sale detrás de las tramas ya encoladas.
+     */
+    @Override
+    public void publicarEstado(InstantaneaEstado instantanea) {
+        // La marca antes que el estado: quien lea el estado ve al menos su marca
+        marcaEstado = tramasEncoladas.get();
+        ultimoEstado = instantanea;
+        solicitarEscritura();
+    }
+
+    /**
+     * Envía la lista de jinetes de la carrera junto con el id del camello propio ({@link Protocolo#SIN_CAMELLO}
+     * para un espectador).
+     */
+    public void enviarJinetes(String[] nombres) {
+        ByteBuffer b = pool.tomar(Protocolo.tamanoJinetes(nombres));
+        Protocolo.escribirJinetes(b, fase == Fase.ESPECTADOR ? Protocolo.SIN_CAMELLO : idCamello, nombres);
+        enviar(b);
+    }
+
+    /**
+     * Envía un latido a un jugador que espera mesa.
+     */
+    void enviarLatido() {
+        ByteBuffer b = pool.tomar(Protocolo.TAMANO_VACIA);
+        Protocolo.escribirVacia(b, Protocolo.LATIDO);
+        enviar(b);
+    }
+
+    /**
+     * Envía las posiciones finales.
+     */
+    public void enviarFin(int[] posiciones) {
+        ByteBuffer b = pool.tomar(Protocolo.tamanoFin(posiciones.length));
+        Protocolo.escribirFin(b, posiciones);
+        enviar(b);
+    }
+
+    /**
+     * Encola una trama ya escrita para el cliente. Puede llamarse desde cualquier hilo.
+     * @param mensaje Buffer del pool con la trama (en modo escritura); pasa a ser de la conexión.
+     */
+    private void enviar(ByteBuffer mensaje) {
+        if (fase == Fase.CERRADA) {
+            pool.devolver(mensaje);
+            return;
+        }
+        mensaje.flip();
+        int bytes = mensaje.remaining();
+        int pendientes = bytesEnCola.addAndGet(bytes);
+        if (pendientes > ColaSalida.getPresupuesto()) {
+            bytesEnCola.addAndGet(-bytes);
+            pool.devolver(mensaje);
+            desbordar();
+            return;
+        }
+        Metricas.encolado(bytes, pendientes);
+        salida.add(mensaje);
+        tramasEncoladas.incrementAndGet();
+        solicitarEscritura();
+    }
+
+    /**
+     * El cliente no lee y su cola se ha llenado: pierde el asiento (la carrera sigue sin él) y se cierra.
+     * Un espectador solo se cierra.
+     */
+    private void desbordar() {
+        if (fase == Fase.ESPECTADOR) {
+            System.out.println("Espectador desconectado: " + this + " no lee y su cola de salida está llena");
+            Metricas.desborde(false);
+            cerrar();
+            return;
+        }
+        System.out.println("Asiento abandonado: " + this + " no lee y su cola de salida está llena");
+        Metricas.desborde(true);
+        CarreraNio enCurso = carrera;
+        if (fase == Fase.EN_CARRERA && enCurso != null) {
+            enCurso.abandonarAsiento(this);
+        }
+        cerrar();
+    }
+
+    /**
+     * Cierra la conexión cuando se haya vaciado la cola de salida.
+     */
+    public void cerrarAlTerminar() {
+        cerrarTrasEnviar = true;
+        solicitarEscritura();
+    }
+
+    /**
+     * Pide al bucle que active la escritura. Solo se encola una tarea aunque lleguen muchas peticiones.
+     */
+    private void solicitarEscritura() {
+        if (escrituraSolicitada.compareAndSet(false, true)) {
+            bucle.ejecutar(tareaActivarEscritura);
+        }
+    }
+
+    private void activarEscritura() {
+        escrituraSolicitada.set(false);
+        if (clave != null && clave.isValid()) {
+            clave.interestOps(clave.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Escribe todo lo que admita el canal sin bloquear.
+     */
+    void alEscribir() throws IOException {
+        while (true) {
+            // El estado, en cuanto han salido las tramas encoladas antes que él: así no adelanta a
+            // los JINETES ni a un TURNO, y las posiciones finales llegan después del último avance
+            if (!escribirEstado()) {
+                return;
+            }
+            ByteBuffer mensaje = salida.peek();
+            if (mensaje == null) {
+                break;
+            }
+            canal.write(mensaje);
+            if (mensaje.hasRemaining()) {
+                // Ventana TCP llena: se sigue cuando el canal vuelva a admitir datos
+                return;
+            }
+            Metricas.enviado(mensaje.limit());
+            bytesEnCola.addAndGet(-mensaje.limit());
+            Metricas.desencolado(mensaje.limit());
+            pool.devolver(salida.poll());
+            tramasEscritas++;
+        }
+        clave.interestOps(clave.interestOps() & ~SelectionKey.OP_WRITE);
+        if (cerrarTrasEnviar) {
+            cerrar();
+        }
+    }
+
+    /**
+     * Escribe la trama de estado a medias y, si hay una instantánea más nueva cuya marca ya se ha
+     * alcanzado, la escribe.
+     * @return false si el canal se ha llenado antes de terminar.
+     */
+    private boolean escribirEstado() throws IOException {
+        if (estadoEnCurso == null) {
+            InstantaneaEstado instantanea = ultimoEstado;
+            if (instantanea == null || instantanea.getVersion() <= versionEnviada
+                    || tramasEscritas < marcaEstado) {
+                return true;
+            }
+            if (versionEnviada >= 0 && instantanea.getVersion() > versionEnviada + 1) {
+                // Los estados intermedios no han llegado a salir
+                Metricas.estadosCombinados(instantanea.getVersion() - versionEnviada - 1);
+            }
+            byte[] trama = instantanea.getTrama();
+            estadoEnCurso = pool.tomar(trama.length);
+            estadoEnCurso.put(trama).flip();
+            versionEnviada = instantanea.getVersion();
+        }
+        canal.write(estadoEnCurso);
+        if (estadoEnCurso.hasRemaining()) {
+            return false;
+        }
+        Metricas.enviado(estadoEnCurso.limit());
+        pool.devolver(estadoEnCurso);
+        estadoEnCurso = null;
+        return true;
+    }
+
+    /**
+     * Cierra el canal y avisa a la mesa o la carrera.
+     */
+    public void cerrar() {
+        if (!bucle.enBucle()) {
+            bucle.ejecutar(this::cerrar);
+            return;
+        }
+        Fase anterior = marcarCerrada();
+        if (anterior == Fase.CERRADA) {
+            return;
+        }
+        Metricas.conexionCerrada();
+        salida.clear();
+        Metricas.desencolado(bytesEnCola.getAndSet(0));
+        estadoEnCurso = null;
+        if (plazoSaludo != null) {
+            plazoSaludo.cancel(false);
+        }
+        if (plazoOtra != null) {
+            plazoOtra.cancel(false);
+        }
+        if (clave != null) {
+            clave.cancel();
+        }
+        try {
+            canal.close();
+        } catch (IOException ignorada) {
+        }
+        if (anterior == Fase.EN_MESA) {
+            servidor.levantarDeMesa(this);
+        } else if (anterior == Fase.EN_CARRERA) {
+            carrera.conexionCerrada(this);
+        } else if (anterior == Fase.ESPECTADOR && carrera != null) {
+            carrera.quitarEspectador(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return nombre != null ? nombre : String.valueOf(canal);
+    }
+}
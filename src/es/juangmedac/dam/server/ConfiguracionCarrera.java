@@ -0,0 +1,262 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.util.function.Consumer;
+
+/**
+ * Parámetros de una carrera: número de camellos y ritmo. Es inmutable: los métodos {@code con...}
+ * devuelven una copia. Un valor de 0 en los retardos significa "sin espera" y en el plazo de tirada "sin límite".
+ * Con {@code rondas} todos los camellos tiran a la vez en cada ronda y el plazo de tirada es el de la ronda;
+ * como una ronda espera a todos, por rondas el plazo nunca es "sin límite" (ver {@link #PLAZO_RONDA_POR_DEFECTO}).
+ */
+public final class ConfiguracionCarrera {
+
+    /** Camellos por carrera si no se indica otro número. */
+    public static final int JINETES_POR_DEFECTO = 4;
+    /** Plazo de saludo si no se indica otro. */
+    public static final long PLAZO_SALUDO_POR_DEFECTO = 5000;
+    /** Intervalo de latidos a los jugadores en cola si no se indica otro. */
+    public static final long LATIDO_POR_DEFECTO = 5000;
+    /** Plazo para pedir otra carrera por la misma conexión si no se indica otro. */
+    public static final long PLAZO_OTRA_POR_DEFECTO = 2000;
+    /** Plazo de la ronda si se juega por rondas sin plazo de tirada, para que un jugador callado no la pare. */
+    public static final long PLAZO_RONDA_POR_DEFECTO = 10000;
+
+    private final int numJinetes;            // Camellos por carrera
+    private final long retardoTurnoMs;       // Pausa entre una tirada y el paso del turno
+    private final long esperaFinalMs;        // Tiempo antes de cerrar los sockets al terminar
+    private final long tiempoMaximoTiradaMs; // Plazo para tirar antes de que el servidor tire solo
+    private final long esperaBotsMs;         // Espera de una mesa incompleta antes de llenarla con bots
+    private final long plazoSaludoMs;        // Plazo de un cliente nuevo para saludar antes de cerrarlo
+    private final long latidoMs;             // Intervalo de latidos a los jugadores que esperan mesa
+    private final long plazoOtraMs;          // Plazo tras FIN para pedir otra carrera por la misma conexión
+    private final boolean rondas;            // Todos tiran a la vez en cada ronda en lugar de por turnos
+
+    /**
+     * Constructor.
+     * @param numJinetes Camellos por carrera (de 1 a {@link Protocolo#MAX_JINETES}).
+     * @param retardoTurnoMs Pausa entre una tirada y el paso del turno.
+     * @param esperaFinalMs Tiempo que se mantienen abiertos los sockets al terminar.
+     * @param tiempoMaximoTiradaMs Plazo para tirar; si se agota se tira automáticamente (0 = sin límite).
+     * @param esperaBotsMs Espera tras la que una mesa incompleta se completa con bots (0 = sin bots).
+     * @param plazoSaludoMs Plazo de una conexión nueva para completar el saludo (0 = sin límite).
+     * @param latidoMs Intervalo de latidos a los jugadores que esperan mesa (0 = sin latidos, máximo 65535).
+     * @param plazoOtraMs Plazo tras las posiciones finales para pedir otra carrera (0 = una carrera por conexión).
+     * @param rondas true para que todos los camellos tiren a la vez en cada ronda.
+     * @throws IllegalArgumentException Si el número de jinetes o el latido están fuera de rango o algún tiempo es negativo.
+     */
+    public ConfiguracionCarrera(int numJinetes, long retardoTurnoMs, long esperaFinalMs, long tiempoMaximoTiradaMs,
+                                long esperaBotsMs, long plazoSaludoMs, long latidoMs, long plazoOtraMs, boolean rondas) {
+        if (numJinetes < 1 || numJinetes > Protocolo.MAX_JINETES) {
+            throw new IllegalArgumentException("Número de jinetes fuera de rango (1-" + Protocolo.MAX_JINETES + "): " + numJinetes);
+        }
+        if (latidoMs < 0 || latidoMs > 0xFFFF) {
+            throw new IllegalArgumentException("Intervalo de latidos fuera de rango (0-65535 ms): " + latidoMs);
+        }
+        comprobarNoNegativo("Pausa entre turnos", retardoTurnoMs);
+        comprobarNoNegativo("Espera final", esperaFinalMs);
+        comprobarNoNegativo("Plazo de tirada", tiempoMaximoTiradaMs);
+        comprobarNoNegativo("Espera de bots", esperaBotsMs);
+        comprobarNoNegativo("Plazo de saludo", plazoSaludoMs);
+        comprobarNoNegativo("Plazo para otra carrera", plazoOtraMs);
+        this.numJinetes = numJinetes;
+        this.retardoTurnoMs = retardoTurnoMs;
+        this.esperaFinalMs = esperaFinalMs;
+        this.tiempoMaximoTiradaMs = tiempoMaximoTiradaMs;
+        this.esperaBotsMs = esperaBotsMs;
+        this.plazoSaludoMs = plazoSaludoMs;
+        this.latidoMs = latidoMs;
+        this.plazoOtraMs = plazoOtraMs;
+        this.rondas = rondas;
+    }
+
+    private static void comprobarNoNegativo(String nombre, long ms) {
+        if (ms < 0) {
+            throw new IllegalArgumentException(nombre + " negativo: " + ms + " ms");
+        }
+    }
+
+    /**
+     * Ritmo original del juego: 4 camellos, 1 segundo entre turnos, 2 segundos antes de cerrar,
+     * sin plazo de tirada, sin bots y por turnos. Un cliente nuevo tiene 5 segundos para saludar; en la cola recibe
+     * un latido cada 5 segundos y tras cada carrera tiene 2 segundos para pedir otra.
+     */
+    public static ConfiguracionCarrera porDefecto() {
+        return new ConfiguracionCarrera(JINETES_POR_DEFECTO, 1000, 2000, 0, 0, PLAZO_SALUDO_POR_DEFECTO,
+                LATIDO_POR_DEFECTO, PLAZO_OTRA_POR_DEFECTO, false);
+    }
+
+    /**
+     * Sin ninguna espera, para lotes de carreras y pruebas. Los plazos (saludo, otra carrera) y los latidos se mantienen.
+     */
+    public static ConfiguracionCarrera sinEsperas() {
+        return new ConfiguracionCarrera(JINETES_POR_DEFECTO, 0, 0, 0, 0, PLAZO_SALUDO_POR_DEFECTO,
+                LATIDO_POR_DEFECTO, PLAZO_OTRA_POR_DEFECTO, false);
+    }
+
+    /**
+     * Aplica sobre la configuración por defecto las opciones {@code jinetes=N}, {@code retardo=ms},
+     * {@code espera=ms}, {@code plazo=ms}, {@code bots=ms}, {@code saludo=ms}, {@code latido=ms}, {@code otra=ms},
+     * {@code rondas} y {@code sinesperas} que aparezcan en los argumentos, en cualquier orden.
+     * {@code sinesperas} quita la pausa entre turnos y la espera final, así que no se admite junto a
+     * {@code retardo=} o {@code espera=}. El resto se ignora.
+     * @param args Argumentos del programa.
+     * @throws IllegalArgumentException Si se piden {@code sinesperas} y una de esas pausas a la vez.
+     */
+    public static ConfiguracionCarrera desdeArgumentos(String[] args) {
+        ConfiguracionCarrera config = porDefecto();
+        boolean sinEsperas = false;
+        String pausa = null;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.equals("sinesperas")) {
+                sinEsperas = true;
+            } else if (clave.equals("rondas")) {
+                config = config.conRondas(true);
+            } else if (clave.startsWith("jinetes=")) {
+                config = config.conNumJinetes(Integer.parseInt(arg.substring(8)));
+            } else if (clave.startsWith("retardo=")) {
+                config = config.conRetardoTurno(Long.parseLong(arg.substring(8)));
+                pausa = arg;
+            } else if (clave.startsWith("espera=")) {
+                config = config.conEsperaFinal(Long.parseLong(arg.substring(7)));
+                pausa = arg;
+            } else if (clave.startsWith("plazo=")) {
+                config = config.conTiempoMaximoTirada(Long.parseLong(arg.substring(6)));
+            } else if (clave.startsWith("bots=")) {
+                config = config.conEsperaBots(Long.parseLong(arg.substring(5)));
+            } else if (clave.startsWith("saludo=")) {
+                config = config.conPlazoSaludo(Long.parseLong(arg.substring(7)));
+            } else if (clave.startsWith("latido=")) {
+                config = config.conLatido(Long.parseLong(arg.substring(7)));
+            } else if (clave.startsWith("otra=")) {
+                config = config.conPlazoOtra(Long.parseLong(arg.substring(5)));
+            }
+        }
+        if (sinEsperas) {
+            if (pausa != null) {
+                throw new IllegalArgumentException("sinesperas no se puede combinar con " + pausa);
+            }
+            config = config.conRetardoTurno(0).conEsperaFinal(0);
+        }
+        return config;
+    }
+
+    public ConfiguracionCarrera conNumJinetes(int n) {
+        return copiar(v -> v.numJinetes = n);
+    }
+
+    public ConfiguracionCarrera conRetardoTurno(long ms) {
+        return copiar(v -> v.retardoTurnoMs = ms);
+    }
+
+    public ConfiguracionCarrera conEsperaFinal(long ms) {
+        return copiar(v -> v.esperaFinalMs = ms);
+    }
+
+    public ConfiguracionCarrera conTiempoMaximoTirada(long ms) {
+        return copiar(v -> v.tiempoMaximoTiradaMs = ms);
+    }
+
+    public ConfiguracionCarrera conPlazoSaludo(long ms) {
+        return copiar(v -> v.plazoSaludoMs = ms);
+    }
+
+    public ConfiguracionCarrera conEsperaBots(long ms) {
+        return copiar(v -> v.esperaBotsMs = ms);
+    }
+
+    public ConfiguracionCarrera conLatido(long ms) {
+        return copiar(v -> v.latidoMs = ms);
+    }
+
+    public ConfiguracionCarrera conPlazoOtra(long ms) {
+        return copiar(v -> v.plazoOtraMs = ms);
+    }
+
+    public ConfiguracionCarrera conRondas(boolean rondas) {
+        return copiar(v -> v.rondas = rondas);
+    }
+
+    /**
+     * Copia esta configuración con el cambio indicado; la copia pasa por el constructor y se valida igual.
+     */
+    private ConfiguracionCarrera copiar(Consumer<Valores> cambio) {
+        Valores v = new Valores(this);
+        cambio.accept(v);
+        return new ConfiguracionCarrera(v.numJinetes, v.retardoTurnoMs, v.esperaFinalMs, v.tiempoMaximoTiradaMs,
+                v.esperaBotsMs, v.plazoSaludoMs, v.latidoMs, v.plazoOtraMs, v.rondas);
+    }
+
+    /**
+     * Valores modificables de una configuración, solo para hacer copias con un cambio.
+     */
+    private static final class Valores {
+        int numJinetes;
+        long retardoTurnoMs;
+        long esperaFinalMs;
+        long tiempoMaximoTiradaMs;
+        long esperaBotsMs;
+        long plazoSaludoMs;
+        long latidoMs;
+        long plazoOtraMs;
+        boolean rondas;
+
+        Valores(ConfiguracionCarrera c) {
+            numJinetes = c.numJinetes;
+            retardoTurnoMs = c.retardoTurnoMs;
+            esperaFinalMs = c.esperaFinalMs;
+            tiempoMaximoTiradaMs = c.tiempoMaximoTiradaMs;
+            esperaBotsMs = c.esperaBotsMs;
+            plazoSaludoMs = c.plazoSaludoMs;
+            latidoMs = c.latidoMs;
+            plazoOtraMs = c.plazoOtraMs;
+            rondas = c.rondas;
+        }
+    }
+
+    public int getNumJinetes() {
+        return numJinetes;
+    }
+
+    public long getRetardoTurnoMs() {
+        return retardoTurnoMs;
+    }
+
+    public long getEsperaFinalMs() {
+        return esperaFinalMs;
+    }
+
+    /**
+     * Plazo de tirada (0 = sin límite). Por rondas sin plazo indicado devuelve {@link #PLAZO_RONDA_POR_DEFECTO}.
+     */
+    public long getTiempoMaximoTiradaMs() {
+        return rondas && tiempoMaximoTiradaMs == 0 ? PLAZO_RONDA_POR_DEFECTO : tiempoMaximoTiradaMs;
+    }
+
+    public long getEsperaBotsMs() {
+        return esperaBotsMs;
+    }
+
+    public long getPlazoSaludoMs() {
+        return plazoSaludoMs;
+    }
+
+    public long getLatidoMs() {
+        return latidoMs;
+    }
+
+    public long getPlazoOtraMs() {
+        return plazoOtraMs;
+    }
+
+    public boolean isRondas() {
+        return rondas;
+    }
+
+    @Override
+    public String toString() {
+        return "jinetes=" + numJinetes + " retardo=" + retardoTurnoMs + "ms espera=" + esperaFinalMs + "ms plazo=" + getTiempoMaximoTiradaMs() + "ms bots=" + esperaBotsMs + "ms saludo=" + plazoSaludoMs + "ms latido=" + latidoMs + "ms otra=" + plazoOtraMs + "ms" + (rondas ? " rondas" : "");
+    }
+}
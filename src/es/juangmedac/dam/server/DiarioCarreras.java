@@ -0,0 +1,445 @@
+package es.juangmedac.dam.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Diario de carreras en disco para saber, tras una caída del servidor, cuáles quedaron a medias.
+ * Cada inicio, tirada y final se añade a un segmento de fichero proyectado en memoria
+ * ({@link MappedByteBuffer}): escribir es copiar unos bytes, sin llamadas al sistema.
+ * Un hilo aparte fuerza los cambios a disco cada pocos milisegundos (fsync por lotes).
+ * <p>
+ * Cada registro lleva su longitud, su tipo, los datos y un CRC32C, así que al recuperar se
+ * descarta un registro escrito a medias. Los segmentos que ya solo contienen carreras
+ * terminadas se borran al abrir uno nuevo.
+ * <pre>
+ * registro  longitud:u16 tipo:u8 datos crc:u32   (longitud = bytes de datos; 0 = fin del segmento)
+ * INICIO    idCarrera:i32 inicio:i64 n:u16 n x nombre:texto
+ * TIRADA    idCarrera:i32 camello:u16 dado:u8 ms:u32   (ms desde el inicio de la carrera)
+ * FIN       idCarrera:i32
+ * ABANDONO  idCarrera:i32
+ * </pre>
+ * Igual que {@link RegistroEventos}, es global: sin configurar no se anota nada.
+ * Con {@code conservar} no se borra ningún segmento y el diario sirve de grabación para
+ * {@link ServidorRepeticion}. Los registros se leen con {@link LectorDiario}.
+ */
+public final class DiarioCarreras {
+
+    // Tipos de registro
+    static final int INICIO = 1;
+    static final int TIRADA = 2;
+    static final int FIN = 3;
+    static final int ABANDONO = 4;
+
+    /** Tamaño de cada segmento si no se indica otro. */
+    public static final int TAMANO_SEGMENTO_POR_DEFECTO = 16 << 20;
+    /** Intervalo entre sincronizaciones a disco si no se indica otro. */
+    public static final long INTERVALO_FSYNC_POR_DEFECTO = 20;
+
+    static final int CABECERA = 3; // longitud + tipo
+    static final int COLA = 4;     // crc
+    private static final String PREFIJO = "diario-";
+    private static final String SUFIJO = ".seg";
+
+    private static volatile DiarioCarreras instancia;
+
+    private final Path directorio;
+    private final int tamanoSegmento;
+    private final long intervaloFsyncMs;
+    private final boolean conservar;
+
+    // Escritura: todo bajo el cerrojo
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final byte[] registro = new byte[CABECERA + 0xFFFF + COLA];
+    private final CRC32C crc = new CRC32C();
+    private volatile MappedByteBuffer segmento;
+    private int numSegmento;
+    private volatile boolean pendiente; // Hay registros aún no forzados a disco
+    // Carreras sin terminar y segmento donde empezaron (para saber qué segmentos se pueden borrar)
+    private final HashMap<Integer, Integer> carrerasAbiertas = new HashMap<>();
+
+    private final Thread sincronizador;
+    private volatile boolean activo = true;
+
+    private DiarioCarreras(Path directorio, int tamanoSegmento, long intervaloFsyncMs, boolean conservar,
+                           int ultimoSegmento, Map<Integer, Integer> abiertas) throws IOException {
+        this.directorio = directorio;
+        this.tamanoSegmento = tamanoSegmento;
+        this.intervaloFsyncMs = intervaloFsyncMs;
+        this.conservar = conservar;
+        this.carrerasAbiertas.putAll(abiertas);
+        this.numSegmento = ultimoSegmento;
+        abrirSegmento(ultimoSegmento + 1);
+        borrarSegmentosCerrados();
+
+        sincronizador = new Thread(this::sincronizar, "diario-fsync");
+        sincronizador.setDaemon(true);
+        if (intervaloFsyncMs > 0) {
+            sincronizador.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::cerrar));
+    }
+
+    // *************** Configuración y recuperación ***************
+
+    /**
+     * Abre el diario con las opciones {@code diario=directorio}, {@code diariofsync=ms},
+     * {@code diariosegmento=MiB} y {@code diarioconservar} de los argumentos. Sin {@code diario=} no se hace nada.
+     * @return Las carreras que estaban a medias según el diario.
+     */
+    public static Recuperacion configurar(String[] args) throws IOException {
+        String dir = null;
+        long fsync = INTERVALO_FSYNC_POR_DEFECTO;
+        int tamano = TAMANO_SEGMENTO_POR_DEFECTO;
+        boolean conservar = false;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("diario=")) {
+                dir = arg.substring(7);
+            } else if (clave.startsWith("diariofsync=")) {
+                fsync = Long.parseLong(arg.substring(12));
+            } else if (clave.startsWith("diariosegmento=")) {
+                tamano = Integer.parseInt(arg.substring(15)) << 20;
+            } else if (clave.equals("diarioconservar")) {
+                conservar = true;
+            }
+        }
+        if (dir == null) {
+            return new Recuperacion(List.of(), 0);
+        }
+        return abrir(Paths.get(dir), tamano, fsync, conservar);
+    }
+
+    /**
+     * Lee los segmentos del directorio, busca las carreras sin terminar y abre un segmento nuevo.
+     * @param directorio Directorio de los segmentos (se crea si no existe).
+     * @param tamanoSegmento Bytes de cada segmento.
+     * @param intervaloFsyncMs Cada cuánto se fuerza el diario a disco (0 = en cada registro).
+     * @param conservar true para no borrar nunca los segmentos (el diario queda como grabación).
+     */
+    public static Recuperacion abrir(Path directorio, int tamanoSegmento, long intervaloFsyncMs, boolean conservar)
+            throws IOException {
+        Files.createDirectories(directorio);
+        List<Integer> segmentos = listarSegmentos(directorio);
+
+        // Se leen los registros en orden; una carrera sigue abierta si tiene inicio y no tiene final
+        LinkedHashMap<Integer, CarreraAMedias> abiertas = new LinkedHashMap<>();
+        int ultimoId = 0;
+        LectorDiario lector = new LectorDiario(directorio);
+        while (lector.siguiente()) {
+            if (lector.idCarrera < Pasarela.PRIMERA_CARRERA) {
+                ultimoId = Math.max(ultimoId, lector.idCarrera);
+            }
+            switch (lector.tipo) {
+                case INICIO -> abiertas.put(lector.idCarrera,
+                        new CarreraAMedias(lector.idCarrera, lector.nombres, lector.segmento));
+                case TIRADA -> {
+                    CarreraAMedias carrera = abiertas.get(lector.idCarrera);
+                    if (carrera != null) {
+                        carrera.tiradas++;
+                    }
+                }
+                case FIN, ABANDONO -> abiertas.remove(lector.idCarrera);
+                default -> {
+                    // Tipo desconocido: se salta
+                }
+            }
+        }
+
+        HashMap<Integer, Integer> segmentoDeInicio = new HashMap<>();
+        for (CarreraAMedias carrera : abiertas.values()) {
+            segmentoDeInicio.put(carrera.idCarrera, carrera.segmento);
+        }
+
+        int ultimoSegmento = segmentos.isEmpty() ? 0 : segmentos.get(segmentos.size() - 1);
+        DiarioCarreras anterior = instancia;
+        instancia = new DiarioCarreras(directorio, tamanoSegmento, intervaloFsyncMs, conservar, ultimoSegmento,
+                segmentoDeInicio);
+        if (anterior != null) {
+            anterior.cerrar();
+        }
+        return new Recuperacion(new ArrayList<>(abiertas.values()), ultimoId);
+    }
+
+    /**
+     * Cierra el diario abierto, si lo hay; desde ahora no se anota nada hasta volver a abrirlo.
+     */
+    static void desactivar() {
+        DiarioCarreras diario = instancia;
+        instancia = null;
+        if (diario != null) {
+            diario.cerrar();
+        }
+    }
+
+    static List<Integer> listarSegmentos(Path directorio) throws IOException {
+        List<Integer> numeros = new ArrayList<>();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio, PREFIJO + "*" + SUFIJO)) {
+            for (Path fichero : ficheros) {
+                String nombre = fichero.getFileName().toString();
+                numeros.add(Integer.parseInt(nombre.substring(PREFIJO.length(), nombre.length() - SUFIJO.length())));
+            }
+        }
+        numeros.sort(null);
+        return numeros;
+    }
+
+    static Path rutaSegmento(Path directorio, int num) {
+        return directorio.resolve(String.format("%s%06d%s", PREFIJO, num, SUFIJO));
+    }
+
+    // *************** Anotaciones (las llama Carrera) ***************
+
+    /**
+     * Anota el inicio de una carrera con los nombres de sus jinetes.
+     */
+    static void anotarInicio(int idCarrera, long inicioMs, String[] nombres) {
+        DiarioCarreras diario = instancia;
+        if (diario != null) {
+            diario.escribirInicio(idCarrera, inicioMs, nombres);
+        }
+    }
+
+    /**
+     * Anota una tirada. Se llama bajo el cerrojo de la carrera, así que el orden es el del juego.
+     * @param inicioMs Hora de inicio de la carrera, para guardar el momento de la tirada.
+     */
+    static void anotarTirada(int idCarrera, int camello, int dado, long inicioMs) {
+        DiarioCarreras diario = instancia;
+        if (diario != null) {
+            diario.escribirTirada(idCarrera, camello, dado, (int) (System.currentTimeMillis() - inicioMs));
+        }
+    }
+
+    /**
+     * Anota el final de una carrera, terminada ({@link #FIN}) o abandonada ({@link #ABANDONO}).
+     */
+    static void anotarFinal(int idCarrera, int tipo) {
+        DiarioCarreras diario = instancia;
+        if (diario != null) {
+            diario.escribirFinal(idCarrera, tipo);
+        }
+    }
+
+    private void escribirInicio(int idCarrera, long inicioMs, String[] nombres) {
+        cerrojo.lock();
+        try {
+            ByteBuffer b = ByteBuffer.wrap(registro, CABECERA, registro.length - CABECERA - COLA);
+            b.putInt(idCarrera);
+            b.putLong(inicioMs);
+            b.putShort((short) nombres.length);
+            for (String nombre : nombres) {
+                byte[] bytes = nombre.getBytes(StandardCharsets.UTF_8);
+                b.putShort((short) bytes.length);
+                b.put(bytes);
+            }
+            carrerasAbiertas.put(idCarrera, numSegmento);
+            escribirRegistro(INICIO, b.position() - CABECERA);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private void escribirTirada(int idCarrera, int camello, int dado, int ms) {
+        cerrojo.lock();
+        try {
+            escribirInt(CABECERA, idCarrera);
+            registro[CABECERA + 4] = (byte) (camello >>> 8);
+            registro[CABECERA + 5] = (byte) camello;
+            registro[CABECERA + 6] = (byte) dado;
+            escribirInt(CABECERA + 7, ms);
+            escribirRegistro(TIRADA, 11);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private void escribirFinal(int idCarrera, int tipo) {
+        cerrojo.lock();
+        try {
+            escribirInt(CABECERA, idCarrera);
+            carrerasAbiertas.remove(idCarrera);
+            escribirRegistro(tipo, 4);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Completa la cabecera y el CRC del registro preparado en {@link #registro} y lo copia al segmento.
+     * Si no cabe, se pasa a un segmento nuevo.
+     */
+    private void escribirRegistro(int tipo, int longitud) {
+        int total = CABECERA + longitud + COLA;
+        registro[0] = (byte) (longitud >>> 8);
+        registro[1] = (byte) longitud;
+        registro[2] = (byte) tipo;
+        crc.reset();
+        crc.update(registro, 2, 1 + longitud);
+        escribirInt(CABECERA + longitud, (int) crc.getValue());
+        try {
+            if (segmento.remaining() < total) {
+                segmento.force();
+                abrirSegmento(numSegmento + 1);
+                borrarSegmentosCerrados();
+            }
+            segmento.put(registro, 0, total);
+            if (intervaloFsyncMs <= 0) {
+                segmento.force();
+            } else {
+                pendiente = true;
+            }
+        } catch (IOException e) {
+            // El juego sigue aunque el diario falle; se avisa y se deja de anotar
+            System.out.println("Error escribiendo el diario de carreras: " + e.getMessage());
+            instancia = null;
+        }
+    }
+
+    private void escribirInt(int posicion, int valor) {
+        registro[posicion] = (byte) (valor >>> 24);
+        registro[posicion + 1] = (byte) (valor >>> 16);
+        registro[posicion + 2] = (byte) (valor >>> 8);
+        registro[posicion + 3] = (byte) valor;
+    }
+
+    private void abrirSegmento(int num) throws IOException {
+        try (FileChannel canal = FileChannel.open(rutaSegmento(directorio, num),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // La proyección sigue siendo válida después de cerrar el canal; el fichero nace lleno de ceros
+            segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento);
+        }
+        numSegmento = num;
+    }
+
+    /**
+     * Borra los segmentos anteriores al más antiguo en el que empezó una carrera aún abierta.
+     */
+    private void borrarSegmentosCerrados() throws IOException {
+        if (conservar) {
+            return;
+        }
+        int minimo = numSegmento;
+        for (int num : carrerasAbiertas.values()) {
+            minimo = Math.min(minimo, num);
+        }
+        for (int num : listarSegmentos(directorio)) {
+            if (num < minimo) {
+                Files.deleteIfExists(rutaSegmento(directorio, num));
+            }
+        }
+    }
+
+    // *************** Sincronización a disco ***************
+
+    private void sincronizar() {
+        long intervalo = intervaloFsyncMs * 1_000_000L;
+        while (activo) {
+            LockSupport.parkNanos(intervalo);
+            forzar();
+        }
+    }
+
+    private void forzar() {
+        if (pendiente) {
+            pendiente = false;
+            // force() puede hacerse a la vez que se escribe; lo que llegue después queda pendiente
+            segmento.force();
+        }
+    }
+
+    private void cerrar() {
+        activo = false;
+        cerrojo.lock();
+        try {
+            forzar();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    // *************** Resultado de la recuperación ***************
+
+    /**
+     * Lo que se ha recuperado del diario al abrirlo.
+     */
+    public static final class Recuperacion {
+        private final List<CarreraAMedias> carreras;
+        private final int ultimoIdCarrera;
+
+        Recuperacion(List<CarreraAMedias> carreras, int ultimoIdCarrera) {
+            this.carreras = carreras;
+            this.ultimoIdCarrera = ultimoIdCarrera;
+        }
+
+        /**
+         * Carreras que estaban en juego: tienen inicio y no tienen final.
+         */
+        public List<CarreraAMedias> getCarreras() {
+            return carreras;
+        }
+
+        /**
+         * Mayor id de carrera del diario: las carreras nuevas deben numerarse a partir de aquí.
+         * No cuentan las que numeró una {@link Pasarela}, que van en su propio rango.
+         */
+        public int getUltimoIdCarrera() {
+            return ultimoIdCarrera;
+        }
+    }
+
+    /**
+     * Carrera que quedó a medias en el diario. Sus jugadores ya no están y no se puede terminar sin
+     * inventar tiradas, así que lo único que se hace con ella es darla por abandonada.
+     */
+    public static final class CarreraAMedias {
+        private final int idCarrera;
+        private final String[] nombres;
+        private final int segmento;
+        private int tiradas;
+
+        CarreraAMedias(int idCarrera, String[] nombres, int segmento) {
+            this.idCarrera = idCarrera;
+            this.nombres = nombres;
+            this.segmento = segmento;
+        }
+
+        public int getIdCarrera() {
+            return idCarrera;
+        }
+
+        public String[] getNombres() {
+            return nombres;
+        }
+
+        /**
+         * Tiradas anotadas antes de la caída.
+         */
+        public int getTiradas() {
+            return tiradas;
+        }
+
+        /**
+         * Anota en el diario que la carrera se ha abandonado, para no volver a encontrarla a medias.
+         */
+        public void abandonar() {
+            anotarFinal(idCarrera, ABANDONO);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package es.juangmedac.dam.server;
+
+/**
+ * Envía el estado de la carrera a todos los asientos del servidor clásico tras cada tirada.
+ * Los canales de los jugadores tienen cola de salida, así que publicar no espera a ningún socket:
+ * a cada asiento solo se le deja la última instantánea, y si su socket va lento las tiradas que
+ * llegan mientras tanto la sustituyen en vez de encolarse. A los bots no les llega nada.
+ * Si la carrera tiene {@link Palco}, cada estado se le deja también a los espectadores.
+ */
+public class DifusorEstado {
+
+    private final Asiento[] asientos;
+    private final Palco palco;
+
+    /**
+     * Constructor.
+     * @param numAsientos Número de asientos de la carrera.
+     */
+    public DifusorEstado(int numAsientos) {
+        this(numAsientos, null);
+    }
+
+    /**
+     * Constructor.
+     * @param numAsientos Número de asientos de la carrera.
+     * @param palco Espectadores de la carrera (puede ser null).
+     */
+    public DifusorEstado(int numAsientos, Palco palco) {
+        asientos = new Asiento[numAsientos];
+        this.palco = palco;
+    }
+
+    /**
+     * Registra un asiento, en lugar del que ocupaba su camello hasta ahora.
+     */
+    public void registrar(Asiento asiento) {
+        asientos[asiento.getIdCamello()] = asiento;
+    }
+
+    /**
+     * Publica un nuevo estado para todos los asientos. No bloquea.
+     */
+    public void publicar(InstantaneaEstado instantanea) {
+        for (Asiento asiento : asientos) {
+            if (asiento != null) {
+                asiento.publicarEstado(instantanea);
+            }
+        }
+        if (palco != null) {
+            palco.publicar(instantanea);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package es.juangmedac.dam.server;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estadísticas de los jugadores entre carreras: carreras, victorias, podios y posición media.
+ * Se actualizan al terminar cada carrera, sumando solo lo de sus jugadores.
+ * Cada jugador ocupa un hueco de unos arrays de tipos primitivos (sin un objeto por jugador);
+ * las clasificaciones son montículos de K huecos ({@link MonticuloTop}) y, cuando cambian, se publican
+ * como una {@link ClasificacionJugadores} inmutable que se consulta sin cerrojo.
+ * Hay un máximo de jugadores: si se llena, se olvida al que lleva más tiempo sin jugar (salvo que
+ * esté en alguna clasificación). Con un fichero, cada cierto tiempo se guarda una instantánea compacta
+ * y al arrancar se carga.
+ * Es global, como el diario: el servidor llama a {@link #anotarCarrera} y no hace nada si no se ha configurado.
+ */
+public final class EstadisticasJugadores implements EstadisticasMXBean {
+
+    /** Nombre del MBean. */
+    public static final String NOMBRE_JMX = "es.juangmedac.dam:type=Estadisticas";
+    /** Jugadores que se guardan si no se indica otro máximo (unos 150 bytes cada uno). */
+    public static final int CAPACIDAD_POR_DEFECTO = 100_000;
+    /** Puestos de cada clasificación si no se indican otros. */
+    public static final int TOP_POR_DEFECTO = 10;
+    /** Segundos entre instantáneas si no se indica otro intervalo. */
+    public static final long INTERVALO_POR_DEFECTO_S = 60;
+
+    private static final int MAGIA = 0x43455354; // "CEST"
+    private static final int VERSION = 1;
+    private static final int PODIO = 3;
+    private static final int NINGUNO = -1;
+
+    private static volatile EstadisticasJugadores instancia;
+
+    private final int capacidad;
+    private final Path fichero; // null = solo en memoria
+
+    // Todo lo que sigue, bajo el cerrojo
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final HashMap<String, Integer> huecos;
+    private final String[] nombres;
+    private final int[] carreras;
+    private final int[] victorias;
+    private final int[] podios;
+    private final long[] sumaPosiciones;
+    // Huecos ocupados por orden de uso: lista doblemente enlazada del más reciente (cabeza) al más antiguo (cola)
+    private final int[] usoAnterior;
+    private final int[] usoSiguiente;
+    private int cabeza = NINGUNO;
+    private int cola = NINGUNO;
+    private int numJugadores;
+    private long carrerasAnotadas;
+    private long expulsados;
+    private boolean cambiado; // Hay cambios sin guardar
+    private final MonticuloTop topVictorias;
+    private final MonticuloTop topPodios;
+    private final int[] ordenTop;
+
+    private volatile ClasificacionJugadores clasificacion;
+
+    /**
+     * Constructor.
+     * @param capacidad Máximo de jugadores guardados.
+     * @param k Puestos de cada clasificación.
+     * @param fichero Fichero de la instantánea (null para no guardar nada).
+     */
+    public EstadisticasJugadores(int capacidad, int k, Path fichero) {
+        if (k < 1 || capacidad <= 2 * k) {
+            throw new IllegalArgumentException("El máximo de jugadores (" + capacidad
+                    + ") debe ser mayor que los puestos de las dos clasificaciones (2 x " + k + ")");
+        }
+        this.capacidad = capacidad;
+        this.fichero = fichero;
+        huecos = new HashMap<>(Math.min(capacidad, 1 << 16) * 2);
+        nombres = new String[capacidad];
+        carreras = new int[capacidad];
+        victorias = new int[capacidad];
+        podios = new int[capacidad];
+        sumaPosiciones = new long[capacidad];
+        usoAnterior = new int[capacidad];
+        usoSiguiente = new int[capacidad];
+        topVictorias = new MonticuloTop(victorias, k);
+        topPodios = new MonticuloTop(podios, k);
+        ordenTop = new int[k];
+        clasificacion = new ClasificacionJugadores(new ClasificacionJugadores.Fila[0],
+                new ClasificacionJugadores.Fila[0], 0);
+    }
+
+    // *************** Configuración ***************
+
+    /**
+     * Crea las estadísticas con las opciones {@code estadisticas=fichero}, {@code estadisticascada=segundos},
+     * {@code estadisticasmax=N} y {@code estadisticastop=K}, las publica por JMX como {@value #NOMBRE_JMX}
+     * y, con fichero, carga la última instantánea y arranca el guardado periódico.
+     */
+    public static EstadisticasJugadores configurar(String[] args) throws IOException {
+        String ruta = null;
+        long intervaloS = INTERVALO_POR_DEFECTO_S;
+        int capacidad = CAPACIDAD_POR_DEFECTO;
+        int k = TOP_POR_DEFECTO;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("estadisticas=")) {
+                ruta = arg.substring(13);
+            } else if (clave.startsWith("estadisticascada=")) {
+                intervaloS = Long.parseLong(arg.substring(17));
+            } else if (clave.startsWith("estadisticasmax=")) {
+                capacidad = Integer.parseInt(arg.substring(16));
+            } else if (clave.startsWith("estadisticastop=")) {
+                k = Integer.parseInt(arg.substring(16));
+            }
+        }
+        EstadisticasJugadores estadisticas = new EstadisticasJugadores(capacidad, k, ruta == null ? null : Paths.get(ruta));
+        if (ruta != null) {
+            estadisticas.cargar();
+            long intervaloMs = Math.max(1, intervaloS) * 1000;
+            Thread.ofPlatform().name("estadisticas").daemon().start(() -> estadisticas.guardarCada(intervaloMs));
+            Runtime.getRuntime().addShutdownHook(new Thread(estadisticas::guardarSinFallar));
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(estadisticas, new ObjectName(NOMBRE_JMX));
+        } catch (JMException e) {
+            System.out.println("No se han podido publicar las estadísticas por JMX: " + e.getMessage());
+        }
+        instancia = estadisticas;
+        return estadisticas;
+    }
+
+    /**
+     * Devuelve las estadísticas configuradas, o null si no se han configurado.
+     */
+    public static EstadisticasJugadores getInstancia() {
+        return instancia;
+    }
+
+    /**
+     * Anota el resultado de una carrera terminada en las estadísticas globales, si las hay.
+     * @param nombres Nombres de los jinetes (índice = id del camello).
+     * @param posiciones Posición final de cada camello.
+     * @param numJugadores Los primeros asientos que son jugadores; el resto son bots del servidor y no cuentan.
+     */
+    public static void anotarCarrera(String[] nombres, int[] posiciones, int numJugadores) {
+        EstadisticasJugadores estadisticas = instancia;
+        if (estadisticas != null) {
+            estadisticas.anotar(nombres, posiciones, numJugadores);
+        }
+    }
+
+    // *************** Actualización ***************
+
+    /**
+     * Suma una carrera a las estadísticas de sus jugadores y, si cambia alguna clasificación, la publica.
+     * @see #anotarCarrera(String[], int[], int)
+     */
+    public void anotar(String[] jinetes, int[] posiciones, int numJugadores) {
+        cerrojo.lock();
+        try {
+            boolean cambiaClasificacion = false;
+            for (int i = 0; i < numJugadores && i < jinetes.length; i++) {
+                int posicion = posiciones[i];
+                if (jinetes[i] == null || posicion <= 0) {
+                    continue;
+                }
+                int hueco = buscarOCrear(jinetes[i]);
+                carreras[hueco]++;
+                sumaPosiciones[hueco] += posicion;
+                if (posicion == 1) {
+                    victorias[hueco]++;
+                    cambiaClasificacion |= topVictorias.actualizar(hueco);
+                }
+                if (posicion <= PODIO) {
+                    podios[hueco]++;
+                    cambiaClasificacion |= topPodios.actualizar(hueco);
+                }
+                // Aunque no gane, si está clasificado cambian sus carreras y su posición media
+                cambiaClasificacion |= topVictorias.contiene(hueco) || topPodios.contiene(hueco);
+            }
+            carrerasAnotadas++;
+            cambiado = true;
+            if (cambiaClasificacion) {
+                publicar();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Devuelve el hueco del jugador, creándolo si no lo tiene, y lo pone el primero en la lista de uso.
+     */
+    private int buscarOCrear(String nombre) {
+        Integer existente = huecos.get(nombre);
+        int hueco;
+        if (existente != null) {
+            hueco = existente;
+            quitarDeLista(hueco);
+        } else {
+            hueco = numJugadores < capacidad ? numJugadores++ : expulsar();
+            nombres[hueco] = nombre;
+            huecos.put(nombre, hueco);
+        }
+        ponerEnCabeza(hueco);
+        return hueco;
+    }
+
+    /**
+     * Olvida al jugador que lleva más tiempo sin jugar y no está en ninguna clasificación.
+     * @return Su hueco, ya vacío y fuera de la lista de uso.
+     */
+    private int expulsar() {
+        int hueco = cola;
+        while (topVictorias.contiene(hueco) || topPodios.contiene(hueco)) {
+            hueco = usoAnterior[hueco];
+        }
+        quitarDeLista(hueco);
+        huecos.remove(nombres[hueco]);
+        nombres[hueco] = null;
+        carreras[hueco] = 0;
+        victorias[hueco] = 0;
+        podios[hueco] = 0;
+        sumaPosiciones[hueco] = 0;
+        expulsados++;
+        return hueco;
+    }
+
+    private void quitarDeLista(int hueco) {
+        int anterior = usoAnterior[hueco];
+        int siguiente = usoSiguiente[hueco];
+        if (anterior == NINGUNO) {
+            cabeza = siguiente;
+        } else {
+            usoSiguiente[anterior] = siguiente;
+        }
+        if (siguiente == NINGUNO) {
+            cola = anterior;
+        } else {
+            usoAnterior[siguiente] = anterior;
+        }
+    }
+
+    private void ponerEnCabeza(int hueco) {
+        usoAnterior[hueco] = NINGUNO;
+        usoSiguiente[hueco] = cabeza;
+        if (cabeza != NINGUNO) {
+            usoAnterior[cabeza] = hueco;
+        }
+        cabeza = hueco;
+        if (cola == NINGUNO) {
+            cola = hueco;
+        }
+    }
+
+    private void publicar() {
+        clasificacion = new ClasificacionJugadores(filas(topVictorias), filas(topPodios), carrerasAnotadas);
+    }
+
+    private ClasificacionJugadores.Fila[] filas(MonticuloTop top) {
+        int n = top.copiarOrdenado(ordenTop);
+        ClasificacionJugadores.Fila[] filas = new ClasificacionJugadores.Fila[n];
+        for (int i = 0; i < n; i++) {
+            filas[i] = fila(ordenTop[i]);
+        }
+        return filas;
+    }
+
+    private ClasificacionJugadores.Fila fila(int hueco) {
+        return new ClasificacionJugadores.Fila(nombres[hueco], carreras[hueco], victorias[hueco], podios[hueco],
+                carreras[hueco] == 0 ? 0 : (double) sumaPosiciones[hueco] / carreras[hueco]);
+    }
+
+    // *************** Consultas ***************
+
+    /**
+     * Devuelve las últimas clasificaciones publicadas. No bloquea.
+     */
+    public ClasificacionJugadores getClasificacion() {
+        return clasificacion;
+    }
+
+    /**
+     * Devuelve las estadísticas de un jugador, o null si no se conoce (o se ha olvidado).
+     */
+    public ClasificacionJugadores.Fila getJugador(String nombre) {
+        cerrojo.lock();
+        try {
+            Integer hueco = huecos.get(nombre);
+            return hueco == null ? null : fila(hueco);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public String[] getTopVictorias() {
+        return Arrays.stream(clasificacion.getPorVictorias()).map(Object::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getTopPodios() {
+        return Arrays.stream(clasificacion.getPorPodios()).map(Object::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public int getJugadores() {
+        cerrojo.lock();
+        try {
+            return numJugadores;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public long getCarrerasAnotadas() {
+        cerrojo.lock();
+        try {
+            return carrerasAnotadas;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public long getExpulsados() {
+        cerrojo.lock();
+        try {
+            return expulsados;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public String consultar(String nombre) {
+        ClasificacionJugadores.Fila fila = getJugador(nombre);
+        return fila == null ? "Jugador desconocido: " + nombre : fila.toString();
+    }
+
+    // *************** Instantáneas en disco ***************
+
+    /**
+     * Guarda una instantánea si ha habido cambios. Los datos se copian bajo el cerrojo y se escriben fuera,
+     * en un fichero temporal que luego sustituye al anterior, así que nunca queda uno a medias.
+     * Formato: magia, versión, número de jugadores y carreras anotadas; luego cada jugador (del que lleva
+     * más tiempo sin jugar al último) con su nombre, carreras, victorias, podios y suma de posiciones.
+     */
+    public void guardar() throws IOException {
+        if (fichero == null) {
+            return;
+        }
+        String[] n;
+        int[] c;
+        int[] v;
+        int[] p;
+        long[] s;
+        long anotadas;
+        cerrojo.lock();
+        try {
+            if (!cambiado) {
+                return;
+            }
+            n = new String[numJugadores];
+            c = new int[numJugadores];
+            v = new int[numJugadores];
+            p = new int[numJugadores];
+            s = new long[numJugadores];
+            int i = 0;
+            for (int hueco = cola; hueco != NINGUNO; hueco = usoAnterior[hueco]) {
+                n[i] = nombres[hueco];
+                c[i] = carreras[hueco];
+                v[i] = victorias[hueco];
+                p[i] = podios[hueco];
+                s[i] = sumaPosiciones[hueco];
+                i++;
+            }
+            anotadas = carrerasAnotadas;
+            cambiado = false;
+        } finally {
+            cerrojo.unlock();
+        }
+
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+                salida.writeInt(MAGIA);
+                salida.writeInt(VERSION);
+                salida.writeInt(n.length);
+                salida.writeLong(anotadas);
+                for (int i = 0; i < n.length; i++) {
+                    salida.writeUTF(n[i]);
+                    salida.writeInt(c[i]);
+                    salida.writeInt(v[i]);
+                    salida.writeInt(p[i]);
+                    salida.writeLong(s[i]);
+                }
+            }
+            Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Se volverá a intentar en la siguiente
+            cerrojo.lock();
+            try {
+                cambiado = true;
+            } finally {
+                cerrojo.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Carga la instantánea del fichero, si existe. Los jugadores se recorren del más antiguo al más
+     * reciente, así que el orden de uso se conserva y, si ahora caben menos, se olvida a los más antiguos.
+     */
+    private void cargar() throws IOException {
+        if (fichero == null || !Files.exists(fichero)) {
+            return;
+        }
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichero)))) {
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSION) {
+                throw new IOException("El fichero de estadísticas no es válido: " + fichero);
+            }
+            int n = entrada.readInt();
+            long anotadas = entrada.readLong();
+            cerrojo.lock();
+            try {
+                for (int i = 0; i < n; i++) {
+                    int hueco = buscarOCrear(entrada.readUTF());
+                    carreras[hueco] = entrada.readInt();
+                    victorias[hueco] = entrada.readInt();
+                    podios[hueco] = entrada.readInt();
+                    sumaPosiciones[hueco] = entrada.readLong();
+                    if (victorias[hueco] > 0) {
+                        topVictorias.actualizar(hueco);
+                    }
+                    if (podios[hueco] > 0) {
+                        topPodios.actualizar(hueco);
+                    }
+                }
+                carrerasAnotadas = anotadas;
+                publicar();
+            } finally {
+                cerrojo.unlock();
+            }
+            System.out.println("Estadísticas cargadas de " + fichero + ": " + numJugadores + " jugadores, "
+                    + anotadas + " carreras.");
+        }
+    }
+
+    private void guardarCada(long intervaloMs) {
+        while (true) {
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            guardarSinFallar();
+        }
+    }
+
+    private void guardarSinFallar() {
+        try {
+            guardar();
+        } catch (IOException e) {
+            System.out.println("No se han podido guardar las estadísticas: " + e.getMessage());
+        }
+    }
+}
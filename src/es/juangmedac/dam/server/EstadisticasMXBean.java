@@ -0,0 +1,25 @@
+package es.juangmedac.dam.server;
+
+/**
+ * Estadísticas de los jugadores publicadas por JMX (se ven con JConsole o VisualVM).
+ */
+public interface EstadisticasMXBean {
+
+    /** Jugadores con más victorias, uno por línea. */
+    String[] getTopVictorias();
+
+    /** Jugadores con más podios, uno por línea. */
+    String[] getTopPodios();
+
+    /** Jugadores guardados ahora mismo. */
+    int getJugadores();
+
+    /** Carreras anotadas desde el arranque (incluidas las de la instantánea cargada). */
+    long getCarrerasAnotadas();
+
+    /** Jugadores olvidados por falta de sitio. */
+    long getExpulsados();
+
+    /** Estadísticas de un jugador, o un aviso si no se conoce. */
+    String consultar(String nombre);
+}
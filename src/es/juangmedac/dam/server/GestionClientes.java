@@ -1,129 +1,192 @@
 package es.juangmedac.dam.server;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.net.Socket;
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.protocolo.CanalTramas;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Hilo que gestiona la carrera para un cliente/jinete concreto.
+ * Sesión que gestiona la carrera para un cliente/jinete concreto: el {@link Asiento} de un jugador
+ * del servidor clásico. Se ejecuta en un hilo de plataforma o en un hilo virtual según el
+ * {@code ModoHilos} del servidor. Sus tiradas las aplica {@link TurnosCarrera}, y las esperas entre
+ * turnos y antes de cerrar las programa el {@link Marcapasos}, así que el hilo de la sesión solo está
+ * ocupado mientras espera su turno o la tirada del cliente.
+ * En una carrera por rondas el mismo bucle sirve: cada sesión recibe el TURNO de la ronda a la vez
+ * que las demás y entrega su tirada; quien entrega la última aplica la ronda y programa la siguiente.
+ * Los envíos van a la cola de salida del canal y no bloquean: si el cliente no lee y la llena,
+ * el canal se cierra y el asiento pasa a un {@link JineteBot} sin esperar al plazo de tirada.
+ * Si la carrera termina bien el socket sigue abierto: es de la sesión del jugador, que decide
+ * si vuelve a la cola o lo cierra. Solo se cierra aquí si el cliente falla a mitad de carrera.
  */
-public class GestionClientes extends Thread {
+public class GestionClientes implements Runnable, Asiento {
 
-    private Servidor servidor;
-    private Socket socket;
+    private Carrera carrera;
+    private TurnosCarrera turnos;
+    private ConfiguracionCarrera config;
+    private CanalTramas canal;
     private int idCamello;
-    private DataInputStream in;
-    private DataOutputStream out;
 
     /**
      * Constructor.
-     * @param servidor Referencia al servidor para acceder a la carrera.
-     * @param socket Socket de comunicación con el cliente.
+     * @param carrera Carrera en la que participa el cliente.
+     * @param turnos Turnos de la carrera, que aplican las tiradas.
+     * @param config Ritmo de la carrera.
+     * @param canal Canal de tramas con el cliente (ya ha hecho el saludo).
      * @param idCamello Identificador del camello/jinete.
      */
-    public GestionClientes(Servidor servidor, Socket socket, int idCamello) {
-        this.servidor = servidor;
-        this.socket = socket;
+    GestionClientes(Carrera carrera, TurnosCarrera turnos, ConfiguracionCarrera config,
+                    CanalTramas canal, int idCamello) {
+        this.carrera = carrera;
+        this.turnos = turnos;
+        this.config = config;
+        this.canal = canal;
         this.idCamello = idCamello;
     }
 
     @Override
-    public void run() {
+    public int getIdCamello() {
+        return idCamello;
+    }
+
+    @Override
+    public String getNombre() {
+        return carrera.getNombres()[idCamello];
+    }
+
+    @Override
+    public void darTurno(int turno) {
+        // El hilo de la sesión ya espera su turno en la carrera y envía él mismo el TURNO
+    }
+
+    @Override
+    public void publicarEstado(InstantaneaEstado instantanea) {
         try {
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            canal.enviarEstado(instantanea.getTrama(), instantanea.getVersion());
+        } catch (IOException e) {
+            // El cliente se ha ido; su sesión ya se encarga de cerrar el socket
+        }
+    }
 
-            // 1) Enviar la lista de jinetes al cliente
-            String nombres = servidor.getNombresJinetes();
-            out.writeUTF(nombres);
-            out.flush();
+    @Override
+    public void run() {
+        boolean terminadaBien = false;
+        try {
+            // 1) Enviar la lista de jinetes al cliente (los nombres solo viajan aquí)
+            canal.reiniciarEstado();
+            String[] nombres = carrera.getNombres();
+            Protocolo.escribirJinetes(canal.paraEnviar(Protocolo.tamanoJinetes(nombres)), idCamello, nombres);
+            canal.enviar();
             System.out.println("Enviada lista de jinetes a cliente " + idCamello);
 
             // 2) Bucle principal de la carrera
-            while (!servidor.isFinCarrera()) {
-                synchronized (servidor) {
-                    // Esperar hasta que sea el turno de este camello
-                    while (servidor.getTurnoActual() != idCamello && !servidor.isFinCarrera()) {
-                        System.out.println("Cliente " + idCamello + " esperando turno...");
-                        servidor.wait();
-                    }
-                }
-
+            int ultimoTurno = -1;
+            while (!carrera.isFinCarrera()) {
+                // Esperar hasta que sea el turno de este camello.
                 // Si la carrera ha finalizado, se sale del bucle
-                if (servidor.isFinCarrera()) {
+                if (!carrera.esperarTurno(idCamello, ultimoTurno)) {
                     System.out.println("Cliente " + idCamello + ": carrera finalizada, saliendo del bucle");
                     break;
                 }
+                ultimoTurno = carrera.getNumeroTurno();
 
-                // Notificar al cliente que es su turno mediante el código especial -2
-                System.out.println("Cliente " + idCamello + ": es su turno, notificando...");
-                out.writeInt(-2);
-                out.flush();
+                // Notificar al cliente que es su turno
+                long inicioTurno = System.nanoTime();
+                Protocolo.escribirTurno(canal.paraEnviar(Protocolo.tamanoTurno()), ultimoTurno);
+                canal.enviar();
 
                 // Se espera el valor del dado (entre 1 y 6) enviado por el cliente
-                int dado = in.readInt();
-                System.out.println("Cliente " + idCamello + " ha lanzado el dado: " + dado);
-
-                // Actualizar el avance del camello con el valor del dado
-                servidor.realizarAvance(idCamello, dado);
-
-                // Se envían los avances actuales de todos los camellos
-                int[] todosAvances = servidor.getAvances();
-                for (int i = 0; i < 4; i++) {
-                    out.writeInt(todosAvances[i]);
+                int dado = recibirTirada(ultimoTurno);
+                Metricas.esperaTirada(System.nanoTime() - inicioTurno);
+                if (dado > 0) {
+                    turnos.recibirTirada(this, ultimoTurno, dado);
                 }
-                // Se envía un código de control (0) que indica "carrera en curso"
-                out.writeInt(0);
-                out.flush();
-                System.out.println("Cliente " + idCamello + ": avances enviados");
-
-                // Se cambia el turno al siguiente camello que aún no haya finalizado
-                servidor.siguienteTurno();
-
-                // Pequeña espera para no saturar el ciclo
-                Thread.sleep(1000);
             }
 
             // 3) Esperar a que todos terminen
-            synchronized (servidor) {
-                while (!servidor.isFinCarrera()) {
-                    servidor.wait();
-                }
-            }
+            carrera.esperarFin();
 
             // 4) Una vez finalizada la carrera, se envían las posiciones finales
             System.out.println("Cliente " + idCamello + ": enviando posiciones finales");
-            int[] posiciones = servidor.getPosicionesFinales();
-
-            // El código -1 indica el fin de la carrera
-            out.writeInt(-1);
-            // Enviar las posiciones finales
-            for (int i = 0; i < 4; i++) {
-                out.writeInt(posiciones[i]);
-            }
-            out.flush();
+            int[] posiciones = carrera.getPosicionesFinales();
+            // El último estado se deja aquí, por si el difusor aún no lo ha publicado: así sale antes del FIN
+            InstantaneaEstado ultimo = carrera.getInstantanea();
+            canal.enviarEstado(ultimo.getTrama(), ultimo.getVersion());
+            Protocolo.escribirFin(canal.paraEnviar(Protocolo.tamanoFin(posiciones.length)), posiciones);
+            canal.enviar();
             System.out.println("Cliente " + idCamello + ": posiciones finales enviadas");
-
-            // Esperar a que el cliente procese los datos
-            Thread.sleep(2000);
+            terminadaBien = true;
 
         } catch (Exception e) {
             System.out.println("Error en hilo cliente " + idCamello + ": " + e.getMessage());
             Logger.getLogger(GestionClientes.class.getName()).log(Level.SEVERE, null, e);
         } finally {
-            // Cerrar el socket solo después de enviar todos los datos
-            try {
-                if (in != null) in.close();
-                if (out != null) out.close();
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                    System.out.println("Socket del cliente " + idCamello + " cerrado");
+            if (!terminadaBien) {
+                cerrar();
+                // Si el cliente se ha ido a mitad de carrera, su camello lo sigue un bot
+                // para que el resto de la mesa pueda terminar
+                if (!carrera.isFinCarrera()) {
+                    turnos.sentarBot(idCamello);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee tramas hasta recibir la tirada del turno indicado y devuelve el valor del dado.
+     * Si hay plazo de tirada y se agota, el servidor tira por el cliente; por rondas ya lo ha hecho
+     * el plazo de la ronda ({@link TurnosCarrera}) y se devuelve 0, sin tirada.
+     */
+    private int recibirTirada(int turno) throws IOException {
+        long plazoMs = config.getTiempoMaximoTiradaMs();
+        long limite = System.nanoTime() + plazoMs * 1_000_000L;
+        while (true) {
+            int restanteMs = 0;
+            if (plazoMs > 0) {
+                restanteMs = (int) ((limite - System.nanoTime()) / 1_000_000L);
+                if (restanteMs <= 0) {
+                    return tiradaAutomatica();
                 }
-            } catch (Exception e) {
-                System.out.println("Error cerrando recursos del cliente " + idCamello + ": " + e.getMessage());
             }
+            int tipo = canal.recibir(restanteMs);
+            if (tipo == CanalTramas.SIN_TRAMA) {
+                return tiradaAutomatica();
+            }
+            if (tipo == Protocolo.TIRADA) {
+                ByteBuffer datos = canal.datos();
+                int turnoTirada = Protocolo.leerU16(datos);
+                int dado = Protocolo.leerU8(datos);
+                if (!Protocolo.dadoValido(dado)) {
+                    System.out.println("Cliente " + idCamello + ": tirada descartada, dado " + dado);
+                } else if (turnoTirada == (turno & 0xFFFF)) {
+                    return dado;
+                }
+            }
+            // Cualquier otra trama, o una tirada de un turno anterior o con un dado imposible, se descarta
+        }
+    }
+
+    private int tiradaAutomatica() {
+        if (carrera.isRondas()) {
+            return 0;
+        }
+        RegistroEventos.publicar(RegistroEventos.TIRADA_AUTOMATICA, carrera.getIdCarrera(), idCamello, 0, 0);
+        return ThreadLocalRandom.current().nextInt(1, 7);
+    }
+
+    /**
+     * Cierra el socket del cliente.
+     */
+    private void cerrar() {
+        try {
+            canal.close();
+            System.out.println("Socket del cliente " + idCamello + " cerrado");
+        } catch (Exception e) {
+            System.out.println("Error cerrando recursos del cliente " + idCamello + ": " + e.getMessage());
         }
     }
 }
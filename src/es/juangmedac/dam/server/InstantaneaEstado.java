@@ -0,0 +1,128 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estado de la carrera en un momento dado: avances, posiciones finales, fin y turno.
+ * Es inmutable. La {@link Carrera} publica una nueva tras cada cambio y los lectores la leen
+ * sin cerrojo, así que leer cuesta lo mismo haya uno o mil lectores.
+ * Los avances se guardan solo ya codificados como trama ESTADO, con un byte por camello.
+ * Se codifican una sola vez por tirada y la misma trama se envía a todos los asientos.
+ * Los lectores también leen los avances de ella.
+ * La versión solo crece cuando cambian los avances: si no ha cambiado, quien envía se salta el envío.
+ */
+public final class InstantaneaEstado {
+
+    // Posición del primer avance dentro de la trama (tras la cabecera y el número de camellos)
+    private static final int INICIO_AVANCES = Protocolo.CABECERA + 2;
+
+    private final long version;
+    private final int numCamellos;
+    private final int[] posicionesFinales;
+    private final boolean finCarrera;
+    private final int turnoActual;
+    private final int numeroTurno;
+    private final byte[] trama;
+
+    /**
+     * Constructor.
+     * @param version Versión del estado (crece con cada tirada).
+     * @param avances Avances de todos los camellos.
+     */
+    public InstantaneaEstado(long version, int[] avances) {
+        this(version, avances, new int[avances.length], false, 0, 0);
+    }
+
+    /**
+     * Constructor para la carrera. Los avances se codifican (no se guardan); el array de posiciones
+     * pasa a ser de la instantánea y no debe volver a modificarse.
+     */
+    InstantaneaEstado(long version, int[] avances, int[] posicionesFinales, boolean finCarrera,
+                      int turnoActual, int numeroTurno) {
+        this.version = version;
+        this.numCamellos = avances.length;
+        this.posicionesFinales = posicionesFinales;
+        this.finCarrera = finCarrera;
+        this.turnoActual = turnoActual;
+        this.numeroTurno = numeroTurno;
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoEstado(avances.length));
+        Protocolo.escribirEstado(b, avances);
+        this.trama = b.array();
+    }
+
+    // Mismo estado con otro turno: se comparten los arrays y la trama
+    private InstantaneaEstado(InstantaneaEstado anterior, int turnoActual, int numeroTurno) {
+        this.version = anterior.version;
+        this.numCamellos = anterior.numCamellos;
+        this.posicionesFinales = anterior.posicionesFinales;
+        this.finCarrera = anterior.finCarrera;
+        this.turnoActual = turnoActual;
+        this.numeroTurno = numeroTurno;
+        this.trama = anterior.trama;
+    }
+
+    /**
+     * Devuelve una instantánea igual a esta salvo el turno. No copia ni codifica nada.
+     */
+    InstantaneaEstado conTurno(int turnoActual, int numeroTurno) {
+        return new InstantaneaEstado(this, turnoActual, numeroTurno);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Devuelve la trama codificada. Es compartida: no debe modificarse.
+     */
+    public byte[] getTrama() {
+        return trama;
+    }
+
+    public int getNumCamellos() {
+        return numCamellos;
+    }
+
+    public int getAvance(int idCamello) {
+        return Byte.toUnsignedInt(trama[INICIO_AVANCES + idCamello]);
+    }
+
+    /**
+     * Devuelve la posición final de un camello (0 si aún no ha llegado).
+     */
+    public int getPosicionFinal(int idCamello) {
+        return posicionesFinales[idCamello];
+    }
+
+    /**
+     * Devuelve una copia de los avances.
+     */
+    public int[] getAvances() {
+        int[] avances = new int[numCamellos];
+        for (int i = 0; i < numCamellos; i++) {
+            avances[i] = getAvance(i);
+        }
+        return avances;
+    }
+
+    /**
+     * Devuelve una copia de las posiciones finales.
+     */
+    public int[] getPosicionesFinales() {
+        return posicionesFinales.clone();
+    }
+
+    public boolean isFinCarrera() {
+        return finCarrera;
+    }
+
+    public int getTurnoActual() {
+        return turnoActual;
+    }
+
+    public int getNumeroTurno() {
+        return numeroTurno;
+    }
+}
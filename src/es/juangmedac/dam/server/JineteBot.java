@@ -0,0 +1,60 @@
+package es.juangmedac.dam.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Jinete del servidor: ocupa un asiento que no ha llenado nadie o el de un jugador que se ha ido.
+ * No tiene hilo ni red: cuando le toca, su tirada se entrega a la carrera desde el {@link Marcapasos},
+ * aparte del aviso de turno, como si fuera la de un jugador que contesta al momento.
+ */
+public class JineteBot implements Asiento {
+
+    private final int idCamello;
+    private final String nombre;
+    private final Asiento.Tiradas carrera;
+    private final Marcapasos marcapasos;
+
+    /**
+     * Constructor.
+     * @param idCamello Id del camello del asiento.
+     * @param nombre Nombre del jinete.
+     * @param carrera Carrera a la que entrega sus tiradas.
+     * @param marcapasos Planificador en el que tira.
+     */
+    public JineteBot(int idCamello, String nombre, Asiento.Tiradas carrera, Marcapasos marcapasos) {
+        this.idCamello = idCamello;
+        this.nombre = nombre;
+        this.carrera = carrera;
+        this.marcapasos = marcapasos;
+    }
+
+    @Override
+    public int getIdCamello() {
+        return idCamello;
+    }
+
+    @Override
+    public String getNombre() {
+        return nombre;
+    }
+
+    @Override
+    public void darTurno(int turno) {
+        try {
+            marcapasos.ejecutar(() -> carrera.recibirTirada(this, turno, ThreadLocalRandom.current().nextInt(1, 7)));
+        } catch (RejectedExecutionException e) {
+            // El servidor se está deteniendo
+        }
+    }
+
+    @Override
+    public void publicarEstado(InstantaneaEstado instantanea) {
+        // Tira al azar: el estado no le hace falta
+    }
+
+    @Override
+    public String toString() {
+        return nombre;
+    }
+}
@@ -0,0 +1,133 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Recorre los registros del {@link DiarioCarreras} en orden, segmento a segmento.
+ * Cada segmento se proyecta en memoria en modo lectura, así que solo se leen de disco las páginas
+ * que se van recorriendo: se puede repetir una carrera de un diario enorme sin cargarlo entero.
+ * Los campos públicos describen el último registro leído con {@link #siguiente()}.
+ */
+final class LectorDiario {
+
+    private final Path directorio;
+    private final List<Integer> segmentos;
+    private final CRC32C crc = new CRC32C();
+    private int indiceSegmento;
+    private MappedByteBuffer actual;
+
+    // Último registro leído
+    int tipo;
+    int idCarrera;
+    int camello;
+    int dado;
+    int ms;            // TIRADA: milisegundos desde el inicio de la carrera
+    long inicioMs;     // INICIO: hora de inicio
+    String[] nombres;  // INICIO: nombres de los jinetes
+    int segmento;      // Segmento y posición donde empieza el registro
+    int posicion;
+
+    /**
+     * Lector desde el principio del diario.
+     */
+    LectorDiario(Path directorio) throws IOException {
+        this(directorio, -1, 0);
+    }
+
+    /**
+     * Lector que empieza en un registro concreto (por ejemplo, el inicio de una carrera ya localizado).
+     * @param segmento Número de segmento, o -1 para el primero.
+     * @param posicion Posición dentro del segmento.
+     */
+    LectorDiario(Path directorio, int segmento, int posicion) throws IOException {
+        this.directorio = directorio;
+        this.segmentos = DiarioCarreras.listarSegmentos(directorio);
+        if (segmento < 0) {
+            indiceSegmento = 0;
+        } else {
+            // Un segmento que ya no existe deja el lector sin registros
+            indiceSegmento = segmentos.indexOf(segmento);
+            if (indiceSegmento < 0) {
+                indiceSegmento = segmentos.size();
+            }
+        }
+        if (indiceSegmento < segmentos.size()) {
+            abrir();
+            actual.position(segmento < 0 ? 0 : posicion);
+        }
+    }
+
+    private void abrir() throws IOException {
+        try (FileChannel canal = FileChannel.open(DiarioCarreras.rutaSegmento(directorio, segmentos.get(indiceSegmento)),
+                StandardOpenOption.READ)) {
+            actual = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+    }
+
+    /**
+     * Avanza al siguiente registro válido.
+     * @return false si no quedan registros.
+     */
+    boolean siguiente() throws IOException {
+        while (actual != null) {
+            if (leerRegistro()) {
+                return true;
+            }
+            // Final válido del segmento: se pasa al siguiente
+            indiceSegmento++;
+            actual = null;
+            if (indiceSegmento < segmentos.size()) {
+                abrir();
+            }
+        }
+        return false;
+    }
+
+    private boolean leerRegistro() {
+        MappedByteBuffer b = actual;
+        int inicio = b.position();
+        if (b.remaining() < DiarioCarreras.CABECERA + DiarioCarreras.COLA) {
+            return false;
+        }
+        int longitud = Short.toUnsignedInt(b.getShort(inicio));
+        int fin = inicio + DiarioCarreras.CABECERA + longitud;
+        if (longitud < 4 || fin + DiarioCarreras.COLA > b.limit()) {
+            return false;
+        }
+        // CRC de tipo y datos, sin copiar: se acota el propio buffer
+        crc.reset();
+        b.position(inicio + 2).limit(fin);
+        crc.update(b);
+        b.limit(b.capacity());
+        if ((int) crc.getValue() != b.getInt(fin)) {
+            return false; // Registro escrito a medias: aquí acaba lo que llegó a disco
+        }
+
+        segmento = segmentos.get(indiceSegmento);
+        posicion = inicio;
+        b.position(inicio + 2);
+        tipo = Byte.toUnsignedInt(b.get());
+        idCarrera = b.getInt();
+        if (tipo == DiarioCarreras.INICIO) {
+            inicioMs = b.getLong();
+            nombres = new String[Short.toUnsignedInt(b.getShort())];
+            for (int i = 0; i < nombres.length; i++) {
+                nombres[i] = Protocolo.leerTexto(b);
+            }
+        } else if (tipo == DiarioCarreras.TIRADA) {
+            camello = Short.toUnsignedInt(b.getShort());
+            dado = Byte.toUnsignedInt(b.get());
+            ms = b.getInt();
+        }
+        b.position(fin + DiarioCarreras.COLA);
+        return true;
+    }
+}
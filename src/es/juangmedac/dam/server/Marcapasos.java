@@ -0,0 +1,54 @@
+package es.juangmedac.dam.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Programa las esperas de las carreras (paso de turno, cierre final y plazos de tirada)
+ * en un planificador compartido, en lugar de dormir el hilo de cada sesión.
+ */
+public class Marcapasos {
+
+    private final ScheduledThreadPoolExecutor planificador;
+
+    /**
+     * Constructor.
+     * @param hilos Número de hilos del planificador.
+     */
+    public Marcapasos(int hilos) {
+        AtomicInteger contador = new AtomicInteger();
+        planificador = new ScheduledThreadPoolExecutor(hilos,
+                tarea -> new Thread(tarea, "marcapasos-" + contador.getAndIncrement()));
+        planificador.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Ejecuta una tarea pasado el retardo indicado. Con retardo 0 se ejecuta ya, en el hilo que llama.
+     * @return La tarea programada, o null si se ha ejecutado directamente.
+     */
+    public ScheduledFuture<?> programar(long retardoMs, Runnable tarea) {
+        if (retardoMs <= 0) {
+            tarea.run();
+            return null;
+        }
+        return planificador.schedule(tarea, retardoMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ejecuta una tarea en cuanto quede libre un hilo del planificador, nunca en el hilo que llama.
+     * @throws RejectedExecutionException Si el planificador ya se ha detenido.
+     */
+    public void ejecutar(Runnable tarea) {
+        planificador.execute(tarea);
+    }
+
+    /**
+     * Deja de aceptar tareas nuevas. Las ya programadas (como los cierres de sockets) se ejecutan igualmente.
+     */
+    public void detener() {
+        planificador.shutdown();
+    }
+}
@@ -0,0 +1,125 @@
+package es.juangmedac.dam.server;
+
+import java.util.Arrays;
+
+/**
+ * Los K jugadores con más de algo (victorias, podios), como montículo de mínimos de huecos
+ * de {@link EstadisticasJugadores}. Las claves son un array de esas estadísticas que solo crece,
+ * así que basta con hundir al jugador que sube o, si no estaba y supera al último, ponerlo en su lugar.
+ * Sin objetos por entrada: el montículo y la posición de cada hueco en él son arrays de int.
+ * No es seguro entre hilos (se usa bajo el cerrojo de las estadísticas).
+ */
+final class MonticuloTop {
+
+    private final int[] claves;     // Valor de cada hueco (lo mantiene quien crea el montículo)
+    private final int[] monticulo;  // Huecos, con el menor en la raíz
+    private final int[] posicion;   // Índice de cada hueco en el montículo, -1 si no está
+    private int tamano;
+
+    /**
+     * Constructor.
+     * @param claves Valor de cada hueco; se lee, no se copia.
+     * @param k Número de jugadores que se guardan.
+     */
+    MonticuloTop(int[] claves, int k) {
+        this.claves = claves;
+        this.monticulo = new int[k];
+        this.posicion = new int[claves.length];
+        Arrays.fill(posicion, -1);
+    }
+
+    boolean contiene(int hueco) {
+        return posicion[hueco] >= 0;
+    }
+
+    /**
+     * Aviso de que la clave de un hueco ha crecido.
+     * @return true si el montículo ha cambiado (el hueco está o ha entrado en él).
+     */
+    boolean actualizar(int hueco) {
+        int i = posicion[hueco];
+        if (i >= 0) {
+            hundir(i);
+            return true;
+        }
+        if (tamano < monticulo.length) {
+            monticulo[tamano] = hueco;
+            posicion[hueco] = tamano;
+            subir(tamano++);
+            return true;
+        }
+        if (claves[hueco] <= claves[monticulo[0]]) {
+            return false;
+        }
+        // Sustituye al último de la clasificación
+        posicion[monticulo[0]] = -1;
+        monticulo[0] = hueco;
+        posicion[hueco] = 0;
+        hundir(0);
+        return true;
+    }
+
+    /**
+     * Copia los huecos del montículo en el orden de la clasificación (de más a menos).
+     * @return Número de huecos copiados.
+     */
+    int copiarOrdenado(int[] destino) {
+        // K es pequeño: inserción directa, sin reservar nada
+        for (int i = 0; i < tamano; i++) {
+            int hueco = monticulo[i];
+            int j = i;
+            while (j > 0 && (claves[destino[j - 1]] < claves[hueco]
+                    || (claves[destino[j - 1]] == claves[hueco] && destino[j - 1] > hueco))) {
+                destino[j] = destino[j - 1];
+                j--;
+            }
+            destino[j] = hueco;
+        }
+        return tamano;
+    }
+
+    int getTamano() {
+        return tamano;
+    }
+
+    private boolean menor(int a, int b) {
+        return claves[monticulo[a]] < claves[monticulo[b]];
+    }
+
+    private void subir(int i) {
+        while (i > 0) {
+            int padre = (i - 1) / 2;
+            if (!menor(i, padre)) {
+                return;
+            }
+            intercambiar(i, padre);
+            i = padre;
+        }
+    }
+
+    private void hundir(int i) {
+        while (true) {
+            int menorHijo = 2 * i + 1;
+            if (menorHijo >= tamano) {
+                return;
+            }
+            if (menorHijo + 1 < tamano && menor(menorHijo + 1, menorHijo)) {
+                menorHijo++;
+            }
+            if (!menor(menorHijo, i)) {
+                return;
+            }
+            intercambiar(i, menorHijo);
+            i = menorHijo;
+        }
+    }
+
+    private void intercambiar(int a, int b) {
+        int ha = monticulo[a];
+        int hb = monticulo[b];
+        monticulo[a] = hb;
+        monticulo[b] = ha;
+        posicion[hb] = a;
+        posicion[ha] = b;
+    }
+}
@@ -0,0 +1,178 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.CanalTramas;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Espectadores de una carrera del servidor clásico.
+ * La carrera solo deja aquí la última instantánea (una escritura y, como mucho, una tarea programada),
+ * así que el número de espectadores no añade nada al turno de los jugadores. El reparto se hace
+ * después en otro hilo: la misma trama ya codificada se deja en la cola de salida de cada espectador,
+ * que se queda solo con el estado más reciente si va lento (ver {@link es.juangmedac.dam.protocolo.ColaSalida}).
+ * Un espectador que no lee hasta llenar su cola se desconecta. Las posiciones finales no se descartan nunca.
+ */
+public class Palco {
+
+    private static final ExecutorService REPARTOS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final int idCarrera;
+    private final byte[] tramaJinetes;
+    private final CopyOnWriteArrayList<CanalTramas> espectadores;
+    private final AtomicBoolean repartoProgramado;
+    private final ReentrantLock cerrojoReparto;
+    private final LongAdder desconectados;
+    private volatile InstantaneaEstado ultima;
+    private long versionRepartida = -1;
+    private byte[] tramaFin;
+
+    /**
+     * Constructor.
+     * @param idCarrera Id de la carrera.
+     * @param nombres Nombres de los jinetes.
+     */
+    public Palco(int idCarrera, String[] nombres) {
+        this.idCarrera = idCarrera;
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoJinetes(nombres));
+        Protocolo.escribirJinetes(b, Protocolo.SIN_CAMELLO, nombres);
+        this.tramaJinetes = Arrays.copyOf(b.array(), b.position());
+        this.espectadores = new CopyOnWriteArrayList<>();
+        this.repartoProgramado = new AtomicBoolean();
+        this.cerrojoReparto = new ReentrantLock();
+        this.desconectados = new LongAdder();
+    }
+
+    /**
+     * Publica un nuevo estado. Se llama desde el turno de la carrera y no bloquea.
+     */
+    public void publicar(InstantaneaEstado instantanea) {
+        ultima = instantanea;
+        if (!espectadores.isEmpty() && repartoProgramado.compareAndSet(false, true)) {
+            REPARTOS.execute(this::repartir);
+        }
+    }
+
+    private void repartir() {
+        repartoProgramado.set(false);
+        cerrojoReparto.lock();
+        try {
+            repartirUltima();
+        } finally {
+            cerrojoReparto.unlock();
+        }
+    }
+
+    // Con el cerrojo de reparto: nunca se reparte un estado más viejo que el último repartido
+    private void repartirUltima() {
+        InstantaneaEstado instantanea = ultima;
+        if (tramaFin != null || instantanea == null || instantanea.getVersion() <= versionRepartida) {
+            return;
+        }
+        for (CanalTramas espectador : espectadores) {
+            try {
+                espectador.enviarEstado(instantanea.getTrama(), instantanea.getVersion());
+            } catch (IOException e) {
+                quitar(espectador);
+            }
+        }
+        versionRepartida = instantanea.getVersion();
+    }
+
+    /**
+     * Envía el último estado y las posiciones finales a todos los espectadores, que se desconectan al recibirlas.
+     * @param instantanea Estado final de la carrera.
+     * @param posiciones Posiciones finales.
+     */
+    public void terminar(InstantaneaEstado instantanea, int[] posiciones) {
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoFin(posiciones.length));
+        Protocolo.escribirFin(b, posiciones);
+        cerrojoReparto.lock();
+        try {
+            ultima = instantanea;
+            repartirUltima();
+            tramaFin = b.array();
+            for (CanalTramas espectador : espectadores) {
+                despedir(espectador);
+            }
+            espectadores.clear();
+        } finally {
+            cerrojoReparto.unlock();
+        }
+    }
+
+    /**
+     * Añade un espectador que ya ha saludado. Recibe los jinetes, el estado actual y,
+     * a partir de ahí, cada estado nuevo.
+     */
+    public void suscribir(CanalTramas canal) {
+        cerrojoReparto.lock();
+        try {
+            canal.enviar(tramaJinetes);
+            InstantaneaEstado instantanea = ultima;
+            if (instantanea != null) {
+                canal.enviarEstado(instantanea.getTrama(), instantanea.getVersion());
+            }
+            if (tramaFin != null) {
+                despedir(canal);
+            } else {
+                espectadores.add(canal);
+            }
+        } catch (IOException e) {
+            cerrar(canal);
+        } finally {
+            cerrojoReparto.unlock();
+        }
+    }
+
+    /**
+     * Envía las posiciones finales y cierra el canal cuando hayan salido.
+     */
+    private void despedir(CanalTramas espectador) {
+        try {
+            espectador.enviar(tramaFin);
+        } catch (IOException e) {
+            desconectados.increment();
+        }
+        cerrar(espectador);
+    }
+
+    private void quitar(CanalTramas espectador) {
+        espectadores.remove(espectador);
+        desconectados.increment();
+        cerrar(espectador);
+    }
+
+    private static void cerrar(CanalTramas canal) {
+        try {
+            canal.close();
+        } catch (IOException ignorada) {
+        }
+    }
+
+    public int getIdCarrera() {
+        return idCarrera;
+    }
+
+    /**
+     * Devuelve el número de espectadores conectados.
+     */
+    public int getNumEspectadores() {
+        return espectadores.size();
+    }
+
+    /**
+     * Devuelve el número de espectadores que se han ido o se han desconectado por no leer.
+     */
+    public long getDesconectados() {
+        return desconectados.sum();
+    }
+}
@@ -0,0 +1,517 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.PoolBuffers;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Pasarela que reparte las carreras entre varios procesos servidor NIO (backends) de la misma máquina.
+ * Acepta a los clientes como si fuera el servidor y forma ella las mesas: contesta al HOLA, tiene a
+ * los jugadores en su propia mesa con latidos y, cuando se llena (o pasa la espera de bots), numera
+ * la carrera y elige backend con un {@link AnilloBackends} de hash consistente sobre ese número.
+ * Cada jugador de la mesa abre su túnel con ese backend y le presenta la carrera con una trama MESA
+ * antes de su saludo, así que el backend juega la carrera con el número de la pasarela y con todos sus
+ * jugadores juntos (ver {@link TunelPasarela}). Los que piden OTRA vuelven a la mesa de la pasarela.
+ * Los números de carrera de la pasarela empiezan en {@value #PRIMERA_CARRERA}, lejos de los que
+ * numeran los backends por su cuenta. Un MIRAR va al backend de la carrera que pide mientras tenga
+ * jugadores, y con 0, al de la última carrera formada.
+ * Los backends se dan con {@code backends=host:puerto,...} o se lanzan aquí con {@code locales=N}
+ * (servidores NIO en los puertos siguientes al de la pasarela), y por JMX se pueden añadir o quitar
+ * sin reiniciarla: las carreras nuevas se reparten con el anillo nuevo y las que están en curso no se tocan.
+ */
+public class Pasarela implements PasarelaMXBean {
+
+    private static final String NOMBRE_JMX = "es.juangmedac.dam:type=Pasarela";
+    // Capacidad de cada buffer de túnel: caben de sobra las tramas de una carrera normal
+    private static final int TAMANO_BUFFER = 8192;
+    /** Primer número de las carreras que forma la pasarela. */
+    static final int PRIMERA_CARRERA = 1 << 30;
+
+    private final int puerto;
+    private final int numBucles;
+    private final int jinetesPorCarrera;
+    private final long plazoSaludoMs;
+    private final long esperaBotsMs;
+    private final long latidoMs;
+    private final String[] argumentos;
+    private final Marcapasos marcapasos;
+    private final PoolBuffers pool;
+    private BuclePasarela[] bucles;
+    private volatile boolean activo;
+
+    // Se sustituye entero al añadir o quitar backends
+    private volatile AnilloBackends anillo;
+    private final Map<InetSocketAddress, AtomicInteger> tunelesPorBackend;
+    private final List<Process> locales;
+    private int siguientePuertoLocal;
+
+    // Jugadores esperando a que se complete la mesa, y carreras formadas que aún tienen túneles
+    private final ArrayList<TunelPasarela> mesa;
+    private boolean revisionMesaProgramada;
+    private final Map<Integer, CarreraEnCurso> carreras;
+    private final AtomicInteger contadorCarreras;
+    private volatile int ultimaCarrera;
+    private final AtomicInteger clientes;
+    private final LongAdder bytesReenviados;
+    private final LongAdder fallosBackend;
+
+    /**
+     * Constructor.
+     * @param puerto Puerto de escucha.
+     * @param numBucles Número de hilos de bucle.
+     * @param config Configuración de las carreras (se usan los jinetes por carrera, la espera de bots
+     *               y los plazos de saludo y de latido).
+     * @param argumentos Argumentos del arranque, que se pasan a los backends lanzados aquí.
+     */
+    public Pasarela(int puerto, int numBucles, ConfiguracionCarrera config, String[] argumentos) {
+        this.puerto = puerto;
+        this.numBucles = numBucles;
+        this.jinetesPorCarrera = config.getNumJinetes();
+        this.plazoSaludoMs = config.getPlazoSaludoMs();
+        this.esperaBotsMs = config.getEsperaBotsMs();
+        this.latidoMs = config.getLatidoMs();
+        this.argumentos = argumentos;
+        this.marcapasos = new Marcapasos(1);
+        this.pool = new PoolBuffers(TAMANO_BUFFER, 4096, true);
+        this.anillo = AnilloBackends.vacio();
+        this.tunelesPorBackend = new ConcurrentHashMap<>();
+        this.locales = new ArrayList<>();
+        this.siguientePuertoLocal = puerto + 1;
+        this.mesa = new ArrayList<>();
+        this.carreras = new HashMap<>();
+        this.contadorCarreras = new AtomicInteger(PRIMERA_CARRERA - 1);
+        this.clientes = new AtomicInteger();
+        this.bytesReenviados = new LongAdder();
+        this.fallosBackend = new LongAdder();
+    }
+
+    /**
+     * Crea la pasarela con los backends de {@code backends=host:puerto,...} y lanza
+     * los de {@code locales=N}.
+     */
+    public static Pasarela desdeArgumentos(int puerto, int numBucles, ConfiguracionCarrera config, String[] args)
+            throws IOException {
+        Pasarela pasarela = new Pasarela(puerto, numBucles, config, args);
+        int numLocales = 0;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("backends=")) {
+                for (String direccion : arg.substring(9).split(",")) {
+                    if (!direccion.isBlank()) {
+                        System.out.println(pasarela.agregarBackend(direccion.trim()));
+                    }
+                }
+            } else if (clave.startsWith("locales=")) {
+                numLocales = Integer.parseInt(arg.substring(8));
+            }
+        }
+        if (numLocales > 0) {
+            Runtime.getRuntime().addShutdownHook(new Thread(pasarela::detenerLocales));
+            for (int i = 0; i < numLocales; i++) {
+                System.out.println(pasarela.lanzarBackendLocal());
+            }
+        }
+        return pasarela;
+    }
+
+    /**
+     * Método principal. El hilo que lo llama se queda aceptando conexiones.
+     */
+    public void ejecutarServidor() {
+        try (ServerSocketChannel aceptador = ServerSocketChannel.open()) {
+            aceptador.bind(new InetSocketAddress(puerto), 1024);
+
+            bucles = new BuclePasarela[numBucles];
+            for (int i = 0; i < numBucles; i++) {
+                bucles[i] = new BuclePasarela(this);
+                bucles[i].iniciar("bucle-pasarela-" + i);
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(NOMBRE_JMX));
+            } catch (JMException e) {
+                System.out.println("No se ha podido publicar la pasarela por JMX: " + e.getMessage());
+            }
+            activo = true;
+            marcapasos.programar(latidoMs, this::latirMesa);
+
+            System.out.println("Pasarela iniciada en puerto " + puerto + " con " + numBucles
+                    + " bucles. Carreras de " + jinetesPorCarrera + " jinetes repartidas entre "
+                    + anillo.getNumBackends() + " backends.");
+
+            int siguiente = 0;
+            while (activo) {
+                SocketChannel canal = aceptador.accept();
+                canal.socket().setTcpNoDelay(true);
+                clientes.incrementAndGet();
+                bucles[siguiente].registrar(canal, plazoSaludoMs);
+                siguiente = (siguiente + 1) % numBucles;
+            }
+        } catch (IOException e) {
+            if (activo) {
+                e.printStackTrace();
+            }
+        } finally {
+            detener();
+        }
+    }
+
+    /**
+     * Detiene los bucles (los backends lanzados aquí se detienen al salir del proceso).
+     */
+    public void detener() {
+        activo = false;
+        marcapasos.detener();
+        if (bucles != null) {
+            for (BuclePasarela bucle : bucles) {
+                if (bucle != null) {
+                    bucle.detener();
+                }
+            }
+        }
+    }
+
+    // *************** Backends ***************
+
+    @Override
+    public synchronized String agregarBackend(String direccion) {
+        InetSocketAddress backend;
+        try {
+            backend = direccion(direccion);
+        } catch (IllegalArgumentException e) {
+            return "Dirección no válida: " + direccion;
+        }
+        if (backend.isUnresolved()) {
+            return "No se encuentra el backend " + direccion;
+        }
+        AnilloBackends nuevo = anillo.con(backend);
+        if (nuevo == anillo) {
+            return "El backend " + direccion + " ya estaba en el anillo";
+        }
+        tunelesPorBackend.putIfAbsent(backend, new AtomicInteger());
+        anillo = nuevo;
+        return "Backend " + direccion + " añadido (" + nuevo.getNumBackends() + " en el anillo)";
+    }
+
+    @Override
+    public synchronized String quitarBackend(String direccion) {
+        InetSocketAddress backend;
+        try {
+            backend = direccion(direccion);
+        } catch (IllegalArgumentException e) {
+            return "Dirección no válida: " + direccion;
+        }
+        AnilloBackends nuevo = anillo.sin(backend);
+        if (nuevo == anillo) {
+            return "El backend " + direccion + " no está en el anillo";
+        }
+        anillo = nuevo;
+        return "Backend " + direccion + " quitado (" + nuevo.getNumBackends() + " en el anillo)";
+    }
+
+    /**
+     * Lanza un servidor NIO en otro proceso, con los mismos argumentos que la pasarela, espera
+     * a que escuche y lo añade al anillo. Los ficheros de diario, estadísticas y registro llevan
+     * el puerto del backend detrás, para que cada proceso tenga los suyos.
+     * Solo se reserva el puerto con el cerrojo: la espera del arranque no para al resto de la pasarela.
+     */
+    @Override
+    public String lanzarBackendLocal() {
+        int puertoBackend;
+        synchronized (this) {
+            puertoBackend = siguientePuertoLocal++;
+        }
+        List<String> orden = new ArrayList<>();
+        orden.add(ProcessHandle.current().info().command().orElse("java"));
+        orden.add("-cp");
+        orden.add(System.getProperty("java.class.path"));
+        orden.add(ServidorMain.class.getName());
+        orden.add("nio");
+        orden.add(String.valueOf(puertoBackend));
+        for (String arg : argumentos) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("backends=") || clave.startsWith("locales=")) {
+                continue;
+            }
+            if (clave.startsWith("diario=") || clave.startsWith("estadisticas=")
+                    || clave.startsWith("registrofichero=")) {
+                orden.add(arg + "-" + puertoBackend);
+            } else if (arg.contains("=") || clave.equals("sinesperas") || clave.equals("rondas")
+                    || clave.equals("diarioconservar")) {
+                orden.add(arg);
+            }
+        }
+        try {
+            Process proceso = new ProcessBuilder(orden).inheritIO().start();
+            synchronized (this) {
+                locales.add(proceso);
+            }
+            InetSocketAddress backend = new InetSocketAddress("127.0.0.1", puertoBackend);
+            if (!esperarEscucha(backend, proceso, 15_000)) {
+                return "El backend local del puerto " + puertoBackend + " no ha arrancado";
+            }
+            return agregarBackend("127.0.0.1:" + puertoBackend);
+        } catch (IOException e) {
+            return "No se ha podido lanzar el backend local del puerto " + puertoBackend + ": " + e.getMessage();
+        }
+    }
+
+    private static boolean esperarEscucha(InetSocketAddress backend, Process proceso, long plazoMs) {
+        long limite = System.currentTimeMillis() + plazoMs;
+        while (proceso.isAlive() && System.currentTimeMillis() < limite) {
+            try (Socket prueba = new Socket()) {
+                prueba.connect(backend, 200);
+                return true;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private synchronized void detenerLocales() {
+        for (Process proceso : locales) {
+            proceso.destroy();
+        }
+    }
+
+    /**
+     * Dirección de un texto {@code host:puerto}.
+     */
+    static InetSocketAddress direccion(String texto) {
+        int dosPuntos = texto.lastIndexOf(':');
+        if (dosPuntos <= 0) {
+            throw new IllegalArgumentException(texto);
+        }
+        return new InetSocketAddress(texto.substring(0, dosPuntos), Integer.parseInt(texto.substring(dosPuntos + 1)));
+    }
+
+    // *************** Mesa ***************
+
+    /**
+     * Sienta a un jugador que ya ha saludado en la mesa y forma la carrera si se completa.
+     * Si la mesa estaba vacía y hay espera de bots, programa su revisión.
+     */
+    void sentarEnMesa(TunelPasarela tunel) {
+        TunelPasarela[] formada = null;
+        synchronized (this) {
+            tunel.setEnMesaDesde(System.nanoTime());
+            mesa.add(tunel);
+            if (mesa.size() == jinetesPorCarrera) {
+                formada = mesa.toArray(new TunelPasarela[0]);
+                mesa.clear();
+            } else if (esperaBotsMs > 0 && !revisionMesaProgramada) {
+                revisionMesaProgramada = true;
+                marcapasos.programar(esperaBotsMs, this::revisarMesa);
+            }
+        }
+        formarCarrera(formada);
+    }
+
+    /**
+     * Si el jugador que más lleva en la mesa ya ha esperado lo suficiente, forma la carrera con los
+     * que haya (el backend pone bots en los asientos libres); si no, se vuelve a programar.
+     */
+    private void revisarMesa() {
+        TunelPasarela[] formada = null;
+        synchronized (this) {
+            revisionMesaProgramada = false;
+            if (!activo || mesa.isEmpty()) {
+                return;
+            }
+            long esperadoMs = (System.nanoTime() - mesa.get(0).getEnMesaDesde()) / 1_000_000L;
+            if (esperadoMs >= esperaBotsMs) {
+                formada = mesa.toArray(new TunelPasarela[0]);
+                mesa.clear();
+            } else {
+                revisionMesaProgramada = true;
+                try {
+                    marcapasos.programar(esperaBotsMs - esperadoMs, this::revisarMesa);
+                } catch (RejectedExecutionException e) {
+                    // La pasarela se está deteniendo
+                }
+            }
+        }
+        formarCarrera(formada);
+    }
+
+    /**
+     * Numera la carrera de una mesa y la lleva al backend que le toca en el anillo. Fuera del cerrojo.
+     */
+    private void formarCarrera(TunelPasarela[] jugadores) {
+        if (jugadores == null) {
+            return;
+        }
+        int idCarrera = contadorCarreras.incrementAndGet();
+        InetSocketAddress backend = anillo.elegir(idCarrera, 0);
+        synchronized (this) {
+            carreras.put(idCarrera, new CarreraEnCurso(backend, jugadores.length));
+        }
+        ultimaCarrera = idCarrera;
+        for (TunelPasarela tunel : jugadores) {
+            tunel.unirseACarrera(idCarrera, jugadores.length);
+        }
+    }
+
+    /**
+     * Envía un latido a cada jugador de la mesa y se vuelve a programar.
+     */
+    private void latirMesa() {
+        if (!activo || latidoMs <= 0) {
+            return;
+        }
+        synchronized (this) {
+            for (TunelPasarela tunel : mesa) {
+                tunel.enviarLatido();
+            }
+        }
+        try {
+            marcapasos.programar(latidoMs, this::latirMesa);
+        } catch (RejectedExecutionException e) {
+            // La pasarela se está deteniendo
+        }
+    }
+
+    /**
+     * Quita de la mesa a un jugador que se ha ido antes de empezar.
+     */
+    synchronized void levantarDeMesa(TunelPasarela tunel) {
+        mesa.remove(tunel);
+    }
+
+    /**
+     * Un jugador deja su carrera (ha terminado, ha pedido OTRA o se ha ido). Cuando se van todos,
+     * la carrera deja de estar en curso para los espectadores.
+     */
+    synchronized void salirDeCarrera(int idCarrera) {
+        CarreraEnCurso carrera = carreras.get(idCarrera);
+        if (carrera != null && --carrera.tuneles == 0) {
+            carreras.remove(idCarrera);
+        }
+    }
+
+    // *************** Avisos de los túneles ***************
+
+    AnilloBackends getAnillo() {
+        return anillo;
+    }
+
+    /**
+     * Backend en el que se mira la carrera indicada: el que la juega, mientras tenga jugadores en la
+     * pasarela; la carrera 0 es la última formada. Si la pasarela ya no la tiene, el que le toca en el
+     * anillo. Una carrera solo está en su backend, así que no hay segundo intento.
+     * @return El backend, o null si no hay.
+     */
+    InetSocketAddress backendDeCarrera(int idCarrera, int intento) {
+        if (intento > 0) {
+            return null;
+        }
+        if (idCarrera <= 0) {
+            idCarrera = ultimaCarrera;
+        }
+        synchronized (this) {
+            CarreraEnCurso carrera = carreras.get(idCarrera);
+            if (carrera != null) {
+                return carrera.backend;
+            }
+        }
+        return anillo.elegir(idCarrera, 0);
+    }
+
+    long getLatidoMs() {
+        return latidoMs;
+    }
+
+    void tunelAbierto(InetSocketAddress backend) {
+        tunelesPorBackend.computeIfAbsent(backend, b -> new AtomicInteger()).incrementAndGet();
+    }
+
+    void tunelCerrado(InetSocketAddress backend) {
+        tunelesPorBackend.get(backend).decrementAndGet();
+    }
+
+    void clienteCerrado() {
+        clientes.decrementAndGet();
+    }
+
+    void backendCaido() {
+        fallosBackend.increment();
+    }
+
+    void reenviados(int bytes) {
+        bytesReenviados.add(bytes);
+    }
+
+    PoolBuffers getPool() {
+        return pool;
+    }
+
+    Marcapasos getMarcapasos() {
+        return marcapasos;
+    }
+
+    // *************** JMX ***************
+
+    @Override
+    public String[] getBackends() {
+        InetSocketAddress[] backends = anillo.getBackends();
+        String[] lineas = new String[backends.length];
+        for (int i = 0; i < backends.length; i++) {
+            AtomicInteger tuneles = tunelesPorBackend.get(backends[i]);
+            lineas[i] = AnilloBackends.nombre(backends[i]) + " (" + (tuneles == null ? 0 : tuneles.get()) + " túneles)";
+        }
+        return lineas;
+    }
+
+    @Override
+    public int getClientes() {
+        return clientes.get();
+    }
+
+    @Override
+    public synchronized int getEnMesa() {
+        return mesa.size();
+    }
+
+    @Override
+    public long getBytesReenviados() {
+        return bytesReenviados.sum();
+    }
+
+    @Override
+    public long getFallosBackend() {
+        return fallosBackend.sum();
+    }
+
+    /**
+     * Backend de una carrera formada y túneles de jugadores que le quedan.
+     */
+    private static final class CarreraEnCurso {
+        final InetSocketAddress backend;
+        int tuneles;
+
+        CarreraEnCurso(InetSocketAddress backend, int tuneles) {
+            this.backend = backend;
+            this.tuneles = tuneles;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package es.juangmedac.dam.server;
+
+/**
+ * Estado y gobierno de la {@link Pasarela} por JMX (se ve con JConsole o VisualVM).
+ */
+public interface PasarelaMXBean {
+
+    /** Backends del anillo, como host:puerto con sus túneles abiertos. */
+    String[] getBackends();
+
+    /** Clientes conectados a la pasarela ahora mismo. */
+    int getClientes();
+
+    /** Jugadores que esperan en la mesa de la pasarela a que se forme su carrera. */
+    int getEnMesa();
+
+    /** Bytes reenviados en los dos sentidos desde el arranque. */
+    long getBytesReenviados();
+
+    /** Conexiones con un backend que han fallado y se han llevado al siguiente. */
+    long getFallosBackend();
+
+    /** Añade un backend (host:puerto) al anillo; las carreras nuevas ya pueden caer en él. */
+    String agregarBackend(String direccion);
+
+    /** Quita un backend del anillo; sus carreras en curso siguen hasta terminar. */
+    String quitarBackend(String direccion);
+
+    /** Lanza un servidor NIO local en el siguiente puerto libre de la pasarela y lo añade al anillo. */
+    String lanzarBackendLocal();
+}
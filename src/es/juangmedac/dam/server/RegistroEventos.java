@@ -0,0 +1,262 @@
+package es.juangmedac.dam.server;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro asíncrono de los eventos de las carreras.
+ * Los hilos de juego solo copian unos pocos enteros en un anillo reservado de antemano
+ * (sin crear objetos ni tocar la consola); un hilo aparte vacía el anillo y escribe el texto
+ * en la consola o en un fichero. Si el escritor se queda atrás y el anillo se llena, los
+ * eventos nuevos se descartan y se cuentan, pero el juego nunca se bloquea por el registro.
+ * Sin configurar, el primer evento crea el registro por defecto (por turno, en la consola): cargar la clase
+ * no arranca el hilo escritor ni añade nada al cierre del proceso.
+ */
+public final class RegistroEventos {
+
+    /**
+     * Nivel de detalle del registro.
+     */
+    public enum Nivel {
+        /** No se registra nada. */
+        NADA,
+        /** Solo llegadas a meta y final de cada carrera. */
+        CARRERA,
+        /** Además, cada tirada y cada cambio de turno. */
+        TURNO
+    }
+
+    // Tipos de evento
+    public static final int TIRADA = 1;            // camello, dado, total
+    public static final int TIRADA_AUTOMATICA = 2; // camello (se agotó su plazo)
+    public static final int CAMBIO_TURNO = 3;      // camello anterior, camello nuevo
+    public static final int LLEGADA = 4;           // camello, posición
+    public static final int POSICION_FINAL = 5;    // camello, posición
+    public static final int FIN_CARRERA = 6;       // número de camellos
+    public static final int INICIO_CARRERA = 7;    // número de camellos
+
+    private static final int CAPACIDAD = 1 << 14;
+    private static final int MASCARA = CAPACIDAD - 1;
+
+    private static volatile RegistroEventos instancia; // null hasta configurarlo o hasta el primer evento
+
+    private final Nivel nivel;
+    private final Writer salida;
+
+    // Anillo de eventos: un array por campo, indexado por secuencia & MASCARA
+    private final AtomicLongArray publicado = new AtomicLongArray(CAPACIDAD);
+    private final long[] tiempos = new long[CAPACIDAD];
+    private final int[] tipos = new int[CAPACIDAD];
+    private final int[] carreras = new int[CAPACIDAD];
+    private final int[] camellos = new int[CAPACIDAD];
+    private final int[] valores = new int[CAPACIDAD];
+    private final int[] totales = new int[CAPACIDAD];
+
+    private final AtomicLong siguiente = new AtomicLong();  // Próxima secuencia a reservar
+    private final AtomicLong consumido = new AtomicLong();  // Próxima secuencia a escribir
+    private final AtomicLong perdidos = new AtomicLong();
+
+    private final StringBuilder linea = new StringBuilder(128);
+    private final long desfaseHorario = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+    private final Thread escritor;
+    private volatile boolean activo = true;
+
+    /**
+     * Constructor.
+     * @param nivel Nivel de detalle.
+     * @param fichero Fichero de salida, o null para la consola.
+     */
+    private RegistroEventos(Nivel nivel, String fichero) {
+        this.nivel = nivel;
+        Writer w = null;
+        try {
+            w = new BufferedWriter(new OutputStreamWriter(
+                    fichero != null ? new FileOutputStream(fichero, true) : System.out, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("No se puede abrir el registro " + fichero + ": " + e.getMessage());
+            w = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+        this.salida = w;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            publicado.set(i, -1);
+        }
+        escritor = new Thread(this::escribir, "registro-eventos");
+        escritor.setDaemon(true);
+        if (nivel != Nivel.NADA) {
+            escritor.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::vaciar));
+        }
+    }
+
+    /**
+     * Configura el registro global. Debe llamarse al arrancar, antes de empezar las carreras.
+     * @param nivel Nivel de detalle.
+     * @param fichero Fichero de salida, o null para la consola.
+     */
+    public static synchronized void configurar(Nivel nivel, String fichero) {
+        RegistroEventos anterior = instancia;
+        instancia = new RegistroEventos(nivel, fichero);
+        if (anterior != null) {
+            anterior.activo = false;
+            anterior.vaciar();
+        }
+    }
+
+    /**
+     * Devuelve el registro global, creando el de por defecto si aún no se ha configurado.
+     */
+    private static RegistroEventos instancia() {
+        RegistroEventos registro = instancia;
+        return registro != null ? registro : porDefecto();
+    }
+
+    private static synchronized RegistroEventos porDefecto() {
+        if (instancia == null) {
+            instancia = new RegistroEventos(Nivel.TURNO, null);
+        }
+        return instancia;
+    }
+
+    /**
+     * Configura el registro con las opciones {@code registro=nada|carrera|turno} y
+     * {@code registrofichero=ruta} de los argumentos del programa.
+     */
+    public static void configurar(String[] args) {
+        Nivel nivel = Nivel.TURNO;
+        String fichero = null;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("registro=")) {
+                nivel = Nivel.valueOf(arg.substring(9).toUpperCase());
+            } else if (clave.startsWith("registrofichero=")) {
+                fichero = arg.substring(16);
+            }
+        }
+        configurar(nivel, fichero);
+    }
+
+    /**
+     * Indica si los eventos por turno están activos (para no calcular datos que se van a descartar).
+     */
+    public static boolean porTurno() {
+        return instancia().nivel == Nivel.TURNO;
+    }
+
+    /**
+     * Publica un evento. No crea objetos ni bloquea.
+     * @param tipo Tipo de evento.
+     * @param idCarrera Carrera a la que pertenece.
+     * @param camello Camello al que se refiere.
+     * @param valor Primer dato del evento.
+     * @param total Segundo dato del evento.
+     */
+    public static void publicar(int tipo, int idCarrera, int camello, int valor, int total) {
+        instancia().anotar(tipo, idCarrera, camello, valor, total);
+    }
+
+    private void anotar(int tipo, int idCarrera, int camello, int valor, int total) {
+        Nivel necesario = (tipo == TIRADA || tipo == CAMBIO_TURNO || tipo == TIRADA_AUTOMATICA) ? Nivel.TURNO : Nivel.CARRERA;
+        if (nivel.compareTo(necesario) < 0) {
+            return;
+        }
+        long secuencia;
+        do {
+            secuencia = siguiente.get();
+            if (secuencia - consumido.get() >= CAPACIDAD) {
+                perdidos.incrementAndGet();
+                return;
+            }
+        } while (!siguiente.compareAndSet(secuencia, secuencia + 1));
+
+        int i = (int) (secuencia & MASCARA);
+        tiempos[i] = System.currentTimeMillis();
+        tipos[i] = tipo;
+        carreras[i] = idCarrera;
+        camellos[i] = camello;
+        valores[i] = valor;
+        totales[i] = total;
+        publicado.lazySet(i, secuencia); // Hace visibles los campos anteriores al escritor
+    }
+
+    /**
+     * Bucle del hilo escritor.
+     */
+    private void escribir() {
+        while (activo) {
+            if (!vaciar()) {
+                LockSupport.parkNanos(1_000_000L);
+            }
+        }
+    }
+
+    /**
+     * Escribe todos los eventos publicados hasta ahora.
+     * @return true si había alguno.
+     */
+    private synchronized boolean vaciar() {
+        long secuencia = consumido.get();
+        boolean escrito = false;
+        try {
+            while (publicado.get((int) (secuencia & MASCARA)) == secuencia) {
+                formatear((int) (secuencia & MASCARA));
+                salida.append(linea);
+                secuencia++;
+                consumido.lazySet(secuencia);
+                escrito = true;
+            }
+            long descartados = perdidos.getAndSet(0);
+            if (descartados > 0) {
+                salida.append("[registro] ").append(String.valueOf(descartados)).append(" eventos descartados\n");
+            }
+            if (escrito) {
+                salida.flush();
+            }
+        } catch (IOException e) {
+            // Sin salida no hay nada que hacer; el juego sigue igual
+        }
+        return escrito;
+    }
+
+    private void formatear(int i) {
+        linea.setLength(0);
+        long ms = (tiempos[i] + desfaseHorario) % 86_400_000L;
+        dosCifras(ms / 3_600_000L).append(':');
+        dosCifras(ms / 60_000L % 60).append(':');
+        dosCifras(ms / 1000 % 60).append('.');
+        long milis = ms % 1000;
+        if (milis < 100) linea.append('0');
+        if (milis < 10) linea.append('0');
+        linea.append(milis).append(" [carrera ").append(carreras[i]).append("] ");
+
+        int camello = camellos[i];
+        switch (tipos[i]) {
+            case TIRADA -> linea.append("Camello ").append(camello).append(" lanza el dado y obtiene: ")
+                    .append(valores[i]).append(" (Total: ").append(totales[i]).append("/100)");
+            case TIRADA_AUTOMATICA -> linea.append("Se agotó el plazo del camello ").append(camello)
+                    .append(", el servidor tira por él");
+            case CAMBIO_TURNO -> linea.append("Turno cambiado: ").append(camello).append(" -> ").append(valores[i]);
+            case LLEGADA -> linea.append("¡Camello ").append(camello).append(" HA TERMINADO en la posición ")
+                    .append(valores[i]).append("!");
+            case POSICION_FINAL -> linea.append("  Camello ").append(camello).append(": posición ").append(valores[i]);
+            case INICIO_CARRERA -> linea.append("Carrera iniciada con ").append(valores[i]).append(" camellos");
+            case FIN_CARRERA -> linea.append("¡TODOS LOS CAMELLOS HAN TERMINADO! (").append(valores[i]).append(" camellos)");
+            default -> linea.append("Evento ").append(tipos[i]);
+        }
+        linea.append('\n');
+    }
+
+    private StringBuilder dosCifras(long valor) {
+        if (valor < 10) {
+            linea.append('0');
+        }
+        return linea.append(valor);
+    }
+}
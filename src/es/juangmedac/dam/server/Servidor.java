@@ -1,215 +1,458 @@
 package es.juangmedac.dam.server;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.comun.ModoHilos;
+import es.juangmedac.dam.protocolo.CanalTramas;
+import es.juangmedac.dam.protocolo.ColaSalida;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Servidor que gestiona la carrera de camellos vía TCP.
  * Ahora, la carrera es por turnos: cada camello avanza cuando su jugador lanza el dado.
+ * Este es el servidor clásico (un hilo por cliente). No se cierra tras una carrera: los jugadores
+ * que llegan esperan en un {@link Vestibulo} y cada mesa completa se juega en su propio hilo,
+ * así que las carreras se encadenan sin volver a arrancar el proceso.
+ * El hilo que acepta solo acepta: el saludo de cada conexión se hace en su propio hilo y con plazo,
+ * así un cliente lento o mudo no retrasa a los que llegan detrás.
+ * Ese hilo es la sesión del jugador durante toda la conexión: espera mesa (enviando latidos),
+ * juega su asiento y, si tras las posiciones finales el cliente pide OTRA, vuelve a la cola sin
+ * nuevo socket, nuevo hilo ni nuevo saludo.
+ * Cualquiera puede mirar una carrera en curso saludando con MIRAR en vez de HOLA: los espectadores
+ * se atienden en el {@link Palco} de la carrera, fuera del turno de los jugadores.
+ * Nadie escribe en un socket desde el turno ni desde el planificador: cada conexión tiene su
+ * {@link ColaSalida} acotada, y el jugador o espectador que la llena se desconecta.
+ * Para muchas carreras simultáneas con pocos hilos se usa {@link ServidorNio}.
  */
 public class Servidor {
 
-    // Número máximo de jinetes/camellos
-    private final int NUM_MAX_JINETES = 4;
-    // Lista de sockets de los clientes conectados
-    private ArrayList<Socket> socketsClientes;
-    // Lista de hilos de gestión
-    private ArrayList<GestionClientes> hilosClientes;
-
-    // Datos de la carrera
-    private int contadorPosicionFinal;   // Se usará para asignar posiciones finales (1º, 2º, …)
-    private int[] posicionesFinales;       // Posiciones finales de cada camello (índice = id del camello)
-    private int[] avances;                 // Avances actuales de cada camello (de 0 a 100)
-    private int numJinetesAcabados;        // Número de camellos que han finalizado
-    private boolean finCarrera;            // Indica si la carrera ha terminado
-    private String nombresJinetes;         // Cadena con los nombres de los jinetes separados por comas
-
-    // Variable para controlar el turno. Indica el id del camello que tiene el turno.
-    private int turnoActual;
+    // Trama de latido, igual para todos los jugadores en cola
+    private static final byte[] TRAMA_LATIDO = tramaVacia(Protocolo.LATIDO);
+
+    // Número de jinetes/camellos de cada carrera
+    private final int numJinetes;
+    // Puerto de escucha
+    private final int puerto;
+    // Tipo de hilo para las sesiones de los clientes
+    private final ModoHilos modoHilos;
+    // Ritmo de la carrera y planificador de sus esperas
+    private final ConfiguracionCarrera config;
+    private final Marcapasos marcapasos;
+
+    // Cola de jugadores esperando carrera
+    private final Vestibulo<Jugador> vestibulo;
+    private final AtomicInteger carrerasActivas;
+    // Palcos de las carreras en curso, por id de carrera
+    private final ConcurrentHashMap<Integer, Palco> palcos;
+    private final AtomicInteger contadorConexiones;
+    private volatile boolean activo;
+    private ServerSocket serverSocket;
 
     /**
      * Constructor. Inicializa las variables necesarias.
      */
     public Servidor() {
-        contadorPosicionFinal = 1;
-        numJinetesAcabados = 0;
-        finCarrera = false;
-        nombresJinetes = "";
-        turnoActual = 0; // El primer turno se asigna al camello 0.
-        hilosClientes = new ArrayList<>();
+        this(5555, ModoHilos.PLATAFORMA, ConfiguracionCarrera.porDefecto());
     }
 
     /**
-     * Método principal que ejecuta el servidor.
+     * Constructor.
+     * @param puerto Puerto en el que escucha el servidor.
+     * @param modoHilos Tipo de hilo con el que se ejecuta cada sesión de cliente.
+     * @param config Ritmo de la carrera.
      */
-    public void ejecutarServidor() {
-        // Inicializamos los arrays para almacenar avances y posiciones finales
-        posicionesFinales = new int[NUM_MAX_JINETES];
-        avances = new int[NUM_MAX_JINETES];
-
-        socketsClientes = new ArrayList<>();
+    public Servidor(int puerto, ModoHilos modoHilos, ConfiguracionCarrera config) {
+        this.puerto = puerto;
+        this.modoHilos = modoHilos;
+        this.config = config;
+        // Las tiradas de los bots y los pasos de turno de todas las carreras salen de aquí
+        this.marcapasos = new Marcapasos(Runtime.getRuntime().availableProcessors());
+        this.numJinetes = config.getNumJinetes();
+        this.vestibulo = new Vestibulo<>(numJinetes, config.getEsperaBotsMs(), marcapasos, this::lanzarCarrera);
+        Metricas.publicarVestibulo(vestibulo);
+        this.carrerasActivas = new AtomicInteger();
+        this.palcos = new ConcurrentHashMap<>();
+        this.contadorConexiones = new AtomicInteger();
+    }
 
-        System.out.println("Servidor iniciado en puerto 5555... Esperando " + NUM_MAX_JINETES + " clientes.");
+    /**
+     * Método principal que ejecuta el servidor. El hilo que lo llama se queda aceptando jugadores.
+     */
+    public void ejecutarServidor() {
+        System.out.println("Servidor iniciado en puerto " + puerto + " (hilos " + modoHilos + ")... Carreras de "
+                + numJinetes + " jinetes. Ritmo: " + config);
 
-        try (ServerSocket serverSocket = new ServerSocket(5555)) {
+        try (ServerSocket serverSocket = new ServerSocket(puerto)) {
+            this.serverSocket = serverSocket;
+            activo = true;
 
-            // Esperamos a que se conecten los 4 clientes
-            while (socketsClientes.size() < NUM_MAX_JINETES) {
+            while (activo) {
                 Socket socketCliente = serverSocket.accept();
-                System.out.println("Cliente conectado: " + socketCliente.getInetAddress());
-
-                // Se crea un canal de comunicación para leer el nombre del jinete
-                DataInputStream in = new DataInputStream(socketCliente.getInputStream());
-                DataOutputStream out = new DataOutputStream(socketCliente.getOutputStream());
-                String nombreJinete = in.readUTF();
-
-                // Se acumulan los nombres separados por comas
-                if (!nombresJinetes.isEmpty()) {
-                    nombresJinetes += ",";
-                }
-                nombresJinetes += nombreJinete;
+                modoHilos.iniciar("sesion-" + contadorConexiones.incrementAndGet(), () -> saludar(socketCliente));
+            }
 
-                // Se envía un acuse de recibo al cliente
-                out.writeUTF("aceptado");
-                out.flush();
+        } catch (Exception e) {
+            if (activo) {
+                e.printStackTrace();
+            }
+        } finally {
+            // Los cierres de sockets ya programados se ejecutan antes de que termine el proceso
+            marcapasos.detener();
+        }
+    }
 
-                // Se guarda el socket del cliente
-                socketsClientes.add(socketCliente);
+    /**
+     * Hace el saludo con un cliente recién conectado y, si es válido, atiende su sesión
+     * (o lo pasa al palco de la carrera que quiere mirar).
+     * Si no completa el saludo dentro del plazo, se le cierra el socket.
+     */
+    private void saludar(Socket socketCliente) {
+        System.out.println("Cliente conectado: " + socketCliente.getInetAddress());
+        ScheduledFuture<?> plazo = null;
+        CanalTramas canal = null;
+        String nombreJinete;
+        try {
+            if (config.getPlazoSaludoMs() > 0) {
+                plazo = marcapasos.programar(config.getPlazoSaludoMs(), () -> cerrarSocket(socketCliente));
             }
 
-            System.out.println("Todos los clientes conectados. Nombres: " + nombresJinetes);
-            System.out.println("Iniciando carrera...");
+            // Se crea un canal de comunicación para leer el saludo con el nombre del jinete
+            canal = new CanalTramas(socketCliente);
+            int tipo = canal.recibir();
+            if (tipo == Protocolo.MIRAR) {
+                if (plazo == null || plazo.cancel(false)) {
+                    mirar(canal);
+                } else {
+                    canal.close();
+                }
+                return;
+            }
+            nombreJinete = leerSaludo(canal, tipo);
+            if (nombreJinete == null || (plazo != null && !plazo.cancel(false))) {
+                // Saludo no válido o plazo ya agotado
+                canal.close();
+                return;
+            }
 
-            // Se lanzan los hilos de gestión para cada cliente
-            for (int i = 0; i < NUM_MAX_JINETES; i++) {
-                Socket s = socketsClientes.get(i);
-                GestionClientes hilo = new GestionClientes(this, s, i);
-                hilosClientes.add(hilo);
-                hilo.start();
+            // Se envía un acuse de recibo al cliente
+            socketCliente.setKeepAlive(true);
+            canal.usarColaSalida(ColaSalida.Desborde.ABANDONAR_ASIENTO);
+            Protocolo.escribirAceptado(canal.paraEnviar(Protocolo.tamanoAceptado()), (int) config.getLatidoMs());
+            canal.enviar();
+        } catch (IOException e) {
+            if (plazo != null) {
+                plazo.cancel(false);
             }
+            System.out.println("Saludo fallido con " + socketCliente.getInetAddress() + ": " + e.getMessage());
+            if (canal != null) {
+                cerrarCanal(canal);
+            } else {
+                cerrarSocket(socketCliente);
+            }
+            return;
+        }
+        // El mismo hilo sigue como sesión del jugador
+        atender(new Jugador(nombreJinete, canal));
+    }
 
-            // Espera a que la carrera finalice (cuando todos los camellos hayan terminado)
-            synchronized (this) {
-                while (!finCarrera) {
-                    wait();
+    /**
+     * Sesión de un jugador que ya ha saludado: entra en la cola, juega en este mismo hilo el asiento
+     * que le den y, mientras pida OTRA a tiempo, vuelve a empezar. Al terminar se cierra su socket.
+     */
+    private void atender(Jugador jugador) {
+        int carreras = 0;
+        try {
+            do {
+                if (carreras > 0) {
+                    Metricas.reenganche();
+                }
+                // Si completa una mesa, su carrera arranca sola y el asiento llega por la cola del jugador
+                vestibulo.entrar(jugador);
+                Runnable asiento = esperarAsiento(jugador);
+                if (asiento == null) {
+                    return;
                 }
+                asiento.run();
+                carreras++;
+            } while (esperarOtra(jugador.canal));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Sin sesiones persistentes se mantiene la espera de antes para que el cliente lea el final
+            long esperaMs = config.getPlazoOtraMs() > 0 ? 0 : config.getEsperaFinalMs();
+            marcapasos.programar(esperaMs, () -> cerrarCanal(jugador.canal));
+            if (carreras > 1) {
+                System.out.println("Sesión de " + jugador.nombre + " terminada tras " + carreras + " carreras");
             }
+        }
+    }
 
-            System.out.println("Carrera finalizada. Cerrando servidor.");
-
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Espera a que una carrera le asigne asiento al jugador. Mientras tanto le envía un latido cada
+     * intervalo; si el envío falla, el jugador se ha ido y se le quita de la cola.
+     * @return La sesión del asiento, o null si el jugador se ha ido antes de tenerlo.
+     */
+    private Runnable esperarAsiento(Jugador jugador) throws InterruptedException {
+        long latidoMs = config.getLatidoMs();
+        if (latidoMs <= 0) {
+            return jugador.asiento.take();
+        }
+        while (true) {
+            Runnable asiento = jugador.asiento.poll(latidoMs, TimeUnit.MILLISECONDS);
+            if (asiento != null) {
+                return asiento;
+            }
+            try {
+                jugador.canal.enviar(TRAMA_LATIDO);
+            } catch (IOException e) {
+                if (vestibulo.salir(jugador)) {
+                    System.out.println(jugador.nombre + " se ha ido mientras esperaba mesa");
+                    return null;
+                }
+                // Ya tenía mesa: su asiento notará el socket roto y jugará como bot
+                return jugador.asiento.take();
+            }
         }
     }
 
     /**
-     * Actualiza el avance de un camello usando el valor obtenido de la tirada del dado.
-     * @param idCamello Identificador del camello.
-     * @param avance Valor obtenido en la tirada del dado (normalmente de 1 a 6).
+     * Tras las posiciones finales, espera a que el cliente pida otra carrera.
+     * @return true si ha llegado OTRA dentro del plazo.
      */
-    public synchronized void realizarAvance(int idCamello, int avance) {
-        // Si el camello ya ha finalizado, no se hace nada.
-        if (avances[idCamello] >= 100) {
-            return;
+    private boolean esperarOtra(CanalTramas canal) {
+        long plazoMs = config.getPlazoOtraMs();
+        if (plazoMs <= 0 || !canal.isAbierto()) {
+            return false;
+        }
+        long limite = System.nanoTime() + plazoMs * 1_000_000L;
+        try {
+            while (true) {
+                int restanteMs = (int) ((limite - System.nanoTime()) / 1_000_000L);
+                if (restanteMs <= 0) {
+                    return false;
+                }
+                int tipo = canal.recibir(restanteMs);
+                if (tipo == Protocolo.OTRA) {
+                    return true;
+                }
+                if (tipo == CanalTramas.SIN_TRAMA) {
+                    return false;
+                }
+                // Una tirada tardía de la carrera anterior se descarta
+            }
+        } catch (IOException e) {
+            // El cliente ha cerrado: no quiere otra
+            return false;
         }
+    }
 
-        System.out.println("=== TURNO DEL CAMELLO " + idCamello + " ===");
-        System.out.println("Camello " + idCamello + " lanza el dado y obtiene: " + avance);
+    private static void cerrarCanal(CanalTramas canal) {
+        try {
+            canal.close();
+        } catch (IOException ignorada) {
+        }
+    }
 
-        // Actualizamos el avance
-        avances[idCamello] += avance;
-        if (avances[idCamello] >= 100) {
-            avances[idCamello] = 100;
-            // Se asigna la posición final
-            posicionesFinales[idCamello] = contadorPosicionFinal;
-            System.out.println("¡Camello " + idCamello + " HA TERMINADO en la posición " + contadorPosicionFinal + "!");
-            contadorPosicionFinal++;
-            numJinetesAcabados++;
-        } else {
-            System.out.println("Camello " + idCamello + " avanza " + avance + " (Total: " + avances[idCamello] + ")");
+    private static byte[] tramaVacia(int tipo) {
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.TAMANO_VACIA);
+        Protocolo.escribirVacia(b, tipo);
+        return b.array();
+    }
+
+    /**
+     * Sienta a un espectador en el palco de la carrera que pide, o de la última lanzada si pide la 0.
+     */
+    private void mirar(CanalTramas canal) throws IOException {
+        int version = Protocolo.leerU8(canal.datos());
+        int idCarrera = canal.datos().getInt();
+        Palco palco = null;
+        if (version == Protocolo.VERSION) {
+            if (idCarrera > 0) {
+                palco = palcos.get(idCarrera);
+            } else {
+                for (Palco candidato : palcos.values()) {
+                    if (palco == null || candidato.getIdCarrera() > palco.getIdCarrera()) {
+                        palco = candidato;
+                    }
+                }
+            }
+        }
+        if (palco == null) {
+            System.out.println("Espectador rechazado: no hay carrera " + (idCarrera > 0 ? idCarrera : "en curso"));
+            canal.close();
+            return;
         }
+        canal.usarColaSalida(ColaSalida.Desborde.DESCONECTAR);
+        Protocolo.escribirAceptado(canal.paraEnviar(Protocolo.tamanoAceptado()), 0);
+        canal.enviar();
+        palco.suscribir(canal);
+    }
 
-        // Mostrar estado actual de todos los camellos
-        System.out.println("ESTADO ACTUAL:");
-        for (int i = 0; i < NUM_MAX_JINETES; i++) {
-            System.out.println("  Camello " + i + ": " + avances[i] + "/100");
+    private static void cerrarSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignorada) {
         }
-        System.out.println("Camellos terminados: " + numJinetesAcabados + "/" + NUM_MAX_JINETES);
+    }
 
-        // Si todos han finalizado, se marca el fin de la carrera
-        if (numJinetesAcabados == NUM_MAX_JINETES) {
-            finCarrera = true;
-            System.out.println("¡TODOS LOS CAMELLOS HAN TERMINADO!");
-            System.out.println("Posiciones finales:");
-            for (int i = 0; i < NUM_MAX_JINETES; i++) {
-                System.out.println("  Camello " + i + ": posición " + posicionesFinales[i]);
+    /**
+     * Deja de aceptar jugadores. Las carreras en curso terminan normalmente.
+     */
+    public void detener() {
+        activo = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
             }
-            notifyAll();
+        } catch (IOException ignorada) {
         }
     }
 
     /**
-     * Devuelve el array de avances actuales.
+     * Arranca en su propio hilo la carrera de una mesa formada en el vestíbulo.
      */
-    public synchronized int[] getAvances() {
-        return avances.clone(); // Devolver copia para evitar problemas de concurrencia
+    private void lanzarCarrera(int idCarrera, List<Jugador> jugadores) {
+        carrerasActivas.incrementAndGet();
+        Metricas.carreraIniciada();
+        modoHilos.iniciar("carrera-" + idCarrera, () -> jugarCarrera(idCarrera, jugadores));
+        System.out.println("Carrera " + idCarrera + " lanzada con " + jugadores.size() + " jugadores. Vestíbulo: "
+                + vestibulo.resumen() + " activas=" + carrerasActivas.get());
     }
 
     /**
-     * Devuelve el array de posiciones finales.
+     * Juega una carrera completa. Cada jugador juega su asiento en el hilo de su sesión;
+     * los asientos que no ha ocupado nadie los ocupan bots, que tiran desde el marcapasos sin hilo propio.
      */
-    public synchronized int[] getPosicionesFinales() {
-        return posicionesFinales.clone(); // Devolver copia para evitar problemas de concurrencia
+    private void jugarCarrera(int idCarrera, List<Jugador> jugadores) {
+        Carrera carrera = new Carrera(idCarrera, numJinetes, config.isRondas());
+        CountDownLatch asientosJugados = new CountDownLatch(jugadores.size());
+        Palco palco = null;
+        try {
+            // Su id de camello es el orden de llegada; los bots van detrás
+            for (Jugador jugador : jugadores) {
+                carrera.agregarJinete(jugador.nombre);
+            }
+            for (int i = jugadores.size(); i < numJinetes; i++) {
+                carrera.agregarJinete("Bot " + (i + 1));
+            }
+            carrera.comenzar();
+            System.out.println("Carrera " + idCarrera + ". Nombres: " + carrera.getNombresJinetes());
+
+            // Se abre el palco para los espectadores y se lanzan los hilos de gestión para cada asiento
+            palco = new Palco(idCarrera, carrera.getNombres());
+            palcos.put(idCarrera, palco);
+            DifusorEstado difusor = new DifusorEstado(numJinetes, palco);
+            TurnosCarrera turnos = new TurnosCarrera(carrera, difusor, marcapasos, config);
+            for (int i = 0; i < jugadores.size(); i++) {
+                GestionClientes gestion = new GestionClientes(carrera, turnos, config, jugadores.get(i).canal, i);
+                difusor.registrar(gestion);
+                jugadores.get(i).sentar(() -> {
+                    try {
+                        gestion.run();
+                    } finally {
+                        asientosJugados.countDown();
+                    }
+                });
+            }
+            for (int i = jugadores.size(); i < numJinetes; i++) {
+                turnos.sentarBot(i);
+            }
+            turnos.empezar();
+
+            // Espera a que la carrera finalice y a que cada sesión haya enviado las posiciones finales
+            carrera.esperarFin();
+            asientosJugados.await();
+            EstadisticasJugadores.anotarCarrera(carrera.getNombres(), carrera.getPosicionesFinales(), jugadores.size());
+            int espectadores = palco.getNumEspectadores();
+            palco.terminar(carrera.getInstantanea(), carrera.getPosicionesFinales());
+            System.out.println("Carrera " + idCarrera + " finalizada." + (espectadores > 0 || palco.getDesconectados() > 0
+                    ? " Espectadores: " + espectadores + ", desconectados antes del final: " + palco.getDesconectados()
+                    : ""));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            palcos.remove(idCarrera);
+            carrerasActivas.decrementAndGet();
+            Metricas.carreraTerminada();
+        }
     }
 
     /**
-     * Indica si la carrera ha finalizado.
+     * Hace que las carreras nuevas se numeren después de la indicada, para no repetir ids del diario.
      */
-    public synchronized boolean isFinCarrera() {
-        return finCarrera;
+    public void continuarNumeracion(int ultimoIdCarrera) {
+        vestibulo.continuarNumeracion(ultimoIdCarrera);
     }
 
     /**
-     * Devuelve la lista de nombres de jinetes.
+     * Devuelve el vestíbulo, con la cola de jugadores y sus métricas.
      */
-    public synchronized String getNombresJinetes() {
-        return nombresJinetes;
+    public Vestibulo<?> getVestibulo() {
+        return vestibulo;
     }
 
-    // *************** Métodos para gestionar el turno ***************
-
     /**
-     * Devuelve el id del camello que tiene el turno actual.
+     * Devuelve el número de carreras en curso.
      */
-    public synchronized int getTurnoActual() {
-        return turnoActual;
+    public int getCarrerasActivas() {
+        return carrerasActivas.get();
     }
 
     /**
-     * Cambia el turno al siguiente camello que aún no haya finalizado.
-     * Se utiliza un bucle para saltar a aquellos que ya han terminado.
+     * Lee la trama HOLA de un cliente recién conectado.
+     * @return El nombre del jinete, o null si el saludo no es válido.
      */
-    public synchronized void siguienteTurno() {
-        int turnoAnterior = turnoActual;
+    static String leerSaludo(CanalTramas canal) throws IOException {
+        return leerSaludo(canal, canal.recibir());
+    }
 
-        if (finCarrera) {
-            return; // No cambiar turno si la carrera ya terminó
+    private static String leerSaludo(CanalTramas canal, int tipo) {
+        if (tipo != Protocolo.HOLA) {
+            System.out.println("Cliente rechazado: no ha enviado el saludo");
+            return null;
         }
+        int longitud = Protocolo.CABECERA - 1 + canal.datos().limit();
+        if (longitud > Protocolo.MAX_SALUDO) {
+            System.out.println("Cliente rechazado: saludo de " + longitud + " bytes");
+            return null;
+        }
+        int version = Protocolo.leerU8(canal.datos());
+        if (version != Protocolo.VERSION) {
+            System.out.println("Cliente rechazado: versión de protocolo " + version);
+            return null;
+        }
+        return Protocolo.normalizarNombre(Protocolo.leerTexto(canal.datos()));
+    }
 
-        do {
-            turnoActual = (turnoActual + 1) % NUM_MAX_JINETES;
-            // Si hemos dado una vuelta completa y todos siguen activos, salimos para evitar bucle infinito
-            if (turnoActual == turnoAnterior) {
-                break;
-            }
-        } while (avances[turnoActual] >= 100);
-
-        System.out.println("Turno cambiado: " + turnoAnterior + " -> " + turnoActual);
+    /**
+     * Jugador que ya ha saludado y espera carrera. La carrera le deja su asiento en una cola
+     * de un solo hueco y el hilo de su sesión lo recoge y lo juega.
+     */
+    static final class Jugador {
+        final String nombre;
+        final CanalTramas canal;
+        final BlockingQueue<Runnable> asiento;
+
+        Jugador(String nombre, CanalTramas canal) {
+            this.nombre = nombre;
+            this.canal = canal;
+            this.asiento = new ArrayBlockingQueue<>(1);
+        }
 
-        // Se notifica a todos los hilos que el turno ha cambiado.
-        notifyAll();
+        void sentar(Runnable sesionAsiento) {
+            asiento.add(sesionAsiento);
+        }
     }
 }
@@ -1,8 +1,113 @@
 package es.juangmedac.dam.server;
 
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.comun.ModoHilos;
+import es.juangmedac.dam.protocolo.ColaSalida;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arranque del servidor.
+ * Sin argumentos se lanza el servidor clásico, que encadena carreras con un vestíbulo;
+ * con {@code virtuales} cada sesión de cliente corre en un hilo virtual.
+ * Con {@code nio [puerto] [bucles]} se lanza el servidor no bloqueante de muchas carreras, y con
+ * {@code carrerasbots=N} mantiene además N carreras solo de bots para probarlo a plena carga.
+ * En los dos, con {@code bots=ms} las mesas incompletas se llenan con bots pasado ese tiempo (ver {@link JineteBot}).
+ * En ambos casos el número de camellos por carrera se elige con {@code jinetes=N} y
+ * el ritmo se ajusta con {@code retardo=ms}, {@code espera=ms}, {@code plazo=ms}
+ * o {@code sinesperas}, y con {@code rondas} todos tiran a la vez (ver {@link ConfiguracionCarrera}), y el registro con
+ * {@code registro=nada|carrera|turno} y {@code registrofichero=ruta} (ver {@link RegistroEventos}).
+ * Con {@code diario=directorio} las carreras se anotan en disco y, al arrancar, las que quedaron
+ * a medias se dan por abandonadas (ver {@link DiarioCarreras}).
+ * Con {@code repeticion [puerto] diario=directorio} se repiten a los clientes las carreras grabadas,
+ * con {@code velocidad=1|10|max} y {@code carrera=N} (ver {@link ServidorRepeticion}).
+ * Las métricas se publican siempre por JMX; con {@code metricas=segundos} también por consola (ver {@link Metricas}).
+ * Con {@code salida=KiB} se cambia lo que puede quedar pendiente de enviar a cada cliente (ver {@link ColaSalida}).
+ * Las estadísticas de los jugadores entre carreras también se publican por JMX; con {@code estadisticas=fichero}
+ * se guardan en disco cada cierto tiempo (ver {@link EstadisticasJugadores}).
+ * Con {@code pasarela [puerto] [bucles]} se lanza una pasarela que reparte las carreras entre varios
+ * servidores NIO, dados con {@code backends=host:puerto,...} o lanzados con {@code locales=N} (ver {@link Pasarela}).
+ */
 public class ServidorMain {
-    public static void main(String[] args) {
-        Servidor servidor = new Servidor();
-        servidor.ejecutarServidor();
+    public static void main(String[] args) throws IOException {
+        RegistroEventos.configurar(args);
+        Metricas.configurar(args);
+        ColaSalida.configurar(args);
+        ConfiguracionCarrera config = ConfiguracionCarrera.desdeArgumentos(args);
+
+        // Argumentos posicionales (los que no son opciones clave=valor ni palabras clave)
+        ArrayList<String> posicionales = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.contains("=") && !arg.equalsIgnoreCase("sinesperas") && !arg.equalsIgnoreCase("virtuales")
+                    && !arg.equalsIgnoreCase("diarioconservar") && !arg.equalsIgnoreCase("rondas")) {
+                posicionales.add(arg);
+            }
+        }
+
+        if (!posicionales.isEmpty() && posicionales.get(0).equalsIgnoreCase("repeticion")) {
+            // El diario solo se lee: no se configura para escribir ni se recuperan carreras
+            String diario = null;
+            for (String arg : args) {
+                if (arg.toLowerCase().startsWith("diario=")) {
+                    diario = arg.substring(7);
+                }
+            }
+            if (diario == null) {
+                System.out.println("Falta diario=directorio con las carreras a repetir");
+                return;
+            }
+            int puerto = posicionales.size() > 1 ? Integer.parseInt(posicionales.get(1)) : 5555;
+            ServidorRepeticion.desdeArgumentos(puerto, Paths.get(diario), config.getPlazoSaludoMs(), args)
+                    .ejecutarServidor();
+            return;
+        }
+
+        if (!posicionales.isEmpty() && posicionales.get(0).equalsIgnoreCase("pasarela")) {
+            // La pasarela no juega carreras: el diario y las estadísticas son cosa de cada backend
+            int puerto = posicionales.size() > 1 ? Integer.parseInt(posicionales.get(1)) : 5555;
+            int bucles = posicionales.size() > 2 ? Integer.parseInt(posicionales.get(2))
+                    : Runtime.getRuntime().availableProcessors();
+            Pasarela.desdeArgumentos(puerto, bucles, config, args).ejecutarServidor();
+            return;
+        }
+
+        EstadisticasJugadores.configurar(args);
+        DiarioCarreras.Recuperacion recuperacion = DiarioCarreras.configurar(args);
+        abandonarRecuperadas(recuperacion.getCarreras());
+
+        if (!posicionales.isEmpty() && posicionales.get(0).equalsIgnoreCase("nio")) {
+            int puerto = posicionales.size() > 1 ? Integer.parseInt(posicionales.get(1)) : 5555;
+            int bucles = posicionales.size() > 2 ? Integer.parseInt(posicionales.get(2))
+                    : Runtime.getRuntime().availableProcessors();
+            ServidorNio servidor = new ServidorNio(puerto, bucles, config);
+            servidor.continuarNumeracion(recuperacion.getUltimoIdCarrera());
+            for (String arg : args) {
+                if (arg.toLowerCase().startsWith("carrerasbots=")) {
+                    servidor.mantenerCarrerasDeBots(Integer.parseInt(arg.substring(13)));
+                }
+            }
+            servidor.ejecutarServidor();
+        } else {
+            Servidor servidor = new Servidor(5555, ModoHilos.elegir(args), config);
+            servidor.continuarNumeracion(recuperacion.getUltimoIdCarrera());
+            servidor.ejecutarServidor();
+        }
+    }
+
+    /**
+     * Las carreras que quedaron a medias en el diario ya no tienen jugadores conectados y no se
+     * pueden terminar sin inventar tiradas: se cierran como abandonadas, sin resultado ni estadísticas.
+     * Su diario queda tal cual hasta la última tirada real, y la repetición las muestra así.
+     */
+    private static void abandonarRecuperadas(List<DiarioCarreras.CarreraAMedias> carreras) {
+        for (DiarioCarreras.CarreraAMedias carrera : carreras) {
+            carrera.abandonar();
+            System.out.println("Carrera " + carrera.getIdCarrera() + " a medias en el diario ("
+                    + String.join(", ", carrera.getNombres()) + "), " + carrera.getTiradas()
+                    + " tiradas. Sus jugadores ya no están: se da por abandonada.");
+        }
     }
 }
@@ -0,0 +1,355 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.Metricas;
+import es.juangmedac.dam.protocolo.PoolBuffers;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor no bloqueante que acepta jugadores sin parar y mantiene muchas carreras a la vez.
+ * Un hilo acepta conexiones y las reparte entre un pequeño número de {@link BucleEventos};
+ * cada vez que se llenan {@code jinetesPorCarrera} asientos se lanza una {@link CarreraNio}.
+ * Si hay espera de bots, una mesa incompleta sale igualmente cuando su primer jugador lleva ese
+ * tiempo sentado y los asientos libres los ocupan {@link JineteBot}.
+ * Los jugadores que esperan en la mesa reciben un latido cada intervalo, con una sola tarea
+ * para toda la mesa; los que piden OTRA al terminar vuelven a sentarse por la misma conexión.
+ * Detrás de una {@link Pasarela} las mesas las forma ella: cada jugador llega con el número de
+ * carrera que le ha tocado (trama MESA) y la carrera sale con ese número cuando están todos o,
+ * si alguno no llega dentro del plazo de saludo, con bots en sus asientos.
+ * Quien saluda con MIRAR mira la carrera en curso que pide (o la última lanzada) como espectador.
+ * Con {@link #mantenerCarrerasDeBots(int)} corren además carreras solo de bots, que se relanzan al
+ * terminar: sirven para probar el servidor a plena carga sin clientes.
+ */
+public class ServidorNio {
+
+    private final int puerto;
+    private final int numBucles;
+    private final int jinetesPorCarrera;
+    private final ConfiguracionCarrera config;
+    private final Marcapasos marcapasos;
+
+    // Buffers de salida compartidos por todas las conexiones
+    private final PoolBuffers pool;
+    private BucleEventos[] bucles;
+    private volatile boolean activo;
+
+    // Jinetes esperando a que se complete la mesa
+    private final ArrayList<ConexionNio> mesa;
+    private boolean revisionMesaProgramada;
+    // Mesas que ha formado una pasarela, por su número de carrera, mientras llegan sus jugadores
+    private final HashMap<Integer, MesaAsignada> mesasAsignadas;
+    // Carreras en curso, por número, para los espectadores
+    private final ConcurrentHashMap<Integer, CarreraNio> carreras;
+    private final AtomicInteger contadorCarreras;
+    private final AtomicInteger carrerasActivas;
+    private int carrerasDeBots;
+
+    /**
+     * Constructor.
+     * @param puerto Puerto de escucha.
+     * @param numBucles Número de hilos de bucle de eventos.
+     * @param config Número de camellos y ritmo de cada carrera.
+     */
+    public ServidorNio(int puerto, int numBucles, ConfiguracionCarrera config) {
+        this.puerto = puerto;
+        this.numBucles = numBucles;
+        this.jinetesPorCarrera = config.getNumJinetes();
+        this.config = config;
+        // Las tiradas de los bots y los pasos de turno de todas las carreras salen de aquí
+        this.marcapasos = new Marcapasos(Runtime.getRuntime().availableProcessors());
+        // Los buffers del pool tienen que admitir las tramas de estado y fin de una carrera completa
+        this.pool = new PoolBuffers(Math.max(256, Protocolo.tamanoFin(jinetesPorCarrera)), 16384, true);
+        this.mesa = new ArrayList<>();
+        this.mesasAsignadas = new HashMap<>();
+        this.carreras = new ConcurrentHashMap<>();
+        this.contadorCarreras = new AtomicInteger();
+        this.carrerasActivas = new AtomicInteger();
+    }
+
+    /**
+     * Método principal que ejecuta el servidor. El hilo que lo llama se queda aceptando conexiones.
+     */
+    public void ejecutarServidor() {
+        try (ServerSocketChannel aceptador = ServerSocketChannel.open()) {
+            aceptador.bind(new InetSocketAddress(puerto), 1024);
+
+            bucles = new BucleEventos[numBucles];
+            for (int i = 0; i < numBucles; i++) {
+                bucles[i] = new BucleEventos(this);
+                bucles[i].iniciar("bucle-eventos-" + i);
+            }
+            activo = true;
+            marcapasos.programar(config.getLatidoMs(), this::latirMesa);
+
+            System.out.println("Servidor NIO iniciado en puerto " + puerto + " con " + numBucles
+                    + " bucles de eventos. Carreras de " + jinetesPorCarrera + " jinetes. Ritmo: " + config
+                    + (carrerasDeBots > 0 ? ". Carreras de bots: " + carrerasDeBots : ""));
+            for (int i = 0; i < carrerasDeBots; i++) {
+                lanzar(formarCarrera(new ConexionNio[0]));
+            }
+
+            // Las conexiones se reparten por turnos entre los bucles
+            int siguiente = 0;
+            while (activo) {
+                SocketChannel canal = aceptador.accept();
+                canal.socket().setTcpNoDelay(true);
+                bucles[siguiente].registrar(canal);
+                siguiente = (siguiente + 1) % numBucles;
+            }
+        } catch (IOException e) {
+            if (activo) {
+                e.printStackTrace();
+            }
+        } finally {
+            detener();
+        }
+    }
+
+    /**
+     * Detiene los bucles de eventos.
+     */
+    public void detener() {
+        activo = false;
+        marcapasos.detener();
+        if (bucles != null) {
+            for (BucleEventos bucle : bucles) {
+                if (bucle != null) {
+                    bucle.detener();
+                }
+            }
+        }
+    }
+
+    /**
+     * Mantiene este número de carreras solo de bots mientras el servidor esté activo.
+     * Hay que llamarlo antes de {@link #ejecutarServidor()}.
+     */
+    public void mantenerCarrerasDeBots(int carreras) {
+        carrerasDeBots = carreras;
+    }
+
+    /**
+     * Sienta a un jinete en la mesa y lanza la carrera si la mesa se completa.
+     * Si la mesa estaba vacía y hay espera de bots, programa su revisión.
+     * @param conexion Conexión que ya ha enviado su nombre.
+     */
+    void sentarEnMesa(ConexionNio conexion) {
+        CarreraNio nueva = null;
+        synchronized (this) {
+            conexion.setEnMesaDesde(System.nanoTime());
+            mesa.add(conexion);
+            if (mesa.size() == jinetesPorCarrera) {
+                nueva = formarCarrera(mesa.toArray(new ConexionNio[0]));
+                mesa.clear();
+            } else if (config.getEsperaBotsMs() > 0 && !revisionMesaProgramada) {
+                revisionMesaProgramada = true;
+                marcapasos.programar(config.getEsperaBotsMs(), this::revisarMesa);
+            }
+        }
+        lanzar(nueva);
+    }
+
+    /**
+     * Si el jugador que más lleva en la mesa ya ha esperado lo suficiente, lanza la carrera con
+     * bots en los asientos libres; si no, se vuelve a programar para cuando le toque.
+     */
+    private void revisarMesa() {
+        CarreraNio nueva = null;
+        synchronized (this) {
+            revisionMesaProgramada = false;
+            if (!activo || mesa.isEmpty()) {
+                return;
+            }
+            long esperadoMs = (System.nanoTime() - mesa.get(0).getEnMesaDesde()) / 1_000_000L;
+            if (esperadoMs >= config.getEsperaBotsMs()) {
+                nueva = formarCarrera(mesa.toArray(new ConexionNio[0]));
+                mesa.clear();
+            } else {
+                revisionMesaProgramada = true;
+                try {
+                    marcapasos.programar(config.getEsperaBotsMs() - esperadoMs, this::revisarMesa);
+                } catch (RejectedExecutionException e) {
+                    // El servidor se está deteniendo
+                }
+            }
+        }
+        lanzar(nueva);
+    }
+
+    /**
+     * Sienta a un jugador en la mesa que ha formado una pasarela y lanza la carrera cuando han
+     * llegado todos. El primero que llega abre la mesa y pone el plazo para los demás.
+     * @param conexion Conexión que ya ha enviado su nombre.
+     * @param idCarrera Número de carrera que ha elegido la pasarela.
+     * @param plazas Jugadores de la mesa.
+     */
+    void sentarEnMesaAsignada(ConexionNio conexion, int idCarrera, int plazas) {
+        CarreraNio nueva = null;
+        synchronized (this) {
+            MesaAsignada asignada = mesasAsignadas.get(idCarrera);
+            if (asignada == null) {
+                asignada = new MesaAsignada(plazas);
+                mesasAsignadas.put(idCarrera, asignada);
+                long plazoMs = config.getPlazoSaludoMs() > 0 ? config.getPlazoSaludoMs()
+                        : ConfiguracionCarrera.PLAZO_SALUDO_POR_DEFECTO;
+                asignada.plazo = marcapasos.programar(plazoMs, () -> cerrarMesaAsignada(idCarrera));
+            }
+            asignada.jugadores.add(conexion);
+            if (asignada.jugadores.size() >= asignada.plazas) {
+                mesasAsignadas.remove(idCarrera);
+                asignada.plazo.cancel(false);
+                nueva = formarCarrera(idCarrera, asignada.jugadores.toArray(new ConexionNio[0]));
+            }
+        }
+        lanzar(nueva);
+    }
+
+    /**
+     * Plazo de una mesa de pasarela: sale con los que hayan llegado y bots en los demás asientos.
+     */
+    private void cerrarMesaAsignada(int idCarrera) {
+        CarreraNio nueva = null;
+        synchronized (this) {
+            MesaAsignada asignada = mesasAsignadas.remove(idCarrera);
+            if (!activo || asignada == null || asignada.jugadores.isEmpty()) {
+                return;
+            }
+            System.out.println("Carrera " + idCarrera + ": han llegado " + asignada.jugadores.size() + " de "
+                    + asignada.plazas + " jugadores de la pasarela, el resto serán bots");
+            nueva = formarCarrera(idCarrera, asignada.jugadores.toArray(new ConexionNio[0]));
+        }
+        lanzar(nueva);
+    }
+
+    private CarreraNio formarCarrera(ConexionNio[] jugadores) {
+        return formarCarrera(contadorCarreras.incrementAndGet(), jugadores);
+    }
+
+    private CarreraNio formarCarrera(int idCarrera, ConexionNio[] jugadores) {
+        carrerasActivas.incrementAndGet();
+        Metricas.carreraIniciada();
+        return new CarreraNio(this, idCarrera, jugadores, config, marcapasos);
+    }
+
+    // Fuera del cerrojo de la mesa
+    private void lanzar(CarreraNio nueva) {
+        if (nueva != null) {
+            carreras.put(nueva.getIdCarrera(), nueva);
+            nueva.iniciar();
+        }
+    }
+
+    /**
+     * Envía un latido a cada jugador de la mesa y se vuelve a programar.
+     */
+    private void latirMesa() {
+        if (!activo || config.getLatidoMs() <= 0) {
+            return;
+        }
+        synchronized (this) {
+            for (ConexionNio conexion : mesa) {
+                conexion.enviarLatido();
+            }
+        }
+        try {
+            marcapasos.programar(config.getLatidoMs(), this::latirMesa);
+        } catch (RejectedExecutionException e) {
+            // El servidor se está deteniendo
+        }
+    }
+
+    /**
+     * Quita de la mesa a un jinete que se ha desconectado antes de empezar.
+     */
+    synchronized void levantarDeMesa(ConexionNio conexion) {
+        mesa.remove(conexion);
+        MesaAsignada asignada = mesasAsignadas.get(conexion.getMesaAsignada());
+        if (asignada != null) {
+            // La mesa sigue esperando a los demás; si no llega nadie más, su plazo la descarta
+            asignada.jugadores.remove(conexion);
+        }
+    }
+
+    /**
+     * Aviso de que una carrera ha terminado o se ha abortado.
+     */
+    void carreraTerminada(CarreraNio carrera) {
+        carreras.remove(carrera.getIdCarrera(), carrera);
+        carrerasActivas.decrementAndGet();
+        Metricas.carreraTerminada();
+        if (carrera.isSoloBots() && activo) {
+            // Se lanza desde el marcapasos para no empezar la nueva dentro de la que termina
+            try {
+                marcapasos.ejecutar(() -> lanzar(formarCarrera(new ConexionNio[0])));
+            } catch (RejectedExecutionException e) {
+                // El servidor se está deteniendo
+            }
+        }
+    }
+
+    /**
+     * Devuelve la carrera en curso con ese número o, si es 0, la última lanzada (null si no hay ninguna).
+     */
+    CarreraNio buscarCarrera(int idCarrera) {
+        if (idCarrera > 0) {
+            return carreras.get(idCarrera);
+        }
+        CarreraNio ultima = null;
+        for (CarreraNio candidata : carreras.values()) {
+            if (ultima == null || candidata.getIdCarrera() > ultima.getIdCarrera()) {
+                ultima = candidata;
+            }
+        }
+        return ultima;
+    }
+
+    PoolBuffers getPool() {
+        return pool;
+    }
+
+    Marcapasos getMarcapasos() {
+        return marcapasos;
+    }
+
+    ConfiguracionCarrera getConfig() {
+        return config;
+    }
+
+    /**
+     * Hace que las carreras nuevas se numeren después de la indicada, para no repetir ids del diario.
+     */
+    public void continuarNumeracion(int ultimoIdCarrera) {
+        contadorCarreras.accumulateAndGet(ultimoIdCarrera, Math::max);
+    }
+
+    /**
+     * Devuelve el número de carreras en curso.
+     */
+    public int getCarrerasActivas() {
+        return carrerasActivas.get();
+    }
+
+    /**
+     * Mesa formada por una pasarela mientras llegan sus jugadores.
+     */
+    private static final class MesaAsignada {
+        final int plazas;
+        final ArrayList<ConexionNio> jugadores;
+        ScheduledFuture<?> plazo;
+
+        MesaAsignada(int plazas) {
+            this.plazas = plazas;
+            this.jugadores = new ArrayList<>(plazas);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.CanalTramas;
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor que repite carreras grabadas en un {@link DiarioCarreras}.
+ * Habla el protocolo normal, así que sirven el {@code Cliente} y su ventana sin cambios: tras el saludo
+ * el cliente recibe los jinetes (con {@link Protocolo#SIN_CAMELLO} como camello propio, porque solo mira),
+ * un estado por cada tirada grabada y las posiciones finales. No hay turnos ni tiradas del cliente.
+ * Las tiradas se envían al ritmo original dividido por la velocidad ({@code velocidad=1}, {@code 10}...)
+ * o sin esperas ({@code velocidad=max}). El diario se lee según se repite, con {@link LectorDiario},
+ * y nunca se abre para escribir: se puede repetir el diario de un servidor que sigue jugando.
+ * Como en el servidor de juego, si tras las posiciones finales el cliente pide OTRA dentro del plazo
+ * de saludo, recibe otra repetición por la misma conexión.
+ */
+public class ServidorRepeticion {
+
+    /** Velocidad que indica repetir sin esperas. */
+    public static final double VELOCIDAD_MAXIMA = 0;
+
+    private final int puerto;
+    private final Path directorio;
+    private final double velocidad;
+    private final int idCarrera;
+    private final long plazoSaludoMs;
+    private final AtomicInteger contadorConexiones;
+
+    // Cursor compartido que reparte carreras a los clientes cuando no se pide una concreta
+    private final Object cerrojoCursor;
+    private LectorDiario cursor;
+    // Dónde empieza cada carrera ya localizada en el diario: {segmento, posición}
+    private final HashMap<Integer, int[]> inicios;
+
+    /**
+     * Constructor.
+     * @param puerto Puerto en el que escucha el servidor.
+     * @param directorio Directorio del diario.
+     * @param velocidad Factor de velocidad (1 = tiempo real), o {@link #VELOCIDAD_MAXIMA}.
+     * @param idCarrera Carrera que se repite a todos los clientes, o -1 para repartirlas por orden.
+     * @param plazoSaludoMs Plazo para que el cliente salude (0 = sin límite).
+     */
+    public ServidorRepeticion(int puerto, Path directorio, double velocidad, int idCarrera, long plazoSaludoMs) {
+        this.puerto = puerto;
+        this.directorio = directorio;
+        this.velocidad = velocidad;
+        this.idCarrera = idCarrera;
+        this.plazoSaludoMs = plazoSaludoMs;
+        this.contadorConexiones = new AtomicInteger();
+        this.cerrojoCursor = new Object();
+        this.inicios = new HashMap<>();
+    }
+
+    /**
+     * Lee las opciones {@code velocidad=1|10|max} y {@code carrera=N} de los argumentos y crea el servidor.
+     */
+    public static ServidorRepeticion desdeArgumentos(int puerto, Path directorio, long plazoSaludoMs, String[] args) {
+        double velocidad = 1;
+        int idCarrera = -1;
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("velocidad=")) {
+                String valor = clave.substring(10);
+                velocidad = valor.equals("max") ? VELOCIDAD_MAXIMA : Double.parseDouble(valor);
+                if (velocidad < 0) {
+                    throw new IllegalArgumentException("velocidad negativa: " + valor);
+                }
+            } else if (clave.startsWith("carrera=")) {
+                idCarrera = Integer.parseInt(clave.substring(8));
+            }
+        }
+        return new ServidorRepeticion(puerto, directorio, velocidad, idCarrera, plazoSaludoMs);
+    }
+
+    /**
+     * Acepta clientes y repite una carrera a cada uno en su propio hilo virtual.
+     */
+    public void ejecutarServidor() throws IOException {
+        System.out.println("Servidor de repeticiones en puerto " + puerto + ". Diario " + directorio + ", velocidad "
+                + (velocidad == VELOCIDAD_MAXIMA ? "máxima" : velocidad + "x")
+                + (idCarrera >= 0 ? ", carrera " + idCarrera : ", carreras por orden"));
+        try (ServerSocket serverSocket = new ServerSocket(puerto)) {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("repeticion-" + contadorConexiones.incrementAndGet())
+                        .start(() -> atender(socket));
+            }
+        }
+    }
+
+    private void atender(Socket socket) {
+        try (CanalTramas canal = new CanalTramas(socket)) {
+            socket.setSoTimeout((int) plazoSaludoMs);
+            String nombre = Servidor.leerSaludo(canal);
+            if (nombre == null) {
+                return;
+            }
+            socket.setSoTimeout(0);
+            Protocolo.escribirAceptado(canal.paraEnviar(Protocolo.tamanoAceptado()), 0);
+            canal.enviar();
+
+            do {
+                int[] inicio = idCarrera >= 0 ? buscarCarrera(idCarrera) : siguienteCarrera();
+                if (inicio == null) {
+                    System.out.println("Repetición para " + nombre + ": no hay carreras en el diario");
+                    return;
+                }
+                repetir(canal, nombre, inicio);
+            } while (canal.recibir((int) plazoSaludoMs) == Protocolo.OTRA);
+        } catch (EOFException e) {
+            // El cliente ha cerrado tras la repetición
+        } catch (IOException e) {
+            System.out.println("Repetición interrumpida: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Localiza el inicio de una carrera recorriendo el diario la primera vez que se pide.
+     * @return {segmento, posición} del registro de inicio, o null si no está.
+     */
+    private int[] buscarCarrera(int id) throws IOException {
+        synchronized (inicios) {
+            int[] inicio = inicios.get(id);
+            if (inicio == null) {
+                LectorDiario lector = new LectorDiario(directorio);
+                while (lector.siguiente()) {
+                    if (lector.tipo == DiarioCarreras.INICIO && lector.idCarrera == id) {
+                        inicio = new int[] {lector.segmento, lector.posicion};
+                        inicios.put(id, inicio);
+                        break;
+                    }
+                }
+            }
+            return inicio;
+        }
+    }
+
+    /**
+     * Devuelve la siguiente carrera del diario. Al llegar al final se vuelve a empezar.
+     * @return {segmento, posición} del registro de inicio, o null si el diario no tiene carreras.
+     */
+    private int[] siguienteCarrera() throws IOException {
+        synchronized (cerrojoCursor) {
+            for (int vuelta = 0; vuelta < 2; vuelta++) {
+                if (cursor == null) {
+                    cursor = new LectorDiario(directorio);
+                }
+                while (cursor.siguiente()) {
+                    if (cursor.tipo == DiarioCarreras.INICIO) {
+                        return new int[] {cursor.segmento, cursor.posicion};
+                    }
+                }
+                cursor = null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Envía la carrera que empieza en la posición dada, siguiendo sus tiradas por el diario.
+     */
+    private void repetir(CanalTramas canal, String nombre, int[] inicio) throws IOException, InterruptedException {
+        LectorDiario lector = new LectorDiario(directorio, inicio[0], inicio[1]);
+        if (!lector.siguiente() || lector.tipo != DiarioCarreras.INICIO) {
+            return;
+        }
+        int id = lector.idCarrera;
+        long inicioMs = lector.inicioMs;
+        String[] nombres = lector.nombres;
+        Carrera carrera = new Carrera(id, nombres.length);
+        for (String jinete : nombres) {
+            carrera.agregarJinete(jinete);
+        }
+        System.out.println("Repetición de la carrera " + id + " para " + nombre + " (" + carrera.getNombresJinetes() + ")");
+
+        Protocolo.escribirJinetes(canal.paraEnviar(Protocolo.tamanoJinetes(nombres)), Protocolo.SIN_CAMELLO, nombres);
+        canal.enviar();
+
+        // Se repite cada tirada sobre una carrera local para tener el estado y, al final, las posiciones
+        int[] camello = new int[1];
+        int[] dado = new int[1];
+        long comienzo = System.nanoTime();
+        while (!carrera.isFinCarrera() && lector.siguiente()) {
+            if (lector.idCarrera != id) {
+                continue; // Registro de otra carrera jugada a la vez
+            }
+            if (lector.tipo == DiarioCarreras.TIRADA) {
+                if (velocidad != VELOCIDAD_MAXIMA) {
+                    long espera = comienzo + (long) (TimeUnit.MILLISECONDS.toNanos(lector.ms) / velocidad)
+                            - System.nanoTime();
+                    if (espera > 0) {
+                        TimeUnit.NANOSECONDS.sleep(espera);
+                    }
+                }
+                camello[0] = lector.camello;
+                dado[0] = lector.dado;
+                carrera.reproducir(inicioMs, camello, dado, 1);
+                canal.enviar(carrera.getInstantanea().getTrama());
+            } else if (lector.tipo == DiarioCarreras.FIN || lector.tipo == DiarioCarreras.ABANDONO) {
+                break;
+            }
+        }
+
+        // Si la carrera no llegó a terminar, los que no llegaron quedan sin posición
+        int[] posiciones = carrera.getPosicionesFinales();
+        Protocolo.escribirFin(canal.paraEnviar(Protocolo.tamanoFin(posiciones.length)), posiciones);
+        canal.enviar();
+    }
+}
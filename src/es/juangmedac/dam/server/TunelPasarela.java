@@ -0,0 +1,500 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.protocolo.Protocolo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Un cliente de la {@link Pasarela} y su conexión con el backend que le ha tocado.
+ * Un jugador saluda a la pasarela, que le contesta y le deja en su mesa hasta que se forma su
+ * carrera; entonces se conecta con el backend de la carrera y le presenta la trama MESA y el saludo
+ * guardado. El ACEPTADO del backend no se reenvía, porque el cliente ya tiene el de la pasarela.
+ * Del jugador al backend solo se llevan tramas completas, para ver las OTRA: esas no se reenvían,
+ * sino que se deja el backend y el jugador vuelve a la mesa de la pasarela.
+ * Un espectador va directo al backend de la carrera que pide, y sus bytes pasan sin mirarse.
+ * Cada sentido tiene su buffer directo: del socket de entrada al buffer y del buffer al de salida,
+ * sin copiarlos al heap. Si un destino no acepta todo lo que se le escribe, se deja de leer del
+ * origen hasta que lo vacíe, así que cada sentido nunca guarda más que un buffer.
+ * Solo lo toca el hilo de su {@link BuclePasarela}.
+ */
+final class TunelPasarela {
+
+    private enum Estado { SALUDO, EN_MESA, CONECTANDO, ABIERTO, CERRADO }
+
+    private final Pasarela pasarela;
+    private final BuclePasarela bucle;
+    private final Selector selector;
+    private final SocketChannel cliente;
+    private final SelectionKey claveCliente;
+    private final ByteBuffer haciaBackend; // Los dos buffers están en modo escritura (position = fin de los datos)
+    private final ByteBuffer haciaCliente;
+    private final ByteBuffer aceptado;     // ACEPTADO del backend, que se lee aparte y no se reenvía
+    private SocketChannel backend;
+    private SelectionKey claveBackend;
+    private InetSocketAddress destino;
+    private Estado estado;
+    private byte[] hola;     // Saludo del jugador, para presentarlo al backend de cada carrera
+    private int carrera;
+    private long enMesaDesde;
+    private boolean espectador;
+    private boolean esperandoAceptado;
+    private int saltar;      // Bytes del principio de haciaBackend que quedan de una trama escrita a medias
+    private int intentos;
+    private boolean cerrarAlVaciar; // Un extremo ha cerrado: se cierra todo cuando se entregue lo pendiente
+    private ScheduledFuture<?> plazoSaludo;
+
+    TunelPasarela(Pasarela pasarela, BuclePasarela bucle, Selector selector, SocketChannel cliente)
+            throws IOException {
+        this.pasarela = pasarela;
+        this.bucle = bucle;
+        this.selector = selector;
+        this.cliente = cliente;
+        this.haciaBackend = pasarela.getPool().tomar(0);
+        this.haciaCliente = pasarela.getPool().tomar(0);
+        this.aceptado = ByteBuffer.allocate(Protocolo.tamanoAceptado());
+        this.estado = Estado.SALUDO;
+        this.claveCliente = cliente.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Cierra el túnel si el cliente no ha saludado pasado el plazo.
+     * @param plazoMs Plazo en milisegundos (0 = sin límite).
+     */
+    void programarPlazoSaludo(long plazoMs) {
+        if (plazoMs > 0) {
+            plazoSaludo = pasarela.getMarcapasos().programar(plazoMs, () -> bucle.ejecutar(() -> {
+                if (estado == Estado.SALUDO) {
+                    System.out.println("Pasarela: cliente sin saludo pasados " + plazoMs + " ms");
+                    cerrar();
+                }
+            }));
+        }
+    }
+
+    void setEnMesaDesde(long instante) {
+        enMesaDesde = instante;
+    }
+
+    long getEnMesaDesde() {
+        return enMesaDesde;
+    }
+
+    /**
+     * Atiende una clave lista del Selector (del cliente o del backend).
+     */
+    void alListo(SelectionKey clave) throws IOException {
+        if (clave == claveBackend && clave.isConnectable()) {
+            terminarConexion();
+            return;
+        }
+        boolean deCliente = clave == claveCliente;
+        if (clave.isValid() && clave.isReadable()) {
+            if (deCliente) {
+                leerCliente();
+            } else if (esperandoAceptado) {
+                leerAceptado();
+            } else {
+                leer(backend, haciaCliente, cliente, claveCliente, claveBackend);
+            }
+        }
+        if (clave.isValid() && clave.isWritable()) {
+            if (deCliente) {
+                volcar(haciaCliente, cliente, claveCliente, claveBackend);
+            } else if (espectador) {
+                volcar(haciaBackend, backend, claveBackend, claveCliente);
+            } else {
+                reenviarJugada();
+            }
+        }
+    }
+
+    private void leerCliente() throws IOException {
+        switch (estado) {
+            case SALUDO -> leerSaludo();
+            case EN_MESA -> {
+                // En la mesa el jugador no tiene nada que decir: solo importa si se va
+                if (cliente.read(haciaBackend) < 0) {
+                    cerrar();
+                } else {
+                    haciaBackend.clear();
+                }
+            }
+            default -> {
+                if (espectador) {
+                    leer(cliente, haciaBackend, backend, claveBackend, claveCliente);
+                } else if (cliente.read(haciaBackend) < 0) {
+                    // Lo que quedara por llevar al backend ya no le sirve a nadie
+                    cerrar();
+                } else {
+                    reenviarJugada();
+                }
+            }
+        }
+    }
+
+    private void leerSaludo() throws IOException {
+        if (cliente.read(haciaBackend) < 0) {
+            cerrar();
+            return;
+        }
+        ByteBuffer vista = haciaBackend.duplicate().flip();
+        int total = Protocolo.tramaCompleta(vista);
+        if (total < 0) {
+            if (!haciaBackend.hasRemaining()) {
+                System.out.println("Pasarela: saludo demasiado largo, se cierra el cliente");
+                cerrar();
+            }
+            return;
+        }
+        int tipo = Protocolo.leerCabecera(vista);
+        if (tipo == Protocolo.HOLA && vista.hasRemaining()) {
+            if (total > Protocolo.MAX_SALUDO) {
+                System.out.println("Pasarela: cliente rechazado, saludo de " + total + " bytes");
+                cerrar();
+                return;
+            }
+            int version = Protocolo.leerU8(vista);
+            if (version != Protocolo.VERSION) {
+                System.out.println("Pasarela: cliente rechazado, versión de protocolo " + version);
+                cerrar();
+                return;
+            }
+            cancelarPlazoSaludo();
+            // Se guarda con el nombre ya recortado, tal como lo dejaría el backend
+            String nombre = Protocolo.normalizarNombre(Protocolo.leerTexto(vista));
+            ByteBuffer saludo = ByteBuffer.allocate(Protocolo.tamanoHola(nombre));
+            Protocolo.escribirHola(saludo, nombre);
+            hola = saludo.array();
+            haciaBackend.clear();
+            estado = Estado.EN_MESA;
+            Protocolo.escribirAceptado(haciaCliente, (int) pasarela.getLatidoMs());
+            volcar(haciaCliente, cliente, claveCliente, claveBackend);
+            // Lo último: si la mesa se completa, la carrera puede empezar a conectarse desde aquí mismo
+            pasarela.sentarEnMesa(this);
+        } else if (tipo == Protocolo.MIRAR && vista.remaining() >= 5) {
+            // El saludo del espectador no se consume: se reenvía entero al backend
+            Protocolo.leerU8(vista);
+            carrera = vista.getInt();
+            espectador = true;
+            cancelarPlazoSaludo();
+            // Mientras se conecta no se lee más del cliente
+            claveCliente.interestOps(0);
+            estado = Estado.CONECTANDO;
+            conectar();
+        } else {
+            System.out.println("Pasarela: saludo inesperado (tipo " + tipo + "), se cierra el cliente");
+            cerrar();
+        }
+    }
+
+    private void cancelarPlazoSaludo() {
+        if (plazoSaludo != null) {
+            plazoSaludo.cancel(false);
+        }
+    }
+
+    /**
+     * La pasarela ha formado la carrera de este jugador: se conecta con su backend y le presenta
+     * la mesa y el saludo. Puede llamarse desde cualquier hilo.
+     * @param idCarrera Número de carrera elegido por la pasarela.
+     * @param plazas Jugadores de la mesa.
+     */
+    void unirseACarrera(int idCarrera, int plazas) {
+        bucle.ejecutar(() -> {
+            if (estado != Estado.EN_MESA) {
+                // Se fue mientras se formaba la carrera
+                pasarela.salirDeCarrera(idCarrera);
+                return;
+            }
+            carrera = idCarrera;
+            intentos = 0;
+            estado = Estado.CONECTANDO;
+            claveCliente.interestOps(claveCliente.interestOps() & ~SelectionKey.OP_READ);
+            haciaBackend.clear();
+            saltar = 0;
+            Protocolo.escribirMesa(haciaBackend, idCarrera, plazas);
+            haciaBackend.put(hola);
+            aceptado.clear();
+            esperandoAceptado = true;
+            try {
+                conectar();
+            } catch (IOException e) {
+                System.out.println("Pasarela: error conectando " + this + ": " + e.getMessage());
+                cerrar();
+            }
+        });
+    }
+
+    /**
+     * Envía un latido a un jugador que espera en la mesa. Puede llamarse desde cualquier hilo.
+     */
+    void enviarLatido() {
+        bucle.ejecutar(() -> {
+            if (estado != Estado.EN_MESA) {
+                return;
+            }
+            if (haciaCliente.remaining() < Protocolo.TAMANO_VACIA) {
+                System.out.println("Pasarela: " + this + " no lee sus latidos, se cierra");
+                cerrar();
+                return;
+            }
+            Protocolo.escribirVacia(haciaCliente, Protocolo.LATIDO);
+            try {
+                volcar(haciaCliente, cliente, claveCliente, claveBackend);
+            } catch (IOException e) {
+                cerrar();
+            }
+        });
+    }
+
+    /**
+     * Conecta con el backend de la carrera o, si ya han fallado otros, con el siguiente del anillo.
+     * Un espectador va al backend que tiene la carrera que quiere mirar.
+     */
+    private void conectar() throws IOException {
+        destino = espectador ? pasarela.backendDeCarrera(carrera, intentos)
+                : pasarela.getAnillo().elegir(carrera, intentos);
+        if (destino == null) {
+            System.out.println("Pasarela: ningún backend disponible para la carrera " + carrera);
+            cerrar();
+            return;
+        }
+        backend = SocketChannel.open();
+        backend.configureBlocking(false);
+        backend.socket().setTcpNoDelay(true);
+        try {
+            if (backend.connect(destino)) {
+                claveBackend = backend.register(selector, SelectionKey.OP_READ, this);
+                abrir();
+            } else {
+                claveBackend = backend.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            reintentar(e);
+        }
+    }
+
+    private void terminarConexion() throws IOException {
+        try {
+            backend.finishConnect();
+        } catch (IOException e) {
+            reintentar(e);
+            return;
+        }
+        claveBackend.interestOps(SelectionKey.OP_READ);
+        abrir();
+    }
+
+    private void reintentar(IOException e) throws IOException {
+        System.out.println("Pasarela: backend " + AnilloBackends.nombre(destino) + " no responde ("
+                + e.getMessage() + "), se prueba el siguiente");
+        pasarela.backendCaido();
+        if (claveBackend != null) {
+            claveBackend.cancel();
+            claveBackend = null;
+        }
+        backend.close();
+        intentos++;
+        conectar();
+    }
+
+    private void abrir() throws IOException {
+        estado = Estado.ABIERTO;
+        pasarela.tunelAbierto(destino);
+        // El saludo guardado sale ahora; al vaciarse se vuelve a leer del cliente
+        if (espectador) {
+            volcar(haciaBackend, backend, claveBackend, claveCliente);
+        } else {
+            reenviarJugada();
+        }
+    }
+
+    /**
+     * Lee el ACEPTADO con el que el backend contesta al saludo del jugador.
+     */
+    private void leerAceptado() {
+        int leidos;
+        try {
+            leidos = backend.read(aceptado);
+        } catch (IOException e) {
+            leidos = -1;
+        }
+        if (leidos < 0) {
+            System.out.println("Pasarela: " + this + " cerrado por el backend antes de aceptar al jugador");
+            cerrar();
+            return;
+        }
+        if (aceptado.hasRemaining()) {
+            return;
+        }
+        aceptado.flip();
+        if (Protocolo.tramaCompleta(aceptado) < 0 || Protocolo.leerCabecera(aceptado) != Protocolo.ACEPTADO) {
+            System.out.println("Pasarela: el backend de " + this + " no ha aceptado al jugador");
+            cerrar();
+            return;
+        }
+        esperandoAceptado = false;
+    }
+
+    /**
+     * Lleva al backend las tramas completas que ha mandado el jugador. Si una es OTRA, no se reenvía
+     * (ni lo que haya antes, que era de la carrera terminada): el jugador vuelve a la mesa.
+     */
+    private void reenviarJugada() throws IOException {
+        ByteBuffer vista = haciaBackend.duplicate().flip();
+        vista.position(saltar);
+        int total;
+        while ((total = Protocolo.tramaCompleta(vista)) >= 0) {
+            if (total > 2 && Byte.toUnsignedInt(vista.get(vista.position() + 2)) == Protocolo.OTRA) {
+                haciaBackend.clear();
+                saltar = 0;
+                volverAMesa();
+                return;
+            }
+            vista.position(vista.position() + total);
+        }
+        int completas = vista.position();
+
+        haciaBackend.flip();
+        int datos = haciaBackend.limit();
+        haciaBackend.limit(completas);
+        int escritos = backend.write(haciaBackend);
+        pasarela.reenviados(escritos);
+        // Si la última trama ha salido a medias, lo que queda de ella se reconoce en la próxima
+        int frontera = saltar;
+        while (frontera < escritos) {
+            frontera += 2 + Short.toUnsignedInt(haciaBackend.getShort(frontera));
+        }
+        saltar = frontera - escritos;
+        haciaBackend.limit(datos);
+        haciaBackend.compact();
+
+        if (escritos < completas) {
+            claveBackend.interestOps(claveBackend.interestOps() | SelectionKey.OP_WRITE);
+            claveCliente.interestOps(claveCliente.interestOps() & ~SelectionKey.OP_READ);
+        } else if (!haciaBackend.hasRemaining()) {
+            System.out.println("Pasarela: trama demasiado larga de " + this + ", se cierra");
+            cerrar();
+        } else {
+            claveBackend.interestOps(claveBackend.interestOps() & ~SelectionKey.OP_WRITE);
+            claveCliente.interestOps(claveCliente.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * El jugador ha pedido OTRA: deja su backend y vuelve a la mesa de la pasarela.
+     * Lo que el backend le hubiera mandado y aún no haya salido se le sigue entregando.
+     */
+    private void volverAMesa() {
+        pasarela.tunelCerrado(destino);
+        claveBackend.cancel();
+        cerrarCanal(backend);
+        claveBackend = null;
+        backend = null;
+        esperandoAceptado = false;
+        cerrarAlVaciar = false;
+        pasarela.salirDeCarrera(carrera);
+        estado = Estado.EN_MESA;
+        claveCliente.interestOps(claveCliente.interestOps() | SelectionKey.OP_READ);
+        pasarela.sentarEnMesa(this);
+    }
+
+    /**
+     * Lee de un extremo y reenvía al otro lo leído.
+     */
+    private void leer(SocketChannel origen, ByteBuffer buffer, SocketChannel salida,
+                      SelectionKey claveSalida, SelectionKey claveOrigen) throws IOException {
+        if (origen.read(buffer) < 0) {
+            claveOrigen.interestOps(claveOrigen.interestOps() & ~SelectionKey.OP_READ);
+            cerrarAlVaciar = true;
+            if (origen == backend) {
+                // Lo que iba al backend ya no tiene a quién llegar
+                haciaBackend.clear();
+            }
+            if (vacio()) {
+                cerrar();
+            }
+            return;
+        }
+        volcar(buffer, salida, claveSalida, claveOrigen);
+    }
+
+    /**
+     * Escribe en el destino lo que haya en el buffer. Si no cabe todo, el destino espera a poder
+     * escribir y el origen deja de leer; cuando se vacía, vuelve a leer. Lo que la pasarela le
+     * manda ella misma al jugador de la mesa no tiene origen.
+     */
+    private void volcar(ByteBuffer buffer, SocketChannel salida, SelectionKey claveSalida,
+                        SelectionKey claveOrigen) throws IOException {
+        buffer.flip();
+        int escritos = salida.write(buffer);
+        buffer.compact();
+        pasarela.reenviados(escritos);
+        if (buffer.position() > 0) {
+            claveSalida.interestOps(claveSalida.interestOps() | SelectionKey.OP_WRITE);
+            if (claveOrigen != null) {
+                claveOrigen.interestOps(claveOrigen.interestOps() & ~SelectionKey.OP_READ);
+            }
+        } else if (cerrarAlVaciar) {
+            if (vacio()) {
+                cerrar();
+            } else {
+                claveSalida.interestOps(claveSalida.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } else {
+            claveSalida.interestOps(claveSalida.interestOps() & ~SelectionKey.OP_WRITE);
+            if (claveOrigen != null) {
+                claveOrigen.interestOps(claveOrigen.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private boolean vacio() {
+        return haciaBackend.position() == 0 && haciaCliente.position() == 0;
+    }
+
+    /**
+     * Cierra los dos extremos, saca al jugador de su mesa o su carrera y devuelve los buffers al pool.
+     */
+    void cerrar() {
+        if (estado == Estado.CERRADO) {
+            return;
+        }
+        Estado anterior = estado;
+        estado = Estado.CERRADO;
+        if (anterior == Estado.ABIERTO) {
+            pasarela.tunelCerrado(destino);
+        }
+        if (anterior == Estado.EN_MESA) {
+            pasarela.levantarDeMesa(this);
+        } else if (!espectador && (anterior == Estado.CONECTANDO || anterior == Estado.ABIERTO)) {
+            pasarela.salirDeCarrera(carrera);
+        }
+        cancelarPlazoSaludo();
+        cerrarCanal(cliente);
+        if (backend != null) {
+            cerrarCanal(backend);
+        }
+        pasarela.getPool().devolver(haciaBackend);
+        pasarela.getPool().devolver(haciaCliente);
+        pasarela.clienteCerrado();
+    }
+
+    private static void cerrarCanal(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException ignorada) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "túnel de la carrera " + carrera + (destino != null ? " con " + AnilloBackends.nombre(destino) : "");
+    }
+}
@@ -0,0 +1,132 @@
+package es.juangmedac.dam.server;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Recoge las tiradas de todos los asientos de una carrera del servidor clásico: aplica cada una
+ * (o la entrega a su ronda), publica el estado y programa el paso de turno en el {@link Marcapasos}.
+ * Al pasar el turno se lo da a los {@link JineteBot} a los que les toca; los jugadores lo esperan
+ * en el hilo de su sesión, así que solo los bots necesitan el aviso.
+ * Por rondas, con plazo de tirada, cada ronda tiene un plazo desde que se abre, como en el servidor NIO:
+ * al agotarse, el servidor tira por quien falte y la ronda se cierra sin esperar a nadie más.
+ */
+class TurnosCarrera implements Asiento.Tiradas {
+
+    private final Carrera carrera;
+    private final DifusorEstado difusor;
+    private final Marcapasos marcapasos;
+    private final ConfiguracionCarrera config;
+    private final JineteBot[] bots;
+    private final Runnable pasarTurno;
+    private int ultimoTurnoAplicado;
+    private ScheduledFuture<?> plazoRonda;
+
+    /**
+     * Constructor.
+     * @param carrera Carrera ya comenzada.
+     * @param difusor Difusor que envía el estado a todos los asientos.
+     * @param marcapasos Planificador de las esperas y de las tiradas de los bots.
+     * @param config Ritmo de la carrera.
+     */
+    TurnosCarrera(Carrera carrera, DifusorEstado difusor, Marcapasos marcapasos, ConfiguracionCarrera config) {
+        this.carrera = carrera;
+        this.difusor = difusor;
+        this.marcapasos = marcapasos;
+        this.config = config;
+        this.bots = new JineteBot[carrera.getNumJinetes()];
+        this.pasarTurno = this::pasarTurno;
+        this.ultimoTurnoAplicado = -1;
+    }
+
+    /**
+     * Programa el plazo de la primera ronda. Se llama con los asientos ya ocupados.
+     */
+    synchronized void empezar() {
+        programarPlazoRonda();
+    }
+
+    /**
+     * Sienta un bot en el asiento indicado (libre o de un jugador que se ha ido) y,
+     * si ya le toca, le da el turno.
+     */
+    synchronized void sentarBot(int idCamello) {
+        JineteBot bot = new JineteBot(idCamello, carrera.getNombres()[idCamello], this, marcapasos);
+        bots[idCamello] = bot;
+        difusor.registrar(bot);
+        if (leToca(idCamello)) {
+            bot.darTurno(carrera.getNumeroTurno());
+        }
+    }
+
+    @Override
+    public synchronized void recibirTirada(Asiento asiento, int turno, int dado) {
+        int idCamello = asiento.getIdCamello();
+        if (carrera.isRondas()) {
+            // Hasta que no tira el último de la ronda no cambia nada
+            if (!carrera.entregarTirada(idCamello, turno, dado)) {
+                return;
+            }
+            if (plazoRonda != null) {
+                plazoRonda.cancel(false);
+                plazoRonda = null;
+            }
+        } else {
+            // Un bot que sustituye a un jugador puede llegar cuando el jugador ya había tirado
+            if (carrera.isFinCarrera() || carrera.getTurnoActual() != idCamello
+                    || carrera.getNumeroTurno() != turno || ultimoTurnoAplicado == turno) {
+                return;
+            }
+            ultimoTurnoAplicado = turno;
+            carrera.realizarAvance(idCamello, dado);
+        }
+        difusor.publicar(carrera.getInstantanea());
+        marcapasos.programar(config.getRetardoTurnoMs(), pasarTurno);
+    }
+
+    /**
+     * Se agotó el plazo de la ronda: el servidor tira por los que faltan y se pasa a la siguiente.
+     */
+    private synchronized void rondaAgotada(int ronda) {
+        plazoRonda = null;
+        if (carrera.completarRonda(ronda)) {
+            difusor.publicar(carrera.getInstantanea());
+            marcapasos.programar(config.getRetardoTurnoMs(), pasarTurno);
+        }
+    }
+
+    // El Marcapasos tiene varios hilos: el paso de turno no puede cruzarse con una tirada
+    private synchronized void pasarTurno() {
+        carrera.siguienteTurno();
+        programarPlazoRonda();
+        darTurnoABots();
+    }
+
+    private void programarPlazoRonda() {
+        long plazoMs = config.getTiempoMaximoTiradaMs();
+        if (carrera.isRondas() && plazoMs > 0 && !carrera.isFinCarrera()) {
+            int ronda = carrera.getNumeroTurno();
+            plazoRonda = marcapasos.programar(plazoMs, () -> rondaAgotada(ronda));
+        }
+    }
+
+    /**
+     * Da el turno en curso a los bots a los que les toca.
+     */
+    private synchronized void darTurnoABots() {
+        for (JineteBot bot : bots) {
+            if (bot != null && leToca(bot.getIdCamello())) {
+                bot.darTurno(carrera.getNumeroTurno());
+            }
+        }
+    }
+
+    private boolean leToca(int idCamello) {
+        if (carrera.isFinCarrera()) {
+            return false;
+        }
+        if (carrera.isRondas()) {
+            return carrera.getInstantanea().getPosicionFinal(idCamello) == 0;
+        }
+        return carrera.getTurnoActual() == idCamello && carrera.getNumeroTurno() != ultimoTurnoAplicado;
+    }
+}
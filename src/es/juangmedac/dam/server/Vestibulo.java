@@ -0,0 +1,217 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.HistogramaLatencias;
+import es.juangmedac.dam.comun.Metricas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de jugadores que esperan carrera. En cuanto se llena una mesa se lanza su carrera
+ * y la cola sigue admitiendo jugadores, así el servidor encadena carreras sin reiniciarse.
+ * Si se indica una espera máxima, una mesa incompleta se lanza igualmente cuando su primer
+ * jugador lleva ese tiempo esperando; los asientos libres los ocupan bots.
+ * Lleva la cuenta de la profundidad de la cola y de lo que ha esperado cada jugador.
+ * @param <T> Tipo del jugador (por ejemplo, su canal con el servidor).
+ */
+public class Vestibulo<T> implements Metricas.ColaJugadores {
+
+    /**
+     * Recibe las mesas formadas. Se llama fuera del cerrojo del vestíbulo y no debe bloquear:
+     * lo normal es arrancar la carrera en su propio hilo.
+     */
+    public interface Lanzador<T> {
+        /**
+         * @param idCarrera Identificador de la nueva carrera.
+         * @param jugadores Jugadores de la mesa en orden de llegada; puede haber menos que asientos.
+         */
+        void lanzar(int idCarrera, List<T> jugadores);
+    }
+
+    private final int tamanoMesa;
+    private final long esperaMaximaMs;
+    private final Marcapasos marcapasos;
+    private final Lanzador<T> lanzador;
+
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final ArrayDeque<Espera<T>> cola = new ArrayDeque<>();
+    private boolean revisionProgramada;
+
+    // Métricas
+    private final HistogramaLatencias esperas = new HistogramaLatencias();
+    private final AtomicInteger carrerasLanzadas = new AtomicInteger();
+    private final AtomicInteger contadorIds = new AtomicInteger();
+    private final AtomicInteger mesasConBots = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param tamanoMesa Jugadores por carrera.
+     * @param esperaMaximaMs Espera tras la que se lanza una mesa incompleta (0 = esperar siempre a que se llene).
+     * @param marcapasos Planificador para revisar las esperas.
+     * @param lanzador Quien arranca las carreras.
+     */
+    public Vestibulo(int tamanoMesa, long esperaMaximaMs, Marcapasos marcapasos, Lanzador<T> lanzador) {
+        this.tamanoMesa = tamanoMesa;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.marcapasos = marcapasos;
+        this.lanzador = lanzador;
+    }
+
+    /**
+     * Pone a un jugador en la cola. Si completa una mesa, se lanza su carrera.
+     */
+    public void entrar(T jugador) {
+        List<Espera<T>> mesa = null;
+        cerrojo.lock();
+        try {
+            cola.add(new Espera<>(jugador, System.nanoTime()));
+            if (cola.size() >= tamanoMesa) {
+                mesa = sacarMesa(tamanoMesa);
+            } else if (esperaMaximaMs > 0 && !revisionProgramada) {
+                revisionProgramada = true;
+                marcapasos.programar(esperaMaximaMs, this::revisarEspera);
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        if (mesa != null) {
+            lanzar(mesa);
+        }
+    }
+
+    /**
+     * Quita de la cola a un jugador que se ha ido antes de empezar.
+     * @return true si estaba en la cola.
+     */
+    public boolean salir(T jugador) {
+        cerrojo.lock();
+        try {
+            Iterator<Espera<T>> it = cola.iterator();
+            while (it.hasNext()) {
+                if (it.next().jugador == jugador) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Lanza la mesa incompleta si el primero de la cola ya ha esperado bastante;
+     * si no, vuelve a revisar cuando se cumpla su espera.
+     */
+    private void revisarEspera() {
+        List<Espera<T>> mesa = null;
+        cerrojo.lock();
+        try {
+            revisionProgramada = false;
+            Espera<T> primero = cola.peek();
+            if (primero == null) {
+                return;
+            }
+            long restanteMs = esperaMaximaMs - (System.nanoTime() - primero.llegada) / 1_000_000L;
+            if (restanteMs <= 0) {
+                mesa = sacarMesa(cola.size());
+                mesasConBots.incrementAndGet();
+            }
+            if (!cola.isEmpty()) {
+                revisionProgramada = true;
+                long siguienteMs = mesa != null ? esperaMaximaMs : restanteMs;
+                marcapasos.programar(siguienteMs, this::revisarEspera);
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        if (mesa != null) {
+            lanzar(mesa);
+        }
+    }
+
+    private List<Espera<T>> sacarMesa(int numJugadores) {
+        List<Espera<T>> mesa = new ArrayList<>(numJugadores);
+        for (int i = 0; i < numJugadores; i++) {
+            mesa.add(cola.poll());
+        }
+        return mesa;
+    }
+
+    private void lanzar(List<Espera<T>> mesa) {
+        long ahora = System.nanoTime();
+        List<T> jugadores = new ArrayList<>(mesa.size());
+        for (Espera<T> espera : mesa) {
+            esperas.registrar(ahora - espera.llegada);
+            jugadores.add(espera.jugador);
+        }
+        carrerasLanzadas.incrementAndGet();
+        lanzador.lanzar(contadorIds.incrementAndGet(), jugadores);
+    }
+
+    /**
+     * Hace que las carreras siguientes se numeren después de la indicada (por ejemplo, la última del diario).
+     */
+    public void continuarNumeracion(int ultimoIdCarrera) {
+        contadorIds.accumulateAndGet(ultimoIdCarrera, Math::max);
+    }
+
+    /**
+     * Devuelve el número de jugadores esperando en la cola.
+     */
+    @Override
+    public int getEnCola() {
+        cerrojo.lock();
+        try {
+            return cola.size();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Devuelve el número de carreras lanzadas desde el arranque.
+     */
+    public int getCarrerasLanzadas() {
+        return carrerasLanzadas.get();
+    }
+
+    /**
+     * Devuelve cuántas mesas se han lanzado incompletas, con bots.
+     */
+    @Override
+    public int getMesasConBots() {
+        return mesasConBots.get();
+    }
+
+    /**
+     * Histograma de lo que esperan los jugadores desde que entran en la cola hasta que empieza su carrera.
+     */
+    @Override
+    public HistogramaLatencias getEsperas() {
+        return esperas;
+    }
+
+    /**
+     * Resumen de una línea para la consola.
+     */
+    @Override
+    public String resumen() {
+        return "en cola=" + getEnCola() + " carreras=" + getCarrerasLanzadas() + " con bots=" + getMesasConBots()
+                + " espera " + HistogramaLatencias.resumen(esperas.copiar());
+    }
+
+    private static final class Espera<T> {
+        final T jugador;
+        final long llegada;
+
+        Espera(T jugador, long llegada) {
+            this.jugador = jugador;
+            this.llegada = llegada;
+        }
+    }
+}
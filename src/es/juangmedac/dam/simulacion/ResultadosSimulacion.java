@@ -0,0 +1,162 @@
+package es.juangmedac.dam.simulacion;
+
+import es.juangmedac.dam.comun.ReglasCarrera;
+
+/**
+ * Recuento de un lote de carreras simuladas del mismo tamaño: victorias y posición media de cada
+ * asiento, tiradas que necesita cada asiento para llegar y duración de la carrera.
+ * Cada tarea del simulador rellena el suyo sin compartirlo y luego se suman con {@link #sumar}.
+ */
+public final class ResultadosSimulacion {
+
+    private final int numCamellos;
+    private final boolean rondas;
+    private long carreras;
+    private final long[] victorias;          // Carreras ganadas por cada asiento
+    private final long[] sumaPosiciones;     // Suma de las posiciones finales de cada asiento
+    private final long[][] tiradasHastaMeta; // Por asiento, cuántas veces llegó con k tiradas propias
+    private final long[] duraciones;         // Cuántas carreras duraron k turnos (o rondas)
+
+    /**
+     * Constructor.
+     * @param numCamellos Camellos por carrera.
+     * @param rondas true si las carreras se juegan por rondas.
+     */
+    public ResultadosSimulacion(int numCamellos, boolean rondas) {
+        this.numCamellos = numCamellos;
+        this.rondas = rondas;
+        victorias = new long[numCamellos];
+        sumaPosiciones = new long[numCamellos];
+        // Cada tirada avanza al menos 1: nadie necesita más de META tiradas
+        tiradasHastaMeta = new long[numCamellos][ReglasCarrera.META + 1];
+        duraciones = new long[(rondas ? 1 : numCamellos) * ReglasCarrera.META + 1];
+    }
+
+    /**
+     * Anota una carrera terminada.
+     * @param posiciones Posición final de cada asiento.
+     * @param tiradas Tiradas que hizo cada asiento.
+     * @param duracion Turnos (o rondas) que duró la carrera.
+     */
+    void anotar(int[] posiciones, int[] tiradas, int duracion) {
+        carreras++;
+        for (int i = 0; i < numCamellos; i++) {
+            if (posiciones[i] == 1) {
+                victorias[i]++;
+            }
+            sumaPosiciones[i] += posiciones[i];
+            tiradasHastaMeta[i][tiradas[i]]++;
+        }
+        duraciones[duracion]++;
+    }
+
+    /**
+     * Suma a este recuento el de otro lote del mismo tamaño de carrera.
+     * @return este mismo recuento.
+     */
+    ResultadosSimulacion sumar(ResultadosSimulacion otro) {
+        carreras += otro.carreras;
+        for (int i = 0; i < numCamellos; i++) {
+            victorias[i] += otro.victorias[i];
+            sumaPosiciones[i] += otro.sumaPosiciones[i];
+            for (int k = 0; k < tiradasHastaMeta[i].length; k++) {
+                tiradasHastaMeta[i][k] += otro.tiradasHastaMeta[i][k];
+            }
+        }
+        for (int k = 0; k < duraciones.length; k++) {
+            duraciones[k] += otro.duraciones[k];
+        }
+        return this;
+    }
+
+    public long getCarreras() {
+        return carreras;
+    }
+
+    /**
+     * Devuelve la probabilidad de victoria estimada de un asiento.
+     */
+    public double getProbabilidadVictoria(int asiento) {
+        return carreras == 0 ? 0 : (double) victorias[asiento] / carreras;
+    }
+
+    /**
+     * Devuelve la posición final media de un asiento.
+     */
+    public double getPosicionMedia(int asiento) {
+        return carreras == 0 ? 0 : (double) sumaPosiciones[asiento] / carreras;
+    }
+
+    /**
+     * Devuelve el estadístico chi-cuadrado de las victorias frente a un reparto uniforme entre
+     * los asientos (con numCamellos - 1 grados de libertad). Cuanto más grande, menos justo es el orden.
+     */
+    public double getChiCuadrado() {
+        double esperadas = (double) carreras / numCamellos;
+        double chi = 0;
+        for (long v : victorias) {
+            chi += (v - esperadas) * (v - esperadas) / esperadas;
+        }
+        return chi;
+    }
+
+    /**
+     * Escribe el resumen por consola.
+     */
+    public void imprimir() {
+        String unidad = rondas ? "rondas" : "turnos";
+        System.out.println("Carreras de " + numCamellos + " camellos " + (rondas ? "por rondas" : "por turnos")
+                + ": " + carreras + " carreras");
+        System.out.printf("  Duración (%s): media=%.1f p50=%d p90=%d p99=%d min=%d max=%d%n", unidad,
+                media(duraciones), percentil(duraciones, 0.50), percentil(duraciones, 0.90),
+                percentil(duraciones, 0.99), percentil(duraciones, 0), maximo(duraciones));
+        System.out.println("  Asiento  victorias (IC 95%)    pos. media  tiradas hasta meta media/p50/p90/p99");
+        for (int i = 0; i < numCamellos; i++) {
+            double p = getProbabilidadVictoria(i);
+            double margen = 1.96 * Math.sqrt(p * (1 - p) / Math.max(1, carreras));
+            System.out.printf("  %7d  %6.2f%% ±%.2f%%     %10.3f  %.1f/%d/%d/%d%n", i, p * 100, margen * 100,
+                    getPosicionMedia(i), media(tiradasHastaMeta[i]), percentil(tiradasHastaMeta[i], 0.50),
+                    percentil(tiradasHastaMeta[i], 0.90), percentil(tiradasHastaMeta[i], 0.99));
+        }
+        if (numCamellos > 1) {
+            System.out.printf("  Reparto de victorias: chi2=%.1f con %d grados de libertad (justo: alrededor de %d)%n",
+                    getChiCuadrado(), numCamellos - 1, numCamellos - 1);
+        }
+    }
+
+    // Valor k más pequeño que deja por debajo (o en él) la fracción q de las carreras
+    private static int percentil(long[] histograma, double q) {
+        long total = 0;
+        for (long n : histograma) {
+            total += n;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(q * total));
+        long acumulado = 0;
+        for (int k = 0; k < histograma.length; k++) {
+            acumulado += histograma[k];
+            if (acumulado >= objetivo) {
+                return k;
+            }
+        }
+        return histograma.length - 1;
+    }
+
+    private static int maximo(long[] histograma) {
+        for (int k = histograma.length - 1; k > 0; k--) {
+            if (histograma[k] > 0) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    private static double media(long[] histograma) {
+        long total = 0;
+        double suma = 0;
+        for (int k = 0; k < histograma.length; k++) {
+            total += histograma[k];
+            suma += (double) k * histograma[k];
+        }
+        return total == 0 ? 0 : suma / total;
+    }
+}
@@ -0,0 +1,139 @@
+package es.juangmedac.dam.simulacion;
+
+import es.juangmedac.dam.comun.ReglasCarrera;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Simulador Monte Carlo de carreras con las mismas reglas que el servidor ({@link ReglasCarrera}),
+ * sin red ni cerrojos. Reparte las carreras en un {@link ForkJoinPool}: cada tarea se parte en dos
+ * hasta llegar a un lote, y cada lote juega sus carreras con su propio {@link SplittableRandom}
+ * (partido del de su tarea madre) y su propio recuento, que al final se suman.
+ * Como el reparto de generadores solo depende de la semilla, el resultado no depende del número de hilos.
+ * Argumentos: {@code carreras=N} (por tamaño, 1000000 por defecto), {@code jinetes=2,4,8},
+ * {@code rondas}, {@code semilla=N} e {@code hilos=N}.
+ */
+public class SimuladorCarreras {
+
+    // Carreras que juega cada tarea sin partirse más
+    private static final long LOTE = 20_000;
+
+    public static void main(String[] args) {
+        long carreras = 1_000_000;
+        int[] tamanos = {2, 3, 4, 8};
+        boolean rondas = false;
+        long semilla = System.nanoTime();
+        int hilos = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            String clave = arg.toLowerCase();
+            if (clave.startsWith("carreras=")) {
+                carreras = Long.parseLong(arg.substring(9));
+            } else if (clave.startsWith("jinetes=")) {
+                tamanos = Arrays.stream(arg.substring(8).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (clave.equals("rondas")) {
+                rondas = true;
+            } else if (clave.startsWith("semilla=")) {
+                semilla = Long.parseLong(arg.substring(8));
+            } else if (clave.startsWith("hilos=")) {
+                hilos = Integer.parseInt(arg.substring(6));
+            } else {
+                System.out.println("Argumento desconocido: " + arg);
+            }
+        }
+
+        System.out.println("Simulando " + carreras + " carreras por tamaño " + Arrays.toString(tamanos)
+                + (rondas ? " por rondas" : " por turnos") + " con " + hilos + " hilos (semilla=" + semilla + ")");
+        ForkJoinPool pool = new ForkJoinPool(hilos);
+        try {
+            SplittableRandom raiz = new SplittableRandom(semilla);
+            for (int numCamellos : tamanos) {
+                long inicio = System.nanoTime();
+                ResultadosSimulacion r = pool.invoke(new Tarea(numCamellos, rondas, carreras, raiz.split()));
+                long ms = Math.max(1, (System.nanoTime() - inicio) / 1_000_000);
+                r.imprimir();
+                System.out.println("  " + ms + " ms (" + r.getCarreras() * 1000 / ms + " carreras/s)");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Simula un número de carreras y devuelve su recuento.
+     * @param numCamellos Camellos por carrera.
+     * @param rondas true para jugarlas por rondas.
+     * @param carreras Número de carreras.
+     * @param aleatorio Generador de las tiradas (no se comparte con otras tareas).
+     */
+    public static ResultadosSimulacion simular(int numCamellos, boolean rondas, long carreras, SplittableRandom aleatorio) {
+        ReglasCarrera reglas = new ReglasCarrera(numCamellos);
+        ResultadosSimulacion resultados = new ResultadosSimulacion(numCamellos, rondas);
+        int[] tiradas = new int[numCamellos];
+        int[] dados = new int[numCamellos];
+        int[] orden = new int[numCamellos];
+        // Dentro del bucle no se reserva memoria: todo se reutiliza de una carrera a la siguiente
+        for (long c = 0; c < carreras; c++) {
+            reglas.reiniciar();
+            Arrays.fill(tiradas, 0);
+            int duracion = 0;
+            while (!reglas.isTerminada()) {
+                if (rondas) {
+                    for (int i = 0; i < numCamellos; i++) {
+                        if (reglas.getAvance(i) < ReglasCarrera.META) {
+                            dados[i] = aleatorio.nextInt(1, 7);
+                            tiradas[i]++;
+                        } else {
+                            dados[i] = 0;
+                        }
+                    }
+                    int n = reglas.ordenarRonda(dados, orden);
+                    for (int k = 0; k < n; k++) {
+                        reglas.avanzar(orden[k], dados[orden[k]]);
+                    }
+                } else {
+                    int camello = reglas.getTurnoActual();
+                    tiradas[camello]++;
+                    reglas.avanzar(camello, aleatorio.nextInt(1, 7));
+                }
+                reglas.siguienteTurno();
+                duracion++;
+            }
+            resultados.anotar(reglas.posicionesFinales(), tiradas, duracion);
+        }
+        return resultados;
+    }
+
+    /**
+     * Parte las carreras en dos mientras pasen de un lote. El generador de la mitad que se lanza
+     * aparte se parte del de esta tarea antes de lanzarla, así que el reparto es siempre el mismo.
+     */
+    private static final class Tarea extends RecursiveTask<ResultadosSimulacion> {
+
+        private final int numCamellos;
+        private final boolean rondas;
+        private final long carreras;
+        private final SplittableRandom aleatorio;
+
+        Tarea(int numCamellos, boolean rondas, long carreras, SplittableRandom aleatorio) {
+            this.numCamellos = numCamellos;
+            this.rondas = rondas;
+            this.carreras = carreras;
+            this.aleatorio = aleatorio;
+        }
+
+        @Override
+        protected ResultadosSimulacion compute() {
+            if (carreras <= LOTE) {
+                return simular(numCamellos, rondas, carreras, aleatorio);
+            }
+            long mitad = carreras / 2;
+            Tarea primera = new Tarea(numCamellos, rondas, mitad, aleatorio.split());
+            primera.fork();
+            ResultadosSimulacion segunda = new Tarea(numCamellos, rondas, carreras - mitad, aleatorio).compute();
+            return segunda.sumar(primera.join());
+        }
+    }
+}
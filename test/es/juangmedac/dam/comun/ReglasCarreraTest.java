@@ -0,0 +1,150 @@
+package es.juangmedac.dam.comun;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Avances, llegadas, paso de turno y orden de las tiradas de una ronda.
+ */
+class ReglasCarreraTest {
+
+    @Test
+    void elAvanceSeQuedaEnLaMetaYDaLaPosicion() {
+        ReglasCarrera reglas = new ReglasCarrera(3);
+        adelantar(reglas, 1, 97);
+
+        assertFalse(reglas.avanzar(0, 6));
+        assertTrue(reglas.avanzar(1, 6));
+        assertEquals(ReglasCarrera.META, reglas.getAvance(1));
+        assertEquals(1, reglas.getPosicionFinal(1));
+        assertEquals(0, reglas.getPosicionFinal(0));
+        // Un camello que ya ha llegado no se mueve ni vuelve a puntuar
+        assertFalse(reglas.avanzar(1, 6));
+        assertEquals(1, reglas.getNumAcabados());
+    }
+
+    @Test
+    void elTurnoSeSaltaALosQueHanTerminado() {
+        ReglasCarrera reglas = new ReglasCarrera(4);
+        adelantar(reglas, 1, ReglasCarrera.META);
+        adelantar(reglas, 2, ReglasCarrera.META);
+
+        reglas.siguienteTurno();
+        assertEquals(3, reglas.getTurnoActual());
+        reglas.siguienteTurno();
+        assertEquals(0, reglas.getTurnoActual());
+        assertEquals(2, reglas.getNumeroTurno());
+    }
+
+    @Test
+    void elTurnoPasaDesdeElQueAcabaDeLlegar() {
+        ReglasCarrera reglas = new ReglasCarrera(3);
+        adelantar(reglas, 0, ReglasCarrera.META);
+
+        reglas.siguienteTurno();
+        assertEquals(1, reglas.getTurnoActual());
+    }
+
+    @Test
+    void conLaCarreraTerminadaElTurnoNoCambia() {
+        ReglasCarrera reglas = new ReglasCarrera(2);
+        adelantar(reglas, 0, ReglasCarrera.META);
+        adelantar(reglas, 1, ReglasCarrera.META);
+
+        assertTrue(reglas.isTerminada());
+        reglas.siguienteTurno();
+        assertEquals(0, reglas.getTurnoActual());
+        assertEquals(0, reglas.getNumeroTurno());
+    }
+
+    @Test
+    void laRondaPoneDelanteALosQueNoLleganYLuegoAlQueMasSePasa() {
+        ReglasCarrera reglas = new ReglasCarrera(5);
+        adelantar(reglas, 1, 96);
+        adelantar(reglas, 3, 98);
+        adelantar(reglas, 4, 95);
+        int[] orden = new int[5];
+
+        // 0 y 2 no llegan; 1 llega a 102, 3 a 103 y 4 a 101
+        int n = reglas.ordenarRonda(new int[] {4, 6, 2, 5, 6}, orden);
+
+        assertEquals(5, n);
+        assertArrayEquals(new int[] {0, 2, 3, 1, 4}, orden);
+    }
+
+    @Test
+    void aIgualdadDeLlegadaVaDelanteElIdMenor() {
+        ReglasCarrera reglas = new ReglasCarrera(4);
+        adelantar(reglas, 0, 97);
+        adelantar(reglas, 2, 98);
+        adelantar(reglas, 3, 96);
+        int[] orden = new int[4];
+
+        // 0, 2 y 3 llegan todos a 102
+        int n = reglas.ordenarRonda(new int[] {5, 1, 4, 6}, orden);
+
+        assertEquals(4, n);
+        assertArrayEquals(new int[] {1, 0, 2, 3}, orden);
+    }
+
+    @Test
+    void laRondaDejaFueraALosQueNoTiranOYaHanLlegado() {
+        ReglasCarrera reglas = new ReglasCarrera(4);
+        adelantar(reglas, 1, ReglasCarrera.META);
+        int[] orden = new int[4];
+
+        int n = reglas.ordenarRonda(new int[] {3, 6, 0, 2}, orden);
+
+        assertEquals(2, n);
+        assertEquals(0, orden[0]);
+        assertEquals(3, orden[1]);
+    }
+
+    @Test
+    void aplicarLaRondaEnOrdenDaLasPosiciones() {
+        ReglasCarrera reglas = new ReglasCarrera(3);
+        adelantar(reglas, 0, 99);
+        adelantar(reglas, 1, 95);
+        adelantar(reglas, 2, 97);
+        int[] dados = {1, 6, 6};
+        int[] orden = new int[3];
+
+        int n = reglas.ordenarRonda(dados, orden);
+        for (int i = 0; i < n; i++) {
+            reglas.avanzar(orden[i], dados[orden[i]]);
+        }
+
+        // 2 llega a 103, 1 a 101 y 0 a 100
+        assertArrayEquals(new int[] {3, 2, 1}, reglas.posicionesFinales());
+        assertTrue(reglas.isTerminada());
+    }
+
+    @Test
+    void reiniciarVuelveALaSalida() {
+        ReglasCarrera reglas = new ReglasCarrera(2);
+        adelantar(reglas, 0, ReglasCarrera.META);
+        reglas.siguienteTurno();
+
+        reglas.reiniciar();
+
+        assertEquals(0, reglas.getAvance(0));
+        assertEquals(0, reglas.getPosicionFinal(0));
+        assertEquals(0, reglas.getTurnoActual());
+        assertEquals(2, reglas.getNumActivos());
+        reglas.siguienteTurno();
+        assertEquals(1, reglas.getTurnoActual());
+    }
+
+    /**
+     * Lleva un camello hasta el avance indicado con tiradas de 6 y el resto.
+     */
+    private static void adelantar(ReglasCarrera reglas, int idCamello, int avance) {
+        while (reglas.getAvance(idCamello) < avance) {
+            reglas.avanzar(idCamello, Math.min(6, avance - reglas.getAvance(idCamello)));
+        }
+    }
+}
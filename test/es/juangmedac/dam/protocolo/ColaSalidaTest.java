@@ -0,0 +1,174 @@
+package es.juangmedac.dam.protocolo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Orden en el que la cola de salida escribe las tramas: un estado nunca adelanta a lo encolado antes.
+ */
+class ColaSalidaTest {
+
+    private ServerSocket servidor;
+    private Socket cliente;
+    private Socket socket;
+    private SalidaRetenida salida;
+    private ColaSalida cola;
+
+    @BeforeEach
+    void abrir() throws IOException {
+        servidor = new ServerSocket(0);
+        cliente = new Socket("localhost", servidor.getLocalPort());
+        socket = servidor.accept();
+        salida = new SalidaRetenida();
+        cola = new ColaSalida(new CanalTramas(socket), salida, ColaSalida.Desborde.DESCONECTAR);
+    }
+
+    @AfterEach
+    void cerrar() throws IOException {
+        socket.close();
+        cliente.close();
+        servidor.close();
+    }
+
+    @Test
+    void elEstadoSaleDetrasDeLosJinetesEncoladosAntes() throws Exception {
+        // El escritor se queda bloqueado con el latido mientras se encolan JINETES y se deja un estado
+        encolar(latido());
+        assertTrue(salida.escribiendo.await(5, TimeUnit.SECONDS));
+        encolar(jinetes());
+        cola.publicarEstado(estado(10), 1);
+        salida.soltar.countDown();
+
+        assertEquals(List.of(Protocolo.LATIDO, Protocolo.JINETES, Protocolo.ESTADO), salida.tipos(3));
+    }
+
+    @Test
+    void loEncoladoDespuesDelEstadoSaleDetras() throws Exception {
+        encolar(latido());
+        assertTrue(salida.escribiendo.await(5, TimeUnit.SECONDS));
+        encolar(jinetes());
+        cola.publicarEstado(estado(10), 1);
+        encolar(fin());
+        salida.soltar.countDown();
+
+        assertEquals(List.of(Protocolo.LATIDO, Protocolo.JINETES, Protocolo.ESTADO, Protocolo.FIN), salida.tipos(4));
+    }
+
+    @Test
+    void soloSaleElUltimoEstadoYEnSuSitio() throws Exception {
+        encolar(latido());
+        assertTrue(salida.escribiendo.await(5, TimeUnit.SECONDS));
+        cola.publicarEstado(estado(10), 1);
+        encolar(jinetes());
+        cola.publicarEstado(estado(20), 2);
+        salida.soltar.countDown();
+
+        // El primer estado se sustituye por el segundo, que va detrás de los JINETES
+        assertEquals(List.of(Protocolo.LATIDO, Protocolo.JINETES, Protocolo.ESTADO), salida.tipos(3));
+        ByteBuffer tramas = ByteBuffer.wrap(salida.bytes());
+        tramas.position(tramas.limit() - Protocolo.tamanoEstado(2));
+        assertEquals(Protocolo.ESTADO, Protocolo.leerCabecera(tramas));
+        assertEquals(2, Protocolo.leerU16(tramas));
+        assertEquals(20, Protocolo.leerU8(tramas));
+    }
+
+    private void encolar(byte[] trama) throws IOException {
+        cola.encolar(trama, 0, trama.length);
+    }
+
+    private static byte[] latido() {
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.TAMANO_VACIA);
+        Protocolo.escribirVacia(b, Protocolo.LATIDO);
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private static byte[] jinetes() {
+        String[] nombres = {"Ana", "Beto"};
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoJinetes(nombres));
+        Protocolo.escribirJinetes(b, 0, nombres);
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private static byte[] estado(int avance) {
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoEstado(2));
+        Protocolo.escribirEstado(b, new int[] {avance, 0});
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private static byte[] fin() {
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoFin(2));
+        Protocolo.escribirFin(b, new int[] {1, 2});
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    /**
+     * Salida que retiene la primera escritura hasta que se suelta, como un cliente con la ventana llena.
+     */
+    private static final class SalidaRetenida extends OutputStream {
+
+        final CountDownLatch escribiendo = new CountDownLatch(1);
+        final CountDownLatch soltar = new CountDownLatch(1);
+        private final ByteArrayOutputStream escrito = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int longitud) throws IOException {
+            escribiendo.countDown();
+            try {
+                soltar.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (this) {
+                escrito.write(b, desde, longitud);
+                notifyAll();
+            }
+        }
+
+        synchronized byte[] bytes() {
+            return escrito.toByteArray();
+        }
+
+        /**
+         * Espera a que se hayan escrito las tramas indicadas y devuelve sus tipos en orden.
+         */
+        synchronized List<Integer> tipos(int numTramas) throws InterruptedException {
+            long limite = System.currentTimeMillis() + 5000;
+            while (true) {
+                List<Integer> tipos = new ArrayList<>();
+                ByteBuffer tramas = ByteBuffer.wrap(escrito.toByteArray());
+                int total;
+                while ((total = Protocolo.tramaCompleta(tramas)) >= 0) {
+                    int siguiente = tramas.position() + total;
+                    tipos.add(Protocolo.leerCabecera(tramas));
+                    tramas.position(siguiente);
+                }
+                long restante = limite - System.currentTimeMillis();
+                if (tipos.size() >= numTramas || restante <= 0) {
+                    return tipos;
+                }
+                wait(restante);
+            }
+        }
+    }
+}
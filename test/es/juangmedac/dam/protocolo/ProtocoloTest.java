@@ -0,0 +1,138 @@
+package es.juangmedac.dam.protocolo;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ida y vuelta de las tramas, sus tamaños y los límites de nombres, turnos y dados.
+ */
+class ProtocoloTest {
+
+    @Test
+    void elHolaVaYVuelveConSuTamano() {
+        String nombre = "Señor Ñandú";
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.MAX_SALUDO);
+        Protocolo.escribirHola(b, nombre);
+
+        assertEquals(Protocolo.tamanoHola(nombre), b.position());
+        b.flip();
+        assertEquals(Protocolo.tamanoHola(nombre), Protocolo.tramaCompleta(b));
+        assertEquals(Protocolo.HOLA, Protocolo.leerCabecera(b));
+        assertEquals(Protocolo.VERSION, Protocolo.leerU8(b));
+        assertEquals(nombre, Protocolo.leerTexto(b));
+        assertFalse(b.hasRemaining());
+    }
+
+    @Test
+    void lasTramasFijasOcupanLoQueDicenSusTamanos() {
+        ByteBuffer b = ByteBuffer.allocate(64);
+
+        Protocolo.escribirAceptado(b, 5000);
+        assertEquals(Protocolo.tamanoAceptado(), b.position());
+        b.clear();
+        Protocolo.escribirMirar(b, 7);
+        assertEquals(Protocolo.tamanoMirar(), b.position());
+        b.clear();
+        Protocolo.escribirMesa(b, 1 << 30, 4);
+        assertEquals(Protocolo.tamanoMesa(), b.position());
+        b.clear();
+        Protocolo.escribirTurno(b, 3);
+        assertEquals(Protocolo.tamanoTurno(), b.position());
+        b.clear();
+        Protocolo.escribirTirada(b, 3, 6);
+        assertEquals(Protocolo.tamanoTirada(), b.position());
+        b.clear();
+        Protocolo.escribirVacia(b, Protocolo.OTRA);
+        assertEquals(Protocolo.TAMANO_VACIA, b.position());
+    }
+
+    @Test
+    void elEstadoYLasPosicionesVanYVuelven() {
+        int[] avances = {0, 42, 99, 100};
+        int[] posiciones = {3, 1, 4, 2};
+        ByteBuffer b = ByteBuffer.allocate(64);
+        Protocolo.escribirEstado(b, avances);
+        int finEstado = b.position();
+        Protocolo.escribirFin(b, posiciones);
+
+        assertEquals(Protocolo.tamanoEstado(4), finEstado);
+        assertEquals(Protocolo.tamanoEstado(4) + Protocolo.tamanoFin(4), b.position());
+        b.flip();
+        int[] destino = new int[4];
+        assertEquals(Protocolo.ESTADO, Protocolo.leerCabecera(b));
+        assertEquals(4, Protocolo.leerEstado(b, destino));
+        assertArrayEquals(avances, destino);
+        assertEquals(Protocolo.FIN, Protocolo.leerCabecera(b));
+        assertEquals(4, Protocolo.leerFin(b, destino));
+        assertArrayEquals(posiciones, destino);
+    }
+
+    @Test
+    void losJinetesConNombresMultibyteCabenEnSuTamano() {
+        String[] nombres = {"Ana", "Ñandú", "騎手", "🐪 camello", "x".repeat(Protocolo.MAX_NOMBRE)};
+        ByteBuffer b = ByteBuffer.allocate(Protocolo.tamanoJinetes(nombres));
+        Protocolo.escribirJinetes(b, Protocolo.SIN_CAMELLO, nombres);
+
+        assertTrue(b.position() <= Protocolo.tamanoJinetes(nombres));
+        b.flip();
+        assertEquals(Protocolo.JINETES, Protocolo.leerCabecera(b));
+        assertEquals(Protocolo.SIN_CAMELLO, Protocolo.leerU16(b));
+        assertEquals(nombres.length, Protocolo.leerU16(b));
+        for (String nombre : nombres) {
+            assertEquals(nombre, Protocolo.leerTexto(b));
+        }
+    }
+
+    @Test
+    void elTurnoViajaConSus16BitsBajos() {
+        ByteBuffer b = ByteBuffer.allocate(16);
+        Protocolo.escribirTurno(b, 0x10000 + 5);
+        Protocolo.escribirTurno(b, 0xFFFF);
+        b.flip();
+
+        Protocolo.leerCabecera(b);
+        assertEquals(5, Protocolo.leerU16(b));
+        Protocolo.leerCabecera(b);
+        assertEquals(0xFFFF, Protocolo.leerU16(b));
+    }
+
+    @Test
+    void unaTramaIncompletaNoSeDaPorRecibida() {
+        ByteBuffer b = ByteBuffer.allocate(16);
+        Protocolo.escribirTirada(b, 1, 4);
+        b.flip();
+
+        for (int recibidos = 0; recibidos < Protocolo.tamanoTirada(); recibidos++) {
+            assertEquals(-1, Protocolo.tramaCompleta(b.duplicate().limit(recibidos)));
+        }
+        assertEquals(Protocolo.tamanoTirada(), Protocolo.tramaCompleta(b));
+    }
+
+    @Test
+    void soloSeAdmitenDadosDeUnoASeis() {
+        assertFalse(Protocolo.dadoValido(0));
+        for (int dado = 1; dado <= Protocolo.CARAS_DADO; dado++) {
+            assertTrue(Protocolo.dadoValido(dado));
+        }
+        assertFalse(Protocolo.dadoValido(Protocolo.CARAS_DADO + 1));
+        assertFalse(Protocolo.dadoValido(255));
+    }
+
+    @Test
+    void losNombresLargosSeRecortanYElSaludoCabe() {
+        String largo = "ñ".repeat(Protocolo.MAX_NOMBRE * 4);
+        String nombre = Protocolo.normalizarNombre(largo);
+
+        assertEquals(Protocolo.MAX_NOMBRE, nombre.length());
+        assertEquals("Ana", Protocolo.normalizarNombre("Ana"));
+        assertTrue(Protocolo.tamanoHola(nombre) <= Protocolo.MAX_SALUDO);
+        assertTrue(Protocolo.tamanoHola(largo) <= Protocolo.MAX_SALUDO);
+        assertFalse(Protocolo.tamanoHola("x".repeat(Protocolo.MAX_SALUDO)) <= Protocolo.MAX_SALUDO);
+    }
+}
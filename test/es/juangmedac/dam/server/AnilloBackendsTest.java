@@ -0,0 +1,115 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reparto de las carreras del anillo: estable al añadir o quitar backends y con un orden de reintento fijo.
+ */
+class AnilloBackendsTest {
+
+    private static final int CLAVES = 10_000;
+
+    @Test
+    void unAnilloVacioNoEligeNada() {
+        assertNull(AnilloBackends.vacio().elegir(1, 0));
+    }
+
+    @Test
+    void elRepartoNoDependeDelOrdenDeAlta() {
+        AnilloBackends uno = anillo(1, 2, 3, 4);
+        AnilloBackends otro = anillo(4, 2, 1, 3);
+
+        for (long clave = 0; clave < CLAVES; clave++) {
+            assertEquals(uno.elegir(clave, 0), otro.elegir(clave, 0));
+        }
+    }
+
+    @Test
+    void alAnadirUnBackendSoloSeMuevenClavesHaciaEl() {
+        AnilloBackends antes = anillo(1, 2, 3, 4);
+        AnilloBackends despues = antes.con(backend(5));
+
+        int movidas = 0;
+        for (long clave = 0; clave < CLAVES; clave++) {
+            InetSocketAddress nuevo = despues.elegir(clave, 0);
+            if (!nuevo.equals(antes.elegir(clave, 0))) {
+                assertEquals(backend(5), nuevo);
+                movidas++;
+            }
+        }
+        // Al nuevo le toca más o menos una quinta parte
+        assertTrue(movidas > CLAVES / 10 && movidas < CLAVES * 3 / 10, "movidas: " + movidas);
+    }
+
+    @Test
+    void alQuitarUnBackendSusClavesVanAlSiguienteDelAnillo() {
+        AnilloBackends antes = anillo(1, 2, 3, 4);
+        AnilloBackends despues = antes.sin(backend(3));
+
+        for (long clave = 0; clave < CLAVES; clave++) {
+            InetSocketAddress anterior = antes.elegir(clave, 0);
+            InetSocketAddress nuevo = despues.elegir(clave, 0);
+            if (anterior.equals(backend(3))) {
+                // Es el mismo al que se reintentaba cuando el quitado no respondía
+                assertEquals(antes.elegir(clave, 1), nuevo);
+            } else {
+                assertEquals(anterior, nuevo);
+            }
+        }
+    }
+
+    @Test
+    void losReintentosRecorrenTodosLosBackendsUnaVez() {
+        AnilloBackends anillo = anillo(1, 2, 3, 4);
+
+        for (long clave = 0; clave < 100; clave++) {
+            Set<InetSocketAddress> vistos = new HashSet<>();
+            for (int intento = 0; intento < 4; intento++) {
+                assertTrue(vistos.add(anillo.elegir(clave, intento)));
+            }
+            assertNull(anillo.elegir(clave, 4));
+        }
+    }
+
+    @Test
+    void elOrdenDeReintentoEsElDeQuitarLosQueFallan() {
+        AnilloBackends anillo = anillo(1, 2, 3, 4, 5);
+
+        for (long clave = 0; clave < 1000; clave++) {
+            InetSocketAddress primero = anillo.elegir(clave, 0);
+            InetSocketAddress segundo = anillo.elegir(clave, 1);
+            AnilloBackends sinPrimero = anillo.sin(primero);
+            assertEquals(segundo, sinPrimero.elegir(clave, 0));
+            assertEquals(anillo.elegir(clave, 2), sinPrimero.sin(segundo).elegir(clave, 0));
+        }
+    }
+
+    @Test
+    void anadirUnoQueYaEstaOQuitarUnoQueNoEstaNoCreaOtroAnillo() {
+        AnilloBackends anillo = anillo(1, 2);
+
+        assertSame(anillo, anillo.con(backend(1)));
+        assertSame(anillo, anillo.sin(backend(3)));
+    }
+
+    private static AnilloBackends anillo(int... numeros) {
+        AnilloBackends anillo = AnilloBackends.vacio();
+        for (int numero : numeros) {
+            anillo = anillo.con(backend(numero));
+        }
+        return anillo;
+    }
+
+    private static InetSocketAddress backend(int numero) {
+        return new InetSocketAddress("127.0.0.1", 6000 + numero);
+    }
+}
@@ -0,0 +1,177 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.ReglasCarrera;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Paso de turno entre los hilos de los asientos, y entrega y orden de las tiradas de una ronda.
+ */
+class CarreraTest {
+
+    @Test
+    void alPasarElTurnoSoloDespiertaElAsientoSiguiente() throws InterruptedException {
+        Carrera carrera = carrera(4, false);
+        CountDownLatch despiertos = new CountDownLatch(1);
+        AtomicInteger primero = new AtomicInteger(-1);
+        Thread[] asientos = new Thread[4];
+        for (int i = 1; i < asientos.length; i++) {
+            int idCamello = i;
+            asientos[i] = Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    if (carrera.esperarTurno(idCamello, -1)) {
+                        primero.compareAndSet(-1, idCamello);
+                        despiertos.countDown();
+                    }
+                } catch (InterruptedException ignorada) {
+                }
+            });
+        }
+        esperarBloqueados(asientos, 1, 2, 3);
+        long[] esperasAntes = esperas(asientos);
+
+        carrera.realizarAvance(0, 3);
+        carrera.siguienteTurno();
+
+        assertTrue(despiertos.await(5, TimeUnit.SECONDS));
+        assertEquals(1, primero.get());
+        asientos[1].join(5000);
+        // Los demás siguen esperando su turno sin haberse despertado: no han vuelto a esperar
+        esperarBloqueados(asientos, 2, 3);
+        long[] esperasDespues = esperas(asientos);
+        assertEquals(esperasAntes[2], esperasDespues[2]);
+        assertEquals(esperasAntes[3], esperasDespues[3]);
+        assertEquals(1, carrera.getTurnoActual());
+        for (Thread asiento : asientos) {
+            if (asiento != null) {
+                asiento.interrupt();
+            }
+        }
+    }
+
+    @Test
+    void porRondasElTurnoEsDeTodosLosQueNoHanLlegado() throws InterruptedException {
+        Carrera carrera = carrera(3, true);
+        jugarRonda(carrera, 2, 2, 2);
+
+        for (int i = 0; i < 3; i++) {
+            // Ya jugaron la ronda 0 y la 1 está abierta para todos: no bloquea
+            assertTrue(carrera.esperarTurno(i, 0));
+        }
+    }
+
+    @Test
+    void laRondaNoCambiaNadaHastaLaUltimaTirada() {
+        Carrera carrera = carrera(3, true);
+
+        assertFalse(carrera.entregarTirada(0, 0, 4));
+        assertFalse(carrera.entregarTirada(2, 0, 5));
+        assertEquals(0, carrera.getInstantanea().getVersion());
+        assertArrayEquals(new int[] {0, 0, 0}, carrera.getAvances());
+
+        assertTrue(carrera.entregarTirada(1, 0, 6));
+        assertEquals(1, carrera.getInstantanea().getVersion());
+        assertArrayEquals(new int[] {4, 6, 5}, carrera.getAvances());
+    }
+
+    @Test
+    void seDescartanLasTiradasRepetidasOTardias() {
+        Carrera carrera = carrera(2, true);
+
+        assertFalse(carrera.entregarTirada(0, 0, 4));
+        // La segunda tirada del mismo camello en la ronda no cuenta
+        assertFalse(carrera.entregarTirada(0, 0, 6));
+        assertTrue(carrera.entregarTirada(1, 0, 2));
+        carrera.siguienteTurno();
+
+        // Una tirada de la ronda anterior tampoco
+        assertFalse(carrera.entregarTirada(0, 0, 6));
+        assertArrayEquals(new int[] {4, 2}, carrera.getAvances());
+    }
+
+    @Test
+    void siLleganVariosEnLaMismaRondaVaDelanteElQueMasSePasa() {
+        Carrera carrera = carrera(3, true);
+        while (carrera.getAvances()[0] + 6 < ReglasCarrera.META) {
+            jugarRonda(carrera, 6, 6, 6);
+        }
+        int avance = carrera.getAvances()[0];
+
+        // El 0 y el 1 llegan en la misma ronda; el 1 se pasa más de la meta
+        jugarRonda(carrera, ReglasCarrera.META - avance, ReglasCarrera.META - avance + 1, 1);
+
+        assertArrayEquals(new int[] {2, 1, 0}, carrera.getPosicionesFinales());
+        assertFalse(carrera.isFinCarrera());
+    }
+
+    @Test
+    void completarLaRondaTiraPorLosQueFaltan() {
+        Carrera carrera = carrera(3, true);
+
+        carrera.entregarTirada(1, 0, 3);
+        assertTrue(carrera.completarRonda(0));
+        // Ya cerrada: el plazo de la ronda llega tarde y no hace nada
+        assertFalse(carrera.completarRonda(0));
+
+        int[] avances = carrera.getAvances();
+        assertEquals(3, avances[1]);
+        assertTrue(avances[0] >= 1 && avances[0] <= 6);
+        assertTrue(avances[2] >= 1 && avances[2] <= 6);
+    }
+
+    /**
+     * Espera a que los hilos de los asientos indicados estén parados en su condición.
+     */
+    private static void esperarBloqueados(Thread[] asientos, int... ids) throws InterruptedException {
+        for (int id : ids) {
+            long limite = System.nanoTime() + 5_000_000_000L;
+            while (asientos[id].getState() != Thread.State.WAITING && System.nanoTime() < limite) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.WAITING, asientos[id].getState(), "asiento " + id);
+        }
+    }
+
+    /**
+     * Veces que ha esperado el hilo de cada asiento vivo (aparcado en una condición o en el cerrojo).
+     */
+    private static long[] esperas(Thread[] asientos) {
+        ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        long[] esperas = new long[asientos.length];
+        for (int i = 0; i < asientos.length; i++) {
+            ThreadInfo info = asientos[i] != null ? hilos.getThreadInfo(asientos[i].threadId()) : null;
+            if (info != null) {
+                esperas[i] = info.getWaitedCount();
+            }
+        }
+        return esperas;
+    }
+
+    private static void jugarRonda(Carrera carrera, int... dados) {
+        int ronda = carrera.getNumeroTurno();
+        for (int i = 0; i < dados.length; i++) {
+            carrera.entregarTirada(i, ronda, dados[i]);
+        }
+        carrera.siguienteTurno();
+    }
+
+    static Carrera carrera(int numJinetes, boolean rondas) {
+        Carrera carrera = new Carrera(1, numJinetes, rondas);
+        for (int i = 0; i < numJinetes; i++) {
+            carrera.agregarJinete("Jinete " + i);
+        }
+        carrera.comenzar();
+        return carrera;
+    }
+}
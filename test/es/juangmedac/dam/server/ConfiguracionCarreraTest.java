@@ -0,0 +1,63 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lectura del ritmo de la carrera desde los argumentos.
+ */
+class ConfiguracionCarreraTest {
+
+    @Test
+    void sinEsperasDaLoMismoEnCualquierPosicion() {
+        ConfiguracionCarrera antes = ConfiguracionCarrera.desdeArgumentos(
+                new String[] {"sinesperas", "jinetes=3", "plazo=500", "rondas"});
+        ConfiguracionCarrera despues = ConfiguracionCarrera.desdeArgumentos(
+                new String[] {"jinetes=3", "plazo=500", "rondas", "sinesperas"});
+
+        for (ConfiguracionCarrera config : new ConfiguracionCarrera[] {antes, despues}) {
+            assertEquals(0, config.getRetardoTurnoMs());
+            assertEquals(0, config.getEsperaFinalMs());
+            assertEquals(3, config.getNumJinetes());
+            assertEquals(500, config.getTiempoMaximoTiradaMs());
+            assertTrue(config.isRondas());
+        }
+    }
+
+    @Test
+    void sinEsperasNoSeAdmiteConUnaPausa() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ConfiguracionCarrera.desdeArgumentos(new String[] {"sinesperas", "retardo=100"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> ConfiguracionCarrera.desdeArgumentos(new String[] {"espera=100", "sinesperas"}));
+    }
+
+    @Test
+    void sinOpcionesQuedaElRitmoPorDefecto() {
+        ConfiguracionCarrera config = ConfiguracionCarrera.desdeArgumentos(new String[] {"nio", "5555"});
+
+        assertEquals(1000, config.getRetardoTurnoMs());
+        assertEquals(2000, config.getEsperaFinalMs());
+    }
+
+    @Test
+    void porRondasSinPlazoLaRondaTienePlazoPorDefecto() {
+        ConfiguracionCarrera porTurnos = ConfiguracionCarrera.desdeArgumentos(new String[] {"plazo=0"});
+        ConfiguracionCarrera porRondas = ConfiguracionCarrera.desdeArgumentos(new String[] {"rondas", "plazo=0"});
+
+        assertEquals(0, porTurnos.getTiempoMaximoTiradaMs());
+        assertEquals(ConfiguracionCarrera.PLAZO_RONDA_POR_DEFECTO, porRondas.getTiempoMaximoTiradaMs());
+        assertEquals(0, porRondas.conRondas(false).getTiempoMaximoTiradaMs());
+    }
+
+    @Test
+    void noSeAdmitenTiemposNegativos() {
+        for (String opcion : new String[] {"retardo=-1", "espera=-1", "plazo=-1", "bots=-1", "saludo=-1", "otra=-1"}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ConfiguracionCarrera.desdeArgumentos(new String[] {opcion}), opcion);
+        }
+    }
+}
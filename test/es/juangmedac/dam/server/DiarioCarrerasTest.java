@@ -0,0 +1,147 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recuperación de las carreras a medias del diario, también con el último registro roto.
+ */
+class DiarioCarrerasTest {
+
+    private static final int TAMANO_SEGMENTO = 64 * 1024;
+
+    @TempDir
+    Path directorio;
+
+    @AfterEach
+    void cerrar() {
+        DiarioCarreras.desactivar();
+    }
+
+    @Test
+    void seRecuperanSoloLasCarrerasSinFinal() throws IOException {
+        abrir();
+        DiarioCarreras.anotarInicio(1, 1000, new String[] {"Ana", "Beto"});
+        DiarioCarreras.anotarTirada(1, 0, 5, 1000);
+        DiarioCarreras.anotarInicio(2, 1000, new String[] {"Carla", "Dani"});
+        DiarioCarreras.anotarTirada(1, 1, 3, 1000);
+        DiarioCarreras.anotarFinal(2, DiarioCarreras.FIN);
+        DiarioCarreras.anotarInicio(3, 1000, new String[] {"Eva", "Fede"});
+        DiarioCarreras.anotarFinal(3, DiarioCarreras.ABANDONO);
+
+        DiarioCarreras.Recuperacion recuperacion = abrir();
+
+        assertEquals(3, recuperacion.getUltimoIdCarrera());
+        List<DiarioCarreras.CarreraAMedias> carreras = recuperacion.getCarreras();
+        assertEquals(1, carreras.size());
+        DiarioCarreras.CarreraAMedias carrera = carreras.get(0);
+        assertEquals(1, carrera.getIdCarrera());
+        assertArrayEquals(new String[] {"Ana", "Beto"}, carrera.getNombres());
+        assertEquals(2, carrera.getTiradas());
+    }
+
+    @Test
+    void unaCarreraAbandonadaNoVuelveAAparecer() throws IOException {
+        abrir();
+        DiarioCarreras.anotarInicio(1, 1000, new String[] {"Ana", "Beto"});
+        DiarioCarreras.anotarTirada(1, 0, 5, 1000);
+
+        abrir().getCarreras().get(0).abandonar();
+
+        assertTrue(abrir().getCarreras().isEmpty());
+    }
+
+    @Test
+    void unRegistroFinalAMediasSeDescarta() throws IOException {
+        abrir();
+        DiarioCarreras.anotarInicio(1, 1000, new String[] {"Ana", "Beto"});
+        DiarioCarreras.anotarTirada(1, 0, 4, 1000);
+        DiarioCarreras.anotarTirada(1, 1, 6, 1000);
+        DiarioCarreras.desactivar();
+
+        // De la última tirada solo llegó a disco la primera mitad
+        LectorDiario ultimo = ultimoRegistro();
+        int longitud = DiarioCarreras.CABECERA + 11 + DiarioCarreras.COLA;
+        escribir(ultimo.segmento, ultimo.posicion + longitud / 2, new byte[longitud - longitud / 2]);
+
+        assertEquals(1, abrir().getCarreras().get(0).getTiradas());
+    }
+
+    @Test
+    void unRegistroConElCrcMalSeDescartaConLoQueLeSigue() throws IOException {
+        abrir();
+        DiarioCarreras.anotarInicio(1, 1000, new String[] {"Ana", "Beto"});
+        DiarioCarreras.anotarTirada(1, 0, 4, 1000);
+        DiarioCarreras.anotarTirada(1, 1, 6, 1000);
+        DiarioCarreras.anotarFinal(1, DiarioCarreras.FIN);
+        DiarioCarreras.desactivar();
+
+        // Se cambia el dado de la segunda tirada sin tocar su CRC
+        LectorDiario tirada = registro(3);
+        escribir(tirada.segmento, tirada.posicion + DiarioCarreras.CABECERA + 6, new byte[] {2});
+
+        // Sin esa tirada tampoco se lee el final: la carrera sigue a medias con la primera
+        List<DiarioCarreras.CarreraAMedias> carreras = abrir().getCarreras();
+        assertEquals(1, carreras.size());
+        assertEquals(1, carreras.get(0).getTiradas());
+    }
+
+    @Test
+    void elLectorSeParaEnElRegistroRoto() throws IOException {
+        abrir();
+        DiarioCarreras.anotarInicio(1, 1000, new String[] {"Ana", "Beto"});
+        DiarioCarreras.anotarTirada(1, 0, 4, 1000);
+        DiarioCarreras.desactivar();
+        LectorDiario tirada = registro(2);
+        escribir(tirada.segmento, tirada.posicion + DiarioCarreras.CABECERA, new byte[] {0x7F});
+
+        LectorDiario lector = new LectorDiario(directorio);
+        assertTrue(lector.siguiente());
+        assertEquals(DiarioCarreras.INICIO, lector.tipo);
+        assertFalse(lector.siguiente());
+    }
+
+    private DiarioCarreras.Recuperacion abrir() throws IOException {
+        return DiarioCarreras.abrir(directorio, TAMANO_SEGMENTO, 0, true);
+    }
+
+    /**
+     * Lector parado en el registro número {@code n} (desde 1) del diario.
+     */
+    private LectorDiario registro(int n) throws IOException {
+        LectorDiario lector = new LectorDiario(directorio);
+        for (int i = 0; i < n; i++) {
+            assertTrue(lector.siguiente());
+        }
+        return lector;
+    }
+
+    private LectorDiario ultimoRegistro() throws IOException {
+        LectorDiario lector = new LectorDiario(directorio);
+        int n = 0;
+        while (lector.siguiente()) {
+            n++;
+        }
+        return registro(n);
+    }
+
+    private void escribir(int segmento, int posicion, byte[] bytes) throws IOException {
+        try (FileChannel canal = FileChannel.open(DiarioCarreras.rutaSegmento(directorio, segmento),
+                StandardOpenOption.WRITE)) {
+            canal.write(ByteBuffer.wrap(bytes), posicion);
+        }
+    }
+}
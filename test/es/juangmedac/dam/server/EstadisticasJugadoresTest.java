@@ -0,0 +1,77 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Anotación de carreras y olvido de jugadores cuando se llena el máximo.
+ */
+class EstadisticasJugadoresTest {
+
+    // Sitio para 5 jugadores y clasificaciones de un puesto
+    private final EstadisticasJugadores estadisticas = new EstadisticasJugadores(5, 1, null);
+
+    @Test
+    void seSumanLasCarrerasDeLosJugadoresYNoLasDeLosBots() {
+        estadisticas.anotar(new String[] {"Ana", "Beto", "Bot 3"}, new int[] {2, 3, 1}, 2);
+        estadisticas.anotar(new String[] {"Ana", "Beto", "Bot 3"}, new int[] {1, 3, 2}, 2);
+
+        ClasificacionJugadores.Fila ana = estadisticas.getJugador("Ana");
+        assertEquals(2, ana.getCarreras());
+        assertEquals(1, ana.getVictorias());
+        assertEquals(2, ana.getPodios());
+        assertEquals(1.5, ana.getPosicionMedia(), 1e-9);
+        assertNull(estadisticas.getJugador("Bot 3"));
+        assertEquals("Ana", estadisticas.getClasificacion().getPorVictorias()[0].getNombre());
+    }
+
+    @Test
+    void alLlenarseSeOlvidaAlQueMasTiempoLlevaSinJugar() {
+        estadisticas.anotar(new String[] {"Ana", "Beto"}, new int[] {4, 5}, 2);
+        estadisticas.anotar(new String[] {"Carla", "Dani"}, new int[] {4, 5}, 2);
+        estadisticas.anotar(new String[] {"Eva"}, new int[] {4}, 1);
+        // Ana vuelve a jugar: el más antiguo pasa a ser Beto
+        estadisticas.anotar(new String[] {"Ana"}, new int[] {4}, 1);
+
+        estadisticas.anotar(new String[] {"Fede"}, new int[] {4}, 1);
+
+        assertNull(estadisticas.getJugador("Beto"));
+        assertEquals(2, estadisticas.getJugador("Ana").getCarreras());
+        assertNotNull(estadisticas.getJugador("Fede"));
+        assertEquals(5, estadisticas.getJugadores());
+        assertEquals(1, estadisticas.getExpulsados());
+    }
+
+    @Test
+    void noSeOlvidaANadieQueEsteEnUnaClasificacion() {
+        // Ana gana y Beto ya no cabe en el podio de un puesto, así que Ana queda en las dos clasificaciones
+        estadisticas.anotar(new String[] {"Ana", "Beto"}, new int[] {1, 2}, 2);
+        estadisticas.anotar(new String[] {"Carla", "Dani"}, new int[] {4, 5}, 2);
+        estadisticas.anotar(new String[] {"Eva"}, new int[] {4}, 1);
+
+        estadisticas.anotar(new String[] {"Fede"}, new int[] {4}, 1);
+        estadisticas.anotar(new String[] {"Gema"}, new int[] {4}, 1);
+
+        assertNotNull(estadisticas.getJugador("Ana"));
+        assertNull(estadisticas.getJugador("Beto"));
+        assertNull(estadisticas.getJugador("Carla"));
+        assertNotNull(estadisticas.getJugador("Gema"));
+        assertEquals(2, estadisticas.getExpulsados());
+    }
+
+    @Test
+    void unJugadorOlvidadoVuelveDeCero() {
+        estadisticas.anotar(new String[] {"Ana", "Beto"}, new int[] {4, 5}, 2);
+        estadisticas.anotar(new String[] {"Carla", "Dani"}, new int[] {4, 5}, 2);
+        estadisticas.anotar(new String[] {"Eva", "Fede"}, new int[] {4, 5}, 2);
+
+        estadisticas.anotar(new String[] {"Ana"}, new int[] {5}, 1);
+
+        ClasificacionJugadores.Fila ana = estadisticas.getJugador("Ana");
+        assertEquals(1, ana.getCarreras());
+        assertEquals(5.0, ana.getPosicionMedia(), 1e-9);
+    }
+}
@@ -0,0 +1,95 @@
+package es.juangmedac.dam.server;
+
+import es.juangmedac.dam.comun.ReglasCarrera;
+import es.juangmedac.dam.protocolo.Protocolo;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Orden de las versiones de las instantáneas que publica una carrera y su trama ya codificada.
+ */
+class InstantaneaEstadoTest {
+
+    @Test
+    void laVersionCreceConCadaTiradaYNoConElTurno() {
+        Carrera carrera = CarreraTest.carrera(3, false);
+        InstantaneaEstado inicial = carrera.getInstantanea();
+
+        carrera.realizarAvance(0, 4);
+        InstantaneaEstado trasTirada = carrera.getInstantanea();
+        carrera.siguienteTurno();
+        InstantaneaEstado trasTurno = carrera.getInstantanea();
+
+        assertEquals(inicial.getVersion() + 1, trasTirada.getVersion());
+        assertEquals(trasTirada.getVersion(), trasTurno.getVersion());
+        assertNotEquals(trasTirada.getTurnoActual(), trasTurno.getTurnoActual());
+        // El cambio de turno no vuelve a codificar la trama
+        assertSame(trasTirada.getTrama(), trasTurno.getTrama());
+    }
+
+    @Test
+    void unaRondaEsUnaSolaVersion() {
+        Carrera carrera = CarreraTest.carrera(3, true);
+        long antes = carrera.getInstantanea().getVersion();
+
+        carrera.entregarTirada(0, 0, 1);
+        carrera.entregarTirada(1, 0, 2);
+        carrera.entregarTirada(2, 0, 3);
+
+        assertEquals(antes + 1, carrera.getInstantanea().getVersion());
+    }
+
+    @Test
+    void laTramaEsLaDelEstadoCodificado() {
+        int[] avances = {5, 0, 100};
+        InstantaneaEstado instantanea = new InstantaneaEstado(7, avances);
+
+        ByteBuffer esperada = ByteBuffer.allocate(Protocolo.tamanoEstado(avances.length));
+        Protocolo.escribirEstado(esperada, avances);
+        assertArrayEquals(esperada.array(), instantanea.getTrama());
+        assertArrayEquals(avances, instantanea.getAvances());
+        assertEquals(100, instantanea.getAvance(2));
+    }
+
+    @Test
+    void unLectorNuncaVeUnaVersionAnteriorNiUnAvanceQueRetrocede() throws InterruptedException {
+        Carrera carrera = CarreraTest.carrera(4, false);
+        List<String> errores = new ArrayList<>();
+        Thread lector = Thread.ofPlatform().start(() -> {
+            InstantaneaEstado anterior = carrera.getInstantanea();
+            while (!anterior.isFinCarrera()) {
+                InstantaneaEstado actual = carrera.getInstantanea();
+                if (actual.getVersion() < anterior.getVersion()) {
+                    errores.add("versión " + actual.getVersion() + " tras " + anterior.getVersion());
+                }
+                for (int i = 0; i < actual.getNumCamellos(); i++) {
+                    if (actual.getAvance(i) < anterior.getAvance(i)) {
+                        errores.add("el camello " + i + " retrocede en la versión " + actual.getVersion());
+                    }
+                }
+                anterior = actual;
+            }
+        });
+
+        while (!carrera.isFinCarrera()) {
+            carrera.realizarAvance(carrera.getTurnoActual(), 1 + carrera.getNumeroTurno() % Protocolo.CARAS_DADO);
+            carrera.siguienteTurno();
+        }
+        lector.join(5000);
+
+        assertTrue(errores.isEmpty(), errores.toString());
+        InstantaneaEstado fin = carrera.getInstantanea();
+        for (int i = 0; i < fin.getNumCamellos(); i++) {
+            assertEquals(ReglasCarrera.META, fin.getAvance(i));
+        }
+    }
+}
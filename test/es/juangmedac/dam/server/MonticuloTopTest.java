@@ -0,0 +1,81 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Entrada, sustitución y orden de los huecos del montículo de una clasificación.
+ */
+class MonticuloTopTest {
+
+    private final int[] claves = new int[8];
+    private final MonticuloTop top = new MonticuloTop(claves, 3);
+
+    @Test
+    void mientrasHaySitioEntranTodos() {
+        sumar(4, 1);
+        sumar(2, 3);
+
+        assertEquals(2, top.getTamano());
+        assertArrayEquals(new int[] {2, 4}, ordenados());
+    }
+
+    @Test
+    void conElTopLlenoSoloEntraQuienSuperaAlUltimo() {
+        sumar(0, 5);
+        sumar(1, 3);
+        sumar(2, 4);
+
+        // Empatar con el último no basta
+        assertFalse(sumar(3, 3));
+        assertFalse(top.contiene(3));
+
+        assertTrue(sumar(3, 1));
+        assertTrue(top.contiene(3));
+        assertFalse(top.contiene(1));
+        assertArrayEquals(new int[] {0, 2, 3}, ordenados());
+    }
+
+    @Test
+    void quienYaEstaSeReordenaAlSubir() {
+        sumar(0, 5);
+        sumar(1, 3);
+        sumar(2, 4);
+
+        assertTrue(sumar(1, 3));
+
+        assertArrayEquals(new int[] {1, 0, 2}, ordenados());
+        // El último es ahora el 2: el 5 entra en su lugar
+        sumar(5, 5);
+        assertArrayEquals(new int[] {1, 0, 5}, ordenados());
+    }
+
+    @Test
+    void aIgualdadVaDelanteElHuecoMenor() {
+        sumar(6, 2);
+        sumar(3, 2);
+        sumar(5, 2);
+
+        assertArrayEquals(new int[] {3, 5, 6}, ordenados());
+    }
+
+    /**
+     * Sube la clave de un hueco y avisa al montículo, como hacen las estadísticas.
+     */
+    private boolean sumar(int hueco, int cantidad) {
+        claves[hueco] += cantidad;
+        return top.actualizar(hueco);
+    }
+
+    private int[] ordenados() {
+        int[] destino = new int[3];
+        int n = top.copiarOrdenado(destino);
+        int[] resultado = new int[n];
+        System.arraycopy(destino, 0, resultado, 0, n);
+        return resultado;
+    }
+}
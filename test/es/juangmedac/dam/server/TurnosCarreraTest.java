@@ -0,0 +1,93 @@
+package es.juangmedac.dam.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Plazo de las rondas del servidor clásico: quien no tira no para la ronda de los demás.
+ */
+class TurnosCarreraTest {
+
+    private static final long PLAZO_MS = 50;
+
+    private final Marcapasos marcapasos = new Marcapasos(1);
+
+    @AfterEach
+    void detener() {
+        marcapasos.detener();
+    }
+
+    @Test
+    void alAgotarseElPlazoLaRondaSeCierraSinElQueFalta() throws InterruptedException {
+        Carrera carrera = CarreraTest.carrera(2, true);
+        TurnosCarrera turnos = turnos(carrera, ConfiguracionCarrera.sinEsperas().conRondas(true)
+                .conTiempoMaximoTirada(PLAZO_MS));
+        turnos.empezar();
+
+        turnos.recibirTirada(new AsientoFijo(0), 0, 3);
+        esperarRonda(carrera, 1);
+
+        assertEquals(3, carrera.getAvances()[0]);
+        int dadoAutomatico = carrera.getAvances()[1];
+        assertTrue(dadoAutomatico >= 1 && dadoAutomatico <= 6);
+    }
+
+    @Test
+    void siTiranTodosLaRondaNoEsperaAlPlazo() throws InterruptedException {
+        Carrera carrera = CarreraTest.carrera(2, true);
+        TurnosCarrera turnos = turnos(carrera, ConfiguracionCarrera.sinEsperas().conRondas(true)
+                .conTiempoMaximoTirada(60_000));
+        turnos.empezar();
+
+        turnos.recibirTirada(new AsientoFijo(1), 0, 2);
+        turnos.recibirTirada(new AsientoFijo(0), 0, 5);
+
+        assertEquals(1, carrera.getNumeroTurno());
+        assertEquals(5, carrera.getAvances()[0]);
+        assertEquals(2, carrera.getAvances()[1]);
+    }
+
+    private TurnosCarrera turnos(Carrera carrera, ConfiguracionCarrera config) {
+        return new TurnosCarrera(carrera, new DifusorEstado(carrera.getNumJinetes()), marcapasos, config);
+    }
+
+    private static void esperarRonda(Carrera carrera, int ronda) throws InterruptedException {
+        long limite = System.nanoTime() + 5_000_000_000L;
+        while (carrera.getNumeroTurno() < ronda && System.nanoTime() < limite) {
+            Thread.sleep(5);
+        }
+        assertEquals(ronda, carrera.getNumeroTurno());
+    }
+
+    /**
+     * Asiento que solo da su número: las tiradas se entregan a mano.
+     */
+    private static final class AsientoFijo implements Asiento {
+        private final int idCamello;
+
+        AsientoFijo(int idCamello) {
+            this.idCamello = idCamello;
+        }
+
+        @Override
+        public int getIdCamello() {
+            return idCamello;
+        }
+
+        @Override
+        public String getNombre() {
+            return "Jinete " + idCamello;
+        }
+
+        @Override
+        public void darTurno(int turno) {
+        }
+
+        @Override
+        public void publicarEstado(InstantaneaEstado instantanea) {
+        }
+    }
+}